@@ -94,6 +94,8 @@ CREATE TABLE `products` (
   `name` varchar(100) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '商品名称',
   `description` text COLLATE utf8mb4_unicode_ci COMMENT '商品描述',
   `images` json DEFAULT NULL COMMENT '商品图片JSON数组',
+  `variant_images` json DEFAULT NULL COMMENT '已生成缩略图和压缩图的图片URL数组',
+  `variant_checked_images` json DEFAULT NULL COMMENT '已检查过变体的图片URL数组',
   `daily_price` decimal(10,2) NOT NULL COMMENT '日租金',
   `weekly_price` decimal(10,2) DEFAULT NULL COMMENT '周租金',
   `monthly_price` decimal(10,2) DEFAULT NULL COMMENT '月租金',
@@ -182,11 +184,13 @@ CREATE TABLE `ai_chat` (
   `session_id` varchar(64) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '会话ID',
   `title` varchar(100) COLLATE utf8mb4_unicode_ci DEFAULT 'AI客服对话' COMMENT '会话标题',
   `status` tinyint(4) DEFAULT '0' COMMENT '状态：0-活跃，1-已结束',
+  `summary` text COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '早期对话的滚动摘要',
+  `summary_until_id` bigint(20) DEFAULT NULL COMMENT '摘要已覆盖到的最后一条消息ID',
   `created_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `updated_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`id`),
   UNIQUE KEY `uk_session_id` (`session_id`),
-  KEY `idx_user_id` (`user_id`),
+  KEY `idx_user_updated` (`user_id`, `updated_at`, `id`),
   KEY `idx_created_at` (`created_at`),
   KEY `idx_updated_at` (`updated_at`)
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI聊天会话表';
@@ -199,6 +203,7 @@ CREATE TABLE `ai_message` (
   `content` text COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '消息内容',
   `role` varchar(20) COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '角色：user-用户，assistant-AI助手，system-系统',
   `tokens` int(11) DEFAULT NULL COMMENT 'Token消耗量',
+  `truncated` tinyint(1) NOT NULL DEFAULT '0' COMMENT '是否因客户端断开而未生成完整',
   `created_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   PRIMARY KEY (`id`),
   KEY `idx_chat_id` (`chat_id`),
@@ -207,6 +212,20 @@ CREATE TABLE `ai_message` (
   CONSTRAINT `fk_ai_message_chat` FOREIGN KEY (`chat_id`) REFERENCES `ai_chat` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='AI消息表';
 
+-- 12. 聊天消息归档表（冷数据，压缩存储）
+CREATE TABLE `messages_archive` (
+  `id` bigint(20) NOT NULL COMMENT '消息ID（与messages表一致）',
+  `sender_id` bigint(20) NOT NULL COMMENT '发送者ID',
+  `receiver_id` bigint(20) NOT NULL COMMENT '接收者ID',
+  `content` text COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '消息内容',
+  `created_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `is_read` tinyint(1) DEFAULT '1' COMMENT '是否已读',
+  `archived_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '归档时间',
+  PRIMARY KEY (`id`),
+  KEY `idx_archive_sender_receiver_id` (`sender_id`,`receiver_id`,`id`),
+  KEY `idx_archive_receiver_id` (`receiver_id`,`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8 COMMENT='聊天消息归档表';
+
 -- 插入默认数据
 
 -- 默认管理员
@@ -0,0 +1,162 @@
+package com.casual.rent.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * AI流式回复增量编码器（流式协议 v2）
+ * 只发送新增的文本片段，不再重复发送完整内容。模型输出的token先进入待发送缓冲区，
+ * 缓冲区达到字符上限时立即编码为一帧，否则由调用方在时间窗口结束时调用 {@link #flush()}。
+ * 每隔若干帧生成一个同步帧，携带当前偏移量和已发送内容的CRC32，客户端据此校验并重新同步。
+ * 帧使用Jackson流式写出器编码，不依赖Spring，可单独使用。
+ *
+ * <pre>
+ * ai_delta: {"seq":1,"offset":0,"delta":"你好"}
+ * ai_sync:  {"seq":2,"offset":2,"crc32":1234567890}
+ * </pre>
+ *
+ * 偏移量以UTF-16字符计，与浏览器中字符串的length一致；CRC32按UTF-8字节计算。
+ * 所有方法均为同步方法，可在模型回调线程和定时刷新线程之间共享。
+ */
+public class AiDeltaEncoder {
+
+    public static final String EVENT_DELTA = "ai_delta";
+    public static final String EVENT_SYNC = "ai_sync";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int maxFrameChars;
+    private final int syncEveryFrames;
+
+    private final StringBuilder content = new StringBuilder();
+    private final CRC32 crc32 = new CRC32();
+
+    // 已编码发送的字符数，content中该位置之后的内容尚未发送
+    private int sentOffset = 0;
+    private long seq = 0;
+    private int framesSinceSync = 0;
+
+    /**
+     * @param maxFrameChars 单帧最多合并的字符数，达到后立即出帧
+     * @param syncEveryFrames 每隔多少个增量帧生成一个同步帧，小于等于0表示不生成
+     */
+    public AiDeltaEncoder(int maxFrameChars, int syncEveryFrames) {
+        this.maxFrameChars = Math.max(1, maxFrameChars);
+        this.syncEveryFrames = syncEveryFrames;
+    }
+
+    /**
+     * 追加一个token
+     * @return 待发送内容达到字符上限时返回增量帧，否则返回null
+     */
+    public synchronized String append(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        content.append(token);
+        return content.length() - sentOffset >= maxFrameChars ? flush() : null;
+    }
+
+    /**
+     * 把待发送内容编码为增量帧
+     * @return 增量帧，没有待发送内容时返回null
+     */
+    public synchronized String flush() {
+        if (content.length() == sentOffset) {
+            return null;
+        }
+        String delta = content.substring(sentOffset);
+        int offset = sentOffset;
+        sentOffset = content.length();
+        crc32.update(delta.getBytes(StandardCharsets.UTF_8));
+        framesSinceSync++;
+        return encode("seq", ++seq, "offset", offset, "delta", delta);
+    }
+
+    /**
+     * 是否到了发送同步帧的时候
+     */
+    public synchronized boolean isSyncDue() {
+        return syncEveryFrames > 0 && framesSinceSync >= syncEveryFrames;
+    }
+
+    /**
+     * 生成同步帧，携带已发送内容的偏移量和CRC32
+     */
+    public synchronized String sync() {
+        framesSinceSync = 0;
+        return encode("seq", ++seq, "offset", sentOffset, "crc32", crc32.getValue());
+    }
+
+    /**
+     * 是否有尚未发送的内容
+     */
+    public synchronized boolean hasPending() {
+        return content.length() > sentOffset;
+    }
+
+    /**
+     * 已发送内容的偏移量
+     */
+    public synchronized int getOffset() {
+        return sentOffset;
+    }
+
+    /**
+     * 已发送内容的CRC32
+     */
+    public synchronized long getChecksum() {
+        return crc32.getValue();
+    }
+
+    /**
+     * 到目前为止的完整内容（包括尚未发送的部分）
+     */
+    public synchronized String getContent() {
+        return content.toString();
+    }
+
+    /**
+     * 把若干键值对编码为一个JSON对象
+     * 值支持字符串、数字、布尔和null，其他类型按toString()写为字符串
+     */
+    public static String encode(Object... keyValues) {
+        if (keyValues.length % 2 != 0) {
+            throw new IllegalArgumentException("键值对数量必须为偶数");
+        }
+        StringWriter writer = new StringWriter(64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            for (int i = 0; i < keyValues.length; i += 2) {
+                generator.writeFieldName(String.valueOf(keyValues[i]));
+                writeValue(generator, keyValues[i + 1]);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Number) {
+            generator.writeNumber(value.toString());
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.casual.rent.common;
+
+/**
+ * 聊天实时事件
+ * 指定了目标用户的事件会推送给该用户的连接；目标用户为空的事件为广播事件，由各节点的服务自行处理
+ */
+public class ChatEvent {
+
+    public static final String TYPE_MESSAGE = "message";
+    public static final String TYPE_READ = "read";
+    public static final String TYPE_PRESENCE = "presence";
+    public static final String TYPE_TYPING = "typing";
+
+    private String type;
+
+    private Long userId;
+
+    private Object data;
+
+    private Long timestamp;
+
+    private String origin;
+
+    public ChatEvent() {}
+
+    public ChatEvent(String type, Long userId, Object data) {
+        this.type = type;
+        this.userId = userId;
+        this.data = data;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    public void setData(Object data) {
+        this.data = data;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+}
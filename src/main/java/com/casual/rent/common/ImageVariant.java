@@ -0,0 +1,69 @@
+package com.casual.rent.common;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 商品图片变体
+ * 变体与原图存放在同一目录，key 由原图 key 确定：abc.png 的缩略图为 abc_thumb.jpg，
+ * 因此由原图URL即可得到变体URL。变体在上传后异步生成，生成完成前变体地址不可访问，
+ * 商品只对已记录生成变体的图片返回变体地址，其余图片使用原图。
+ */
+public enum ImageVariant {
+    THUMB("thumb", 240, 240, true),
+    MEDIUM("medium", 1080, 1080, false);
+
+    // 可以生成变体的原图格式
+    private static final List<String> SOURCE_EXTENSIONS = Arrays.asList(".jpg", ".jpeg", ".png", ".bmp", ".gif");
+
+    private final String name;
+    private final int width;
+    private final int height;
+    private final boolean crop;
+
+    ImageVariant(String name, int width, int height, boolean crop) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.crop = crop;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 为 true 时缩放后居中裁剪为固定尺寸，否则等比缩放到不超过该尺寸
+     */
+    public boolean isCrop() {
+        return crop;
+    }
+
+    /**
+     * 原图 key 或 URL 对应的变体 key 或 URL，变体统一为JPEG
+     */
+    public String of(String original) {
+        return original.substring(0, original.lastIndexOf('.')) + "_" + name + ".jpg";
+    }
+
+    /**
+     * 原图是否可以生成变体
+     */
+    public static boolean isSupported(String original) {
+        if (original == null) {
+            return false;
+        }
+        int dot = original.lastIndexOf('.');
+        return dot > original.lastIndexOf('/')
+                && SOURCE_EXTENSIONS.contains(original.substring(dot).toLowerCase(Locale.ROOT));
+    }
+}
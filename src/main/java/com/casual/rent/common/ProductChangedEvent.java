@@ -0,0 +1,18 @@
+package com.casual.rent.common;
+
+/**
+ * 商品变更事件
+ * 商品新增、修改、删除或上下架后发布；商品ID为空表示批量变更，需要按最新数据全量刷新
+ */
+public class ProductChangedEvent {
+
+    private final Long productId;
+
+    public ProductChangedEvent(Long productId) {
+        this.productId = productId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+}
@@ -0,0 +1,37 @@
+package com.casual.rent.common;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM运行时统计工具
+ * 读取当前进程的线程数和堆内存使用，用于压测时观察服务端资源占用
+ */
+public final class RuntimeStats {
+
+    private static final long MB = 1024 * 1024;
+
+    private RuntimeStats() {}
+
+    /**
+     * 当前线程和堆内存统计，内存单位为MB
+     */
+    public static Map<String, Object> snapshot() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("threads", threads.getThreadCount());
+        stats.put("peakThreads", threads.getPeakThreadCount());
+        stats.put("daemonThreads", threads.getDaemonThreadCount());
+        stats.put("heapUsedMb", heap.getUsed() / MB);
+        stats.put("heapCommittedMb", heap.getCommitted() / MB);
+        stats.put("heapMaxMb", heap.getMax() < 0 ? -1 : heap.getMax() / MB);
+        stats.put("nonHeapUsedMb", memory.getNonHeapMemoryUsage().getUsed() / MB);
+        return stats;
+    }
+}
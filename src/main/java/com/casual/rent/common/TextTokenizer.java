@@ -0,0 +1,125 @@
+package com.casual.rent.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 轻量级中英文分词工具
+ * 英文字母和数字按连续片段切分为单词（统一小写），中日韩文字按二元组（bigram）切分，
+ * 单个孤立的中文字符保留为单字。全角字符会先转换为半角。
+ */
+public final class TextTokenizer {
+
+    private TextTokenizer() {}
+
+    /**
+     * 分词，保留顺序和重复项
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        StringBuilder word = new StringBuilder();
+        StringBuilder cjkRun = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (isCjk(c)) {
+                flushWord(word, tokens);
+                cjkRun.append(c);
+            } else if (Character.isLetterOrDigit(c)) {
+                flushCjk(cjkRun, tokens);
+                word.append(Character.toLowerCase(c));
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjkRun, tokens);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjkRun, tokens);
+        return tokens;
+    }
+
+    /**
+     * 分词并去重，保留首次出现的顺序
+     */
+    public static Set<String> uniqueTokens(String text) {
+        return new LinkedHashSet<>(tokenize(text));
+    }
+
+    /**
+     * 分词并去重，另外加入每个中日韩单字，用于需要支持单字查询的索引
+     */
+    public static Set<String> uniqueTokensWithUnigrams(String text) {
+        Set<String> tokens = uniqueTokens(text);
+        if (text == null) {
+            return tokens;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (isCjk(c)) {
+                tokens.add(String.valueOf(c));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 归一化文本：全角转半角、转小写、去除空白和标点
+     */
+    public static String normalizeText(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (isCjk(c) || Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 是否为中日韩文字
+     */
+    public static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static char normalize(char c) {
+        if (c == '\u3000') {
+            return ' ';
+        }
+        if (c >= '\uFF01' && c <= '\uFF5E') {
+            return (char) (c - 0xFEE0);
+        }
+        return c;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjk(StringBuilder run, List<String> tokens) {
+        if (run.length() == 1) {
+            tokens.add(run.toString());
+        } else {
+            for (int i = 0; i + 1 < run.length(); i++) {
+                tokens.add(run.substring(i, i + 2));
+            }
+        }
+        run.setLength(0);
+    }
+}
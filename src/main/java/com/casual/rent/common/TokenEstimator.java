@@ -0,0 +1,46 @@
+package com.casual.rent.common;
+
+/**
+ * 本地token数量估算工具
+ * 不依赖具体模型的分词器，按常见BPE分词器的经验比例估算：
+ * 中日韩文字每字约1个token，连续的英文字母和数字约每4个字符1个token，
+ * 其他标点和符号每个约1个token，空白不计。估算值用于控制提示词长度，不用于计费。
+ */
+public final class TokenEstimator {
+
+    // 每条消息的角色标记等格式开销
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {}
+
+    /**
+     * 估算文本的token数量
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        int asciiRun = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                asciiRun++;
+                continue;
+            }
+            tokens += (asciiRun + 3) / 4;
+            asciiRun = 0;
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        return tokens + (asciiRun + 3) / 4;
+    }
+
+    /**
+     * 估算一条对话消息的token数量（含格式开销）
+     */
+    public static int estimateMessage(String text) {
+        return estimate(text) + MESSAGE_OVERHEAD;
+    }
+}
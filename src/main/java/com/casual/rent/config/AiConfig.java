@@ -3,6 +3,12 @@ package com.casual.rent.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Configuration
 @ConfigurationProperties(prefix = "app.ai")
 public class AiConfig {
@@ -20,6 +26,76 @@ public class AiConfig {
      */
     private DoubaoConfig doubao = new DoubaoConfig();
 
+    /**
+     * 会话上下文窗口缓存配置
+     */
+    private ContextConfig context = new ContextConfig();
+
+    /**
+     * 流式回复协议配置
+     */
+    private StreamConfig stream = new StreamConfig();
+
+    /**
+     * AI请求执行器配置
+     */
+    private ExecutorConfig executor = new ExecutorConfig();
+
+    /**
+     * 常见问题回复缓存配置
+     */
+    private AnswerCacheConfig answerCache = new AnswerCacheConfig();
+
+    /**
+     * 提示词token预算配置
+     */
+    private TokenBudgetConfig tokenBudget = new TokenBudgetConfig();
+
+    /**
+     * 多提供商路由配置
+     */
+    private RoutingConfig routing = new RoutingConfig();
+
+    /**
+     * 模型注册表配置
+     */
+    private RegistryConfig registry = new RegistryConfig();
+
+    /**
+     * AI消息异步写入配置
+     */
+    private PersistenceConfig persistence = new PersistenceConfig();
+
+    /**
+     * 商品检索增强配置
+     */
+    private RetrievalConfig retrieval = new RetrievalConfig();
+
+    /**
+     * AI工具调用配置
+     */
+    private ToolsConfig tools = new ToolsConfig();
+
+    /**
+     * AI接口限流配置（按用户和IP的令牌桶，以及每个用户每天的token配额）
+     */
+    private RateLimitConfig rateLimit = new RateLimitConfig();
+
+    /**
+     * 模拟提供商配置（provider=mock，用于压测，不访问网络）
+     */
+    private MockConfig mock = new MockConfig();
+
+    /**
+     * AI调用遥测配置（延迟、token和错误统计）
+     */
+    private TelemetryConfig telemetry = new TelemetryConfig();
+
+    /**
+     * 会话标题生成配置
+     */
+    private TitleConfig title = new TitleConfig();
+
     public String getProvider() {
         return provider;
     }
@@ -84,6 +160,118 @@ public class AiConfig {
         this.doubao = doubao;
     }
 
+    public ContextConfig getContext() {
+        return context;
+    }
+
+    public void setContext(ContextConfig context) {
+        this.context = context;
+    }
+
+    public StreamConfig getStream() {
+        return stream;
+    }
+
+    public void setStream(StreamConfig stream) {
+        this.stream = stream;
+    }
+
+    public ExecutorConfig getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorConfig executor) {
+        this.executor = executor;
+    }
+
+    public AnswerCacheConfig getAnswerCache() {
+        return answerCache;
+    }
+
+    public void setAnswerCache(AnswerCacheConfig answerCache) {
+        this.answerCache = answerCache;
+    }
+
+    public TokenBudgetConfig getTokenBudget() {
+        return tokenBudget;
+    }
+
+    public void setTokenBudget(TokenBudgetConfig tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    public RoutingConfig getRouting() {
+        return routing;
+    }
+
+    public void setRouting(RoutingConfig routing) {
+        this.routing = routing;
+    }
+
+    public RegistryConfig getRegistry() {
+        return registry;
+    }
+
+    public void setRegistry(RegistryConfig registry) {
+        this.registry = registry;
+    }
+
+    public PersistenceConfig getPersistence() {
+        return persistence;
+    }
+
+    public void setPersistence(PersistenceConfig persistence) {
+        this.persistence = persistence;
+    }
+
+    public RetrievalConfig getRetrieval() {
+        return retrieval;
+    }
+
+    public void setRetrieval(RetrievalConfig retrieval) {
+        this.retrieval = retrieval;
+    }
+
+    public ToolsConfig getTools() {
+        return tools;
+    }
+
+    public void setTools(ToolsConfig tools) {
+        this.tools = tools;
+    }
+
+    public RateLimitConfig getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(RateLimitConfig rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public MockConfig getMock() {
+        return mock;
+    }
+
+    public void setMock(MockConfig mock) {
+        this.mock = mock;
+    }
+
+    public TelemetryConfig getTelemetry() {
+        return telemetry;
+    }
+
+    public void setTelemetry(TelemetryConfig telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public TitleConfig getTitle() {
+        return title;
+    }
+
+    public void setTitle(TitleConfig title) {
+        this.title = title;
+    }
+
     public static class OpenAiConfig {
         private String apiKey;
         private String model = "gpt-3.5-turbo";
@@ -353,4 +541,866 @@ public class AiConfig {
             this.maxTokens = maxTokens;
         }
     }
-}
\ No newline at end of file
+
+    public static class ContextConfig {
+        // 每个会话在内存中保留的最近消息条数（实际发送的条数由token预算决定）
+        private Integer windowSize = 50;
+        // 最多缓存的会话数量，超出后淘汰最久未使用的会话
+        private Integer maxSessions = 10000;
+        // 会话空闲超过该时间后从缓存中移除（分钟）
+        private Integer idleMinutes = 30;
+
+        public Integer getWindowSize() {
+            return windowSize;
+        }
+
+        public void setWindowSize(Integer windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        public Integer getMaxSessions() {
+            return maxSessions;
+        }
+
+        public void setMaxSessions(Integer maxSessions) {
+            this.maxSessions = maxSessions;
+        }
+
+        public Integer getIdleMinutes() {
+            return idleMinutes;
+        }
+
+        public void setIdleMinutes(Integer idleMinutes) {
+            this.idleMinutes = idleMinutes;
+        }
+    }
+
+    public static class StreamConfig {
+        // 客户端未指定时使用的流式协议版本：1 每帧携带完整内容，2 只发送增量
+        private Integer defaultProtocol = 1;
+        // 增量协议下token合并为一帧的时间窗口（毫秒）
+        private Integer frameWindowMs = 40;
+        // 单帧最多合并的字符数，达到后立即发送
+        private Integer frameMaxChars = 64;
+        // 每隔多少个增量帧发送一次偏移量和校验和同步帧
+        private Integer syncEveryFrames = 16;
+        // 流式连接空闲多久后发送心跳（毫秒），用于尽早发现已断开的客户端
+        private Long heartbeatIntervalMs = 15000L;
+        // 同一会话已有回复进行中时新请求的处理方式：queue 排队等待前一个回复结束，reject 直接拒绝
+        private String sessionConcurrency = "queue";
+        // queue 模式下每个会话最多排队的请求数
+        private Integer maxQueuedPerSession = 1;
+        // 携带客户端消息ID的回复在所有连接断开后继续生成的时间（毫秒），期间重试可以接上
+        private Long detachGraceMs = 10000L;
+        // 已完成的回复保留多久（毫秒），期间相同客户端消息ID的重试直接重放结果
+        private Long replayRetentionMs = 60000L;
+        // 单个回复最多保留的重放事件数，超出后不再支持重试接上
+        private Integer maxReplayEvents = 5000;
+
+        public Integer getDefaultProtocol() {
+            return defaultProtocol;
+        }
+
+        public void setDefaultProtocol(Integer defaultProtocol) {
+            this.defaultProtocol = defaultProtocol;
+        }
+
+        public Integer getFrameWindowMs() {
+            return frameWindowMs;
+        }
+
+        public void setFrameWindowMs(Integer frameWindowMs) {
+            this.frameWindowMs = frameWindowMs;
+        }
+
+        public Integer getFrameMaxChars() {
+            return frameMaxChars;
+        }
+
+        public void setFrameMaxChars(Integer frameMaxChars) {
+            this.frameMaxChars = frameMaxChars;
+        }
+
+        public Integer getSyncEveryFrames() {
+            return syncEveryFrames;
+        }
+
+        public void setSyncEveryFrames(Integer syncEveryFrames) {
+            this.syncEveryFrames = syncEveryFrames;
+        }
+
+        public Long getHeartbeatIntervalMs() {
+            return heartbeatIntervalMs;
+        }
+
+        public void setHeartbeatIntervalMs(Long heartbeatIntervalMs) {
+            this.heartbeatIntervalMs = heartbeatIntervalMs;
+        }
+
+        public String getSessionConcurrency() {
+            return sessionConcurrency;
+        }
+
+        public void setSessionConcurrency(String sessionConcurrency) {
+            this.sessionConcurrency = sessionConcurrency;
+        }
+
+        public Integer getMaxQueuedPerSession() {
+            return maxQueuedPerSession;
+        }
+
+        public void setMaxQueuedPerSession(Integer maxQueuedPerSession) {
+            this.maxQueuedPerSession = maxQueuedPerSession;
+        }
+
+        public Long getDetachGraceMs() {
+            return detachGraceMs;
+        }
+
+        public void setDetachGraceMs(Long detachGraceMs) {
+            this.detachGraceMs = detachGraceMs;
+        }
+
+        public Long getReplayRetentionMs() {
+            return replayRetentionMs;
+        }
+
+        public void setReplayRetentionMs(Long replayRetentionMs) {
+            this.replayRetentionMs = replayRetentionMs;
+        }
+
+        public Integer getMaxReplayEvents() {
+            return maxReplayEvents;
+        }
+
+        public void setMaxReplayEvents(Integer maxReplayEvents) {
+            this.maxReplayEvents = maxReplayEvents;
+        }
+    }
+
+    public static class ExecutorConfig {
+        // 每个AI提供商同时处理的最大请求数（流式请求持续占用直到回复结束）
+        private Integer maxConcurrentPerProvider = 8;
+        // 每个AI提供商的等待队列容量，队列满时直接拒绝
+        private Integer queueCapacity = 64;
+        // 单个用户在每个提供商队列中最多等待的请求数
+        private Integer maxQueuedPerUser = 2;
+        // 请求在队列中的最长等待时间（毫秒），超时后拒绝
+        private Long queueTimeoutMs = 15000L;
+        // 执行AI请求的工作线程数，小于所有通道并发上限之和时按该和创建
+        private Integer workerThreads = 16;
+
+        public Integer getMaxConcurrentPerProvider() {
+            return maxConcurrentPerProvider;
+        }
+
+        public void setMaxConcurrentPerProvider(Integer maxConcurrentPerProvider) {
+            this.maxConcurrentPerProvider = maxConcurrentPerProvider;
+        }
+
+        public Integer getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(Integer queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Integer getMaxQueuedPerUser() {
+            return maxQueuedPerUser;
+        }
+
+        public void setMaxQueuedPerUser(Integer maxQueuedPerUser) {
+            this.maxQueuedPerUser = maxQueuedPerUser;
+        }
+
+        public Long getQueueTimeoutMs() {
+            return queueTimeoutMs;
+        }
+
+        public void setQueueTimeoutMs(Long queueTimeoutMs) {
+            this.queueTimeoutMs = queueTimeoutMs;
+        }
+
+        public Integer getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public void setWorkerThreads(Integer workerThreads) {
+            this.workerThreads = workerThreads;
+        }
+    }
+
+    public static class AnswerCacheConfig {
+        // 是否启用回复缓存
+        private Boolean enabled = true;
+        // 最多缓存的问题数量，超出后淘汰最久未使用的问题
+        private Integer maxEntries = 2000;
+        // 缓存有效期（分钟）
+        private Integer ttlMinutes = 60;
+        // 超过该长度（归一化后）的问题不缓存
+        private Integer maxQuestionChars = 200;
+        // 相似问题命中所需的最小估计Jaccard相似度
+        private Double similarityThreshold = 0.75;
+        // 计算相似度时的字符n-gram长度
+        private Integer shingleSize = 2;
+        // LSH分段数，签名长度为 bands * rows
+        private Integer bands = 16;
+        // LSH每段的哈希个数
+        private Integer rows = 4;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(Integer maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Integer getTtlMinutes() {
+            return ttlMinutes;
+        }
+
+        public void setTtlMinutes(Integer ttlMinutes) {
+            this.ttlMinutes = ttlMinutes;
+        }
+
+        public Integer getMaxQuestionChars() {
+            return maxQuestionChars;
+        }
+
+        public void setMaxQuestionChars(Integer maxQuestionChars) {
+            this.maxQuestionChars = maxQuestionChars;
+        }
+
+        public Double getSimilarityThreshold() {
+            return similarityThreshold;
+        }
+
+        public void setSimilarityThreshold(Double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+        }
+
+        public Integer getShingleSize() {
+            return shingleSize;
+        }
+
+        public void setShingleSize(Integer shingleSize) {
+            this.shingleSize = shingleSize;
+        }
+
+        public Integer getBands() {
+            return bands;
+        }
+
+        public void setBands(Integer bands) {
+            this.bands = bands;
+        }
+
+        public Integer getRows() {
+            return rows;
+        }
+
+        public void setRows(Integer rows) {
+            this.rows = rows;
+        }
+    }
+
+    public static class TokenBudgetConfig {
+        // 提示词（系统提示词、摘要和历史消息）的默认token预算
+        private Integer defaultPromptTokens = 3000;
+        // 按AI提供商覆盖的token预算，如 doubao: 2500
+        private Map<String, Integer> promptTokens = new HashMap<>();
+        // 超出预算的早期对话是否折叠为滚动摘要
+        private Boolean summaryEnabled = true;
+        // 摘要的最大字数
+        private Integer summaryMaxChars = 300;
+        // 单次生成摘要最多读取的消息条数
+        private Integer summaryMaxMessages = 100;
+
+        public Integer getDefaultPromptTokens() {
+            return defaultPromptTokens;
+        }
+
+        public void setDefaultPromptTokens(Integer defaultPromptTokens) {
+            this.defaultPromptTokens = defaultPromptTokens;
+        }
+
+        public Map<String, Integer> getPromptTokens() {
+            return promptTokens;
+        }
+
+        public void setPromptTokens(Map<String, Integer> promptTokens) {
+            this.promptTokens = promptTokens;
+        }
+
+        public Boolean getSummaryEnabled() {
+            return summaryEnabled;
+        }
+
+        public void setSummaryEnabled(Boolean summaryEnabled) {
+            this.summaryEnabled = summaryEnabled;
+        }
+
+        public Integer getSummaryMaxChars() {
+            return summaryMaxChars;
+        }
+
+        public void setSummaryMaxChars(Integer summaryMaxChars) {
+            this.summaryMaxChars = summaryMaxChars;
+        }
+
+        public Integer getSummaryMaxMessages() {
+            return summaryMaxMessages;
+        }
+
+        public void setSummaryMaxMessages(Integer summaryMaxMessages) {
+            this.summaryMaxMessages = summaryMaxMessages;
+        }
+
+        /**
+         * 获取指定AI提供商的提示词token预算
+         */
+        public int getBudget(String provider) {
+            Integer budget = provider != null ? promptTokens.get(provider.toLowerCase()) : null;
+            return budget != null ? budget : defaultPromptTokens;
+        }
+    }
+
+    public static class RoutingConfig {
+        // 参与路由的AI提供商，按优先顺序排列；为空时只使用 provider
+        private List<String> providers = new ArrayList<>();
+        // 非流式请求是否在主提供商响应过慢时向第二个提供商发送对冲请求
+        private Boolean hedgeEnabled = true;
+        // 对冲请求的最小等待时间（毫秒），实际等待时间为主提供商的p95延迟
+        private Long hedgeMinDelayMs = 300L;
+        // 对冲请求的最大等待时间（毫秒）
+        private Long hedgeMaxDelayMs = 8000L;
+        // 连续失败多少次后熔断该提供商
+        private Integer failureThreshold = 5;
+        // 熔断持续时间（毫秒），之后放行一个探测请求
+        private Long openDurationMs = 30000L;
+        // 计算p95延迟时保留的最近样本数
+        private Integer latencyWindow = 100;
+        // 单次请求超时时间（毫秒）
+        private Long requestTimeoutMs = 60000L;
+        // OpenAI兼容提供商的单次请求重试次数，其余失败交给路由层切换提供商
+        private Integer maxRetries = 1;
+
+        public List<String> getProviders() {
+            return providers;
+        }
+
+        public void setProviders(List<String> providers) {
+            this.providers = providers;
+        }
+
+        public Boolean getHedgeEnabled() {
+            return hedgeEnabled;
+        }
+
+        public void setHedgeEnabled(Boolean hedgeEnabled) {
+            this.hedgeEnabled = hedgeEnabled;
+        }
+
+        public Long getHedgeMinDelayMs() {
+            return hedgeMinDelayMs;
+        }
+
+        public void setHedgeMinDelayMs(Long hedgeMinDelayMs) {
+            this.hedgeMinDelayMs = hedgeMinDelayMs;
+        }
+
+        public Long getHedgeMaxDelayMs() {
+            return hedgeMaxDelayMs;
+        }
+
+        public void setHedgeMaxDelayMs(Long hedgeMaxDelayMs) {
+            this.hedgeMaxDelayMs = hedgeMaxDelayMs;
+        }
+
+        public Integer getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(Integer failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public Long getOpenDurationMs() {
+            return openDurationMs;
+        }
+
+        public void setOpenDurationMs(Long openDurationMs) {
+            this.openDurationMs = openDurationMs;
+        }
+
+        public Integer getLatencyWindow() {
+            return latencyWindow;
+        }
+
+        public void setLatencyWindow(Integer latencyWindow) {
+            this.latencyWindow = latencyWindow;
+        }
+
+        public Long getRequestTimeoutMs() {
+            return requestTimeoutMs;
+        }
+
+        public void setRequestTimeoutMs(Long requestTimeoutMs) {
+            this.requestTimeoutMs = requestTimeoutMs;
+        }
+
+        public Integer getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(Integer maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+    }
+
+    public static class RegistryConfig {
+        // 重新加载时总会查询各提供商的模型列表来建立连接（不计费）；
+        // 开启后再通过流式模型发送一次生成请求（会消耗少量token）
+        private Boolean prewarmPing = false;
+        // 预热请求的连接和读取超时时间（毫秒）
+        private Long prewarmTimeoutMs = 10000L;
+        // 旧模型等待进行中请求结束的最长时间（毫秒）
+        private Long drainTimeoutMs = 120000L;
+
+        public Boolean getPrewarmPing() {
+            return prewarmPing;
+        }
+
+        public void setPrewarmPing(Boolean prewarmPing) {
+            this.prewarmPing = prewarmPing;
+        }
+
+        public Long getPrewarmTimeoutMs() {
+            return prewarmTimeoutMs;
+        }
+
+        public void setPrewarmTimeoutMs(Long prewarmTimeoutMs) {
+            this.prewarmTimeoutMs = prewarmTimeoutMs;
+        }
+
+        public Long getDrainTimeoutMs() {
+            return drainTimeoutMs;
+        }
+
+        public void setDrainTimeoutMs(Long drainTimeoutMs) {
+            this.drainTimeoutMs = drainTimeoutMs;
+        }
+    }
+
+    public static class PersistenceConfig {
+        // 待写入消息的刷新间隔（毫秒）
+        private Long flushIntervalMs = 50L;
+        // 单次批量插入的最大消息数，待写入消息达到该数量时立即刷新
+        private Integer batchSize = 100;
+        // 写入失败时的最大重试次数，超过后逐条写入，仍然失败的消息追加到死信文件
+        private Integer maxRetries = 3;
+        // 写入失败消息的死信文件，每行一条JSON，可在修复后人工导入
+        private String deadLetterFile = "logs/ai-message-dead-letter.jsonl";
+        // 执行写入完成回调（如发送消息ID）的线程数
+        private Integer callbackThreads = 4;
+
+        public Long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(Long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public Integer getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Integer getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(Integer maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public String getDeadLetterFile() {
+            return deadLetterFile;
+        }
+
+        public void setDeadLetterFile(String deadLetterFile) {
+            this.deadLetterFile = deadLetterFile;
+        }
+
+        public Integer getCallbackThreads() {
+            return callbackThreads;
+        }
+
+        public void setCallbackThreads(Integer callbackThreads) {
+            this.callbackThreads = callbackThreads;
+        }
+    }
+
+    public static class RetrievalConfig {
+        // 是否在回复前检索相关商品并加入提示词
+        private Boolean enabled = true;
+        // 加入提示词的最多商品数
+        private Integer topK = 3;
+        // 最低相似度（余弦），低于该值的商品不加入提示词
+        private Double minScore = 0.5;
+        // 检索的最长耗时（毫秒），超时后不加入商品信息直接回复
+        private Long latencyBudgetMs = 150L;
+        // 索引的最多商品数
+        private Integer maxProducts = 20000;
+        // 每个商品参与向量化和加入提示词的描述字数
+        private Integer descriptionChars = 120;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getTopK() {
+            return topK;
+        }
+
+        public void setTopK(Integer topK) {
+            this.topK = topK;
+        }
+
+        public Double getMinScore() {
+            return minScore;
+        }
+
+        public void setMinScore(Double minScore) {
+            this.minScore = minScore;
+        }
+
+        public Long getLatencyBudgetMs() {
+            return latencyBudgetMs;
+        }
+
+        public void setLatencyBudgetMs(Long latencyBudgetMs) {
+            this.latencyBudgetMs = latencyBudgetMs;
+        }
+
+        public Integer getMaxProducts() {
+            return maxProducts;
+        }
+
+        public void setMaxProducts(Integer maxProducts) {
+            this.maxProducts = maxProducts;
+        }
+
+        public Integer getDescriptionChars() {
+            return descriptionChars;
+        }
+
+        public void setDescriptionChars(Integer descriptionChars) {
+            this.descriptionChars = descriptionChars;
+        }
+    }
+
+    public static class ToolsConfig {
+        // 是否允许AI调用订单和商品查询工具
+        private Boolean enabled = true;
+        // 一次回复中最多的工具调用轮数，达到后不再提供工具，要求模型直接回答
+        private Integer maxRounds = 3;
+        // 同一会话中相同工具调用结果的缓存时间（秒）
+        private Long cacheTtlSeconds = 30L;
+        // 单次工具调用的超时时间（毫秒）
+        private Long timeoutMs = 3000L;
+        // 并行执行工具调用的线程数
+        private Integer threads = 4;
+        // 列表类工具返回的最多条数
+        private Integer maxResults = 5;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getMaxRounds() {
+            return maxRounds;
+        }
+
+        public void setMaxRounds(Integer maxRounds) {
+            this.maxRounds = maxRounds;
+        }
+
+        public Long getCacheTtlSeconds() {
+            return cacheTtlSeconds;
+        }
+
+        public void setCacheTtlSeconds(Long cacheTtlSeconds) {
+            this.cacheTtlSeconds = cacheTtlSeconds;
+        }
+
+        public Long getTimeoutMs() {
+            return timeoutMs;
+        }
+
+        public void setTimeoutMs(Long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+
+        public Integer getThreads() {
+            return threads;
+        }
+
+        public void setThreads(Integer threads) {
+            this.threads = threads;
+        }
+
+        public Integer getMaxResults() {
+            return maxResults;
+        }
+
+        public void setMaxResults(Integer maxResults) {
+            this.maxResults = maxResults;
+        }
+    }
+
+    public static class RateLimitConfig {
+        // 是否启用限流
+        private Boolean enabled = true;
+        // 每个用户的令牌桶容量（允许的突发请求数）
+        private Integer userCapacity = 10;
+        // 每个用户每分钟补充的令牌数
+        private Double userRefillPerMinute = 20.0;
+        // 每个IP的令牌桶容量
+        private Integer ipCapacity = 30;
+        // 每个IP每分钟补充的令牌数
+        private Double ipRefillPerMinute = 60.0;
+        // 每个用户每天可消耗的token数，0表示不限制
+        private Long dailyTokenQuota = 200000L;
+        // 令牌桶空闲多久后回收
+        private Long idleEvictSeconds = 600L;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getUserCapacity() {
+            return userCapacity;
+        }
+
+        public void setUserCapacity(Integer userCapacity) {
+            this.userCapacity = userCapacity;
+        }
+
+        public Double getUserRefillPerMinute() {
+            return userRefillPerMinute;
+        }
+
+        public void setUserRefillPerMinute(Double userRefillPerMinute) {
+            this.userRefillPerMinute = userRefillPerMinute;
+        }
+
+        public Integer getIpCapacity() {
+            return ipCapacity;
+        }
+
+        public void setIpCapacity(Integer ipCapacity) {
+            this.ipCapacity = ipCapacity;
+        }
+
+        public Double getIpRefillPerMinute() {
+            return ipRefillPerMinute;
+        }
+
+        public void setIpRefillPerMinute(Double ipRefillPerMinute) {
+            this.ipRefillPerMinute = ipRefillPerMinute;
+        }
+
+        public Long getDailyTokenQuota() {
+            return dailyTokenQuota;
+        }
+
+        public void setDailyTokenQuota(Long dailyTokenQuota) {
+            this.dailyTokenQuota = dailyTokenQuota;
+        }
+
+        public Long getIdleEvictSeconds() {
+            return idleEvictSeconds;
+        }
+
+        public void setIdleEvictSeconds(Long idleEvictSeconds) {
+            this.idleEvictSeconds = idleEvictSeconds;
+        }
+    }
+
+    public static class MockConfig {
+        // 首个token的延迟（毫秒）
+        private Long ttftMs = 300L;
+        // 每秒输出的token数
+        private Double tokensPerSecond = 50.0;
+        // 每次回复的token数
+        private Integer replyTokens = 200;
+        // 请求失败的概率（0到1），失败发生在首个token之前
+        private Double errorRate = 0.0;
+
+        public Long getTtftMs() {
+            return ttftMs;
+        }
+
+        public void setTtftMs(Long ttftMs) {
+            this.ttftMs = ttftMs;
+        }
+
+        public Double getTokensPerSecond() {
+            return tokensPerSecond;
+        }
+
+        public void setTokensPerSecond(Double tokensPerSecond) {
+            this.tokensPerSecond = tokensPerSecond;
+        }
+
+        public Integer getReplyTokens() {
+            return replyTokens;
+        }
+
+        public void setReplyTokens(Integer replyTokens) {
+            this.replyTokens = replyTokens;
+        }
+
+        public Double getErrorRate() {
+            return errorRate;
+        }
+
+        public void setErrorRate(Double errorRate) {
+            this.errorRate = errorRate;
+        }
+    }
+
+    public static class TelemetryConfig {
+        // 管理接口统计百分位的滑动窗口（分钟）
+        private List<Integer> windowMinutes = new ArrayList<>(Arrays.asList(1, 5, 15));
+        // 每个提供商保留的最大样本数，超出时丢弃最早的样本
+        private Integer maxSamplesPerProvider = 20000;
+
+        public List<Integer> getWindowMinutes() {
+            return windowMinutes;
+        }
+
+        public void setWindowMinutes(List<Integer> windowMinutes) {
+            this.windowMinutes = windowMinutes;
+        }
+
+        public Integer getMaxSamplesPerProvider() {
+            return maxSamplesPerProvider;
+        }
+
+        public void setMaxSamplesPerProvider(Integer maxSamplesPerProvider) {
+            this.maxSamplesPerProvider = maxSamplesPerProvider;
+        }
+    }
+
+    public static class TitleConfig {
+        // 是否在第一轮对话后异步生成会话标题
+        private Boolean enabled = true;
+        // 生成标题使用的提供商，建议配置最便宜的模型；为空时不生成标题，避免后台任务默认占用主提供商
+        private String provider = "";
+        // 每次请求合并生成标题的会话数
+        private Integer batchSize = 10;
+        // 批量生成的间隔（毫秒）
+        private Long intervalMs = 5000L;
+        // 等待生成标题的会话上限，超出时丢弃最早的会话
+        private Integer maxPending = 1000;
+        // 每条消息截取的最大字符数
+        private Integer maxInputChars = 200;
+        // 标题的最大字符数
+        private Integer maxTitleChars = 16;
+        // 主提供商并发占用超过该比例或有请求排队时暂停生成；
+        // 执行器中同时执行的后台任务（标题、摘要）也不超过并发上限的该比例
+        private Double maxUtilization = 0.5;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getProvider() {
+            return provider;
+        }
+
+        public void setProvider(String provider) {
+            this.provider = provider;
+        }
+
+        public Integer getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Long getIntervalMs() {
+            return intervalMs;
+        }
+
+        public void setIntervalMs(Long intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+
+        public Integer getMaxPending() {
+            return maxPending;
+        }
+
+        public void setMaxPending(Integer maxPending) {
+            this.maxPending = maxPending;
+        }
+
+        public Integer getMaxInputChars() {
+            return maxInputChars;
+        }
+
+        public void setMaxInputChars(Integer maxInputChars) {
+            this.maxInputChars = maxInputChars;
+        }
+
+        public Integer getMaxTitleChars() {
+            return maxTitleChars;
+        }
+
+        public void setMaxTitleChars(Integer maxTitleChars) {
+            this.maxTitleChars = maxTitleChars;
+        }
+
+        public Double getMaxUtilization() {
+            return maxUtilization;
+        }
+
+        public void setMaxUtilization(Double maxUtilization) {
+            this.maxUtilization = maxUtilization;
+        }
+    }
+}
@@ -1,24 +1,51 @@
- package com.casual.rent.config;
+package com.casual.rent.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 @Configuration
 @EnableAsync
 public class AsyncConfig {
 
+    /**
+     * AI请求工作线程池
+     * 并发和排队由 AiRequestExecutor 按提供商控制，线程池本身不排队。
+     * 线程数不少于所有通道并发上限之和，通道放行的请求总能拿到线程，通道是唯一的限流点
+     */
     @Bean(name = "aiChatExecutor")
-    public Executor aiChatExecutor() {
+    public Executor aiChatExecutor(AiConfig aiConfig) {
+        int threads = workerThreads(aiConfig);
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
         executor.setThreadNamePrefix("AiChat-");
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * 工作线程数：配置值与所有提供商通道并发上限之和中的较大者
+     */
+    static int workerThreads(AiConfig aiConfig) {
+        Set<String> providers = new LinkedHashSet<>();
+        providers.add(aiConfig.getProvider().toLowerCase());
+        if (aiConfig.getRouting().getProviders() != null) {
+            for (String provider : aiConfig.getRouting().getProviders()) {
+                providers.add(provider.toLowerCase());
+            }
+        }
+        String titleProvider = aiConfig.getTitle().getProvider();
+        if (titleProvider != null && !titleProvider.trim().isEmpty()) {
+            providers.add(titleProvider.trim().toLowerCase());
+        }
+        int laneLimit = aiConfig.getExecutor().getMaxConcurrentPerProvider() * providers.size();
+        return Math.max(aiConfig.getExecutor().getWorkerThreads(), laneLimit);
+    }
+}
@@ -0,0 +1,266 @@
+package com.casual.rent.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 聊天消息相关配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "app.message")
+public class MessageConfig {
+
+    /**
+     * 冷热分层归档配置
+     */
+    private ArchiveConfig archive = new ArchiveConfig();
+
+    /**
+     * 消息全文检索配置
+     */
+    private SearchConfig search = new SearchConfig();
+
+    /**
+     * 在线状态与输入中等瞬时信号配置
+     */
+    private PresenceConfig presence = new PresenceConfig();
+
+    /**
+     * 多节点事件分发配置
+     */
+    private FanoutConfig fanout = new FanoutConfig();
+
+    public ArchiveConfig getArchive() {
+        return archive;
+    }
+
+    public void setArchive(ArchiveConfig archive) {
+        this.archive = archive;
+    }
+
+    public SearchConfig getSearch() {
+        return search;
+    }
+
+    public void setSearch(SearchConfig search) {
+        this.search = search;
+    }
+
+    public PresenceConfig getPresence() {
+        return presence;
+    }
+
+    public void setPresence(PresenceConfig presence) {
+        this.presence = presence;
+    }
+
+    public FanoutConfig getFanout() {
+        return fanout;
+    }
+
+    public void setFanout(FanoutConfig fanout) {
+        this.fanout = fanout;
+    }
+
+    public static class ArchiveConfig {
+        // 是否启用定时归档
+        private Boolean enabled = true;
+        // 已读消息保留在热表中的天数
+        private Integer retentionDays = 90;
+        // 每批归档的消息数量
+        private Integer batchSize = 1000;
+        // 每次任务最多执行的批次数，避免长时间占用数据库
+        private Integer maxBatchesPerRun = 50;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getRetentionDays() {
+            return retentionDays;
+        }
+
+        public void setRetentionDays(Integer retentionDays) {
+            this.retentionDays = retentionDays;
+        }
+
+        public Integer getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Integer getMaxBatchesPerRun() {
+            return maxBatchesPerRun;
+        }
+
+        public void setMaxBatchesPerRun(Integer maxBatchesPerRun) {
+            this.maxBatchesPerRun = maxBatchesPerRun;
+        }
+    }
+
+    public static class SearchConfig {
+        // 是否启用内存倒排索引，关闭时退化为数据库模糊查询
+        private Boolean enabled = true;
+        // 索引的最大消息数量（从最新消息开始预热），用于限制内存占用
+        private Integer maxDocuments = 1000000;
+        // 预热时每批读取的消息数量
+        private Integer warmupBatchSize = 2000;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Integer getMaxDocuments() {
+            return maxDocuments;
+        }
+
+        public void setMaxDocuments(Integer maxDocuments) {
+            this.maxDocuments = maxDocuments;
+        }
+
+        public Integer getWarmupBatchSize() {
+            return warmupBatchSize;
+        }
+
+        public void setWarmupBatchSize(Integer warmupBatchSize) {
+            this.warmupBatchSize = warmupBatchSize;
+        }
+    }
+
+    public static class PresenceConfig {
+        // 心跳超时时间（秒），超过该时间未收到心跳视为离线
+        private Integer ttlSeconds = 30;
+        // “正在输入”信号的有效期（秒）
+        private Integer typingTtlSeconds = 5;
+        // 单个用户最多关注的对话者数量
+        private Integer maxWatchPeers = 200;
+        // 事件推送连接（SSE）的超时时间（分钟）
+        private Integer streamTimeoutMinutes = 30;
+
+        public Integer getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(Integer ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public Integer getTypingTtlSeconds() {
+            return typingTtlSeconds;
+        }
+
+        public void setTypingTtlSeconds(Integer typingTtlSeconds) {
+            this.typingTtlSeconds = typingTtlSeconds;
+        }
+
+        public Integer getMaxWatchPeers() {
+            return maxWatchPeers;
+        }
+
+        public void setMaxWatchPeers(Integer maxWatchPeers) {
+            this.maxWatchPeers = maxWatchPeers;
+        }
+
+        public Integer getStreamTimeoutMinutes() {
+            return streamTimeoutMinutes;
+        }
+
+        public void setStreamTimeoutMinutes(Integer streamTimeoutMinutes) {
+            this.streamTimeoutMinutes = streamTimeoutMinutes;
+        }
+    }
+
+    public static class FanoutConfig {
+        // 分发模式：local-单节点进程内分发，relay-通过HTTP在节点间中继
+        private String mode = "local";
+        // relay模式下其他节点的地址，如 http://10.0.0.2:8080/api
+        private List<String> peers = new ArrayList<>();
+        // 节点间中继请求的共享密钥，relay模式下必须配置
+        private String secret;
+        // 同一用户的事件在该时间窗口内合并为一帧推送（毫秒）
+        private Integer batchWindowMs = 50;
+        // 执行SSE推送的线程数和排队上限，推送会阻塞在慢连接上，不能放在合并窗口的定时线程里
+        private Integer pushThreads = 4;
+        private Integer pushQueueCapacity = 1000;
+        private Integer connectTimeoutMs = 500;
+        private Integer readTimeoutMs = 2000;
+
+        public String getMode() {
+            return mode;
+        }
+
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(String secret) {
+            this.secret = secret;
+        }
+
+        public Integer getBatchWindowMs() {
+            return batchWindowMs;
+        }
+
+        public void setBatchWindowMs(Integer batchWindowMs) {
+            this.batchWindowMs = batchWindowMs;
+        }
+
+        public Integer getPushThreads() {
+            return pushThreads;
+        }
+
+        public void setPushThreads(Integer pushThreads) {
+            this.pushThreads = pushThreads;
+        }
+
+        public Integer getPushQueueCapacity() {
+            return pushQueueCapacity;
+        }
+
+        public void setPushQueueCapacity(Integer pushQueueCapacity) {
+            this.pushQueueCapacity = pushQueueCapacity;
+        }
+
+        public Integer getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(Integer connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public Integer getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(Integer readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+    }
+}
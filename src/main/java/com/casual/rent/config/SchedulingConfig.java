@@ -0,0 +1,32 @@
+package com.casual.rent.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * 定时任务配置
+ * 默认调度器只有一个线程，在线状态清理、AI排队超时等高频任务会被对象清理、消息归档等
+ * 耗时任务阻塞，这里提供多线程的调度器
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(SchedulingConfig.class);
+
+    @Bean(name = "taskScheduler", destroyMethod = "shutdown")
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${app.scheduling.pool-size:4}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("Scheduled-");
+        scheduler.setErrorHandler(e -> log.error("定时任务执行失败", e));
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        scheduler.initialize();
+        return scheduler;
+    }
+}
@@ -18,6 +18,8 @@ public class TencentCosConfig {
     private String region;
     private String bucketName;
     private String domain;
+    private UploadConfig upload = new UploadConfig();
+    private DerivativeConfig derivatives = new DerivativeConfig();
     
     @Bean
     public COSClient cosClient() {
@@ -72,4 +74,212 @@ public class TencentCosConfig {
     public void setDomain(String domain) {
         this.domain = domain;
     }
-} 
\ No newline at end of file
+    
+    public UploadConfig getUpload() {
+        return upload;
+    }
+    
+    public void setUpload(UploadConfig upload) {
+        this.upload = upload;
+    }
+    
+    public DerivativeConfig getDerivatives() {
+        return derivatives;
+    }
+    
+    public void setDerivatives(DerivativeConfig derivatives) {
+        this.derivatives = derivatives;
+    }
+    
+    /**
+     * 上传配置
+     */
+    public static class UploadConfig {
+        // 同时上传的文件数（所有请求共享）
+        private Integer concurrency = 8;
+        // 等待上传的文件数上限，超出时由请求线程自己上传
+        private Integer queueCapacity = 64;
+        // 批量上传的最长等待时间（秒）
+        private Long batchTimeoutSeconds = 60L;
+        // 超过该大小的文件使用分块上传（字节）
+        private Long multipartThresholdBytes = 5L * 1024 * 1024;
+        // 分块大小（字节）
+        private Long partSizeBytes = 1024L * 1024;
+        // 分块上传的线程数
+        private Integer multipartThreads = 8;
+        // 预签名上传地址的有效期（秒）
+        private Long presignExpireSeconds = 300L;
+        // 预签名地址过期后等待客户端确认上传完成的时间（秒），超时未确认的对象会被删除
+        private Long presignCompleteGraceSeconds = 300L;
+        // 是否按内容SHA-256生成对象key，相同内容只上传一次（只对商品图片、头像和资质文件生效）
+        private Boolean dedupEnabled = false;
+        // 本地去重索引记录的对象数上限，超出时淘汰最久未用的记录
+        private Integer dedupIndexSize = 100000;
+        // 按内容生成的对象在最近修改或去重命中后的该时间内不清理（小时），等待业务数据保存引用
+        private Long sweepGraceHours = 24L;
+        
+        public Integer getConcurrency() {
+            return concurrency;
+        }
+        
+        public void setConcurrency(Integer concurrency) {
+            this.concurrency = concurrency;
+        }
+        
+        public Integer getQueueCapacity() {
+            return queueCapacity;
+        }
+        
+        public void setQueueCapacity(Integer queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+        
+        public Long getBatchTimeoutSeconds() {
+            return batchTimeoutSeconds;
+        }
+        
+        public void setBatchTimeoutSeconds(Long batchTimeoutSeconds) {
+            this.batchTimeoutSeconds = batchTimeoutSeconds;
+        }
+        
+        public Long getMultipartThresholdBytes() {
+            return multipartThresholdBytes;
+        }
+        
+        public void setMultipartThresholdBytes(Long multipartThresholdBytes) {
+            this.multipartThresholdBytes = multipartThresholdBytes;
+        }
+        
+        public Long getPartSizeBytes() {
+            return partSizeBytes;
+        }
+        
+        public void setPartSizeBytes(Long partSizeBytes) {
+            this.partSizeBytes = partSizeBytes;
+        }
+        
+        public Integer getMultipartThreads() {
+            return multipartThreads;
+        }
+        
+        public void setMultipartThreads(Integer multipartThreads) {
+            this.multipartThreads = multipartThreads;
+        }
+        
+        public Long getPresignExpireSeconds() {
+            return presignExpireSeconds;
+        }
+        
+        public void setPresignExpireSeconds(Long presignExpireSeconds) {
+            this.presignExpireSeconds = presignExpireSeconds;
+        }
+        
+        public Long getPresignCompleteGraceSeconds() {
+            return presignCompleteGraceSeconds;
+        }
+        
+        public void setPresignCompleteGraceSeconds(Long presignCompleteGraceSeconds) {
+            this.presignCompleteGraceSeconds = presignCompleteGraceSeconds;
+        }
+        
+        public Boolean getDedupEnabled() {
+            return dedupEnabled;
+        }
+        
+        public void setDedupEnabled(Boolean dedupEnabled) {
+            this.dedupEnabled = dedupEnabled;
+        }
+        
+        public Integer getDedupIndexSize() {
+            return dedupIndexSize;
+        }
+        
+        public void setDedupIndexSize(Integer dedupIndexSize) {
+            this.dedupIndexSize = dedupIndexSize;
+        }
+        
+        public Long getSweepGraceHours() {
+            return sweepGraceHours;
+        }
+        
+        public void setSweepGraceHours(Long sweepGraceHours) {
+            this.sweepGraceHours = sweepGraceHours;
+        }
+    }
+    
+    /**
+     * 商品图片变体（缩略图、压缩图）生成配置
+     */
+    public static class DerivativeConfig {
+        // 是否在商品图片上传后生成变体
+        private Boolean enabled = true;
+        // 生成变体的线程数
+        private Integer workers = 2;
+        // 等待生成的图片数上限，超出时跳过
+        private Integer queueCapacity = 200;
+        // JPEG压缩质量（0-1）
+        private Float jpegQuality = 0.8f;
+        // 原图最大像素数，超出时不解码，防止超大图片耗尽内存
+        private Long maxPixels = 40_000_000L;
+        // 补生成变体时每轮检查的商品数
+        private Integer backfillBatchSize = 100;
+        // 同一图片最多生成几次，仍失败时放弃，商品继续使用原图
+        private Integer maxAttempts = 3;
+        
+        public Boolean getEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public Integer getWorkers() {
+            return workers;
+        }
+        
+        public void setWorkers(Integer workers) {
+            this.workers = workers;
+        }
+        
+        public Integer getQueueCapacity() {
+            return queueCapacity;
+        }
+        
+        public void setQueueCapacity(Integer queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+        
+        public Float getJpegQuality() {
+            return jpegQuality;
+        }
+        
+        public void setJpegQuality(Float jpegQuality) {
+            this.jpegQuality = jpegQuality;
+        }
+        
+        public Long getMaxPixels() {
+            return maxPixels;
+        }
+        
+        public void setMaxPixels(Long maxPixels) {
+            this.maxPixels = maxPixels;
+        }
+        
+        public Integer getBackfillBatchSize() {
+            return backfillBatchSize;
+        }
+        
+        public void setBackfillBatchSize(Integer backfillBatchSize) {
+            this.backfillBatchSize = backfillBatchSize;
+        }
+        
+        public Integer getMaxAttempts() {
+            return maxAttempts;
+        }
+        
+        public void setMaxAttempts(Integer maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+    }
+}
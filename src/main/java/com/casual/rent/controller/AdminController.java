@@ -5,6 +5,7 @@ import com.casual.rent.common.OrderStatus;
 import com.casual.rent.common.VerificationStatus;
 import com.casual.rent.common.AuditStatus;
 import com.casual.rent.common.Result;
+import com.casual.rent.common.RuntimeStats;
 import com.casual.rent.entity.Admin;
 import com.casual.rent.entity.Category;
 import com.casual.rent.entity.Merchant;
@@ -12,10 +13,24 @@ import com.casual.rent.entity.Product;
 import com.casual.rent.entity.Order;
 import com.casual.rent.entity.User;
 import com.casual.rent.service.AdminService;
+import com.casual.rent.service.AiAnswerCache;
+import com.casual.rent.service.AiChatTools;
+import com.casual.rent.service.AiMessageWriter;
+import com.casual.rent.service.AiModelRegistry;
+import com.casual.rent.service.AiProviderRouter;
+import com.casual.rent.service.AiRateLimiter;
+import com.casual.rent.service.AiRequestExecutor;
+import com.casual.rent.service.AiStreamRegistry;
+import com.casual.rent.service.AiTelemetry;
+import com.casual.rent.service.AiTitleGenerator;
 import com.casual.rent.service.CategoryService;
+import com.casual.rent.service.FileUploadService;
+import com.casual.rent.service.ImageDerivativeService;
 import com.casual.rent.service.MerchantService;
+import com.casual.rent.service.MessageArchiveService;
 import com.casual.rent.service.ProductService;
 import com.casual.rent.service.OrderService;
+import com.casual.rent.service.ProductVectorIndex;
 import com.casual.rent.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
@@ -51,6 +66,48 @@ public class AdminController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+    
+    @Autowired
+    private AiAnswerCache aiAnswerCache;
+    
+    @Autowired
+    private AiTelemetry aiTelemetry;
+    
+    @Autowired
+    private AiRequestExecutor aiRequestExecutor;
+    
+    @Autowired
+    private AiProviderRouter aiProviderRouter;
+    
+    @Autowired
+    private AiModelRegistry aiModelRegistry;
+    
+    @Autowired
+    private AiStreamRegistry aiStreamRegistry;
+    
+    @Autowired
+    private AiMessageWriter aiMessageWriter;
+    
+    @Autowired
+    private ProductVectorIndex productVectorIndex;
+    
+    @Autowired
+    private AiRateLimiter aiRateLimiter;
+    
+    @Autowired
+    private AiTitleGenerator aiTitleGenerator;
+    
+    @Autowired
+    private AiChatTools aiChatTools;
+    
+    @Autowired
+    private FileUploadService fileUploadService;
+    
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+    
     /**
      * 管理员登录
      */
@@ -492,4 +549,110 @@ public class AdminController {
             return Result.error("更新分类排序失败：" + e.getMessage());
         }
     }
-} 
\ No newline at end of file
+    
+    // =================== 消息管理 ===================
+    
+    /**
+     * 手动触发聊天消息归档
+     */
+    @Operation(summary = "手动触发聊天消息归档")
+    @PostMapping("/messages/archive")
+    public Result<Map<String, Object>> archiveMessages() {
+        try {
+            int archived = messageArchiveService.archiveReadMessages();
+            Map<String, Object> result = new HashMap<>();
+            result.put("archived", archived);
+            return Result.success(result);
+        } catch (Exception e) {
+            return Result.error("消息归档失败：" + e.getMessage());
+        }
+    }
+    
+    // =================== AI客服管理 ===================
+    
+    /**
+     * 获取AI回复缓存统计
+     */
+    @Operation(summary = "获取AI回复缓存统计")
+    @GetMapping("/ai/answer-cache")
+    public Result<Map<String, Object>> getAnswerCacheStats() {
+        return Result.success(aiAnswerCache.getStats());
+    }
+    
+    /**
+     * 获取各AI提供商在最近几个时间窗口内的耗时百分位、token用量和错误分类
+     */
+    @Operation(summary = "获取AI调用延迟和成本统计")
+    @GetMapping("/ai/telemetry")
+    public Result<Map<String, Object>> getAiTelemetry() {
+        return Result.success(aiTelemetry.getReport());
+    }
+    
+    /**
+     * 获取AI客服各组件的运行统计
+     * executor-执行器并发和排队，providers-提供商延迟和熔断，models-模型注册表，streams-流式连接，
+     * persistence-消息写入队列，retrieval-商品向量检索，rate-limit-限流和配额，titles-标题生成，
+     * tools-工具调用，runtime-线程数和堆内存
+     */
+    @Operation(summary = "获取AI客服组件的运行统计")
+    @GetMapping("/ai/stats/{component}")
+    public Result<Map<String, Object>> getAiStats(@PathVariable String component) {
+        switch (component) {
+            case "executor":
+                return Result.success(aiRequestExecutor.getStats());
+            case "providers":
+                return Result.success(aiProviderRouter.getStats());
+            case "models":
+                return Result.success(aiModelRegistry.getStats());
+            case "streams":
+                return Result.success(aiStreamRegistry.getStats());
+            case "persistence":
+                return Result.success(aiMessageWriter.getStats());
+            case "retrieval":
+                return Result.success(productVectorIndex.getStats());
+            case "rate-limit":
+                return Result.success(aiRateLimiter.getStats());
+            case "titles":
+                return Result.success(aiTitleGenerator.getStats());
+            case "tools":
+                return Result.success(aiChatTools.getStats());
+            case "runtime":
+                return Result.success(RuntimeStats.snapshot());
+            default:
+                return Result.fail("不支持的统计项：" + component);
+        }
+    }
+    
+    /**
+     * 清空AI回复缓存（修改系统提示词或业务规则后调用）
+     */
+    @Operation(summary = "清空AI回复缓存")
+    @PostMapping("/ai/answer-cache/invalidate")
+    public Result<String> invalidateAnswerCache() {
+        try {
+            aiAnswerCache.invalidate();
+            return Result.success("AI回复缓存已清空");
+        } catch (Exception e) {
+            return Result.error("清空AI回复缓存失败：" + e.getMessage());
+        }
+    }
+    
+    // =================== 文件管理 ===================
+    
+    /**
+     * 获取文件上传的运行统计
+     * uploads-上传并发和吞吐，derivatives-商品图片变体生成的排队和耗时
+     */
+    @Operation(summary = "获取文件上传的运行统计")
+    @GetMapping("/files/stats/{component}")
+    public Result<Map<String, Object>> getFileStats(@PathVariable String component) {
+        switch (component) {
+            case "uploads":
+                return Result.success(fileUploadService.getStats());
+            case "derivatives":
+                return Result.success(imageDerivativeService.getStats());
+            default:
+                return Result.fail("不支持的统计项：" + component);
+        }
+    }
+}
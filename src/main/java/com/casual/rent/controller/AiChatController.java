@@ -1,19 +1,29 @@
 package com.casual.rent.controller;
 
+import com.casual.rent.common.AiDeltaEncoder;
 import com.casual.rent.common.Result;
 import com.casual.rent.entity.AiChat;
 import com.casual.rent.entity.AiMessage;
 import com.casual.rent.service.AiChatService;
+import com.casual.rent.service.AiRateLimiter;
+import com.casual.rent.service.AiRequestExecutor;
+import com.casual.rent.service.AiStreamRegistry;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/ai-chat")
@@ -23,6 +33,9 @@ public class AiChatController {
     @Autowired
     private AiChatService aiChatService;
 
+    @Autowired
+    private AiRateLimiter aiRateLimiter;
+
     @PostMapping("/create")
     @Operation(summary = "创建新的AI对话会话")
     public Result<AiChat> createChat(
@@ -36,11 +49,17 @@ public class AiChatController {
     }
 
     @GetMapping("/history/{userId}")
-    @Operation(summary = "获取用户的对话历史")
+    @Operation(summary = "获取用户的对话历史",
+            description = "按最近更新时间倒序分页返回，翻页时传入上一页最后一个会话的 updatedAt 和 id")
     public Result<List<AiChat>> getChatHistory(
-            @Parameter(description = "用户ID") @PathVariable Long userId) {
+            @Parameter(description = "用户ID") @PathVariable Long userId,
+            @Parameter(description = "只返回更新时间早于该值的会话，不传表示从最近的会话开始")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime beforeUpdatedAt,
+            @Parameter(description = "上一页最后一个会话的ID，更新时间相同时按ID区分")
+            @RequestParam(required = false) Long beforeId,
+            @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") Integer size) {
         try {
-            List<AiChat> chats = aiChatService.getUserChats(userId);
+            List<AiChat> chats = aiChatService.getUserChats(userId, beforeUpdatedAt, beforeId, size);
             return Result.success(chats);
         } catch (Exception e) {
             return Result.error("获取对话历史失败: " + e.getMessage());
@@ -61,32 +80,53 @@ public class AiChatController {
 
     @PostMapping("/send")
     @Operation(summary = "发送消息并获取AI回复")
-    public Result<AiMessage> sendMessage(@RequestBody Map<String, Object> request) {
+    public CompletableFuture<Result<AiMessage>> sendMessage(@RequestBody Map<String, Object> request,
+                                                            HttpServletRequest httpRequest) {
         try {
             String sessionId = (String) request.get("sessionId");
             String message = (String) request.get("message");
             Long userId = Long.valueOf(request.get("userId").toString());
 
             if (message == null || message.trim().isEmpty()) {
-                return Result.error("消息内容不能为空");
+                return CompletableFuture.completedFuture(Result.error("消息内容不能为空"));
             }
 
-            AiMessage response = aiChatService.sendMessage(sessionId, message.trim(), userId);
-            return Result.success(response);
+            try {
+                aiRateLimiter.acquire(userId, clientIp(httpRequest));
+            } catch (AiRateLimiter.RateLimitedException e) {
+                return CompletableFuture.completedFuture(Result.error(429, e.getMessage()));
+            }
+
+            // 在AI工作线程上执行，不占用请求线程等待模型回复
+            return aiChatService.sendMessageAsync(sessionId, message.trim(), userId)
+                    .handle((response, ex) -> {
+                        if (ex == null) {
+                            return Result.success(response);
+                        }
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        if (cause instanceof AiRequestExecutor.RejectedException) {
+                            return Result.<AiMessage>error(429, cause.getMessage());
+                        }
+                        return Result.<AiMessage>error("发送消息失败: " + cause.getMessage());
+                    });
         } catch (Exception e) {
-            return Result.error("发送消息失败: " + e.getMessage());
+            return CompletableFuture.completedFuture(Result.error("发送消息失败: " + e.getMessage()));
         }
     }
 
     @PostMapping(value = "/send/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     @Operation(summary = "发送消息并获取AI流式回复")
-    public SseEmitter sendMessageStream(@RequestBody Map<String, Object> request) {
+    public SseEmitter sendMessageStream(@RequestBody Map<String, Object> request, HttpServletRequest httpRequest) {
         SseEmitter emitter = new SseEmitter(60000L); // 60秒超时
         
         try {
             String sessionId = (String) request.get("sessionId");
             String message = (String) request.get("message");
             Long userId = request.get("userId") != null ? Long.valueOf(request.get("userId").toString()) : null;
+            // 流式协议版本：1 每帧携带完整内容（默认），2 只发送增量
+            Integer protocol = request.get("protocol") != null ? Integer.valueOf(request.get("protocol").toString()) : null;
+            // 客户端生成的消息ID，重试时保持不变，用于接到进行中的回复
+            String clientMessageId = request.get("clientMessageId") != null ? request.get("clientMessageId").toString() : null;
 
             if (message == null || message.trim().isEmpty()) {
                 emitter.send(SseEmitter.event()
@@ -96,8 +136,26 @@ public class AiChatController {
                 return emitter;
             }
 
+            try {
+                aiRateLimiter.acquire(userId, clientIp(httpRequest));
+            } catch (AiRateLimiter.RateLimitedException e) {
+                emitter.send(SseEmitter.event()
+                    .name("ai_error")
+                    .data(AiDeltaEncoder.encode("error", e.getMessage(), "code", 429,
+                            "retry_after", e.getRetryAfterSeconds())));
+                emitter.complete();
+                return emitter;
+            }
+
             // 异步处理流式响应
-            aiChatService.sendMessageStream(sessionId, message.trim(), userId, emitter);
+            try {
+                aiChatService.sendMessageStream(sessionId, message.trim(), userId, protocol, clientMessageId, emitter);
+            } catch (AiStreamRegistry.SessionBusyException e) {
+                emitter.send(SseEmitter.event()
+                    .name("ai_error")
+                    .data(AiDeltaEncoder.encode("error", e.getMessage(), "code", 409)));
+                emitter.complete();
+            }
             
         } catch (Exception e) {
             try {
@@ -123,4 +181,14 @@ public class AiChatController {
             return Result.error("重新加载AI模型失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 客户端IP
+     * X-Forwarded-For 由客户端控制，不能直接读取；经过反向代理时由容器按
+     * server.forward-headers-strategy 和可信代理列表（server.tomcat.remoteip.internal-proxies）
+     * 还原真实地址，这里只取 getRemoteAddr()
+     */
+    private static String clientIp(HttpServletRequest request) {
+        return request.getRemoteAddr();
+    }
+}
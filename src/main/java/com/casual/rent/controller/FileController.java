@@ -8,7 +8,10 @@ import org.springframework.web.multipart.MultipartFile;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Tag(name = "文件接口")
@@ -30,6 +33,9 @@ public class FileController {
     // 文档最大大小 10MB
     private static final long DOCUMENT_MAX_SIZE = 10 * 1024 * 1024;
     
+    // 允许直传的文件夹，与表单上传使用的文件夹一致
+    private static final List<String> PRESIGN_FOLDERS = Arrays.asList("products", "avatars", "certificates", "general");
+    
     /**
      * 测试OSS连接
      */
@@ -160,12 +166,29 @@ public class FileController {
                 }
             }
             
-            // 批量上传
-            String[] urls = fileUploadService.uploadFiles(files, "products");
+            // 并行批量上传，单个文件失败时返回其余成功的文件
+            List<FileUploadService.UploadResult> results = fileUploadService.uploadFilesPartially(files, "products");
+            List<String> urls = new ArrayList<>();
+            List<Map<String, Object>> failures = new ArrayList<>();
+            for (FileUploadService.UploadResult upload : results) {
+                if (upload.isSuccess()) {
+                    urls.add(upload.getUrl());
+                } else {
+                    Map<String, Object> failure = new HashMap<>();
+                    failure.put("index", upload.getIndex());
+                    failure.put("filename", upload.getFilename());
+                    failure.put("error", upload.getError());
+                    failures.add(failure);
+                }
+            }
+            if (urls.isEmpty()) {
+                return Result.error("批量上传失败：" + failures.get(0).get("error"));
+            }
             
             Map<String, Object> result = new HashMap<>();
             result.put("urls", urls);
-            result.put("count", urls.length);
+            result.put("count", urls.size());
+            result.put("failures", failures);
             
             return Result.success(result);
             
@@ -242,6 +265,54 @@ public class FileController {
         }
     }
     
+    /**
+     * 申请客户端直传地址
+     * 客户端用返回的预签名地址直接PUT到对象存储（需携带返回的请求头，文件大小必须与声明一致），
+     * 上传后携带返回的 ticket 调用 /files/presign/complete 确认
+     */
+    @Operation(summary = "申请客户端直传地址")
+    @PostMapping("/presign")
+    public Result<?> createPresignedUpload(@RequestBody Map<String, Object> request) {
+        try {
+            String folder = request.get("folder") != null ? request.get("folder").toString() : "general";
+            String filename = request.get("filename") != null ? request.get("filename").toString() : null;
+            String contentType = request.get("contentType") != null ? request.get("contentType").toString() : null;
+            if (request.get("size") == null) {
+                return Result.error("文件大小不能为空");
+            }
+            long size = Long.parseLong(request.get("size").toString());
+            if (!PRESIGN_FOLDERS.contains(folder)) {
+                return Result.error("不支持的文件夹：" + folder);
+            }
+            
+            // 与表单上传相同的文件夹规则
+            boolean document = "certificates".equals(folder);
+            Map<String, Object> result = fileUploadService.createPresignedUpload(folder, filename, contentType, size,
+                    document ? DOCUMENT_TYPES : IMAGE_TYPES, document ? DOCUMENT_MAX_SIZE : IMAGE_MAX_SIZE);
+            return Result.success(result);
+        } catch (Exception e) {
+            return Result.error("申请上传地址失败：" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 确认客户端直传完成
+     */
+    @Operation(summary = "确认客户端直传完成")
+    @PostMapping("/presign/complete")
+    public Result<?> completePresignedUpload(@RequestBody Map<String, Object> request) {
+        try {
+            String ticket = request.get("ticket") != null ? request.get("ticket").toString() : null;
+            String url = fileUploadService.completePresignedUpload(ticket);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("url", url);
+            return Result.success(result);
+        } catch (Exception e) {
+            return Result.error("确认上传失败：" + e.getMessage());
+        }
+    }
+    
     /**
      * 删除文件
      */
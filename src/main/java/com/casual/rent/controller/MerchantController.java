@@ -21,6 +21,9 @@ import org.springframework.web.multipart.MultipartFile;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -433,36 +436,53 @@ public class MerchantController {
             String idCardBackUrl = merchant.getIdCardBack();
             String businessLicenseUrl = merchant.getBusinessLicense();
             
-            // 更新身份证正面
-            if (idCardFront != null && !idCardFront.isEmpty()) {
-                if (!fileUploadService.isValidFileType(idCardFront, allowedTypes) ||
-                    !fileUploadService.isValidFileSize(idCardFront, maxSize)) {
-                    return Result.fail("身份证正面文件格式或大小不符合要求");
+            // 先验证所有文件，再并行上传
+            Map<String, MultipartFile> files = new LinkedHashMap<>();
+            files.put("身份证正面", idCardFront);
+            files.put("身份证背面", idCardBack);
+            files.put("营业执照", businessLicense);
+            List<String> labels = new ArrayList<>();
+            List<MultipartFile> uploads = new ArrayList<>();
+            for (Map.Entry<String, MultipartFile> entry : files.entrySet()) {
+                MultipartFile file = entry.getValue();
+                if (file == null || file.isEmpty()) {
+                    continue;
                 }
-                idCardFrontUrl = fileUploadService.uploadFile(idCardFront, "certificates");
-            }
-            
-            // 更新身份证背面
-            if (idCardBack != null && !idCardBack.isEmpty()) {
-                if (!fileUploadService.isValidFileType(idCardBack, allowedTypes) ||
-                    !fileUploadService.isValidFileSize(idCardBack, maxSize)) {
-                    return Result.fail("身份证背面文件格式或大小不符合要求");
+                if (!fileUploadService.isValidFileType(file, allowedTypes) ||
+                    !fileUploadService.isValidFileSize(file, maxSize)) {
+                    return Result.fail(entry.getKey() + "文件格式或大小不符合要求");
                 }
-                idCardBackUrl = fileUploadService.uploadFile(idCardBack, "certificates");
+                labels.add(entry.getKey());
+                uploads.add(file);
             }
             
-            // 更新营业执照
-            if (businessLicense != null && !businessLicense.isEmpty()) {
-                if (!fileUploadService.isValidFileType(businessLicense, allowedTypes) ||
-                    !fileUploadService.isValidFileSize(businessLicense, maxSize)) {
-                    return Result.fail("营业执照文件格式或大小不符合要求");
+            List<FileUploadService.UploadResult> results = uploads.isEmpty()
+                    ? Collections.<FileUploadService.UploadResult>emptyList()
+                    : fileUploadService.uploadFilesPartially(uploads.toArray(new MultipartFile[0]), "certificates");
+            List<String> failed = new ArrayList<>();
+            for (FileUploadService.UploadResult upload : results) {
+                String label = labels.get(upload.getIndex());
+                if (!upload.isSuccess()) {
+                    failed.add(label);
+                } else if ("身份证正面".equals(label)) {
+                    idCardFrontUrl = upload.getUrl();
+                } else if ("身份证背面".equals(label)) {
+                    idCardBackUrl = upload.getUrl();
+                } else {
+                    businessLicenseUrl = upload.getUrl();
                 }
-                businessLicenseUrl = fileUploadService.uploadFile(businessLicense, "certificates");
+            }
+            if (failed.size() == uploads.size() && !failed.isEmpty()) {
+                return Result.error("更新认证信息失败：" + String.join("、", failed) + "上传失败");
             }
             
             // 更新商家认证信息
             merchantService.updateCertification(merchantId, idCardFrontUrl, idCardBackUrl, businessLicenseUrl);
             
+            // 部分文件失败时保存已成功的文件，提示重新上传失败的文件
+            if (!failed.isEmpty()) {
+                return Result.fail(String.join("、", failed) + "上传失败，请重新上传，其余认证信息已更新");
+            }
             return Result.success("认证信息更新成功");
             
         } catch (Exception e) {
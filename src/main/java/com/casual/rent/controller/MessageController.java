@@ -1,8 +1,14 @@
 package com.casual.rent.controller;
 
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.casual.rent.common.ChatEvent;
 import com.casual.rent.common.Result;
 import com.casual.rent.entity.Message;
+import com.casual.rent.service.ChatPushService;
 import com.casual.rent.service.MessageService;
+import com.casual.rent.service.PresenceService;
+import com.casual.rent.service.RelayChatEventBus;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -10,8 +16,12 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +37,18 @@ public class MessageController {
     @Autowired
     private MessageService messageService;
 
+    @Autowired
+    private ChatPushService chatPushService;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired(required = false)
+    private RelayChatEventBus relayChatEventBus;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * 发送消息
      */
@@ -63,6 +85,64 @@ public class MessageController {
         return Result.success(list);
     }
 
+    /**
+     * 向前翻页获取双方聊天记录
+     */
+    @Operation(
+        summary = "分页获取聊天记录",
+        description = "按消息ID向前翻页获取双方聊天记录，优先读取热数据，翻到较早位置时自动读取归档数据",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "获取成功",
+                content = @Content(mediaType = "application/json", schema = @Schema(implementation = List.class))
+            )
+        }
+    )
+    @GetMapping("/history")
+    public Result<List<Message>> getMessageHistory(
+        @Parameter(description = "用户A的ID", required = true) @RequestParam Long userA,
+        @Parameter(description = "用户B的ID", required = true) @RequestParam Long userB,
+        @Parameter(description = "只返回ID小于该值的消息，不传表示从最新消息开始") @RequestParam(required = false) Long beforeId,
+        @Parameter(description = "每页数量") @RequestParam(defaultValue = "20") Integer size
+    ) {
+        List<Message> list = messageService.getMessageHistory(userA, userB, beforeId, size);
+        return Result.success(list);
+    }
+
+    /**
+     * 检索用户对话中的消息
+     */
+    @Operation(
+        summary = "检索聊天消息",
+        description = "在用户参与的对话中按关键词检索消息（支持中文），按时间倒序分页返回命中消息、对话者ID及前后上下文",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "检索成功",
+                content = @Content(mediaType = "application/json", schema = @Schema(implementation = IPage.class))
+            )
+        }
+    )
+    @GetMapping("/search")
+    public Result<IPage<Map<String, Object>>> searchMessages(
+        @Parameter(description = "用户/商家ID", required = true) @RequestParam Long userId,
+        @Parameter(description = "关键词", required = true) @RequestParam String keyword,
+        @Parameter(description = "页码") @RequestParam(defaultValue = "1") Integer page,
+        @Parameter(description = "每页数量") @RequestParam(defaultValue = "10") Integer size,
+        @Parameter(description = "命中消息前后附带的上下文条数") @RequestParam(defaultValue = "1") Integer context
+    ) {
+        if (keyword == null || keyword.trim().isEmpty()) {
+            return Result.validateError("关键词不能为空");
+        }
+        try {
+            IPage<Map<String, Object>> result = messageService.searchMessages(userId, keyword.trim(), page, size, context);
+            return Result.success(result);
+        } catch (Exception e) {
+            return Result.error("检索消息失败：" + e.getMessage());
+        }
+    }
+
     /**
      * 获取用户的所有消息
      */
@@ -154,6 +234,67 @@ public class MessageController {
         return Result.success("标记成功");
     }
 
+    /**
+     * 批量标记消息为已读
+     */
+    @Operation(
+        summary = "批量标记消息已读",
+        description = "按消息ID列表（messageIds）或按对话水位（watermarks：对话者ID -> 已读到的最大消息ID）批量标记已读，返回最新的未读数量",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "标记成功",
+                content = @Content(mediaType = "application/json", schema = @Schema(implementation = Map.class))
+            )
+        }
+    )
+    @PutMapping("/read/batch")
+    public Result<Map<String, Object>> markAsReadBatch(
+        @Parameter(description = "请求参数", required = true)
+        @RequestBody Map<String, Object> params
+    ) {
+        if (params.get("userId") == null) {
+            return Result.validateError("用户ID不能为空");
+        }
+        Long userId = Long.valueOf(params.get("userId").toString());
+        try {
+            int updated = 0;
+
+            Object messageIds = params.get("messageIds");
+            if (messageIds instanceof List) {
+                List<Long> ids = new ArrayList<>();
+                for (Object id : (List<?>) messageIds) {
+                    ids.add(Long.valueOf(id.toString()));
+                }
+                updated += messageService.markAsReadBatch(userId, ids);
+            }
+
+            Object watermarks = params.get("watermarks");
+            if (watermarks instanceof Map) {
+                Map<Long, Long> watermarkMap = new HashMap<>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) watermarks).entrySet()) {
+                    watermarkMap.put(Long.valueOf(entry.getKey().toString()),
+                            Long.valueOf(entry.getValue().toString()));
+                }
+                updated += messageService.markAsReadUpTo(userId, watermarkMap);
+            }
+
+            Map<Long, Long> unreadByUser = messageService.getUnreadCountByUser(userId);
+            long unreadCount = 0;
+            for (Long count : unreadByUser.values()) {
+                unreadCount += count;
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("updated", updated);
+            result.put("unreadCount", unreadCount);
+            result.put("unreadCountByUser", unreadByUser);
+            return Result.success(result);
+        } catch (Exception e) {
+            return Result.error("批量标记失败：" + e.getMessage());
+        }
+    }
+
     /**
      * 标记对话为已读
      */
@@ -200,4 +341,137 @@ public class MessageController {
         List<Message> list = messageService.getUnreadMessages(userId);
         return Result.success(list);
     }
+
+    /**
+     * 订阅聊天事件推送
+     */
+    @Operation(
+        summary = "订阅聊天事件",
+        description = "建立SSE连接，接收新消息（message）、已读回执（read）、对话者在线状态（presence）和正在输入（typing）等实时事件，" +
+            "已读回执带 messageIds（按消息ID标记时实际变为已读的消息）或 upToId（按水位标记时已读到的最大消息ID），" +
+            "同一用户短时间内的多个事件会合并为一帧 chat_events 推送"
+    )
+    @GetMapping(value = "/events/{userId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeEvents(
+        @Parameter(description = "用户/商家ID", required = true)
+        @PathVariable Long userId
+    ) {
+        SseEmitter emitter = chatPushService.subscribe(userId);
+        presenceService.heartbeat(userId, null);
+        return emitter;
+    }
+
+    /**
+     * 在线心跳
+     */
+    @Operation(
+        summary = "在线心跳",
+        description = "客户端定期上报心跳以保持在线状态，可同时上报当前关注的对话者列表（peerIds），返回这些对话者的在线状态",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "上报成功",
+                content = @Content(mediaType = "application/json", schema = @Schema(implementation = Map.class))
+            )
+        }
+    )
+    @PostMapping("/presence/heartbeat")
+    public Result<Map<Long, Boolean>> heartbeat(
+        @Parameter(description = "请求参数", required = true)
+        @RequestBody Map<String, Object> params
+    ) {
+        if (params.get("userId") == null) {
+            return Result.validateError("用户ID不能为空");
+        }
+        Long userId = Long.valueOf(params.get("userId").toString());
+        List<Long> peerIds = null;
+        if (params.get("peerIds") instanceof List) {
+            peerIds = new ArrayList<>();
+            for (Object id : (List<?>) params.get("peerIds")) {
+                peerIds.add(Long.valueOf(id.toString()));
+            }
+        }
+        return Result.success(presenceService.heartbeat(userId, peerIds));
+    }
+
+    /**
+     * 主动下线
+     */
+    @Operation(summary = "主动下线", description = "客户端关闭或退出登录时立即标记为离线")
+    @PostMapping("/presence/offline/{userId}")
+    public Result<String> offline(
+        @Parameter(description = "用户/商家ID", required = true)
+        @PathVariable Long userId
+    ) {
+        presenceService.offline(userId);
+        return Result.success("已下线");
+    }
+
+    /**
+     * 查询在线状态
+     */
+    @Operation(
+        summary = "查询在线状态",
+        description = "批量查询用户的在线状态",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "获取成功",
+                content = @Content(mediaType = "application/json", schema = @Schema(implementation = Map.class))
+            )
+        }
+    )
+    @GetMapping("/presence")
+    public Result<Map<Long, Boolean>> getPresence(
+        @Parameter(description = "用户ID列表", required = true)
+        @RequestParam List<Long> userIds
+    ) {
+        return Result.success(presenceService.getPresence(userIds));
+    }
+
+    /**
+     * 上报正在输入状态
+     */
+    @Operation(
+        summary = "上报正在输入状态",
+        description = "通知对话者当前用户正在输入或已停止输入，状态在短时间后自动过期"
+    )
+    @PostMapping("/typing")
+    public Result<String> typing(
+        @Parameter(description = "请求参数", required = true)
+        @RequestBody Map<String, Object> params
+    ) {
+        if (params.get("userId") == null || params.get("peerId") == null) {
+            return Result.validateError("用户ID和对话者ID不能为空");
+        }
+        Long userId = Long.valueOf(params.get("userId").toString());
+        Long peerId = Long.valueOf(params.get("peerId").toString());
+        boolean isTyping = params.get("typing") == null || Boolean.parseBoolean(params.get("typing").toString());
+        presenceService.typing(userId, peerId, isTyping);
+        return Result.success("上报成功");
+    }
+
+    /**
+     * 接收其他节点中继的聊天事件（仅节点间调用）
+     */
+    @Operation(summary = "节点间事件中继", description = "多节点部署时由其他后端节点调用，客户端不应直接调用")
+    @PostMapping("/fanout/relay")
+    public Result<String> relayEvents(
+        @RequestHeader(value = RelayChatEventBus.SECRET_HEADER, required = false) String secret,
+        @RequestBody Map<String, Object> params
+    ) {
+        if (relayChatEventBus == null) {
+            return Result.error("当前节点未启用事件中继");
+        }
+        List<ChatEvent> events = new ArrayList<>();
+        if (params.get("events") instanceof List) {
+            for (Object event : (List<?>) params.get("events")) {
+                events.add(objectMapper.convertValue(event, ChatEvent.class));
+            }
+        }
+        if (!relayChatEventBus.receive(secret, events)) {
+            return Result.forbidden();
+        }
+        return Result.success("ok");
+    }
 }
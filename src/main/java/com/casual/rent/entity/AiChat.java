@@ -26,6 +26,12 @@ public class AiChat {
     @TableField(value = "status")
     private Integer status; // 0: 活跃, 1: 已结束
 
+    @TableField(value = "summary")
+    private String summary; // 早期对话的滚动摘要
+
+    @TableField(value = "summary_until_id")
+    private Long summaryUntilId; // 摘要已覆盖到的最后一条消息ID
+
     @TableField(value = "created_at", fill = FieldFill.INSERT)
     private LocalDateTime createdAt;
 
@@ -81,6 +87,22 @@ public class AiChat {
         this.status = status;
     }
 
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    public Long getSummaryUntilId() {
+        return summaryUntilId;
+    }
+
+    public void setSummaryUntilId(Long summaryUntilId) {
+        this.summaryUntilId = summaryUntilId;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
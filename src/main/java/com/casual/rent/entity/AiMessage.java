@@ -29,6 +29,9 @@ public class AiMessage {
     @TableField(value = "tokens")
     private Integer tokens;
 
+    @TableField(value = "truncated")
+    private Boolean truncated; // 客户端断开导致回复未生成完整
+
     @TableField(value = "created_at", fill = FieldFill.INSERT)
     private LocalDateTime createdAt;
 
@@ -89,6 +92,14 @@ public class AiMessage {
         this.tokens = tokens;
     }
 
+    public Boolean getTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(Boolean truncated) {
+        this.truncated = truncated;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
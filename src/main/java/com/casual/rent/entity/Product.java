@@ -5,8 +5,16 @@ import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.FieldStrategy;
+import com.casual.rent.common.ImageVariant;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 商品实体
@@ -27,6 +35,14 @@ public class Product {
     
     private String images;
     
+    // 已生成变体的图片URL（JSON数组），由后台任务维护
+    @JsonIgnore
+    private String variantImages;
+    
+    // 已检查过变体的图片URL（JSON数组），包括已生成、不能生成和多次生成失败的图片
+    @JsonIgnore
+    private String variantCheckedImages;
+    
     private BigDecimal dailyPrice;
     
     private BigDecimal weeklyPrice;
@@ -98,6 +114,59 @@ public class Product {
         this.images = images;
     }
     
+    public String getVariantImages() {
+        return variantImages;
+    }
+    
+    public void setVariantImages(String variantImages) {
+        this.variantImages = variantImages;
+    }
+    
+    public String getVariantCheckedImages() {
+        return variantCheckedImages;
+    }
+    
+    public void setVariantCheckedImages(String variantCheckedImages) {
+        this.variantCheckedImages = variantCheckedImages;
+    }
+    
+    /**
+     * 各变体（缩略图、压缩图）的图片URL，顺序与 images 一致，变体尚未生成或不能生成的图片使用原图URL
+     */
+    public Map<String, List<String>> getImageVariants() {
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        List<String> urls = parseImageUrls(images);
+        if (urls.isEmpty()) {
+            return variants;
+        }
+        Set<String> ready = new HashSet<>(parseImageUrls(variantImages));
+        for (ImageVariant variant : ImageVariant.values()) {
+            List<String> variantUrls = new ArrayList<>();
+            for (String url : urls) {
+                variantUrls.add(ready.contains(url) && ImageVariant.isSupported(url) ? variant.of(url) : url);
+            }
+            variants.put(variant.getName(), variantUrls);
+        }
+        return variants;
+    }
+    
+    /**
+     * 解析图片URL列表，支持 ["url1","url2"] 和 [url1, url2] 两种格式
+     */
+    public static List<String> parseImageUrls(String images) {
+        List<String> urls = new ArrayList<>();
+        if (images == null || images.trim().isEmpty()) {
+            return urls;
+        }
+        for (String item : images.trim().replaceAll("^\\[|\\]$", "").split(",")) {
+            String url = item.trim().replaceAll("^\"|\"$", "");
+            if (!url.isEmpty()) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+    
     public BigDecimal getDailyPrice() {
         return dailyPrice;
     }
@@ -3,16 +3,31 @@ package com.casual.rent.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.casual.rent.entity.AiChat;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
 public interface AiChatMapper extends BaseMapper<AiChat> {
 
-    @Select("SELECT * FROM ai_chat WHERE user_id = #{userId} ORDER BY updated_at DESC LIMIT 10")
-    List<AiChat> selectRecentChatsByUserId(Long userId);
+    /**
+     * 按 (updated_at, id) 游标倒序分页查询用户的会话（使用 idx_user_updated 索引）
+     * beforeUpdatedAt 为空时查询第一页，否则返回排在游标之后的会话
+     */
+    @Select("<script>" +
+            "SELECT * FROM ai_chat WHERE user_id = #{userId} " +
+            "<if test='beforeUpdatedAt != null'>" +
+            "AND (updated_at &lt; #{beforeUpdatedAt} OR (updated_at = #{beforeUpdatedAt} AND id &lt; #{beforeId})) " +
+            "</if>" +
+            "ORDER BY updated_at DESC, id DESC LIMIT #{size}" +
+            "</script>")
+    List<AiChat> selectChatsByUserIdBefore(@Param("userId") Long userId,
+                                           @Param("beforeUpdatedAt") LocalDateTime beforeUpdatedAt,
+                                           @Param("beforeId") Long beforeId,
+                                           @Param("size") int size);
 
     @Select("SELECT * FROM ai_chat WHERE session_id = #{sessionId}")
     AiChat selectBySessionId(String sessionId);
-}
\ No newline at end of file
+}
@@ -2,9 +2,13 @@ package com.casual.rent.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.casual.rent.entity.AiMessage;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
@@ -15,4 +19,30 @@ public interface AiMessageMapper extends BaseMapper<AiMessage> {
 
     @Select("SELECT * FROM ai_message WHERE session_id = #{sessionId} ORDER BY created_at ASC")
     List<AiMessage> selectBySessionId(String sessionId);
-}
\ No newline at end of file
+
+    @Select("SELECT * FROM (SELECT * FROM ai_message WHERE session_id = #{sessionId} ORDER BY id DESC LIMIT #{limit}) t ORDER BY id ASC")
+    List<AiMessage> selectRecentBySessionId(@Param("sessionId") String sessionId, @Param("limit") int limit);
+
+    @Select("SELECT * FROM ai_message WHERE session_id = #{sessionId} AND id > #{afterId} AND id <= #{upToId} ORDER BY id ASC LIMIT #{limit}")
+    List<AiMessage> selectRangeBySessionId(@Param("sessionId") String sessionId, @Param("afterId") long afterId,
+                                           @Param("upToId") long upToId, @Param("limit") int limit);
+
+    /**
+     * 汇总用户自某一时刻起所有会话消息记录的token数
+     */
+    @Select("SELECT IFNULL(SUM(m.tokens), 0) FROM ai_message m JOIN ai_chat c ON m.chat_id = c.id " +
+            "WHERE c.user_id = #{userId} AND m.created_at >= #{since}")
+    Long sumTokensByUserSince(@Param("userId") Long userId, @Param("since") LocalDateTime since);
+
+    /**
+     * 按列表顺序批量插入消息（单条多行INSERT），自增ID回填到实体
+     */
+    @Insert("<script>" +
+            "INSERT INTO ai_message (chat_id, session_id, content, role, tokens, truncated, created_at) VALUES " +
+            "<foreach collection='messages' item='m' separator=','>" +
+            "(#{m.chatId}, #{m.sessionId}, #{m.content}, #{m.role}, #{m.tokens}, IFNULL(#{m.truncated}, 0), #{m.createdAt})" +
+            "</foreach>" +
+            "</script>")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int insertBatch(@Param("messages") List<AiMessage> messages);
+}
@@ -0,0 +1,93 @@
+package com.casual.rent.mapper;
+
+import com.casual.rent.entity.Message;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
+
+/**
+ * 聊天消息归档表Mapper，归档记录与热表共用 {@link Message} 实体
+ */
+@Mapper
+public interface MessageArchiveMapper {
+
+    String COLUMNS = "id, sender_id, receiver_id, content, created_at, is_read";
+
+    /**
+     * 将热表中的指定消息复制到归档表
+     */
+    @Insert("<script>" +
+            "INSERT IGNORE INTO messages_archive (" + COLUMNS + ") " +
+            "SELECT " + COLUMNS + " FROM messages WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    int copyFromMessages(@Param("ids") List<Long> ids);
+
+    /**
+     * 获取双方的全部归档聊天记录，按ID升序
+     */
+    @Select("SELECT " + COLUMNS + " FROM messages_archive " +
+            "WHERE (sender_id = #{userA} AND receiver_id = #{userB}) " +
+            "OR (sender_id = #{userB} AND receiver_id = #{userA}) ORDER BY id ASC")
+    List<Message> selectConversation(@Param("userA") Long userA, @Param("userB") Long userB);
+
+    /**
+     * 向前翻页获取双方的归档聊天记录，按ID降序
+     */
+    @Select("<script>" +
+            "SELECT " + COLUMNS + " FROM messages_archive " +
+            "WHERE ((sender_id = #{userA} AND receiver_id = #{userB}) " +
+            "OR (sender_id = #{userB} AND receiver_id = #{userA})) " +
+            "<if test='beforeId != null'>AND id &lt; #{beforeId} </if>" +
+            "ORDER BY id DESC LIMIT #{limit}" +
+            "</script>")
+    List<Message> selectConversationBefore(@Param("userA") Long userA, @Param("userB") Long userB,
+                                           @Param("beforeId") Long beforeId, @Param("limit") int limit);
+
+    /**
+     * 获取用户的全部归档消息，按ID降序
+     */
+    @Select("SELECT " + COLUMNS + " FROM messages_archive " +
+            "WHERE sender_id = #{userId} OR receiver_id = #{userId} ORDER BY id DESC")
+    List<Message> selectByUser(@Param("userId") Long userId);
+
+    /**
+     * 按ID批量获取归档消息
+     */
+    @Select("<script>" +
+            "SELECT " + COLUMNS + " FROM messages_archive WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<Message> selectByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 按ID降序分批读取归档消息，用于构建检索索引
+     */
+    @Select("<script>" +
+            "SELECT " + COLUMNS + " FROM messages_archive " +
+            "<if test='beforeId != null'>WHERE id &lt; #{beforeId} </if>" +
+            "ORDER BY id DESC LIMIT #{limit}" +
+            "</script>")
+    List<Message> selectBefore(@Param("beforeId") Long beforeId, @Param("limit") int limit);
+
+    /**
+     * 批量获取多条消息所在对话中前后各若干条消息，每条消息一段向前、一段向后的子查询，合并为一次查询
+     */
+    @Select("<script>" +
+            "<foreach collection='hits' item='h' separator=' UNION ALL '>" +
+            "(SELECT " + COLUMNS + " FROM messages_archive " +
+            "WHERE ((sender_id = #{h.senderId} AND receiver_id = #{h.receiverId}) " +
+            "OR (sender_id = #{h.receiverId} AND receiver_id = #{h.senderId})) " +
+            "AND id &lt; #{h.id} ORDER BY id DESC LIMIT #{limit}) " +
+            "UNION ALL " +
+            "(SELECT " + COLUMNS + " FROM messages_archive " +
+            "WHERE ((sender_id = #{h.senderId} AND receiver_id = #{h.receiverId}) " +
+            "OR (sender_id = #{h.receiverId} AND receiver_id = #{h.senderId})) " +
+            "AND id &gt; #{h.id} ORDER BY id ASC LIMIT #{limit})" +
+            "</foreach>" +
+            "</script>")
+    List<Message> selectContext(@Param("hits") List<Message> hits, @Param("limit") int limit);
+}
@@ -2,11 +2,51 @@ package com.casual.rent.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.casual.rent.entity.Message;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 聊天消息Mapper
  */
 @Repository
 public interface MessageMapper extends BaseMapper<Message> {
+
+    /**
+     * 按发送者分组统计未读消息数量
+     */
+    @Select("SELECT sender_id AS senderId, COUNT(*) AS unreadCount FROM messages " +
+            "WHERE receiver_id = #{receiverId} AND is_read = 0 GROUP BY sender_id")
+    List<Map<String, Object>> selectUnreadCountGroupBySender(@Param("receiverId") Long receiverId);
+
+    /**
+     * 按主键顺序查找可归档的消息ID（已读且早于截止时间）
+     */
+    @Select("SELECT id FROM messages WHERE id > #{afterId} AND is_read = 1 AND created_at < #{before} " +
+            "ORDER BY id ASC LIMIT #{limit}")
+    List<Long> selectArchivableIds(@Param("afterId") Long afterId,
+                                   @Param("before") LocalDateTime before,
+                                   @Param("limit") int limit);
+
+    /**
+     * 批量获取多条消息所在对话中前后各若干条消息，每条消息一段向前、一段向后的子查询，合并为一次查询
+     */
+    @Select("<script>" +
+            "<foreach collection='hits' item='h' separator=' UNION ALL '>" +
+            "(SELECT " + MessageArchiveMapper.COLUMNS + " FROM messages " +
+            "WHERE ((sender_id = #{h.senderId} AND receiver_id = #{h.receiverId}) " +
+            "OR (sender_id = #{h.receiverId} AND receiver_id = #{h.senderId})) " +
+            "AND id &lt; #{h.id} ORDER BY id DESC LIMIT #{limit}) " +
+            "UNION ALL " +
+            "(SELECT " + MessageArchiveMapper.COLUMNS + " FROM messages " +
+            "WHERE ((sender_id = #{h.senderId} AND receiver_id = #{h.receiverId}) " +
+            "OR (sender_id = #{h.receiverId} AND receiver_id = #{h.senderId})) " +
+            "AND id &gt; #{h.id} ORDER BY id ASC LIMIT #{limit})" +
+            "</foreach>" +
+            "</script>")
+    List<Message> selectContext(@Param("hits") List<Message> hits, @Param("limit") int limit);
 }
@@ -0,0 +1,43 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.ChatEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 事件总线公共实现：维护本节点订阅者并负责投递
+ */
+public abstract class AbstractChatEventBus implements ChatEventBus {
+
+    private static final Logger log = LoggerFactory.getLogger(AbstractChatEventBus.class);
+
+    /**
+     * 本节点标识，用于识别并丢弃自己发出后又被中继回来的事件
+     */
+    protected final String nodeId = UUID.randomUUID().toString();
+
+    private final List<Consumer<List<ChatEvent>>> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void subscribe(Consumer<List<ChatEvent>> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * 投递给本节点的所有订阅者，单个订阅者异常不影响其他订阅者
+     */
+    protected void deliverLocally(List<ChatEvent> events) {
+        for (Consumer<List<ChatEvent>> subscriber : subscribers) {
+            try {
+                subscriber.accept(events);
+            } catch (Exception e) {
+                log.warn("聊天事件投递失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.TextTokenizer;
+import com.casual.rent.config.AiConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常见问题回复缓存
+ * 只缓存会话第一轮的问答（没有上下文，回复只取决于问题和系统提示词）。
+ * 问题归一化（全角转半角、小写、去除空白和标点）后先做精确匹配；未命中时用字符n-gram的
+ * MinHash签名估计相似度，并通过LSH分段桶快速找出候选，使换一种说法的同类问题也能命中。
+ * 缓存按系统提示词版本隔离，提示词变化后自动清空；同时受条数上限（LRU）和有效期约束。
+ */
+@Component
+public class AiAnswerCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AiAnswerCache.class);
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    // 归一化问题 -> 缓存项，按访问顺序排列用于LRU淘汰
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // LSH桶 -> 落在该桶中的缓存项
+    private final Map<Long, Set<Entry>> buckets = new HashMap<>();
+
+    private long[] seeds;
+
+    private String promptVersion;
+
+    private long hits = 0;
+    private long similarHits = 0;
+    private long misses = 0;
+
+    private static final class Entry {
+        final String question;
+        final String answer;
+        final long[] bandKeys;
+        final long[] signature;
+        final long expiresAt;
+
+        Entry(String question, String answer, long[] signature, long[] bandKeys, long expiresAt) {
+            this.question = question;
+            this.answer = answer;
+            this.signature = signature;
+            this.bandKeys = bandKeys;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        AiConfig.AnswerCacheConfig config = aiConfig.getAnswerCache();
+        // 固定种子，保证同一问题在不同节点、重启前后得到相同的签名
+        Random random = new Random(0x5EEDL);
+        seeds = new long[config.getBands() * config.getRows()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+        promptVersion = currentPromptVersion();
+    }
+
+    /**
+     * 查找问题的缓存回复
+     * @return 缓存的回复，未命中时返回null
+     */
+    public synchronized String get(String question) {
+        if (!Boolean.TRUE.equals(aiConfig.getAnswerCache().getEnabled())) {
+            return null;
+        }
+        checkPromptVersion();
+        String normalized = TextTokenizer.normalizeText(question);
+        if (!cacheable(normalized)) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry exact = entries.get(normalized);
+        if (exact != null) {
+            if (exact.expiresAt > now) {
+                hits++;
+                return exact.answer;
+            }
+            remove(exact);
+        }
+
+        long[] signature = signature(normalized);
+        Entry best = null;
+        double bestSimilarity = aiConfig.getAnswerCache().getSimilarityThreshold();
+        for (long key : bandKeys(signature)) {
+            Set<Entry> bucket = buckets.get(key);
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry candidate : bucket) {
+                if (candidate.expiresAt <= now) {
+                    continue;
+                }
+                double similarity = similarity(signature, candidate.signature);
+                if (similarity >= bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        // 刷新LRU顺序
+        entries.get(best.question);
+        similarHits++;
+        return best.answer;
+    }
+
+    /**
+     * 缓存问题的回复
+     */
+    public synchronized void put(String question, String answer) {
+        AiConfig.AnswerCacheConfig config = aiConfig.getAnswerCache();
+        if (!Boolean.TRUE.equals(config.getEnabled()) || answer == null || answer.isEmpty()) {
+            return;
+        }
+        checkPromptVersion();
+        String normalized = TextTokenizer.normalizeText(question);
+        if (!cacheable(normalized)) {
+            return;
+        }
+
+        Entry previous = entries.get(normalized);
+        if (previous != null) {
+            remove(previous);
+        }
+        long[] signature = signature(normalized);
+        long expiresAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(config.getTtlMinutes());
+        Entry entry = new Entry(normalized, answer, signature, bandKeys(signature), expiresAt);
+        entries.put(normalized, entry);
+        for (long key : entry.bandKeys) {
+            buckets.computeIfAbsent(key, k -> new HashSet<>()).add(entry);
+        }
+
+        while (entries.size() > config.getMaxEntries()) {
+            remove(entries.values().iterator().next());
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void invalidate() {
+        int size = entries.size();
+        entries.clear();
+        buckets.clear();
+        promptVersion = currentPromptVersion();
+        log.info("AI回复缓存已清空，清除 {} 条", size);
+    }
+
+    /**
+     * 定期清理过期缓存
+     */
+    @Scheduled(fixedDelay = 60000)
+    public synchronized void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expiresAt <= now) {
+                iterator.remove();
+                removeFromBuckets(entry);
+            }
+        }
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", aiConfig.getAnswerCache().getEnabled());
+        stats.put("entries", entries.size());
+        stats.put("buckets", buckets.size());
+        stats.put("hits", hits);
+        stats.put("similarHits", similarHits);
+        stats.put("misses", misses);
+        stats.put("promptVersion", promptVersion);
+        return stats;
+    }
+
+    private boolean cacheable(String normalized) {
+        return !normalized.isEmpty() && normalized.length() <= aiConfig.getAnswerCache().getMaxQuestionChars();
+    }
+
+    /**
+     * 系统提示词变化后，旧提示词下的回复全部失效
+     */
+    private void checkPromptVersion() {
+        String current = currentPromptVersion();
+        if (!current.equals(promptVersion)) {
+            log.info("系统提示词已变化，清空AI回复缓存");
+            invalidate();
+        }
+    }
+
+    private String currentPromptVersion() {
+        String prompt = aiConfig.getSystemPrompt();
+        return Integer.toHexString(prompt == null ? 0 : prompt.hashCode());
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.question);
+        removeFromBuckets(entry);
+    }
+
+    private void removeFromBuckets(Entry entry) {
+        for (long key : entry.bandKeys) {
+            Set<Entry> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    buckets.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算字符n-gram集合的MinHash签名
+     */
+    private long[] signature(String normalized) {
+        int n = aiConfig.getAnswerCache().getShingleSize();
+        Set<String> shingles = new LinkedHashSet<>();
+        if (normalized.length() <= n) {
+            shingles.add(normalized);
+        } else {
+            for (int i = 0; i + n <= normalized.length(); i++) {
+                shingles.add(normalized.substring(i, i + n));
+            }
+        }
+
+        long[] signature = new long[seeds.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String shingle : shingles) {
+            long base = shingle.hashCode();
+            for (int i = 0; i < seeds.length; i++) {
+                long h = mix(base ^ seeds[i]);
+                if (h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * 把签名按段哈希为LSH桶，两个问题只要有一段完全相同就会成为候选
+     */
+    private long[] bandKeys(long[] signature) {
+        int rows = aiConfig.getAnswerCache().getRows();
+        long[] keys = new long[signature.length / rows];
+        for (int band = 0; band < keys.length; band++) {
+            long h = band;
+            for (int r = 0; r < rows; r++) {
+                h = mix(h * 31 + signature[band * rows + r]);
+            }
+            keys[band] = h;
+        }
+        return keys;
+    }
+
+    /**
+     * 签名中相同位置取值相同的比例，即Jaccard相似度的估计值
+     */
+    private static double similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return (double) same / a.length;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
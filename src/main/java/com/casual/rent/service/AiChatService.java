@@ -1,43 +1,69 @@
 package com.casual.rent.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.casual.rent.common.AiDeltaEncoder;
+import com.casual.rent.common.TokenEstimator;
 import com.casual.rent.config.AiConfig;
 import com.casual.rent.entity.AiChat;
 import com.casual.rent.entity.AiMessage;
 import com.casual.rent.mapper.AiChatMapper;
 import com.casual.rent.mapper.AiMessageMapper;
-import dev.langchain4j.model.chat.ChatLanguageModel;
-import dev.langchain4j.model.openai.OpenAiChatModel;
-import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
-import dev.langchain4j.model.azure.AzureOpenAiChatModel;
-import dev.langchain4j.model.azure.AzureOpenAiStreamingChatModel;
-import dev.langchain4j.model.ollama.OllamaChatModel;
-import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
-import dev.langchain4j.model.qianfan.QianfanChatModel;
-import dev.langchain4j.model.qianfan.QianfanStreamingChatModel;
-import dev.langchain4j.model.dashscope.QwenChatModel;
-import dev.langchain4j.model.dashscope.QwenStreamingChatModel;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.data.message.SystemMessage;
-import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class AiChatService {
 
+    private static final Logger log = LoggerFactory.getLogger(AiChatService.class);
+
+    private static final String SUMMARY_PREFIX = "以下是本次对话较早部分的摘要：\n";
+
+    private static final String PRODUCT_PREFIX = "以下是平台上与用户问题相关的在租商品，回答时可以参考，不要编造列表之外的商品：\n";
+
+    /**
+     * 流式协议 v1：每个token一帧，携带完整内容
+     */
+    public static final int STREAM_PROTOCOL_LEGACY = 1;
+
+    /**
+     * 流式协议 v2：合并后的增量帧加周期性同步帧
+     */
+    public static final int STREAM_PROTOCOL_DELTA = 2;
+
+    private static final int MAX_HISTORY_PAGE_SIZE = 50;
+
     @Autowired
     private AiConfig aiConfig;
 
@@ -47,200 +73,55 @@ public class AiChatService {
     @Autowired
     private AiMessageMapper aiMessageMapper;
 
-    private ChatLanguageModel chatModel;
-    private StreamingChatLanguageModel streamingChatModel;
-
-    /**
-     * 获取或创建聊天模型
-     */
-    private ChatLanguageModel getChatModel() {
-        if (chatModel == null) {
-            chatModel = createChatModel();
-        }
-        return chatModel;
-    }
-
-    /**
-     * 获取或创建流式聊天模型
-     */
-    private StreamingChatLanguageModel getStreamingChatModel() {
-        if (streamingChatModel == null) {
-            streamingChatModel = createStreamingChatModel();
-        }
-        return streamingChatModel;
-    }
+    @Autowired
+    private AiContextWindowCache contextWindowCache;
 
-    /**
-     * 根据配置创建聊天模型
-     */
-    private ChatLanguageModel createChatModel() {
-        String provider = aiConfig.getProvider();
-
-        switch (provider.toLowerCase()) {
-            case "openai":
-                return createOpenAiModel();
-            case "azure-openai":
-                return createAzureOpenAiModel();
-            case "ollama":
-                return createOllamaModel();
-            case "qianfan":
-                return createQianfanModel();
-            case "dashscope":
-                return createDashscopeModel();
-            case "doubao":
-                return createDoubaoModel();
-            default:
-                throw new RuntimeException("不支持的AI提供商: " + provider);
-        }
-    }
+    @Autowired
+    private AiRequestExecutor aiRequestExecutor;
 
-    /**
-     * 根据配置创建流式聊天模型
-     */
-    private StreamingChatLanguageModel createStreamingChatModel() {
-        String provider = aiConfig.getProvider();
-
-        switch (provider.toLowerCase()) {
-            case "openai":
-                return createStreamingOpenAiModel();
-            case "azure-openai":
-                return createStreamingAzureOpenAiModel();
-            case "ollama":
-                return createStreamingOllamaModel();
-            case "qianfan":
-                return createStreamingQianfanModel();
-            case "dashscope":
-                return createStreamingDashscopeModel();
-            case "doubao":
-                return createStreamingDoubaoModel();
-            default:
-                throw new RuntimeException("不支持的AI提供商: " + provider);
-        }
-    }
+    @Autowired
+    private AiAnswerCache answerCache;
 
-    private ChatLanguageModel createOpenAiModel() {
-        AiConfig.OpenAiConfig config = aiConfig.getOpenai();
-        return OpenAiChatModel.builder()
-                .apiKey(config.getApiKey())
-                .baseUrl(config.getBaseUrl())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    @Autowired
+    private AiProviderRouter aiProviderRouter;
 
-    private ChatLanguageModel createAzureOpenAiModel() {
-        AiConfig.AzureOpenAiConfig config = aiConfig.getAzureOpenai();
-        return AzureOpenAiChatModel.builder()
-                .apiKey(config.getApiKey())
-                .endpoint(config.getEndpoint())
-                .deploymentName(config.getDeploymentName())
-                .temperature(config.getTemperature())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    @Autowired
+    private AiModelRegistry aiModelRegistry;
 
-    private ChatLanguageModel createOllamaModel() {
-        AiConfig.OllamaConfig config = aiConfig.getOllama();
-        return OllamaChatModel.builder()
-                .baseUrl(config.getBaseUrl())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .build();
-    }
+    @Autowired
+    private AiStreamRegistry aiStreamRegistry;
 
-    private ChatLanguageModel createQianfanModel() {
-        AiConfig.QianfanConfig config = aiConfig.getQianfan();
-        return QianfanChatModel.builder()
-                .apiKey(config.getApiKey())
-                .secretKey(config.getSecretKey())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .build();
-    }
+    @Autowired
+    private AiMessageWriter aiMessageWriter;
 
-    private ChatLanguageModel createDashscopeModel() {
-        AiConfig.DashscopeConfig config = aiConfig.getDashscope();
-        return QwenChatModel.builder()
-                .apiKey(config.getApiKey())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature().floatValue())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    @Autowired
+    private ProductVectorIndex productVectorIndex;
 
-    private ChatLanguageModel createDoubaoModel() {
-        AiConfig.DoubaoConfig config = aiConfig.getDoubao();
-        return OpenAiChatModel.builder()
-                .apiKey(config.getApiKey())
-                .baseUrl(config.getBaseUrl())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    @Autowired
+    private AiChatTools aiChatTools;
 
-    // 流式模型创建方法
-    private StreamingChatLanguageModel createStreamingOpenAiModel() {
-        AiConfig.OpenAiConfig config = aiConfig.getOpenai();
-        return OpenAiStreamingChatModel.builder()
-                .apiKey(config.getApiKey())
-                .baseUrl(config.getBaseUrl())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    @Autowired
+    private AiRateLimiter aiRateLimiter;
 
-    private StreamingChatLanguageModel createStreamingAzureOpenAiModel() {
-        AiConfig.AzureOpenAiConfig config = aiConfig.getAzureOpenai();
-        return AzureOpenAiStreamingChatModel.builder()
-                .apiKey(config.getApiKey())
-                .endpoint(config.getEndpoint())
-                .deploymentName(config.getDeploymentName())
-                .temperature(config.getTemperature())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    @Autowired
+    private AiTelemetry aiTelemetry;
 
-    private StreamingChatLanguageModel createStreamingOllamaModel() {
-        AiConfig.OllamaConfig config = aiConfig.getOllama();
-        return OllamaStreamingChatModel.builder()
-                .baseUrl(config.getBaseUrl())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .build();
-    }
+    @Autowired
+    private AiTitleGenerator aiTitleGenerator;
 
-    private StreamingChatLanguageModel createStreamingQianfanModel() {
-        AiConfig.QianfanConfig config = aiConfig.getQianfan();
-        return QianfanStreamingChatModel.builder()
-                .apiKey(config.getApiKey())
-                .secretKey(config.getSecretKey())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .build();
-    }
+    // 正在生成摘要的会话，避免同一会话并发生成
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
 
-    private StreamingChatLanguageModel createStreamingDashscopeModel() {
-        AiConfig.DashscopeConfig config = aiConfig.getDashscope();
-        return QwenStreamingChatModel.builder()
-                .apiKey(config.getApiKey())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature().floatValue())
-                .maxTokens(config.getMaxTokens())
-                .build();
-    }
+    // 增量协议按时间窗口刷新待发送帧
+    private final ScheduledExecutorService frameFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "AiStreamFrameFlusher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private StreamingChatLanguageModel createStreamingDoubaoModel() {
-        AiConfig.DoubaoConfig config = aiConfig.getDoubao();
-        return OpenAiStreamingChatModel.builder()
-                .apiKey(config.getApiKey())
-                .baseUrl(config.getBaseUrl())
-                .modelName(config.getModel())
-                .temperature(config.getTemperature())
-                .maxTokens(config.getMaxTokens())
-                .build();
+    @PreDestroy
+    public void shutdown() {
+        frameFlusher.shutdownNow();
     }
 
     /**
@@ -248,32 +129,57 @@ public class AiChatService {
      */
     public AiChat createChat(Long userId) {
         String sessionId = UUID.randomUUID().toString();
-        String title = "AI客服对话 - " + LocalDateTime.now().toString().substring(0, 16);
 
-        AiChat chat = new AiChat(userId, sessionId, title);
+        // 先使用默认标题，第一轮对话完成后由标题生成器异步生成
+        AiChat chat = new AiChat(userId, sessionId, AiTitleGenerator.DEFAULT_TITLE);
         aiChatMapper.insert(chat);
 
         return chat;
     }
 
     /**
-     * 获取用户的聊天历史
+     * 按最近更新时间倒序分页获取用户的聊天历史
+     * 游标为上一页最后一个会话的更新时间和ID，都为空时从最近的会话开始
      */
-    public List<AiChat> getUserChats(Long userId) {
-        return aiChatMapper.selectRecentChatsByUserId(userId);
+    public List<AiChat> getUserChats(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, int size) {
+        int limit = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+        if (beforeUpdatedAt != null && beforeId == null) {
+            // 只传更新时间时跳过该时间的全部会话
+            beforeId = 0L;
+        }
+        return aiChatMapper.selectChatsByUserIdBefore(userId, beforeUpdatedAt, beforeId, limit);
     }
 
     /**
      * 获取聊天消息
      */
     public List<AiMessage> getChatMessages(String sessionId) {
-        return aiMessageMapper.selectBySessionId(sessionId);
+        // 合并尚未写入的消息，保证能读到刚发送的消息
+        return aiMessageWriter.withPending(sessionId, () -> aiMessageMapper.selectBySessionId(sessionId));
     }
 
     /**
      * 发送消息并获取AI回复
      */
     public AiMessage sendMessage(String sessionId, String userMessage, Long userId) {
+        return sendMessage(sessionId, userMessage, userId, null);
+    }
+
+    /**
+     * 发送消息并获取AI回复，优先使用请求所在执行通道的提供商
+     */
+    private AiMessage sendMessage(String sessionId, String userMessage, Long userId, String provider) {
+        AiMessage reply = reply(sessionId, userMessage, userId, provider);
+        // 非流式接口返回的消息需要带上ID，只等待本会话的消息写入
+        try {
+            aiMessageWriter.whenWritten(reply.getSessionId()).join();
+        } catch (Exception e) {
+            log.warn("AI回复写入失败，会话: {}", reply.getSessionId());
+        }
+        return reply;
+    }
+
+    private AiMessage reply(String sessionId, String userMessage, Long userId, String provider) {
         // 获取或创建聊天会话
         AiChat chat = aiChatMapper.selectBySessionId(sessionId);
         if (chat == null) {
@@ -283,53 +189,183 @@ public class AiChatService {
 
         // 保存用户消息
         AiMessage userMsg = new AiMessage(chat.getId(), sessionId, userMessage, "user");
-        aiMessageMapper.insert(userMsg);
+        saveMessage(userMsg);
+
+        // 从上下文窗口缓存获取最近消息构建上下文
+        List<AiMessage> history = contextWindowCache.getWindow(sessionId);
+        boolean firstTurn = isFirstTurn(history);
 
-        // 获取历史消息构建上下文
-        List<AiMessage> history = aiMessageMapper.selectBySessionId(sessionId);
-        List<ChatMessage> chatMessages = buildChatHistory(history);
+        // 会话第一轮的常见问题直接使用缓存回复
+        String cachedReply = firstTurn ? answerCache.get(userMessage) : null;
+        if (cachedReply != null) {
+            aiTelemetry.recordCacheHit(AiTelemetry.MODE_SYNC);
+            return saveReply(chat, sessionId, cachedReply, null, userMessage);
+        }
+
+        List<ChatMessage> chatMessages = buildChatHistory(chat, history);
 
         try {
-            // 调用AI模型获取回复
-            ChatLanguageModel model = getChatModel();
-            dev.langchain4j.model.output.Response<dev.langchain4j.data.message.AiMessage> response = model.generate(chatMessages);
+            // 调用AI模型获取回复（由路由层选择提供商，模型可以先调用查询工具）
+            List<ChatMessage> conversation = new ArrayList<>(chatMessages);
+            Response<dev.langchain4j.data.message.AiMessage> response = generateWithTools(conversation, chat.getUserId(), sessionId,
+                    provider);
 
             String aiReply = response.content().text();
-
-            // 保存AI回复
-            AiMessage aiMsg = new AiMessage(chat.getId(), sessionId, aiReply, "assistant");
-            if (response.tokenUsage() != null) {
-                aiMsg.setTokens(response.tokenUsage().totalTokenCount());
+            // 引用了商品或订单信息的回复会随数据变化而过时，不放入回复缓存
+            if (firstTurn && !hasProductContext(conversation) && !usedTools(conversation)) {
+                answerCache.put(userMessage, aiReply);
             }
-            aiMessageMapper.insert(aiMsg);
 
-            // 更新聊天会话时间
-            chat.setUpdatedAt(LocalDateTime.now());
-            aiChatMapper.updateById(chat);
-
-            return aiMsg;
+            // 保存AI回复
+            return saveReply(chat, sessionId, aiReply,
+                    response.tokenUsage() != null ? response.tokenUsage().totalTokenCount() : null,
+                    firstTurn ? userMessage : null);
 
         } catch (Exception e) {
             // 保存错误消息
             AiMessage errorMsg = new AiMessage(chat.getId(), sessionId,
                     "抱歉，AI客服暂时无法回复，请稍后重试。错误信息：" + e.getMessage(), "assistant");
-            aiMessageMapper.insert(errorMsg);
+            saveMessage(errorMsg);
             return errorMsg;
         }
     }
 
+    /**
+     * 通过AI请求执行器发送消息，系统繁忙时以 {@link AiRequestExecutor.RejectedException} 异常结束
+     */
+    public CompletableFuture<AiMessage> sendMessageAsync(String sessionId, String userMessage, Long userId) {
+        CompletableFuture<AiMessage> future = new CompletableFuture<>();
+        // 请求计入哪个提供商的通道，就优先由哪个提供商生成
+        String provider = aiProviderRouter.primaryProvider();
+        aiRequestExecutor.submit(provider, userId, new AiRequestExecutor.AiTask() {
+            @Override
+            public void run(AiRequestExecutor.Ticket ticket) {
+                try {
+                    future.complete(sendMessage(sessionId, userMessage, userId, provider));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    ticket.release();
+                }
+            }
+
+            @Override
+            public void rejected(AiRequestExecutor.RejectedException reason) {
+                future.completeExceptionally(reason);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 保存AI回复并更新聊天会话时间
+     * @param firstQuestion 第一轮对话的用户消息，用于生成会话标题，不是第一轮时为空
+     */
+    private AiMessage saveReply(AiChat chat, String sessionId, String content, Integer tokens,
+                                String firstQuestion) {
+        AiMessage aiMsg = new AiMessage(chat.getId(), sessionId, content, "assistant");
+        aiMsg.setTokens(tokens);
+        // 会话更新时间由写入器在消息写入后合并更新
+        saveMessage(aiMsg);
+        aiRateLimiter.recordUsage(chat.getUserId(), tokens);
+        if (firstQuestion != null) {
+            aiTitleGenerator.enqueue(chat, firstQuestion, content);
+        }
+        return aiMsg;
+    }
+
+    /**
+     * 回复写入数据库后发送 ai_saved 事件携带消息ID，再结束流式连接
+     * 在写入器的回调线程上执行，不占用AI工作线程；写入失败时直接结束
+     */
+    private void completeWhenSaved(AiStreamRegistry.AiStream stream, DeltaStreamWriter deltaWriter, AiMessage reply) {
+        aiMessageWriter.whenWritten(reply.getSessionId()).whenComplete((ignored, error) -> {
+            try {
+                if (error == null && reply.getId() != null) {
+                    stream.send(SseEmitter.event()
+                        .name("ai_saved")
+                        .data(deltaWriter != null
+                            ? AiDeltaEncoder.encode("message_id", reply.getId())
+                            : "{\"message_id\":" + reply.getId() + "}"));
+                }
+                stream.complete();
+            } catch (Exception e) {
+                stream.completeWithError(e);
+            }
+        });
+    }
+
+    /**
+     * 会话中是否只有当前这条用户消息（回复不依赖上下文，可以使用回复缓存）
+     */
+    private boolean isFirstTurn(List<AiMessage> history) {
+        return history.size() == 1 && "user".equals(history.get(0).getRole());
+    }
+
+    /**
+     * 保存消息并追加到会话上下文窗口
+     * 消息异步写入数据库，ID在写入后回填，上下文窗口中较新的消息可能暂时没有ID
+     */
+    private void saveMessage(AiMessage message) {
+        aiMessageWriter.save(message);
+        contextWindowCache.append(message.getSessionId(), message);
+    }
+
     /**
      * 构建聊天历史
+     * 按当前提供商的token预算从最新消息向前选取，系统提示词和滚动摘要优先计入预算；
+     * 最新一条消息总是保留。预算外尚未摘要的早期消息会异步折叠进会话的滚动摘要。
      */
-    private List<ChatMessage> buildChatHistory(List<AiMessage> history) {
+    private List<ChatMessage> buildChatHistory(AiChat chat, List<AiMessage> history) {
+        String systemPrompt = aiConfig.getSystemPrompt();
+        String summary = chat.getSummary();
+        long summaryUntilId = chat.getSummaryUntilId() != null ? chat.getSummaryUntilId() : 0L;
+        boolean hasSummary = summary != null && !summary.isEmpty();
+
+        // 检索与最新用户问题相关的商品
+        String productContext = null;
+        AiMessage latest = history.isEmpty() ? null : history.get(history.size() - 1);
+        if (latest != null && "user".equals(latest.getRole())) {
+            productContext = formatProducts(productVectorIndex.search(latest.getContent()));
+        }
+
+        int budget = aiConfig.getTokenBudget().getBudget(aiProviderRouter.primaryProvider());
+        budget -= TokenEstimator.estimateMessage(systemPrompt);
+        if (hasSummary) {
+            budget -= TokenEstimator.estimateMessage(SUMMARY_PREFIX + summary);
+        }
+        if (productContext != null) {
+            budget -= TokenEstimator.estimateMessage(productContext);
+        }
+
+        int start = history.size();
+        while (start > 0) {
+            AiMessage msg = history.get(start - 1);
+            if (msg.getId() != null && msg.getId() <= summaryUntilId) {
+                // 已被摘要覆盖
+                break;
+            }
+            int cost = TokenEstimator.estimateMessage(msg.getContent());
+            if (cost > budget && start < history.size()) {
+                break;
+            }
+            budget -= cost;
+            start--;
+        }
+
         List<ChatMessage> chatMessages = new ArrayList<>();
 
-        // 添加系统提示词
-        chatMessages.add(SystemMessage.from(aiConfig.getSystemPrompt()));
+        // 添加系统提示词和早期对话摘要
+        chatMessages.add(SystemMessage.from(systemPrompt));
+        if (hasSummary) {
+            chatMessages.add(SystemMessage.from(SUMMARY_PREFIX + summary));
+        }
+        if (productContext != null) {
+            chatMessages.add(SystemMessage.from(productContext));
+        }
 
-        // 添加历史消息（限制最近20条消息以控制token使用）
-        int startIndex = Math.max(0, history.size() - 20);
-        for (int i = startIndex; i < history.size(); i++) {
+        // 添加预算内的历史消息
+        for (int i = start; i < history.size(); i++) {
             AiMessage msg = history.get(i);
             if ("user".equals(msg.getRole())) {
                 chatMessages.add(UserMessage.from(msg.getContent()));
@@ -338,144 +374,520 @@ public class AiChatService {
             }
         }
 
+        // 预算外的消息尚未被摘要覆盖时，异步更新摘要
+        if (start > 0) {
+            Long newestExcluded = history.get(start - 1).getId();
+            if (newestExcluded != null && newestExcluded > summaryUntilId) {
+                summarizeAsync(chat, newestExcluded);
+            }
+        }
+
         return chatMessages;
     }
 
     /**
-     * 发送消息并获取AI流式回复
+     * 非流式生成，模型请求调用工具时执行工具并把结果追加到对话中再次生成，直到模型给出回答
+     * @param conversation 对话消息，工具调用请求和结果会追加到其中
      */
-    @Async
-    public void sendMessageStream(String sessionId, String userMessage, Long userId, SseEmitter emitter) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                // 获取或创建聊天会话
-                AiChat chat = aiChatMapper.selectBySessionId(sessionId);
-                final String finalSessionId;
-                if (chat == null) {
-                    chat = createChat(userId);
-                    finalSessionId = chat.getSessionId();
-                } else {
-                    finalSessionId = sessionId;
+    private Response<dev.langchain4j.data.message.AiMessage> generateWithTools(List<ChatMessage> conversation,
+                                                                               Long userId, String sessionId,
+                                                                               String provider) {
+        List<ToolSpecification> tools = aiChatTools.specifications(userId);
+        int maxRounds = aiConfig.getTools().getMaxRounds();
+        TokenUsage usage = null;
+        for (int round = 1; ; round++) {
+            Response<dev.langchain4j.data.message.AiMessage> response = aiProviderRouter.generate(provider, conversation,
+                    round <= maxRounds ? tools : Collections.<ToolSpecification>emptyList());
+            usage = usage == null ? response.tokenUsage() : usage.add(response.tokenUsage());
+            dev.langchain4j.data.message.AiMessage content = response.content();
+            if (!content.hasToolExecutionRequests()) {
+                return new Response<>(content, usage, response.finishReason());
+            }
+            conversation.add(content);
+            conversation.addAll(aiChatTools.execute(content.toolExecutionRequests(), userId, sessionId));
+        }
+    }
+
+    /**
+     * 对话中是否调用过工具
+     */
+    private static boolean usedTools(List<ChatMessage> conversation) {
+        for (ChatMessage message : conversation) {
+            if (message instanceof ToolExecutionResultMessage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把检索到的商品整理为提示词，没有商品时返回null
+     */
+    private String formatProducts(List<ProductVectorIndex.Match> matches) {
+        if (matches.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(PRODUCT_PREFIX);
+        for (ProductVectorIndex.Match match : matches) {
+            sb.append("- 商品ID ").append(match.getProductId()).append("：").append(match.getName())
+              .append("，日租").append(formatPrice(match.getDailyPrice()))
+              .append("，周租").append(formatPrice(match.getWeeklyPrice()))
+              .append("，月租").append(formatPrice(match.getMonthlyPrice()))
+              .append("，押金").append(formatPrice(match.getDeposit()))
+              .append("，库存").append(match.getStock());
+            if (!match.getDescription().isEmpty()) {
+                sb.append("。").append(match.getDescription());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String formatPrice(BigDecimal price) {
+        return price != null ? price.stripTrailingZeros().toPlainString() + "元" : "未设置";
+    }
+
+    /**
+     * 提示词中是否包含检索到的商品信息
+     */
+    private static boolean hasProductContext(List<ChatMessage> chatMessages) {
+        for (ChatMessage message : chatMessages) {
+            if (message instanceof SystemMessage && ((SystemMessage) message).text().startsWith(PRODUCT_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 异步把 (summaryUntilId, upToId] 范围内的消息合并进会话摘要
+     * 摘要请求进入AI请求执行器的后台队列，不与用户请求争抢排队位置；
+     * 提供商有请求排队或并发占用较高时放弃，下一轮对话会再次触发
+     */
+    private void summarizeAsync(AiChat chat, long upToId) {
+        if (!Boolean.TRUE.equals(aiConfig.getTokenBudget().getSummaryEnabled())) {
+            return;
+        }
+        String provider = aiProviderRouter.primaryProvider();
+        if (!aiRequestExecutor.hasSpareCapacity(provider, aiConfig.getTitle().getMaxUtilization())
+                || !summarizing.add(chat.getSessionId())) {
+            return;
+        }
+        aiRequestExecutor.submitBackground(provider, new AiRequestExecutor.AiTask() {
+            @Override
+            public void run(AiRequestExecutor.Ticket ticket) {
+                try {
+                    updateSummary(chat, upToId, provider);
+                } catch (Exception e) {
+                    log.warn("生成对话摘要失败，会话: {}", chat.getSessionId(), e);
+                } finally {
+                    summarizing.remove(chat.getSessionId());
+                    ticket.release();
                 }
+            }
 
-                // 保存用户消息
-                AiMessage userMsg = new AiMessage(chat.getId(), finalSessionId, userMessage, "user");
-                aiMessageMapper.insert(userMsg);
+            @Override
+            public void rejected(AiRequestExecutor.RejectedException reason) {
+                summarizing.remove(chat.getSessionId());
+            }
+        });
+    }
 
-                // 发送用户消息确认
-                emitter.send(SseEmitter.event()
-                    .name("user_message")
-                    .data("{\"content\":\"" + escapeJson(userMessage) + "\",\"role\":\"user\"}"));
+    private void updateSummary(AiChat chat, long upToId, String provider) {
+        AiConfig.TokenBudgetConfig config = aiConfig.getTokenBudget();
+        long afterId = chat.getSummaryUntilId() != null ? chat.getSummaryUntilId() : 0L;
+        List<AiMessage> messages = aiMessageMapper.selectRangeBySessionId(chat.getSessionId(), afterId, upToId,
+                config.getSummaryMaxMessages());
+        if (messages.isEmpty()) {
+            return;
+        }
 
-                // 获取历史消息构建上下文
-                List<AiMessage> history = aiMessageMapper.selectBySessionId(finalSessionId);
-                List<ChatMessage> chatMessages = buildChatHistory(history);
-                
-                final AiChat finalChat = chat;
+        StringBuilder transcript = new StringBuilder();
+        if (chat.getSummary() != null && !chat.getSummary().isEmpty()) {
+            transcript.append("已有摘要：\n").append(chat.getSummary()).append("\n\n");
+        }
+        transcript.append("新增对话：\n");
+        for (AiMessage msg : messages) {
+            transcript.append("user".equals(msg.getRole()) ? "用户：" : "客服：").append(msg.getContent()).append('\n');
+        }
 
-                // 开始AI回复
-                emitter.send(SseEmitter.event()
-                    .name("ai_start")
-                    .data("{\"status\":\"start\"}"));
+        List<ChatMessage> prompt = Arrays.asList(
+                SystemMessage.from("你是对话摘要助手。请把已有摘要和新增对话合并为一段简洁的中文摘要，"
+                        + "保留用户的关键诉求、涉及的订单和商品信息以及客服已给出的结论，不超过"
+                        + config.getSummaryMaxChars() + "字，只输出摘要本身。"),
+                UserMessage.from(transcript.toString()));
+        String summary = aiProviderRouter.generate(provider, prompt, Collections.<ToolSpecification>emptyList())
+                .content().text();
+
+        long summaryUntilId = messages.get(messages.size() - 1).getId();
+        // 只向前推进，避免较慢的旧摘要覆盖较新的摘要
+        aiChatMapper.update(null, Wrappers.<AiChat>lambdaUpdate()
+                .set(AiChat::getSummary, summary)
+                .set(AiChat::getSummaryUntilId, summaryUntilId)
+                .eq(AiChat::getId, chat.getId())
+                .and(w -> w.isNull(AiChat::getSummaryUntilId).or().lt(AiChat::getSummaryUntilId, summaryUntilId)));
+    }
 
-                StringBuilder aiReplyBuilder = new StringBuilder();
-                
+    /**
+     * 发送消息并获取AI流式回复
+     * 同一会话同时只生成一个回复，会话正忙时按配置排队或以 {@link AiStreamRegistry.SessionBusyException} 拒绝；
+     * 相同客户端消息ID的重试接到原回复上，不会重复生成
+     * @param protocol 流式协议版本，见 {@link #STREAM_PROTOCOL_LEGACY} 和 {@link #STREAM_PROTOCOL_DELTA}
+     * @param clientMessageId 客户端生成的消息ID，重试时保持不变，可以为空
+     */
+    public void sendMessageStream(String sessionId, String userMessage, Long userId, Integer protocol,
+                                  String clientMessageId, SseEmitter emitter) {
+        int streamProtocol = protocol != null ? protocol : aiConfig.getStream().getDefaultProtocol();
+        AiStreamRegistry.AiStream stream = aiStreamRegistry.open(emitter, userId, sessionId, clientMessageId);
+        if (stream == null) {
+            // 重试已接到进行中或刚完成的回复上
+            return;
+        }
+        DeltaStreamWriter deltaWriter = streamProtocol == STREAM_PROTOCOL_DELTA ? new DeltaStreamWriter(stream) : null;
+        // 同一会话前面的回复结束后才开始，避免两个回复同时读取历史和写入消息
+        stream.start(() -> {
+            String provider = aiProviderRouter.primaryProvider(true);
+            aiRequestExecutor.submit(provider, userId, new AiRequestExecutor.AiTask() {
+                @Override
+                public void run(AiRequestExecutor.Ticket ticket) {
+                    // 客户端断开时立即释放执行许可，不必等待上游结束
+                    stream.onCancel(ticket::release);
+                    if (stream.isCancelled()) {
+                        return;
+                    }
+                    streamReply(sessionId, userMessage, userId, provider, stream, deltaWriter, ticket);
+                }
+
+                @Override
+                public void rejected(AiRequestExecutor.RejectedException reason) {
+                    try {
+                        stream.send(SseEmitter.event()
+                            .name("ai_error")
+                            .data(AiDeltaEncoder.encode("error", reason.getMessage(), "code", 429)));
+                        stream.complete();
+                    } catch (Exception e) {
+                        stream.completeWithError(e);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * 在AI工作线程上执行流式回复，回复结束或客户端断开时释放执行许可
+     */
+    private void streamReply(String sessionId, String userMessage, Long userId, String provider,
+                             AiStreamRegistry.AiStream stream, DeltaStreamWriter deltaWriter,
+                             AiRequestExecutor.Ticket ticket) {
+        try {
+            // 获取或创建聊天会话
+            AiChat chat = aiChatMapper.selectBySessionId(sessionId);
+            final String finalSessionId;
+            if (chat == null) {
+                chat = createChat(userId);
+                finalSessionId = chat.getSessionId();
+            } else {
+                finalSessionId = sessionId;
+            }
+
+            // 保存用户消息
+            AiMessage userMsg = new AiMessage(chat.getId(), finalSessionId, userMessage, "user");
+            saveMessage(userMsg);
+
+            // 发送用户消息确认
+            stream.send(SseEmitter.event()
+                .name("user_message")
+                .data(deltaWriter != null
+                    ? AiDeltaEncoder.encode("content", userMessage, "role", "user")
+                    : "{\"content\":\"" + escapeJson(userMessage) + "\",\"role\":\"user\"}"));
+
+            // 获取历史消息构建上下文
+            List<AiMessage> history = contextWindowCache.getWindow(finalSessionId);
+            boolean firstTurn = isFirstTurn(history);
+            
+            final AiChat finalChat = chat;
+
+            // 开始AI回复
+            stream.send(SseEmitter.event()
+                .name("ai_start")
+                .data("{\"status\":\"start\"}"));
+
+            // 会话第一轮的常见问题直接推送缓存回复
+            String cachedReply = firstTurn ? answerCache.get(userMessage) : null;
+            if (cachedReply != null) {
+                aiTelemetry.recordCacheHit(AiTelemetry.MODE_STREAM);
                 try {
-                    // 使用流式AI模型获取实时回复
-                    StreamingChatLanguageModel streamingModel = getStreamingChatModel();
-                    
-                    // 创建流式响应处理器
-                    StreamingResponseHandler<dev.langchain4j.data.message.AiMessage> handler = 
-                        new StreamingResponseHandler<dev.langchain4j.data.message.AiMessage>() {
-                            @Override
-                            public void onNext(String token) {
+                    AiMessage aiMsg = saveReply(finalChat, finalSessionId, cachedReply, null, userMessage);
+                    if (deltaWriter != null) {
+                        deltaWriter.onToken(cachedReply);
+                        deltaWriter.complete(true);
+                    } else {
+                        stream.send(SseEmitter.event()
+                            .name("ai_token")
+                            .data("{\"content\":\"" + escapeJson(cachedReply) + "\",\"full_content\":\"" + escapeJson(cachedReply) + "\"}"));
+                        stream.send(SseEmitter.event()
+                            .name("ai_complete")
+                            .data("{\"status\":\"complete\",\"cached\":true}"));
+                    }
+                    completeWhenSaved(stream, deltaWriter, aiMsg);
+                } finally {
+                    ticket.release();
+                }
+                return;
+            }
+
+            List<ChatMessage> chatMessages = buildChatHistory(finalChat, history);
+            // 引用了商品信息的回复会随商品变化而过时，不放入回复缓存
+            boolean cacheable = firstTurn && !hasProductContext(chatMessages);
+
+            // 模型请求调用工具时，工具调用和结果追加到对话中再次生成
+            List<ChatMessage> conversation = new ArrayList<>(chatMessages);
+            List<ToolSpecification> tools = aiChatTools.specifications(finalChat.getUserId());
+            int maxToolRounds = aiConfig.getTools().getMaxRounds();
+            AtomicInteger toolRounds = new AtomicInteger();
+            AtomicReference<TokenUsage> toolUsage = new AtomicReference<>();
+
+            StringBuilder aiReplyBuilder = new StringBuilder();
+            // 上游在取消后可能仍回调完成或错误，只处理第一次
+            AtomicBoolean finished = new AtomicBoolean(false);
+            
+            try {
+                // 创建流式响应处理器
+                StreamingResponseHandler<dev.langchain4j.data.message.AiMessage> handler = 
+                    new StreamingResponseHandler<dev.langchain4j.data.message.AiMessage>() {
+                        @Override
+                        public void onNext(String token) {
+                            // 客户端已断开时抛出异常，由路由层中止上游的流式响应
+                            stream.checkCancelled();
+                            aiReplyBuilder.append(token);
+
+                            if (deltaWriter != null) {
+                                // 增量协议：合并token后只发送新增内容
+                                deltaWriter.onToken(token);
+                                return;
+                            }
+
+                            // 实时发送AI生成的token
+                            stream.send(SseEmitter.event()
+                                .name("ai_token")
+                                .data("{\"content\":\"" + escapeJson(token) + "\",\"full_content\":\"" + escapeJson(aiReplyBuilder.toString()) + "\"}"));
+                        }
+                        
+                        @Override
+                        public void onComplete(Response<dev.langchain4j.data.message.AiMessage> response) {
+                            dev.langchain4j.data.message.AiMessage content = response.content();
+                            if (content != null && content.hasToolExecutionRequests() && !stream.isCancelled()
+                                    && !finished.get()) {
                                 try {
-                                    aiReplyBuilder.append(token);
-                                    
-                                    // 实时发送AI生成的token
-                                    emitter.send(SseEmitter.event()
-                                        .name("ai_token")
-                                        .data("{\"content\":\"" + escapeJson(token) + "\",\"full_content\":\"" + escapeJson(aiReplyBuilder.toString()) + "\"}"));
+                                    continueWithTools(content, response.tokenUsage());
                                 } catch (Exception e) {
-                                    // 忽略发送错误，继续处理
+                                    onError(e);
                                 }
+                                return;
                             }
-                            
-                            @Override
-                            public void onComplete(Response<dev.langchain4j.data.message.AiMessage> response) {
-                                try {
-                                    // 保存AI回复
-                                    AiMessage aiMsg = new AiMessage(finalChat.getId(), finalSessionId, aiReplyBuilder.toString(), "assistant");
-                                    if (response.tokenUsage() != null) {
-                                        aiMsg.setTokens(response.tokenUsage().totalTokenCount());
-                                    }
-                                    aiMessageMapper.insert(aiMsg);
-
-                                    // 更新聊天会话时间
-                                    finalChat.setUpdatedAt(LocalDateTime.now());
-                                    aiChatMapper.updateById(finalChat);
-
-                                    // 发送完成信号
-                                    emitter.send(SseEmitter.event()
+                            if (!finished.compareAndSet(false, true)) {
+                                return;
+                            }
+                            try {
+                                if (stream.isCancelled()) {
+                                    saveTruncatedReply(finalChat, finalSessionId, aiReplyBuilder.toString());
+                                    return;
+                                }
+
+                                // 保存AI回复
+                                String aiReply = aiReplyBuilder.toString();
+                                // 调用过工具的回复包含用户的订单等信息，不放入回复缓存
+                                if (cacheable && toolRounds.get() == 0) {
+                                    answerCache.put(userMessage, aiReply);
+                                }
+                                TokenUsage usage = toolUsage.get() == null ? response.tokenUsage()
+                                        : toolUsage.get().add(response.tokenUsage());
+                                AiMessage aiMsg = saveReply(finalChat, finalSessionId, aiReply,
+                                        usage != null ? usage.totalTokenCount() : null,
+                                        firstTurn ? userMessage : null);
+
+                                // 发送完成信号，不等待写库；消息ID在写入后通过 ai_saved 发送
+                                if (deltaWriter != null) {
+                                    deltaWriter.complete(false);
+                                } else {
+                                    stream.send(SseEmitter.event()
                                         .name("ai_complete")
-                                        .data("{\"status\":\"complete\",\"message_id\":" + aiMsg.getId() + "}"));
-                                    
-                                    emitter.complete();
-                                } catch (Exception e) {
-                                    emitter.completeWithError(e);
+                                        .data("{\"status\":\"complete\"}"));
                                 }
+                                completeWhenSaved(stream, deltaWriter, aiMsg);
+                            } catch (Exception e) {
+                                stream.completeWithError(e);
+                            } finally {
+                                ticket.release();
                             }
-                            
-                            @Override
-                            public void onError(Throwable error) {
-                                try {
-                                    // 发送错误信息
-                                    String errorMessage = "抱歉，AI客服暂时无法回复，请稍后重试。";
-                                    emitter.send(SseEmitter.event()
-                                        .name("ai_error")
-                                        .data("{\"error\":\"" + escapeJson(errorMessage) + "\"}"));
-                                    
-                                    // 保存错误消息
-                                    AiMessage errorMsg = new AiMessage(finalChat.getId(), finalSessionId, errorMessage, "assistant");
-                                    aiMessageMapper.insert(errorMsg);
-                                    
-                                    emitter.complete();
-                                } catch (Exception e) {
-                                    emitter.completeWithError(e);
+                        }
+                        
+                        @Override
+                        public void onError(Throwable error) {
+                            if (!finished.compareAndSet(false, true)) {
+                                return;
+                            }
+                            try {
+                                if (stream.isCancelled() || AiStreamRegistry.isCancellation(error)) {
+                                    // 客户端已断开，保存已生成的部分内容
+                                    saveTruncatedReply(finalChat, finalSessionId, aiReplyBuilder.toString());
+                                    return;
                                 }
+
+                                // 发送错误信息
+                                String errorMessage = "抱歉，AI客服暂时无法回复，请稍后重试。";
+                                stream.send(SseEmitter.event()
+                                    .name("ai_error")
+                                    .data("{\"error\":\"" + escapeJson(errorMessage) + "\"}"));
+                                
+                                // 保存错误消息
+                                AiMessage errorMsg = new AiMessage(finalChat.getId(), finalSessionId, errorMessage, "assistant");
+                                saveMessage(errorMsg);
+                                
+                                stream.complete();
+                            } catch (Exception e) {
+                                stream.completeWithError(e);
+                            } finally {
+                                ticket.release();
                             }
-                        };
-                    
-                    // 开始流式生成
-                    streamingModel.generate(chatMessages, handler);
-                    
-                    // 注意：不要在这里调用 emitter.complete()，因为它会在handler的onComplete中调用
+                        }
+
+                        /**
+                         * 并行执行模型请求的工具，把结果追加到对话后继续流式生成
+                         */
+                        private void continueWithTools(dev.langchain4j.data.message.AiMessage content, TokenUsage usage) {
+                            toolUsage.set(toolUsage.get() == null ? usage : toolUsage.get().add(usage));
+                            List<String> names = new ArrayList<>();
+                            for (ToolExecutionRequest request : content.toolExecutionRequests()) {
+                                names.add(request.name());
+                            }
+                            // 通知客户端正在查询，避免长时间没有输出
+                            stream.send(SseEmitter.event()
+                                .name("ai_tool")
+                                .data(AiDeltaEncoder.encode("tools", String.join(",", names))));
+
+                            conversation.add(content);
+                            conversation.addAll(aiChatTools.execute(content.toolExecutionRequests(), finalChat.getUserId(), finalSessionId));
+                            int rounds = toolRounds.incrementAndGet();
+                            AiProviderRouter.StreamHandle next = aiProviderRouter.generateStream(provider, conversation,
+                                    rounds < maxToolRounds ? tools : Collections.<ToolSpecification>emptyList(), this);
+                            stream.onCancel(next::cancel);
+                        }
+                    };
+                
+                // 开始流式生成（由路由层选择提供商，开始输出前失败会切换提供商）
+                AiProviderRouter.StreamHandle upstream = aiProviderRouter.generateStream(provider, conversation,
+                        maxToolRounds > 0 ? tools : Collections.<ToolSpecification>emptyList(), handler);
+                // 客户端断开时立即中止上游请求，不必等到下一个token
+                stream.onCancel(upstream::cancel);
+                
+                // 注意：不要在这里调用 stream.complete()，因为它会在handler的onComplete中调用
 
-                } catch (Exception e) {
-                    // 发送错误信息
-                    String errorMessage = "抱歉，AI客服暂时无法回复，请稍后重试。";
-                    emitter.send(SseEmitter.event()
-                        .name("ai_error")
-                        .data("{\"error\":\"" + escapeJson(errorMessage) + "\"}"));
-                    
-                    // 保存错误消息
-                    AiMessage errorMsg = new AiMessage(finalChat.getId(), finalSessionId, errorMessage, "assistant");
-                    aiMessageMapper.insert(errorMsg);
-                    
-                    emitter.complete();
-                }
+            } catch (AiStreamRegistry.CancelledException e) {
+                throw e;
+            } catch (Exception e) {
+                ticket.release();
+
+                // 发送错误信息
+                String errorMessage = "抱歉，AI客服暂时无法回复，请稍后重试。";
+                stream.send(SseEmitter.event()
+                    .name("ai_error")
+                    .data("{\"error\":\"" + escapeJson(errorMessage) + "\"}"));
+                
+                // 保存错误消息
+                AiMessage errorMsg = new AiMessage(finalChat.getId(), finalSessionId, errorMessage, "assistant");
+                saveMessage(errorMsg);
+                
+                stream.complete();
+            }
 
+        } catch (AiStreamRegistry.CancelledException e) {
+            // 客户端在回复开始前断开
+            ticket.release();
+        } catch (Exception e) {
+            ticket.release();
+            try {
+                stream.send(SseEmitter.event()
+                    .name("error")
+                    .data("{\"error\":\"" + escapeJson("系统错误: " + e.getMessage()) + "\"}"));
+            } catch (AiStreamRegistry.CancelledException cancelled) {
+                // 忽略发送错误
+            }
+            stream.completeWithError(e);
+        }
+    }
+
+    /**
+     * 保存客户端断开时已生成的部分回复
+     */
+    private void saveTruncatedReply(AiChat chat, String sessionId, String content) {
+        if (content.isEmpty()) {
+            return;
+        }
+        AiMessage aiMsg = new AiMessage(chat.getId(), sessionId, content, "assistant");
+        aiMsg.setTruncated(true);
+        saveMessage(aiMsg);
+        log.info("客户端已断开，保存未完成的AI回复，sessionId: {}，长度: {}", sessionId, content.length());
+    }
+
+    /**
+     * 增量协议的帧发送器
+     * 待发送内容达到字符上限时立即发送，否则在时间窗口结束时由刷新线程发送；
+     * 发送在同一把锁内完成，保证帧按序号顺序写出
+     */
+    private class DeltaStreamWriter {
+        private final AiStreamRegistry.AiStream stream;
+        private final AiDeltaEncoder encoder;
+        private final long windowMs;
+        private boolean flushScheduled = false;
+
+        DeltaStreamWriter(AiStreamRegistry.AiStream stream) {
+            AiConfig.StreamConfig config = aiConfig.getStream();
+            this.stream = stream;
+            this.encoder = new AiDeltaEncoder(config.getFrameMaxChars(), config.getSyncEveryFrames());
+            this.windowMs = config.getFrameWindowMs();
+        }
+
+        synchronized void onToken(String token) {
+            String frame = encoder.append(token);
+            if (frame != null) {
+                sendFrame(frame);
+            } else if (!flushScheduled && encoder.hasPending()) {
+                flushScheduled = true;
+                frameFlusher.schedule(this::flushQuietly, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void flush() {
+            flushScheduled = false;
+            String frame = encoder.flush();
+            if (frame != null) {
+                sendFrame(frame);
+            }
+        }
+
+        synchronized void complete(boolean cached) {
+            flush();
+            stream.send(SseEmitter.event()
+                .name("ai_complete")
+                .data(AiDeltaEncoder.encode("status", "complete",
+                        "offset", encoder.getOffset(), "crc32", encoder.getChecksum(), "cached", cached)));
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
             } catch (Exception e) {
-                try {
-                    emitter.send(SseEmitter.event()
-                        .name("error")
-                        .data("{\"error\":\"" + escapeJson("系统错误: " + e.getMessage()) + "\"}"));
-                } catch (IOException ioException) {
-                    // 忽略发送错误
-                }
-                emitter.completeWithError(e);
+                // 连接已断开，回复被标记为已取消，下一个token到达时中止上游
             }
-        });
+        }
+
+        private void sendFrame(String frame) {
+            stream.send(SseEmitter.event().name(AiDeltaEncoder.EVENT_DELTA).data(frame));
+            if (encoder.isSyncDue()) {
+                stream.send(SseEmitter.event().name(AiDeltaEncoder.EVENT_SYNC).data(encoder.sync()));
+            }
+        }
     }
 
     /**
@@ -492,9 +904,13 @@ public class AiChatService {
 
     /**
      * 重新加载AI模型（当配置更改时）
+     * 新模型构建完成后原子替换，进行中的回复继续使用旧模型直到结束
      */
     public void reloadModel() {
-        this.chatModel = null;
-        this.streamingChatModel = null;
+        Map<String, String> errors = aiModelRegistry.reload();
+        if (!errors.isEmpty()) {
+            log.warn("部分AI提供商的模型创建失败: {}", errors);
+        }
+        answerCache.invalidate();
     }
 }
\ No newline at end of file
@@ -0,0 +1,384 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.OrderStatus;
+import com.casual.rent.common.ProductStatus;
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.entity.Order;
+import com.casual.rent.entity.Product;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.agent.tool.JsonSchemaProperty;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI客服可调用的查询工具
+ * 把订单和商品查询包装为带类型参数的工具提供给模型，订单类工具只查询当前会话用户自己的订单，
+ * 用户ID由服务端传入而不是由模型给出。模型一次返回的多个工具调用并行执行，
+ * 结果按会话缓存一小段时间，同一会话中重复的查询直接使用缓存结果。
+ */
+@Component
+public class AiChatTools {
+
+    private static final Logger log = LoggerFactory.getLogger(AiChatTools.class);
+
+    public static final String LIST_MY_ORDERS = "list_my_orders";
+    public static final String GET_ORDER_DETAIL = "get_order_detail";
+    public static final String GET_PRODUCT = "get_product";
+    public static final String SEARCH_PRODUCTS = "search_products";
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private ProductService productService;
+
+    // 工具参数解析，忽略模型多给的字段
+    private final ObjectMapper argumentMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ObjectMapper resultMapper = new ObjectMapper();
+
+    // 会话ID -> (工具名+参数 -> 缓存结果)
+    private final Map<String, Map<String, CachedResult>> cache = new ConcurrentHashMap<>();
+
+    private ExecutorService toolPool;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * list_my_orders 的参数
+     */
+    static class ListOrdersArgs {
+        public Integer status;
+    }
+
+    /**
+     * get_order_detail 的参数
+     */
+    static class OrderDetailArgs {
+        public String orderNo;
+    }
+
+    /**
+     * get_product 的参数
+     */
+    static class ProductArgs {
+        public Long productId;
+    }
+
+    /**
+     * search_products 的参数
+     */
+    static class SearchProductsArgs {
+        public String keyword;
+        public BigDecimal maxDailyPrice;
+    }
+
+    private static final class CachedResult {
+        final String value;
+        final long expiresAt;
+
+        CachedResult(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        toolPool = Executors.newFixedThreadPool(Math.max(1, aiConfig.getTools().getThreads()), r -> {
+            Thread thread = new Thread(r, "AiChatTool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        toolPool.shutdownNow();
+    }
+
+    /**
+     * 提供给模型的工具列表，没有登录用户的会话不提供订单类工具
+     */
+    public List<ToolSpecification> specifications(Long userId) {
+        if (!Boolean.TRUE.equals(aiConfig.getTools().getEnabled())) {
+            return Collections.emptyList();
+        }
+        List<ToolSpecification> specifications = new ArrayList<>();
+        if (userId != null) {
+            specifications.add(ToolSpecification.builder()
+                    .name(LIST_MY_ORDERS)
+                    .description("查询当前用户最近的租赁订单，返回订单号、商品、状态、租期和金额")
+                    .addOptionalParameter("status", JsonSchemaProperty.INTEGER,
+                            JsonSchemaProperty.description("按订单状态筛选：" + orderStatusCodes()))
+                    .build());
+            specifications.add(ToolSpecification.builder()
+                    .name(GET_ORDER_DETAIL)
+                    .description("根据订单号查询当前用户某个订单的详情，包括发货和归还时间")
+                    .addParameter("orderNo", JsonSchemaProperty.STRING, JsonSchemaProperty.description("订单号"))
+                    .build());
+        }
+        specifications.add(ToolSpecification.builder()
+                .name(GET_PRODUCT)
+                .description("根据商品ID查询商品的租金、押金、库存和上架状态")
+                .addParameter("productId", JsonSchemaProperty.INTEGER, JsonSchemaProperty.description("商品ID"))
+                .build());
+        specifications.add(ToolSpecification.builder()
+                .name(SEARCH_PRODUCTS)
+                .description("按名称关键字和日租金上限搜索可租的商品，按日租金从低到高返回")
+                .addOptionalParameter("keyword", JsonSchemaProperty.STRING,
+                        JsonSchemaProperty.description("商品名称关键字"))
+                .addOptionalParameter("maxDailyPrice", JsonSchemaProperty.NUMBER,
+                        JsonSchemaProperty.description("日租金上限（元）"))
+                .build());
+        return specifications;
+    }
+
+    /**
+     * 并行执行模型请求的工具调用，结果按请求顺序返回
+     * 单个工具失败或超时时返回错误说明，由模型据此回复用户
+     * @param userId 会话所属用户，不能使用请求参数中的用户ID
+     */
+    public List<ToolExecutionResultMessage> execute(List<ToolExecutionRequest> requests, Long userId, String sessionId) {
+        long timeout = aiConfig.getTools().getTimeoutMs();
+        long deadline = System.currentTimeMillis() + timeout;
+        List<Future<String>> futures = new ArrayList<>();
+        for (ToolExecutionRequest request : requests) {
+            futures.add(toolPool.submit(() -> executeCached(request, userId, sessionId)));
+        }
+
+        List<ToolExecutionResultMessage> results = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            ToolExecutionRequest request = requests.get(i);
+            Future<String> future = futures.get(i);
+            String result;
+            try {
+                result = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timeouts.incrementAndGet();
+                log.warn("AI工具调用超时: {}", request.name());
+                result = error("查询超时，请稍后再试");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = error("查询被中断");
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.warn("AI工具调用失败: {}，参数: {}", request.name(), request.arguments(), e);
+                result = error("查询失败");
+            }
+            results.add(ToolExecutionResultMessage.from(request, result));
+        }
+        return results;
+    }
+
+    /**
+     * 定期清理过期的缓存结果
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().forEach(results -> results.values().removeIf(result -> result.expiresAt <= now));
+        cache.values().removeIf(Map::isEmpty);
+    }
+
+    /**
+     * 工具调用统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("calls", calls.get());
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("failures", failures.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("cachedSessions", cache.size());
+        return stats;
+    }
+
+    private String executeCached(ToolExecutionRequest request, Long userId, String sessionId) throws Exception {
+        calls.incrementAndGet();
+        // 订单类工具的结果取决于用户，缓存key包含用户，避免同一会话换用户后命中他人的结果
+        String key = userId + ":" + request.name() + ":" + normalizeArguments(request.arguments());
+        Map<String, CachedResult> sessionCache = cache.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>());
+        long now = System.currentTimeMillis();
+        CachedResult cached = sessionCache.get(key);
+        if (cached != null && cached.expiresAt > now) {
+            cacheHits.incrementAndGet();
+            return cached.value;
+        }
+        String result = dispatch(request, userId);
+        long ttl = TimeUnit.SECONDS.toMillis(aiConfig.getTools().getCacheTtlSeconds());
+        sessionCache.put(key, new CachedResult(result, System.currentTimeMillis() + ttl));
+        return result;
+    }
+
+    private String dispatch(ToolExecutionRequest request, Long userId) throws Exception {
+        String arguments = request.arguments() == null || request.arguments().trim().isEmpty() ? "{}" : request.arguments();
+        switch (request.name()) {
+            case LIST_MY_ORDERS:
+                return listMyOrders(userId, argumentMapper.readValue(arguments, ListOrdersArgs.class));
+            case GET_ORDER_DETAIL:
+                return getOrderDetail(userId, argumentMapper.readValue(arguments, OrderDetailArgs.class));
+            case GET_PRODUCT:
+                return getProduct(argumentMapper.readValue(arguments, ProductArgs.class));
+            case SEARCH_PRODUCTS:
+                return searchProducts(argumentMapper.readValue(arguments, SearchProductsArgs.class));
+            default:
+                return error("未知的工具: " + request.name());
+        }
+    }
+
+    private String listMyOrders(Long userId, ListOrdersArgs args) throws Exception {
+        if (userId == null) {
+            return error("用户未登录，无法查询订单");
+        }
+        List<Order> orders = orderService.getUserOrders(1, aiConfig.getTools().getMaxResults(), userId, args.status)
+                .getRecords();
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Order order : orders) {
+            result.add(summarize(order));
+        }
+        return resultMapper.writeValueAsString(Collections.singletonMap("orders", result));
+    }
+
+    private String getOrderDetail(Long userId, OrderDetailArgs args) throws Exception {
+        if (userId == null) {
+            return error("用户未登录，无法查询订单");
+        }
+        if (args.orderNo == null || args.orderNo.trim().isEmpty()) {
+            return error("缺少订单号");
+        }
+        Order order = orderService.getUserOrderByNo(userId, args.orderNo.trim());
+        if (order == null) {
+            return error("没有找到该订单号对应的订单");
+        }
+        Map<String, Object> detail = summarize(order);
+        detail.put("quantity", order.getQuantity());
+        detail.put("unitPrice", order.getUnitPrice());
+        detail.put("deposit", order.getDeposit());
+        detail.put("shippedAt", toText(order.getShippedAt()));
+        detail.put("returnedAt", toText(order.getReturnedAt()));
+        detail.put("remark", order.getRemark());
+        return resultMapper.writeValueAsString(detail);
+    }
+
+    private String getProduct(ProductArgs args) throws Exception {
+        if (args.productId == null) {
+            return error("缺少商品ID");
+        }
+        Product product = productService.getById(args.productId);
+        if (product == null) {
+            return error("商品不存在");
+        }
+        Map<String, Object> result = summarize(product);
+        result.put("status", ProductStatus.getDescription(product.getStatus()));
+        result.put("description", product.getDescription());
+        return resultMapper.writeValueAsString(result);
+    }
+
+    private String searchProducts(SearchProductsArgs args) throws Exception {
+        List<Product> products = productService.searchAvailableProducts(args.keyword, args.maxDailyPrice,
+                aiConfig.getTools().getMaxResults());
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Product product : products) {
+            result.add(summarize(product));
+        }
+        return resultMapper.writeValueAsString(Collections.singletonMap("products", result));
+    }
+
+    private Map<String, Object> summarize(Order order) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("orderNo", order.getOrderNo());
+        summary.put("productName", order.getProductName());
+        summary.put("status", OrderStatus.getDescription(order.getStatus()));
+        summary.put("startDate", toText(order.getStartDate()));
+        summary.put("endDate", toText(order.getEndDate()));
+        summary.put("rentDays", order.getRentDays());
+        summary.put("totalAmount", order.getTotalAmount());
+        summary.put("createdAt", toText(order.getCreatedAt()));
+        return summary;
+    }
+
+    private Map<String, Object> summarize(Product product) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("productId", product.getId());
+        summary.put("name", product.getName());
+        summary.put("dailyPrice", product.getDailyPrice());
+        summary.put("weeklyPrice", product.getWeeklyPrice());
+        summary.put("monthlyPrice", product.getMonthlyPrice());
+        summary.put("deposit", product.getDeposit());
+        summary.put("stock", product.getStock());
+        return summary;
+    }
+
+    /**
+     * 参数按字段名排序后作为缓存键，避免字段顺序不同导致缓存不命中
+     */
+    private String normalizeArguments(String arguments) {
+        if (arguments == null || arguments.trim().isEmpty()) {
+            return "{}";
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> parsed = argumentMapper.readValue(arguments, Map.class);
+            return new TreeMap<>(parsed).toString();
+        } catch (Exception e) {
+            return arguments.trim();
+        }
+    }
+
+    private String orderStatusCodes() {
+        StringBuilder sb = new StringBuilder();
+        for (OrderStatus status : OrderStatus.values()) {
+            if (sb.length() > 0) {
+                sb.append("，");
+            }
+            sb.append(status.getCode()).append("-").append(status.getDescription());
+        }
+        return sb.toString();
+    }
+
+    private static String toText(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private String error(String message) {
+        try {
+            return resultMapper.writeValueAsString(Collections.singletonMap("error", message));
+        } catch (Exception e) {
+            return "{\"error\":\"" + message + "\"}";
+        }
+    }
+}
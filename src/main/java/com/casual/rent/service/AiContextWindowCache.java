@@ -0,0 +1,159 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.entity.AiMessage;
+import com.casual.rent.mapper.AiMessageMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI会话上下文窗口缓存
+ * 为每个会话在内存中维护最近若干条消息的环形缓冲区：首次访问时从数据库预热，
+ * 之后随用户消息和AI回复的保存追加，构建提示词时不再需要查询数据库。
+ * 缓存按最近最少使用淘汰，并清理长时间空闲的会话。
+ */
+@Component
+public class AiContextWindowCache {
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiMessageMapper aiMessageMapper;
+
+    @Autowired
+    private AiMessageWriter aiMessageWriter;
+
+    private final LinkedHashMap<String, SessionWindow> windows = new LinkedHashMap<String, SessionWindow>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SessionWindow> eldest) {
+            return size() > aiConfig.getContext().getMaxSessions();
+        }
+    };
+
+    /**
+     * 单个会话的消息窗口
+     */
+    private static final class SessionWindow {
+        private final ArrayDeque<AiMessage> messages = new ArrayDeque<>();
+        private final int capacity;
+        private volatile boolean loaded = false;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        SessionWindow(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void load(List<AiMessage> history) {
+            if (loaded) {
+                return;
+            }
+            for (AiMessage message : history) {
+                add(message);
+            }
+            loaded = true;
+        }
+
+        synchronized void add(AiMessage message) {
+            if (messages.size() >= capacity) {
+                messages.pollFirst();
+            }
+            messages.addLast(message);
+        }
+
+        synchronized List<AiMessage> snapshot() {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    /**
+     * 获取会话最近的消息（按时间升序），首次访问时从数据库加载
+     */
+    public List<AiMessage> getWindow(String sessionId) {
+        SessionWindow window = acquire(sessionId);
+        if (!window.loaded) {
+            synchronized (window) {
+                if (!window.loaded) {
+                    // 合并尚未写入的消息，避免加载的窗口缺少刚保存的消息
+                    window.load(aiMessageWriter.withPending(sessionId,
+                            () -> aiMessageMapper.selectRecentBySessionId(sessionId, window.capacity)));
+                }
+            }
+        }
+        return window.snapshot();
+    }
+
+    /**
+     * 追加一条已保存的消息，会话未被缓存时忽略（下次访问会从数据库加载）
+     */
+    public void append(String sessionId, AiMessage message) {
+        SessionWindow window;
+        synchronized (windows) {
+            window = windows.get(sessionId);
+        }
+        if (window != null && window.loaded) {
+            window.lastAccess = System.currentTimeMillis();
+            window.add(message);
+        }
+    }
+
+    /**
+     * 移除会话缓存
+     */
+    public void evict(String sessionId) {
+        synchronized (windows) {
+            windows.remove(sessionId);
+        }
+    }
+
+    /**
+     * 定期清理空闲会话
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(aiConfig.getContext().getIdleMinutes());
+        synchronized (windows) {
+            Iterator<SessionWindow> iterator = windows.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().lastAccess < deadline) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (windows) {
+            stats.put("sessions", windows.size());
+        }
+        stats.put("windowSize", aiConfig.getContext().getWindowSize());
+        stats.put("maxSessions", aiConfig.getContext().getMaxSessions());
+        return stats;
+    }
+
+    private SessionWindow acquire(String sessionId) {
+        synchronized (windows) {
+            SessionWindow window = windows.get(sessionId);
+            if (window == null) {
+                window = new SessionWindow(aiConfig.getContext().getWindowSize());
+                windows.put(sessionId, window);
+            }
+            window.lastAccess = System.currentTimeMillis();
+            return window;
+        }
+    }
+}
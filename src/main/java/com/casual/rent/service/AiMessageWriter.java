@@ -0,0 +1,415 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.entity.AiChat;
+import com.casual.rent.entity.AiMessage;
+import com.casual.rent.mapper.AiChatMapper;
+import com.casual.rent.mapper.AiMessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * AI消息异步写入器
+ * 流式回复过程中的消息插入和会话更新时间不再同步写库：消息进入所属会话的写入队列后立即返回，
+ * 由后台线程批量插入（单条多行INSERT，同一会话的消息按保存顺序写入，自增ID顺序与之一致），
+ * 会话更新时间在每次刷新时合并为一条UPDATE。消息的创建时间在入队时设置，
+ * 自增ID在写入后回填到同一个实体对象上，{@link #save} 返回的结果在写入后完成。
+ * 读取时用 {@link #withPending} 合并尚未写入的消息，不需要强制刷新。应用关闭时会写完队列中剩余的消息。
+ * 批次多次重试仍失败时改为逐条写入，仍然写不进去的消息追加到死信文件，不会静默丢失。
+ */
+@Component
+public class AiMessageWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(AiMessageWriter.class);
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiMessageMapper aiMessageMapper;
+
+    @Autowired
+    private AiChatMapper aiChatMapper;
+
+    // 会话ID -> 该会话待写入的消息，按保存顺序排列；写入失败的消息放回队首重试
+    private final Map<String, ConcurrentLinkedDeque<Pending>> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // 正在写入的批次，读取时与队列一起合并
+    private volatile List<Pending> inFlight = Collections.emptyList();
+
+    // 有新消息写入、待更新时间的会话ID，多次更新在一次刷新中合并
+    private final Set<Long> touchedChats = ConcurrentHashMap.newKeySet();
+
+    private int retryAttempts = 0;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong chatUpdates = new AtomicLong();
+    private volatile long lastFlushMs = 0;
+
+    private final ObjectMapper deadLetterMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "AiMessageWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 写入完成的回调（如向客户端发送消息ID）可能阻塞在慢连接上，不在写入线程上执行
+    private ExecutorService notifier;
+
+    private static final class Pending {
+        final AiMessage message;
+        final CompletableFuture<AiMessage> written = new CompletableFuture<>();
+
+        Pending(AiMessage message) {
+            this.message = message;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        long interval = aiConfig.getPersistence().getFlushIntervalMs();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        notifier = Executors.newFixedThreadPool(aiConfig.getPersistence().getCallbackThreads(), r -> {
+            Thread thread = new Thread(r, "AiMessageWriter-callback");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 关闭时停止定时刷新，并写完队列中剩余的消息
+     */
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (queued.get() > 0) {
+            log.error("关闭时仍有 {} 条AI消息未能写入", queued.get());
+        }
+        notifier.shutdown();
+    }
+
+    /**
+     * 消息进入所属会话的写入队列
+     * @return 消息写入后完成（ID已回填），写入失败转入死信时以异常完成
+     */
+    public CompletableFuture<AiMessage> save(AiMessage message) {
+        if (message.getCreatedAt() == null) {
+            message.setCreatedAt(LocalDateTime.now());
+        }
+        Pending pending = new Pending(message);
+        queued.incrementAndGet();
+        sessions.compute(message.getSessionId(), (sessionId, queue) -> {
+            ConcurrentLinkedDeque<Pending> target = queue != null ? queue : new ConcurrentLinkedDeque<>();
+            target.addLast(pending);
+            return target;
+        });
+        if (queued.get() >= aiConfig.getPersistence().getBatchSize()) {
+            flusher.execute(this::flushQuietly);
+        }
+        return pending.written;
+    }
+
+    /**
+     * 会话中目前已保存的消息全部写入后完成，不阻塞其他会话，也不触发全局刷新
+     */
+    public CompletableFuture<Void> whenWritten(String sessionId) {
+        List<CompletableFuture<AiMessage>> futures = new ArrayList<>();
+        for (Pending pending : pendingOf(sessionId)) {
+            futures.add(pending.written);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 读取会话的已写入消息并追加尚未写入的消息，按保存顺序排列
+     * 先取待写入消息的快照再读库，期间写入完成的消息只会重复而不会遗漏，重复的按ID或内容去掉
+     * @param stored 从数据库读取会话消息（按时间升序）
+     */
+    public List<AiMessage> withPending(String sessionId, Supplier<List<AiMessage>> stored) {
+        List<Pending> pending = pendingOf(sessionId);
+        List<AiMessage> messages = new ArrayList<>(stored.get());
+        if (pending.isEmpty()) {
+            return messages;
+        }
+        Set<Long> storedIds = new HashSet<>();
+        for (AiMessage message : messages) {
+            storedIds.add(message.getId());
+        }
+        int tail = messages.size();
+        for (Pending item : pending) {
+            AiMessage message = item.message;
+            if (message.getId() != null ? storedIds.contains(message.getId())
+                    : storedRecently(messages, tail, message)) {
+                continue;
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * 立即写入队列中的全部消息（关闭或压测时调用，请求路径上不需要）
+     */
+    public synchronized void flush() {
+        int batchSize = aiConfig.getPersistence().getBatchSize();
+        while (true) {
+            List<Pending> batch = drain(batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (!insert(batch)) {
+                // 失败批次已放回各会话队首，等待下次刷新重试
+                return;
+            }
+        }
+        touchChats();
+    }
+
+    /**
+     * 写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queued", queued.get());
+        stats.put("queuedSessions", sessions.size());
+        stats.put("pendingTouches", touchedChats.size());
+        stats.put("written", written.get());
+        stats.put("batches", batches.get());
+        stats.put("dropped", dropped.get());
+        stats.put("deadLettered", deadLettered.get());
+        stats.put("chatUpdates", chatUpdates.get());
+        stats.put("lastFlushMs", lastFlushMs);
+        return stats;
+    }
+
+    private List<Pending> pendingOf(String sessionId) {
+        List<Pending> pending = new ArrayList<>();
+        for (Pending item : inFlight) {
+            if (sessionId.equals(item.message.getSessionId())) {
+                pending.add(item);
+            }
+        }
+        ConcurrentLinkedDeque<Pending> queue = sessions.get(sessionId);
+        if (queue != null) {
+            pending.addAll(queue);
+        }
+        return pending;
+    }
+
+    /**
+     * 没有ID的待写入消息可能刚好在读库前写入、ID尚未回填，与读到的最后几条按角色和内容比对
+     */
+    private static boolean storedRecently(List<AiMessage> stored, int size, AiMessage message) {
+        for (int i = size - 1; i >= Math.max(0, size - 4); i--) {
+            AiMessage candidate = stored.get(i);
+            if (message.getRole().equals(candidate.getRole()) && message.getContent().equals(candidate.getContent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按会话取出一批消息，同一会话的消息保持保存顺序
+     */
+    private List<Pending> drain(int batchSize) {
+        List<Pending> batch = new ArrayList<>();
+        for (String sessionId : sessions.keySet()) {
+            ConcurrentLinkedDeque<Pending> queue = sessions.get(sessionId);
+            while (queue != null && batch.size() < batchSize) {
+                Pending pending = queue.pollFirst();
+                if (pending == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                batch.add(pending);
+            }
+            // 与入队在同一把分段锁内判断，不会删掉刚加入消息的队列
+            sessions.computeIfPresent(sessionId, (key, current) -> current.isEmpty() ? null : current);
+            if (batch.size() >= batchSize) {
+                break;
+            }
+        }
+        inFlight = batch;
+        return batch;
+    }
+
+    /**
+     * 把失败的批次按原顺序放回各会话队首
+     */
+    private void requeue(List<Pending> batch) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Pending pending = batch.get(i);
+            queued.incrementAndGet();
+            sessions.compute(pending.message.getSessionId(), (sessionId, queue) -> {
+                ConcurrentLinkedDeque<Pending> target = queue != null ? queue : new ConcurrentLinkedDeque<>();
+                target.addFirst(pending);
+                return target;
+            });
+        }
+    }
+
+    private boolean insert(List<Pending> batch) {
+        long start = System.currentTimeMillis();
+        List<AiMessage> messages = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            messages.add(pending.message);
+        }
+        try {
+            aiMessageMapper.insertBatch(messages);
+            lastFlushMs = System.currentTimeMillis() - start;
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+            for (AiMessage message : messages) {
+                touchedChats.add(message.getChatId());
+            }
+            retryAttempts = 0;
+            inFlight = Collections.emptyList();
+            notifyWritten(batch);
+            return true;
+        } catch (Exception e) {
+            retryAttempts++;
+            if (retryAttempts > aiConfig.getPersistence().getMaxRetries()) {
+                log.error("批量写入AI消息失败，已重试 {} 次，改为逐条写入 {} 条消息", retryAttempts - 1, batch.size(), e);
+                retryAttempts = 0;
+                insertOneByOne(batch);
+                inFlight = Collections.emptyList();
+                return true;
+            }
+            log.warn("批量写入AI消息失败，稍后重试（第 {} 次）: {}", retryAttempts, e.getMessage());
+            requeue(batch);
+            inFlight = Collections.emptyList();
+            return false;
+        }
+    }
+
+    /**
+     * 逐条写入失败的批次，避免一条坏数据拖累整批；仍然失败的消息写入死信文件
+     */
+    private void insertOneByOne(List<Pending> batch) {
+        List<Pending> succeeded = new ArrayList<>();
+        List<Pending> failed = new ArrayList<>();
+        for (Pending pending : batch) {
+            try {
+                aiMessageMapper.insertBatch(Collections.singletonList(pending.message));
+                written.incrementAndGet();
+                touchedChats.add(pending.message.getChatId());
+                succeeded.add(pending);
+            } catch (Exception e) {
+                log.warn("写入AI消息失败，会话: {}: {}", pending.message.getSessionId(), e.getMessage());
+                failed.add(pending);
+            }
+        }
+        notifyWritten(succeeded);
+        if (!failed.isEmpty()) {
+            List<AiMessage> messages = new ArrayList<>();
+            for (Pending pending : failed) {
+                messages.add(pending.message);
+            }
+            deadLetter(messages);
+            RuntimeException error = new RuntimeException("AI消息写入失败");
+            for (Pending pending : failed) {
+                notifier.execute(() -> pending.written.completeExceptionally(error));
+            }
+        }
+    }
+
+    private void notifyWritten(List<Pending> batch) {
+        // 每条消息单独回调，一个慢连接不会拖住同批其他会话
+        for (Pending pending : batch) {
+            notifier.execute(() -> pending.written.complete(pending.message));
+        }
+    }
+
+    private void deadLetter(List<AiMessage> messages) {
+        Path file = Paths.get(aiConfig.getPersistence().getDeadLetterFile());
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            StringBuilder lines = new StringBuilder();
+            for (AiMessage message : messages) {
+                lines.append(deadLetterMapper.writeValueAsString(message)).append('\n');
+            }
+            Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            deadLettered.addAndGet(messages.size());
+            log.error("{} 条AI消息无法写入数据库，已保存到死信文件 {}", messages.size(), file.toAbsolutePath());
+        } catch (IOException e) {
+            dropped.addAndGet(messages.size());
+            log.error("写入死信文件失败，丢弃 {} 条AI消息", messages.size(), e);
+        }
+    }
+
+    private void touchChats() {
+        if (touchedChats.isEmpty()) {
+            return;
+        }
+        List<Long> chatIds = new ArrayList<>(touchedChats);
+        touchedChats.removeAll(chatIds);
+        try {
+            // 只更新时间字段，避免覆盖异步生成的摘要
+            aiChatMapper.update(null, Wrappers.<AiChat>lambdaUpdate()
+                    .set(AiChat::getUpdatedAt, LocalDateTime.now())
+                    .in(AiChat::getId, chatIds));
+            chatUpdates.incrementAndGet();
+        } catch (Exception e) {
+            touchedChats.addAll(chatIds);
+            log.warn("更新AI会话时间失败: {}", e.getMessage());
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("刷新AI消息写入队列失败", e);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import dev.langchain4j.model.azure.AzureOpenAiChatModel;
+import dev.langchain4j.model.azure.AzureOpenAiStreamingChatModel;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.dashscope.QwenChatModel;
+import dev.langchain4j.model.dashscope.QwenStreamingChatModel;
+import dev.langchain4j.model.ollama.OllamaChatModel;
+import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
+import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import dev.langchain4j.model.qianfan.QianfanChatModel;
+import dev.langchain4j.model.qianfan.QianfanStreamingChatModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.RequestEntity;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * AI模型工厂
+ * 根据 {@link AiConfig} 中各提供商的配置创建聊天模型和流式聊天模型
+ */
+@Component
+public class AiModelFactory {
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    /**
+     * 创建指定提供商的聊天模型
+     */
+    public ChatLanguageModel createChatModel(String provider) {
+        switch (provider.toLowerCase()) {
+            case "openai":
+                return createOpenAiModel();
+            case "azure-openai":
+                return createAzureOpenAiModel();
+            case "ollama":
+                return createOllamaModel();
+            case "qianfan":
+                return createQianfanModel();
+            case "dashscope":
+                return createDashscopeModel();
+            case "doubao":
+                return createDoubaoModel();
+            case "mock":
+                return new MockChatModel(aiConfig.getMock());
+            default:
+                throw new RuntimeException("不支持的AI提供商: " + provider);
+        }
+    }
+
+    /**
+     * 创建指定提供商的流式聊天模型
+     */
+    public StreamingChatLanguageModel createStreamingChatModel(String provider) {
+        switch (provider.toLowerCase()) {
+            case "openai":
+                return createStreamingOpenAiModel();
+            case "azure-openai":
+                return createStreamingAzureOpenAiModel();
+            case "ollama":
+                return createStreamingOllamaModel();
+            case "qianfan":
+                return createStreamingQianfanModel();
+            case "dashscope":
+                return createStreamingDashscopeModel();
+            case "doubao":
+                return createStreamingDoubaoModel();
+            case "mock":
+                return new MockChatModel(aiConfig.getMock());
+            default:
+                throw new RuntimeException("不支持的AI提供商: " + provider);
+        }
+    }
+
+    /**
+     * 创建用于预热连接的探测请求：带认证的模型列表查询（GET /models）等不计费的轻量请求，
+     * 能建立到提供商的连接并校验密钥；不需要网络的提供商返回null
+     */
+    public RequestEntity<Void> createProbeRequest(String provider) {
+        switch (provider.toLowerCase()) {
+            case "openai":
+                return RequestEntity.get(URI.create(join(aiConfig.getOpenai().getBaseUrl(), "models")))
+                        .header("Authorization", "Bearer " + aiConfig.getOpenai().getApiKey())
+                        .build();
+            case "azure-openai":
+                return RequestEntity.get(URI.create(join(aiConfig.getAzureOpenai().getEndpoint(),
+                                "openai/models?api-version=2024-02-01")))
+                        .header("api-key", aiConfig.getAzureOpenai().getApiKey())
+                        .build();
+            case "ollama":
+                return RequestEntity.get(URI.create(join(aiConfig.getOllama().getBaseUrl(), "api/tags"))).build();
+            case "qianfan":
+                return RequestEntity.method(HttpMethod.HEAD, URI.create("https://aip.baidubce.com/")).build();
+            case "dashscope":
+                return RequestEntity.get(URI.create("https://dashscope.aliyuncs.com/compatible-mode/v1/models"))
+                        .header("Authorization", "Bearer " + aiConfig.getDashscope().getApiKey())
+                        .build();
+            case "doubao":
+                return RequestEntity.get(URI.create(join(aiConfig.getDoubao().getBaseUrl(), "models")))
+                        .header("Authorization", "Bearer " + aiConfig.getDoubao().getApiKey())
+                        .build();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 提供商当前配置的模型名称，用于监控指标
+     */
+    public String modelName(String provider) {
+        switch (provider.toLowerCase()) {
+            case "openai":
+                return aiConfig.getOpenai().getModel();
+            case "azure-openai":
+                return aiConfig.getAzureOpenai().getDeploymentName();
+            case "ollama":
+                return aiConfig.getOllama().getModel();
+            case "qianfan":
+                return aiConfig.getQianfan().getModel();
+            case "dashscope":
+                return aiConfig.getDashscope().getModel();
+            case "doubao":
+                return aiConfig.getDoubao().getModel();
+            case "mock":
+                return "mock";
+            default:
+                return "unknown";
+        }
+    }
+
+    private ChatLanguageModel createOpenAiModel() {
+        AiConfig.OpenAiConfig config = aiConfig.getOpenai();
+        return OpenAiChatModel.builder()
+                .apiKey(config.getApiKey())
+                .baseUrl(config.getBaseUrl())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .maxTokens(config.getMaxTokens())
+                .timeout(requestTimeout())
+                .maxRetries(aiConfig.getRouting().getMaxRetries())
+                .build();
+    }
+
+    private ChatLanguageModel createAzureOpenAiModel() {
+        AiConfig.AzureOpenAiConfig config = aiConfig.getAzureOpenai();
+        return AzureOpenAiChatModel.builder()
+                .apiKey(config.getApiKey())
+                .endpoint(config.getEndpoint())
+                .deploymentName(config.getDeploymentName())
+                .temperature(config.getTemperature())
+                .maxTokens(config.getMaxTokens())
+                .build();
+    }
+
+    private ChatLanguageModel createOllamaModel() {
+        AiConfig.OllamaConfig config = aiConfig.getOllama();
+        return OllamaChatModel.builder()
+                .baseUrl(config.getBaseUrl())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .build();
+    }
+
+    private ChatLanguageModel createQianfanModel() {
+        AiConfig.QianfanConfig config = aiConfig.getQianfan();
+        return QianfanChatModel.builder()
+                .apiKey(config.getApiKey())
+                .secretKey(config.getSecretKey())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .build();
+    }
+
+    private ChatLanguageModel createDashscopeModel() {
+        AiConfig.DashscopeConfig config = aiConfig.getDashscope();
+        return QwenChatModel.builder()
+                .apiKey(config.getApiKey())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature().floatValue())
+                .maxTokens(config.getMaxTokens())
+                .build();
+    }
+
+    private ChatLanguageModel createDoubaoModel() {
+        AiConfig.DoubaoConfig config = aiConfig.getDoubao();
+        return OpenAiChatModel.builder()
+                .apiKey(config.getApiKey())
+                .baseUrl(config.getBaseUrl())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .maxTokens(config.getMaxTokens())
+                .timeout(requestTimeout())
+                .maxRetries(aiConfig.getRouting().getMaxRetries())
+                .build();
+    }
+
+    // 流式模型创建方法
+    private StreamingChatLanguageModel createStreamingOpenAiModel() {
+        AiConfig.OpenAiConfig config = aiConfig.getOpenai();
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(config.getApiKey())
+                .baseUrl(config.getBaseUrl())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .maxTokens(config.getMaxTokens())
+                .timeout(requestTimeout())
+                .build();
+    }
+
+    private StreamingChatLanguageModel createStreamingAzureOpenAiModel() {
+        AiConfig.AzureOpenAiConfig config = aiConfig.getAzureOpenai();
+        return AzureOpenAiStreamingChatModel.builder()
+                .apiKey(config.getApiKey())
+                .endpoint(config.getEndpoint())
+                .deploymentName(config.getDeploymentName())
+                .temperature(config.getTemperature())
+                .maxTokens(config.getMaxTokens())
+                .build();
+    }
+
+    private StreamingChatLanguageModel createStreamingOllamaModel() {
+        AiConfig.OllamaConfig config = aiConfig.getOllama();
+        return OllamaStreamingChatModel.builder()
+                .baseUrl(config.getBaseUrl())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .build();
+    }
+
+    private StreamingChatLanguageModel createStreamingQianfanModel() {
+        AiConfig.QianfanConfig config = aiConfig.getQianfan();
+        return QianfanStreamingChatModel.builder()
+                .apiKey(config.getApiKey())
+                .secretKey(config.getSecretKey())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .build();
+    }
+
+    private StreamingChatLanguageModel createStreamingDashscopeModel() {
+        AiConfig.DashscopeConfig config = aiConfig.getDashscope();
+        return QwenStreamingChatModel.builder()
+                .apiKey(config.getApiKey())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature().floatValue())
+                .maxTokens(config.getMaxTokens())
+                .build();
+    }
+
+    private StreamingChatLanguageModel createStreamingDoubaoModel() {
+        AiConfig.DoubaoConfig config = aiConfig.getDoubao();
+        return OpenAiStreamingChatModel.builder()
+                .apiKey(config.getApiKey())
+                .baseUrl(config.getBaseUrl())
+                .modelName(config.getModel())
+                .temperature(config.getTemperature())
+                .maxTokens(config.getMaxTokens())
+                .timeout(requestTimeout())
+                .build();
+    }
+
+    private static String join(String baseUrl, String path) {
+        return baseUrl.endsWith("/") ? baseUrl + path : baseUrl + "/" + path;
+    }
+
+    private Duration requestTimeout() {
+        return Duration.ofMillis(aiConfig.getRouting().getRequestTimeoutMs());
+    }
+}
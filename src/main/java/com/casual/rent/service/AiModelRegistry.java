@@ -0,0 +1,350 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * AI模型注册表
+ * 所有提供商的模型客户端组成一个不可变快照，保存在原子引用中，请求只读取当前快照，无需加锁。
+ * 重新加载时先在后台构建并预热新快照（向每个提供商发送不计费的模型列表查询以建立连接、校验密钥，
+ * 可选地再发送一次生成请求），完成后一次性替换；旧快照上进行中的请求（包括流式回复）继续使用旧客户端直到结束。
+ */
+@Component
+public class AiModelRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(AiModelRegistry.class);
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiModelFactory aiModelFactory;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+    // 已被替换、仍有进行中请求的旧快照
+    private final List<Snapshot> draining = Collections.synchronizedList(new ArrayList<>());
+
+    private final ScheduledExecutorService drainMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "AiModelDrain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 一次模型租用，请求结束时释放
+     */
+    public static final class Lease<T> {
+        private final T model;
+        private final Snapshot snapshot;
+        private boolean released = false;
+
+        private Lease(T model, Snapshot snapshot) {
+            this.model = model;
+            this.snapshot = snapshot;
+        }
+
+        public T getModel() {
+            return model;
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                snapshot.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 模型快照，创建后不再修改
+     */
+    private static final class Snapshot {
+        final long version;
+        final Map<String, ChatLanguageModel> chatModels;
+        final Map<String, StreamingChatLanguageModel> streamingModels;
+        final Map<String, String> errors;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile long retiredAt = 0;
+
+        Snapshot(long version, Map<String, ChatLanguageModel> chatModels,
+                 Map<String, StreamingChatLanguageModel> streamingModels, Map<String, String> errors) {
+            this.version = version;
+            this.chatModels = Collections.unmodifiableMap(chatModels);
+            this.streamingModels = Collections.unmodifiableMap(streamingModels);
+            this.errors = Collections.unmodifiableMap(errors);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        current.set(build(1, false));
+        drainMonitor.scheduleWithFixedDelay(this::checkDraining, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainMonitor.shutdownNow();
+    }
+
+    /**
+     * 参与路由的提供商，未配置路由时只有 provider
+     */
+    public List<String> providers() {
+        List<String> configured = aiConfig.getRouting().getProviders();
+        if (configured == null || configured.isEmpty()) {
+            return Collections.singletonList(aiConfig.getProvider().toLowerCase());
+        }
+        List<String> providers = new ArrayList<>();
+        for (String provider : configured) {
+            providers.add(provider.toLowerCase());
+        }
+        return providers;
+    }
+
+    /**
+     * 租用提供商的聊天模型
+     */
+    public Lease<ChatLanguageModel> acquireChat(String provider) {
+        Snapshot snapshot = acquire(provider);
+        return new Lease<>(snapshot.chatModels.get(provider), snapshot);
+    }
+
+    /**
+     * 租用提供商的流式聊天模型
+     */
+    public Lease<StreamingChatLanguageModel> acquireStreaming(String provider) {
+        Snapshot snapshot = acquire(provider);
+        return new Lease<>(snapshot.streamingModels.get(provider), snapshot);
+    }
+
+    /**
+     * 按最新配置构建并预热新快照后替换当前快照
+     * @return 新快照中创建失败的提供商及原因
+     */
+    public synchronized Map<String, String> reload() {
+        Snapshot previous = current.get();
+        Snapshot next = build(previous.version + 1, true);
+        current.set(next);
+        retire(previous);
+        log.info("AI模型已重新加载，版本: {}，旧版本进行中请求: {}", next.version, previous.inFlight.get());
+        return next.errors;
+    }
+
+    /**
+     * 注册表状态
+     */
+    public Map<String, Object> getStats() {
+        Snapshot snapshot = current.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("version", snapshot.version);
+        stats.put("providers", new ArrayList<>(snapshot.chatModels.keySet()));
+        stats.put("errors", snapshot.errors);
+        stats.put("inFlight", snapshot.inFlight.get());
+        List<Map<String, Object>> drainingStats = new ArrayList<>();
+        synchronized (draining) {
+            for (Snapshot old : draining) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("version", old.version);
+                item.put("inFlight", old.inFlight.get());
+                drainingStats.add(item);
+            }
+        }
+        stats.put("draining", drainingStats);
+        return stats;
+    }
+
+    private Snapshot acquire(String provider) {
+        while (true) {
+            Snapshot snapshot = current.get();
+            if (!snapshot.chatModels.containsKey(provider)) {
+                snapshot = rebuildWith(provider);
+            }
+            snapshot.inFlight.incrementAndGet();
+            // 获取期间快照被替换时，改用新快照，保证旧快照的计数只会减少
+            if (snapshot == current.get()) {
+                return snapshot;
+            }
+            snapshot.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * 快照中缺少某个提供商（启动时创建失败或后来加入路由）时，补建该提供商并替换快照
+     */
+    private synchronized Snapshot rebuildWith(String provider) {
+        Snapshot latest = current.get();
+        if (latest.chatModels.containsKey(provider)) {
+            return latest;
+        }
+        Map<String, ChatLanguageModel> chatModels = new LinkedHashMap<>(latest.chatModels);
+        Map<String, StreamingChatLanguageModel> streamingModels = new LinkedHashMap<>(latest.streamingModels);
+        Map<String, String> errors = new LinkedHashMap<>(latest.errors);
+        try {
+            chatModels.put(provider, aiModelFactory.createChatModel(provider));
+            streamingModels.put(provider, aiModelFactory.createStreamingChatModel(provider));
+            errors.remove(provider);
+        } catch (RuntimeException e) {
+            errors.put(provider, e.getMessage());
+            throw e;
+        }
+        Snapshot next = new Snapshot(latest.version + 1, chatModels, streamingModels, errors);
+        current.set(next);
+        retire(latest);
+        return next;
+    }
+
+    private Snapshot build(long version, boolean prewarm) {
+        AiConfig.RegistryConfig config = aiConfig.getRegistry();
+        RestTemplate probeClient = prewarm ? new RestTemplateBuilder()
+                .setConnectTimeout(Duration.ofMillis(config.getPrewarmTimeoutMs()))
+                .setReadTimeout(Duration.ofMillis(config.getPrewarmTimeoutMs()))
+                .build() : null;
+        Map<String, ChatLanguageModel> chatModels = new LinkedHashMap<>();
+        Map<String, StreamingChatLanguageModel> streamingModels = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        for (String provider : providers()) {
+            try {
+                ChatLanguageModel chatModel = aiModelFactory.createChatModel(provider);
+                StreamingChatLanguageModel streamingModel = aiModelFactory.createStreamingChatModel(provider);
+                if (prewarm) {
+                    warmConnection(provider, probeClient);
+                    if (Boolean.TRUE.equals(config.getPrewarmPing())) {
+                        ping(provider, streamingModel);
+                    }
+                }
+                chatModels.put(provider, chatModel);
+                streamingModels.put(provider, streamingModel);
+            } catch (Exception e) {
+                // 配置不完整的提供商不影响其他提供商，首次使用时会再次尝试创建
+                log.warn("创建AI提供商 {} 的模型失败: {}", provider, e.getMessage());
+                errors.put(provider, e.getMessage());
+            }
+        }
+        return new Snapshot(version, chatModels, streamingModels, errors);
+    }
+
+    /**
+     * 查询提供商的模型列表，提前完成DNS解析、建连和TLS握手，并在替换前发现无效的密钥；
+     * 这类查询不计费，每次重新加载都会执行
+     */
+    private void warmConnection(String provider, RestTemplate probeClient) {
+        RequestEntity<Void> probe = aiModelFactory.createProbeRequest(provider);
+        if (probe == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            probeClient.exchange(probe, String.class);
+            log.info("AI提供商 {} 连接预热完成，耗时: {}ms", provider, System.currentTimeMillis() - start);
+        } catch (HttpStatusCodeException e) {
+            // 有响应说明连接已经建立
+            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED || e.getStatusCode() == HttpStatus.FORBIDDEN) {
+                log.warn("AI提供商 {} 认证失败，请检查密钥配置: {}", provider, e.getStatusCode());
+            } else {
+                log.info("AI提供商 {} 连接预热完成（状态码 {}），耗时: {}ms", provider,
+                        e.getRawStatusCode(), System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            // 预热失败不阻止替换，由路由层的熔断处理不可用的提供商
+            log.warn("AI提供商 {} 连接预热失败: {}", provider, e.getMessage());
+        }
+    }
+
+    /**
+     * 通过流式模型发送一次生成请求（会消耗少量token），默认关闭；
+     * 只发送一次，等待不超过预热超时时间
+     */
+    private void ping(String provider, StreamingChatLanguageModel streamingModel) {
+        long timeout = aiConfig.getRegistry().getPrewarmTimeoutMs();
+        List<ChatMessage> ping = Collections.singletonList(UserMessage.from("ping"));
+        long start = System.currentTimeMillis();
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            streamingModel.generate(ping, new StreamingResponseHandler<AiMessage>() {
+                @Override
+                public void onNext(String token) {
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    latch.countDown();
+                }
+            });
+            if (latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                log.info("AI提供商 {} 探测请求完成，耗时: {}ms", provider, System.currentTimeMillis() - start);
+            } else {
+                log.warn("AI提供商 {} 探测请求超过 {}ms 未完成，不再等待", provider, timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 探测失败不阻止替换，由路由层的熔断处理不可用的提供商
+            log.warn("AI提供商 {} 探测请求失败: {}", provider, e.getMessage());
+        }
+    }
+
+    private void retire(Snapshot snapshot) {
+        snapshot.retiredAt = System.currentTimeMillis();
+        if (snapshot.inFlight.get() > 0) {
+            draining.add(snapshot);
+        }
+    }
+
+    /**
+     * 检查旧快照上的请求是否已全部结束
+     */
+    private void checkDraining() {
+        long timeout = aiConfig.getRegistry().getDrainTimeoutMs();
+        long now = System.currentTimeMillis();
+        synchronized (draining) {
+            draining.removeIf(snapshot -> {
+                if (snapshot.inFlight.get() <= 0) {
+                    log.info("AI模型版本 {} 的请求已全部结束", snapshot.version);
+                    return true;
+                }
+                if (now - snapshot.retiredAt > timeout) {
+                    log.warn("AI模型版本 {} 仍有 {} 个请求未结束，停止等待", snapshot.version, snapshot.inFlight.get());
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+}
@@ -0,0 +1,627 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * AI提供商路由
+ * 为每个提供商维护实时的延迟（EWMA和p95）与错误统计，请求按延迟从低到高选择健康的提供商。
+ * 非流式请求在主提供商超过其p95延迟仍未返回时，向第二个提供商发送对冲请求，取先成功的结果；
+ * 请求失败时依次切换到下一个提供商。连续失败的提供商会被熔断一段时间，之后放行一个探测请求。
+ * 流式请求在尚未输出任何内容前失败时切换提供商，已输出内容后失败则直接返回错误。
+ */
+@Component
+public class AiProviderRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(AiProviderRouter.class);
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiModelRegistry aiModelRegistry;
+
+    @Autowired
+    private AiTelemetry aiTelemetry;
+
+    private final Map<String, ProviderStats> stats = new ConcurrentHashMap<>();
+
+    // 执行非流式请求（含对冲请求）的线程池，并发量已由 AiRequestExecutor 限制
+    private final ExecutorService attemptPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "AiProviderAttempt");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        attemptPool.shutdownNow();
+    }
+
+    /**
+     * 当前排在首位的提供商，用于选择执行通道
+     */
+    public String primaryProvider() {
+        return primaryProvider(false);
+    }
+
+    /**
+     * 当前排在首位的提供商，流式和非流式请求按各自的延迟排序
+     */
+    public String primaryProvider(boolean streaming) {
+        List<String> ranked = rank(streaming, null);
+        return ranked.isEmpty() ? aiConfig.getProvider().toLowerCase() : ranked.get(0);
+    }
+
+    /**
+     * 非流式生成，带对冲请求和故障切换
+     */
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return generate(messages, Collections.emptyList());
+    }
+
+    /**
+     * 非流式生成，模型可以请求调用给定的工具；不支持工具调用的模型按普通对话生成
+     */
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> tools) {
+        return generate(null, messages, tools);
+    }
+
+    /**
+     * 非流式生成，优先使用指定的提供商（通常是请求所在的执行通道），它不可用或失败时再按排序切换
+     */
+    public Response<AiMessage> generate(String preferred, List<ChatMessage> messages, List<ToolSpecification> tools) {
+        List<String> ranked = rank(false, preferred);
+        if (ranked.isEmpty()) {
+            throw new RuntimeException("没有可用的AI提供商");
+        }
+
+        AiConfig.RoutingConfig config = aiConfig.getRouting();
+        ExecutorCompletionService<Attempt> completion = new ExecutorCompletionService<>(attemptPool);
+        List<Future<Attempt>> futures = new ArrayList<>();
+        int next = 0;
+        int running = 0;
+        boolean hedged = false;
+        RuntimeException lastError = null;
+        // 已得到结果或放弃等待后置位，之后结束的请求只是被取消的对冲或重试，不计入提供商的成败
+        AtomicBoolean settled = new AtomicBoolean(false);
+
+        futures.add(completion.submit(attempt(ranked.get(next++), messages, tools, settled)));
+        running++;
+        try {
+            while (running > 0) {
+                Future<Attempt> done;
+                if (!hedged && Boolean.TRUE.equals(config.getHedgeEnabled()) && next < ranked.size()) {
+                    done = completion.poll(hedgeDelay(ranked.get(0)), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        // 主提供商响应过慢，发送对冲请求
+                        hedged = true;
+                        String hedge = ranked.get(next++);
+                        stats(hedge).recordHedge();
+                        futures.add(completion.submit(attempt(hedge, messages, tools, settled)));
+                        running++;
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+                running--;
+
+                Attempt result = done.get();
+                if (result.response != null) {
+                    return result.response;
+                }
+                lastError = result.error;
+                if (running == 0 && next < ranked.size()) {
+                    // 故障切换到下一个提供商
+                    futures.add(completion.submit(attempt(ranked.get(next++), messages, tools, settled)));
+                    running++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("AI请求被中断", e);
+        } catch (Exception e) {
+            throw new RuntimeException("AI请求失败: " + e.getMessage(), e);
+        } finally {
+            settled.set(true);
+            for (Future<Attempt> future : futures) {
+                future.cancel(true);
+            }
+        }
+        throw lastError != null ? lastError : new RuntimeException("没有可用的AI提供商");
+    }
+
+    /**
+     * 流式生成，尚未输出内容前失败时切换到下一个提供商
+     */
+    public StreamHandle generateStream(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        return generateStream(messages, Collections.emptyList(), handler);
+    }
+
+    /**
+     * 流式生成，模型请求调用工具时在 onComplete 的回复中返回工具调用请求
+     * @return 用于在客户端断开时中止上游请求的句柄
+     */
+    public StreamHandle generateStream(List<ChatMessage> messages, List<ToolSpecification> tools,
+                                       StreamingResponseHandler<AiMessage> handler) {
+        return generateStream(null, messages, tools, handler);
+    }
+
+    /**
+     * 流式生成，优先使用指定的提供商（通常是请求所在的执行通道）
+     */
+    public StreamHandle generateStream(String preferred, List<ChatMessage> messages, List<ToolSpecification> tools,
+                                       StreamingResponseHandler<AiMessage> handler) {
+        StreamHandle handle = new StreamHandle();
+        List<String> ranked = rank(true, preferred);
+        if (ranked.isEmpty()) {
+            handler.onError(new RuntimeException("没有可用的AI提供商"));
+            return handle;
+        }
+        streamFrom(ranked, 0, messages, tools, handler, handle);
+        return handle;
+    }
+
+    private void streamFrom(List<String> ranked, int index, List<ChatMessage> messages,
+                            List<ToolSpecification> tools, StreamingResponseHandler<AiMessage> handler,
+                            StreamHandle handle) {
+        String provider = ranked.get(index);
+        ProviderStats providerStats = stats(provider);
+        if (!providerStats.tryAcquire()) {
+            // 排序后熔断器被其他请求占用了探测机会，直接切换到下一个提供商
+            if (index + 1 < ranked.size() && !handle.isCancelled()) {
+                streamFrom(ranked, index + 1, messages, tools, handler, handle);
+            } else {
+                handler.onError(new RuntimeException("AI提供商 " + provider + " 暂不可用"));
+            }
+            return;
+        }
+        long start = System.currentTimeMillis();
+        AtomicBoolean started = new AtomicBoolean(false);
+        AtomicLong firstTokenAt = new AtomicLong();
+        AtomicInteger chunks = new AtomicInteger();
+        AtomicReference<AiModelRegistry.Lease<StreamingChatLanguageModel>> lease = new AtomicReference<>();
+        // 本次请求已结束（完成、失败或中止），之后上游的回调都不再处理
+        AtomicBoolean closed = new AtomicBoolean(false);
+        AtomicReference<RuntimeException> aborted = new AtomicReference<>();
+        // 中止后抛回上游一次，让上游退出读取循环并关闭连接
+        AtomicBoolean rethrown = new AtomicBoolean(false);
+
+        StreamingResponseHandler<AiMessage> routed = new StreamingResponseHandler<AiMessage>() {
+            @Override
+            public synchronized void onNext(String token) {
+                if (aborted.get() != null) {
+                    throw aborted.get();
+                }
+                if (closed.get()) {
+                    return;
+                }
+                if (started.compareAndSet(false, true)) {
+                    // 流式请求以首个token的延迟衡量提供商速度
+                    firstTokenAt.set(System.currentTimeMillis());
+                    providerStats.streamLatency.record(firstTokenAt.get() - start);
+                }
+                chunks.incrementAndGet();
+                try {
+                    handler.onNext(token);
+                } catch (RuntimeException e) {
+                    if (AiStreamRegistry.isCancellation(e)) {
+                        abort(e);
+                    }
+                    throw e;
+                }
+            }
+
+            @Override
+            public synchronized void onComplete(Response<AiMessage> response) {
+                if (!closed.compareAndSet(false, true)) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (started.compareAndSet(false, true)) {
+                    firstTokenAt.set(now);
+                    providerStats.streamLatency.record(now - start);
+                }
+                providerStats.recordSuccess();
+                release(lease.get());
+                aiTelemetry.recordSuccess(provider, AiTelemetry.MODE_STREAM, now - start,
+                        firstTokenAt.get() - start, response.tokenUsage(), chunks.get());
+                handler.onComplete(response);
+            }
+
+            @Override
+            public synchronized void onError(Throwable error) {
+                if (aborted.get() != null) {
+                    // 上游把中止时抛出的异常转交到这里后会继续读取，再抛回去才能结束读取循环
+                    if (rethrown.compareAndSet(false, true)) {
+                        throw aborted.get();
+                    }
+                    return;
+                }
+                if (AiStreamRegistry.isCancellation(error)) {
+                    abort(error instanceof RuntimeException ? (RuntimeException) error : new RuntimeException(error));
+                    return;
+                }
+                if (!closed.compareAndSet(false, true)) {
+                    return;
+                }
+                release(lease.get());
+                aiTelemetry.recordFailure(provider, AiTelemetry.MODE_STREAM, System.currentTimeMillis() - start, error);
+                providerStats.recordFailure();
+                if (!started.get() && index + 1 < ranked.size() && !handle.isCancelled()) {
+                    log.warn("AI提供商 {} 流式请求失败，切换到 {}: {}", provider, ranked.get(index + 1), error.getMessage());
+                    streamFrom(ranked, index + 1, messages, tools, handler, handle);
+                } else {
+                    handler.onError(error);
+                }
+            }
+
+            /**
+             * 客户端断开导致的中止只通知调用方一次，不计入提供商的失败，也不切换提供商
+             */
+            private void abort(RuntimeException reason) {
+                aborted.compareAndSet(null, reason);
+                if (!closed.compareAndSet(false, true)) {
+                    return;
+                }
+                release(lease.get());
+                aiTelemetry.recordFailure(provider, AiTelemetry.MODE_STREAM, System.currentTimeMillis() - start, reason);
+                if (started.get()) {
+                    providerStats.recordSuccess();
+                } else {
+                    providerStats.abandonAttempt();
+                }
+                handler.onError(reason);
+            }
+        };
+        handle.attach(() -> {
+            synchronized (routed) {
+                if (aborted.get() == null && !closed.get()) {
+                    routed.onError(new AiStreamRegistry.CancelledException("流式回复已取消"));
+                }
+            }
+        });
+
+        try {
+            // 租约持续到流式回复结束，期间模型重新加载不会影响这次回复
+            lease.set(aiModelRegistry.acquireStreaming(provider));
+            StreamingChatLanguageModel model = lease.get().getModel();
+            if (tools.isEmpty()) {
+                model.generate(messages, routed);
+            } else {
+                try {
+                    model.generate(messages, tools, routed);
+                } catch (IllegalArgumentException e) {
+                    // 该提供商的模型不支持工具调用，按普通对话生成
+                    model.generate(messages, routed);
+                }
+            }
+        } catch (Exception e) {
+            if (aborted.get() == null) {
+                routed.onError(e);
+            }
+        }
+    }
+
+    /**
+     * 各提供商的延迟、错误和熔断状态
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String provider : candidates()) {
+            result.put(provider, stats(provider).snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * 按延迟对可用的提供商排序，还没有延迟样本的提供商优先获得一次尝试，
+     * 延迟相同时按配置顺序
+     */
+    List<String> rank(boolean streaming, String preferred) {
+        List<String> candidates = candidates();
+        List<String> available = new ArrayList<>();
+        for (String provider : candidates) {
+            if (stats(provider).isAvailable()) {
+                available.add(provider);
+            }
+        }
+        available.sort(Comparator
+                .comparingDouble((String p) -> (streaming ? stats(p).streamLatency : stats(p).latency).ewma())
+                .thenComparingInt(candidates::indexOf));
+        if (preferred != null && available.remove(preferred.toLowerCase())) {
+            available.add(0, preferred.toLowerCase());
+        }
+        return available;
+    }
+
+    private List<String> candidates() {
+        return aiModelRegistry.providers();
+    }
+
+    private long hedgeDelay(String provider) {
+        AiConfig.RoutingConfig config = aiConfig.getRouting();
+        long p95 = stats(provider).latency.p95();
+        if (p95 <= 0) {
+            return config.getHedgeMaxDelayMs();
+        }
+        return Math.max(config.getHedgeMinDelayMs(), Math.min(config.getHedgeMaxDelayMs(), p95));
+    }
+
+    private ProviderStats stats(String provider) {
+        return stats.computeIfAbsent(provider, p -> new ProviderStats());
+    }
+
+    private Callable<Attempt> attempt(String provider, List<ChatMessage> messages, List<ToolSpecification> tools,
+                                      AtomicBoolean settled) {
+        return () -> {
+            ProviderStats providerStats = stats(provider);
+            if (!providerStats.tryAcquire()) {
+                // 不是提供商的故障，不计入统计，由调用方切换到下一个提供商
+                return new Attempt(null, new RuntimeException("AI提供商 " + provider + " 暂不可用"));
+            }
+            long start = System.currentTimeMillis();
+            AiModelRegistry.Lease<ChatLanguageModel> lease = null;
+            try {
+                lease = aiModelRegistry.acquireChat(provider);
+                Response<AiMessage> response = generate(lease.getModel(), messages, tools);
+                long elapsed = System.currentTimeMillis() - start;
+                providerStats.latency.record(elapsed);
+                providerStats.recordSuccess();
+                aiTelemetry.recordSuccess(provider, AiTelemetry.MODE_SYNC, elapsed, null, response.tokenUsage(), 0);
+                return new Attempt(response, null);
+            } catch (Exception e) {
+                if (settled.get() || Thread.currentThread().isInterrupted() || isInterruption(e)) {
+                    // 被取消的对冲请求（中断引起的异常）不代表提供商故障，不能因此熔断
+                    providerStats.abandonAttempt();
+                    log.debug("AI提供商 {} 的请求已被取消: {}", provider, e.getMessage());
+                    return new Attempt(null, new RuntimeException("AI请求已取消", e));
+                }
+                providerStats.recordFailure();
+                aiTelemetry.recordFailure(provider, AiTelemetry.MODE_SYNC, System.currentTimeMillis() - start, e);
+                log.warn("AI提供商 {} 请求失败: {}", provider, e.getMessage());
+                return new Attempt(null, e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e));
+            } finally {
+                release(lease);
+            }
+        };
+    }
+
+    private static Response<AiMessage> generate(ChatLanguageModel model, List<ChatMessage> messages,
+                                                List<ToolSpecification> tools) {
+        if (tools.isEmpty()) {
+            return model.generate(messages);
+        }
+        try {
+            return model.generate(messages, tools);
+        } catch (IllegalArgumentException e) {
+            // 该提供商的模型不支持工具调用，按普通对话生成
+            return model.generate(messages);
+        }
+    }
+
+    /**
+     * 异常是否由线程中断或任务取消引起（读超时虽然也是 InterruptedIOException，但属于提供商故障）
+     */
+    static boolean isInterruption(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof CancellationException
+                    || (t instanceof InterruptedIOException && !(t instanceof SocketTimeoutException))) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static void release(AiModelRegistry.Lease<?> lease) {
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    /**
+     * 流式请求的句柄，取消后中止当前提供商的请求：调用方立即收到取消错误，
+     * 上游之后的回调会抛出异常使其关闭连接，不再为无人接收的内容消耗token
+     */
+    public static final class StreamHandle {
+        private Runnable abort;
+        private boolean cancelled = false;
+
+        public void cancel() {
+            Runnable current;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                current = abort;
+            }
+            if (current != null) {
+                current.run();
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 故障切换后指向新的请求；已取消时立即中止
+         */
+        void attach(Runnable abort) {
+            synchronized (this) {
+                this.abort = abort;
+                if (!cancelled) {
+                    return;
+                }
+            }
+            abort.run();
+        }
+    }
+
+    private static final class Attempt {
+        final Response<AiMessage> response;
+        final RuntimeException error;
+
+        Attempt(Response<AiMessage> response, RuntimeException error) {
+            this.response = response;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 延迟统计：EWMA和最近若干个样本的p95
+     */
+    private final class LatencyStats {
+        private static final double ALPHA = 0.3;
+
+        private final long[] samples = new long[Math.max(1, aiConfig.getRouting().getLatencyWindow())];
+        private int count = 0;
+        private int position = 0;
+        private double ewma = 0;
+
+        synchronized void record(long millis) {
+            ewma = count == 0 ? millis : ALPHA * millis + (1 - ALPHA) * ewma;
+            samples[position] = millis;
+            position = (position + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        synchronized double ewma() {
+            return ewma;
+        }
+
+        synchronized long p95() {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1)];
+        }
+
+        synchronized int count() {
+            return count;
+        }
+    }
+
+    /**
+     * 单个提供商的统计和熔断状态
+     */
+    private final class ProviderStats {
+        final LatencyStats latency = new LatencyStats();
+        final LatencyStats streamLatency = new LatencyStats();
+
+        private long successes = 0;
+        private long failures = 0;
+        private int consecutiveFailures = 0;
+        private long openUntil = 0;
+        private boolean probing = false;
+        private long hedges = 0;
+
+        /**
+         * 熔断期间不可用；熔断到期后在探测请求返回前只允许一个请求通过
+         * 只用于排序，请求真正发出前还要通过 {@link #tryAcquire()}
+         */
+        synchronized boolean isAvailable() {
+            return openUntil == 0 || (System.currentTimeMillis() >= openUntil && !probing);
+        }
+
+        /**
+         * 请求开始前检查可用性，熔断到期后的第一个请求同时占用探测机会，
+         * 判断和占用在同一次加锁中完成，并发的请求中只有一个能成为探测请求
+         * @return 是否可以向该提供商发出请求
+         */
+        synchronized boolean tryAcquire() {
+            if (openUntil == 0) {
+                return true;
+            }
+            if (System.currentTimeMillis() < openUntil || probing) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        /**
+         * 请求被调用方放弃，没有得到提供商是否可用的结论，允许下一个请求继续探测
+         */
+        synchronized void abandonAttempt() {
+            probing = false;
+        }
+
+        synchronized void recordHedge() {
+            hedges++;
+        }
+
+        synchronized void recordSuccess() {
+            successes++;
+            consecutiveFailures = 0;
+            openUntil = 0;
+            probing = false;
+        }
+
+        synchronized void recordFailure() {
+            failures++;
+            consecutiveFailures++;
+            AiConfig.RoutingConfig config = aiConfig.getRouting();
+            if (probing || consecutiveFailures >= config.getFailureThreshold()) {
+                openUntil = System.currentTimeMillis() + config.getOpenDurationMs();
+                probing = false;
+            }
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            String state = openUntil == 0 ? "closed" : (System.currentTimeMillis() < openUntil ? "open" : "half_open");
+            snapshot.put("state", state);
+            snapshot.put("successes", successes);
+            snapshot.put("failures", failures);
+            snapshot.put("consecutiveFailures", consecutiveFailures);
+            snapshot.put("hedges", hedges);
+            snapshot.put("ewmaMs", Math.round(latency.ewma()));
+            snapshot.put("p95Ms", latency.p95());
+            snapshot.put("samples", latency.count());
+            snapshot.put("streamFirstTokenEwmaMs", Math.round(streamLatency.ewma()));
+            snapshot.put("streamFirstTokenP95Ms", streamLatency.p95());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.mapper.AiMessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI接口限流器
+ * 每个用户和每个IP各有一个内存令牌桶，每次发送消息消耗一个令牌，令牌按配置的速率补充，
+ * 桶容量即允许的突发请求数；两个桶都有令牌时请求才被放行。另外每个用户每天消耗的token
+ * 不能超过配额：当天首次请求时从已记录的 AiMessage.tokens 汇总，之后随回复保存累加。
+ * 空闲的令牌桶和过期的配额计数会被定期回收。
+ * 注意：系统目前没有登录鉴权，用户ID来自请求体，客户端可以任意更换，按用户的令牌桶和每日配额
+ * 只能约束正常客户端；可信的限制只有按IP的令牌桶（IP由容器根据可信代理列表确定）。
+ */
+@Component
+public class AiRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AiRateLimiter.class);
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiMessageMapper aiMessageMapper;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final Map<Long, DailyUsage> usages = new ConcurrentHashMap<>();
+
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong quotaExceeded = new AtomicLong();
+
+    /**
+     * 请求被限流或超出配额
+     */
+    public static class RateLimitedException extends RuntimeException {
+        private final long retryAfterSeconds;
+
+        public RateLimitedException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /**
+         * 建议的重试等待秒数
+         */
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * 检查并消耗一次请求额度，被限流时抛出 {@link RateLimitedException}
+     * @param userId 用户ID（来自请求体，不可信），匿名请求为空，只按IP限流
+     * @param ip 客户端IP，为空时只按用户限流
+     */
+    public void acquire(Long userId, String ip) {
+        AiConfig.RateLimitConfig config = aiConfig.getRateLimit();
+        if (!Boolean.TRUE.equals(config.getEnabled())) {
+            return;
+        }
+        if (userId != null) {
+            checkQuota(userId, config.getDailyTokenQuota());
+        }
+        Bucket userBucket = userId != null
+                ? bucket("user:" + userId, config.getUserCapacity(), config.getUserRefillPerMinute()) : null;
+        Bucket ipBucket = ip != null
+                ? bucket("ip:" + ip, config.getIpCapacity(), config.getIpRefillPerMinute()) : null;
+        if (!take(userBucket, ipBucket)) {
+            throttled.incrementAndGet();
+            long waitMs = Math.max(waitMs(userBucket), waitMs(ipBucket));
+            throw new RateLimitedException("请求过于频繁，请稍后再试", toRetrySeconds(waitMs));
+        }
+        allowed.incrementAndGet();
+    }
+
+    /**
+     * 记录一次回复消耗的token
+     */
+    public void recordUsage(Long userId, Integer tokens) {
+        if (userId == null || tokens == null || tokens <= 0) {
+            return;
+        }
+        DailyUsage usage = usages.get(userId);
+        // 当天还没有计数时不必创建，首次检查配额时会从数据库汇总（包含这次回复）
+        if (usage != null && usage.date.equals(LocalDate.now())) {
+            usage.tokens.addAndGet(tokens);
+        }
+    }
+
+    /**
+     * 用户当天已消耗的token数
+     */
+    public long getUsedTokens(Long userId) {
+        return usage(userId).tokens.get();
+    }
+
+    /**
+     * 回收空闲的令牌桶和前一天的配额计数
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        long idleMs = TimeUnit.SECONDS.toMillis(aiConfig.getRateLimit().getIdleEvictSeconds());
+        long now = System.currentTimeMillis();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now, idleMs));
+        LocalDate today = LocalDate.now();
+        usages.values().removeIf(usage -> !usage.date.equals(today));
+    }
+
+    /**
+     * 限流统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", aiConfig.getRateLimit().getEnabled());
+        stats.put("buckets", buckets.size());
+        stats.put("trackedUsers", usages.size());
+        stats.put("allowed", allowed.get());
+        stats.put("throttled", throttled.get());
+        stats.put("quotaExceeded", quotaExceeded.get());
+        return stats;
+    }
+
+    private void checkQuota(Long userId, Long quota) {
+        if (quota == null || quota <= 0) {
+            return;
+        }
+        if (usage(userId).tokens.get() >= quota) {
+            quotaExceeded.incrementAndGet();
+            throw new RateLimitedException("今日AI客服使用额度已用完，请明天再试", secondsUntilTomorrow());
+        }
+    }
+
+    private DailyUsage usage(Long userId) {
+        LocalDate today = LocalDate.now();
+        DailyUsage usage = usages.get(userId);
+        if (usage == null || !usage.date.equals(today)) {
+            usage = usages.compute(userId, (id, existing) ->
+                    existing != null && existing.date.equals(today) ? existing : load(id, today));
+        }
+        return usage;
+    }
+
+    private DailyUsage load(Long userId, LocalDate date) {
+        long tokens = 0;
+        try {
+            Long sum = aiMessageMapper.sumTokensByUserSince(userId, date.atStartOfDay());
+            tokens = sum != null ? sum : 0;
+        } catch (Exception e) {
+            // 统计失败时不阻止用户使用，按0开始计数
+            log.warn("汇总用户 {} 当天的AI token用量失败: {}", userId, e.getMessage());
+        }
+        return new DailyUsage(date, tokens);
+    }
+
+    private Bucket bucket(String key, int capacity, double refillPerMinute) {
+        return buckets.computeIfAbsent(key, k -> new Bucket(capacity, refillPerMinute / 60000.0));
+    }
+
+    private static long waitMs(Bucket bucket) {
+        return bucket == null ? 0 : bucket.waitMs();
+    }
+
+    /**
+     * 同时从两个桶各取一个令牌，其中一个取不到时归还已取的令牌
+     */
+    private static boolean take(Bucket userBucket, Bucket ipBucket) {
+        if (userBucket != null && !userBucket.tryTake()) {
+            return false;
+        }
+        if (ipBucket != null && !ipBucket.tryTake()) {
+            if (userBucket != null) {
+                userBucket.giveBack();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static long toRetrySeconds(long waitMs) {
+        return Math.max(1, (waitMs + 999) / 1000);
+    }
+
+    private static long secondsUntilTomorrow() {
+        return Duration.between(LocalDateTime.now(),
+                LocalDate.now().plusDays(1).atStartOfDay()).getSeconds() + 1;
+    }
+
+    /**
+     * 令牌桶，按经过的时间补充令牌
+     */
+    private static final class Bucket {
+        private final int capacity;
+        private final double refillPerMs;
+        private double tokens;
+        private long refilledAt;
+        private long takenAt;
+
+        Bucket(int capacity, double refillPerMs) {
+            this.capacity = capacity;
+            this.refillPerMs = refillPerMs;
+            this.tokens = capacity;
+            this.refilledAt = System.currentTimeMillis();
+        }
+
+        synchronized boolean tryTake() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            takenAt = refilledAt;
+            return true;
+        }
+
+        synchronized void giveBack() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        /**
+         * 距离有一个可用令牌还需等待的毫秒数
+         */
+        synchronized long waitMs() {
+            refill();
+            if (tokens >= 1) {
+                return 0;
+            }
+            return refillPerMs <= 0 ? TimeUnit.MINUTES.toMillis(1) : (long) Math.ceil((1 - tokens) / refillPerMs);
+        }
+
+        /**
+         * 长时间未使用的桶已补满，回收后重新创建不影响限流结果
+         */
+        synchronized boolean isIdle(long now, long idleMs) {
+            refill();
+            return tokens >= capacity && now - takenAt >= idleMs;
+        }
+
+        private void refill() {
+            long now = System.currentTimeMillis();
+            if (now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * refillPerMs);
+                refilledAt = now;
+            }
+        }
+    }
+
+    /**
+     * 用户某一天的token用量
+     */
+    private static final class DailyUsage {
+        final LocalDate date;
+        final AtomicLong tokens;
+
+        DailyUsage(LocalDate date, long tokens) {
+            this.date = date;
+            this.tokens = new AtomicLong(tokens);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AI请求执行器
+ * 每个AI提供商一条通道，通道内同时执行的请求数有上限，超出的请求进入有界等待队列。
+ * 队列按用户分组轮转出队，单个用户的突发请求不会挤占其他用户；队列已满、用户排队过多
+ * 或等待超时的请求会被快速拒绝。后台任务（如会话标题和摘要生成）进入单独的低优先级队列，
+ * 只在没有用户请求排队时才调度，同时执行的后台任务不超过并发上限的 maxUtilization 比例，
+ * 始终为用户请求保留并发许可。请求在工作线程池 aiChatExecutor 上执行，
+ * 执行许可（{@link Ticket}）在回复真正结束时才释放，流式请求也会一直计入并发数。
+ */
+@Component
+public class AiRequestExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(AiRequestExecutor.class);
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    @Qualifier("aiChatExecutor")
+    private Executor workerPool;
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * 执行许可，请求结束时释放，重复释放无副作用
+     */
+    public interface Ticket {
+        void release();
+    }
+
+    /**
+     * 提交给执行器的AI请求
+     */
+    public interface AiTask {
+        /**
+         * 在工作线程上执行，结束（包括异步回调结束）时必须释放许可
+         */
+        void run(Ticket ticket) throws Exception;
+
+        /**
+         * 请求被拒绝时回调，可能在提交线程或清理线程上调用
+         */
+        void rejected(RejectedException reason);
+    }
+
+    /**
+     * 请求因系统繁忙被拒绝
+     */
+    public static class RejectedException extends RuntimeException {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 提交请求
+     * @param provider AI提供商，每个提供商单独限流
+     * @param userId 用户ID，用于在等待队列中公平轮转，为空的请求归为同一组
+     */
+    public void submit(String provider, Long userId, AiTask task) {
+        lanes.computeIfAbsent(provider.toLowerCase(), Lane::new).submit(userId, task);
+    }
+
+    /**
+     * 提交后台请求，进入低优先级队列，只在通道没有用户请求排队时调度
+     * @param provider AI提供商
+     */
+    public void submitBackground(String provider, AiTask task) {
+        lanes.computeIfAbsent(provider.toLowerCase(), Lane::new).submitBackground(task);
+    }
+
+    /**
+     * 通道是否空闲：没有排队的请求，且并发占用不超过上限的指定比例
+     * 后台任务（如会话标题生成）据此避让在线对话
+     */
+    public boolean hasSpareCapacity(String provider, double maxUtilization) {
+        Lane lane = lanes.get(provider.toLowerCase());
+        if (lane == null) {
+            return true;
+        }
+        int limit = (int) (aiConfig.getExecutor().getMaxConcurrentPerProvider() * maxUtilization);
+        synchronized (lane) {
+            return lane.queued == 0 && lane.active < Math.max(1, limit);
+        }
+    }
+
+    /**
+     * 定期拒绝等待超时的请求
+     */
+    @Scheduled(fixedDelay = 500)
+    public void expireQueued() {
+        for (Lane lane : lanes.values()) {
+            lane.expire();
+        }
+    }
+
+    /**
+     * 各通道的并发、排队和等待时间统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        for (Lane lane : lanes.values()) {
+            stats.put(lane.provider, lane.stats());
+        }
+        return stats;
+    }
+
+    private static final class Pending {
+        final Long userId;
+        final AiTask task;
+        final boolean background;
+        final long enqueuedAt = System.currentTimeMillis();
+
+        Pending(Long userId, AiTask task, boolean background) {
+            this.userId = userId;
+            this.task = task;
+            this.background = background;
+        }
+    }
+
+    /**
+     * 单个提供商的执行通道
+     */
+    private final class Lane {
+        private final String provider;
+
+        // 用户ID -> 该用户等待中的请求，按插入顺序轮转
+        private final LinkedHashMap<Long, ArrayDeque<Pending>> queues = new LinkedHashMap<>();
+        private int queued = 0;
+        // 后台请求，用户队列为空时才出队
+        private final ArrayDeque<Pending> background = new ArrayDeque<>();
+        private int active = 0;
+        // 执行中的后台请求数，计入 active
+        private int backgroundActive = 0;
+
+        private long submitted = 0;
+        private long rejected = 0;
+        private long timedOut = 0;
+        private long completed = 0;
+        private long dispatched = 0;
+        private long totalWaitMs = 0;
+        private long maxWaitMs = 0;
+
+        Lane(String provider) {
+            this.provider = provider;
+        }
+
+        void submit(Long userId, AiTask task) {
+            AiConfig.ExecutorConfig config = aiConfig.getExecutor();
+            Pending pending = new Pending(userId, task, false);
+            RejectedException rejection = null;
+            synchronized (this) {
+                submitted++;
+                if (active < config.getMaxConcurrentPerProvider() && queued == 0) {
+                    active++;
+                    dispatched++;
+                } else if (queued >= config.getQueueCapacity()) {
+                    rejected++;
+                    rejection = new RejectedException("AI客服繁忙，请稍后重试");
+                } else {
+                    ArrayDeque<Pending> queue = queues.computeIfAbsent(userId, k -> new ArrayDeque<>());
+                    if (queue.size() >= config.getMaxQueuedPerUser()) {
+                        if (queue.isEmpty()) {
+                            queues.remove(userId);
+                        }
+                        rejected++;
+                        rejection = new RejectedException("您的请求过于频繁，请等待当前回复完成");
+                    } else {
+                        queue.addLast(pending);
+                        queued++;
+                        return;
+                    }
+                }
+            }
+            if (rejection != null) {
+                task.rejected(rejection);
+            } else {
+                start(pending);
+            }
+        }
+
+        void submitBackground(AiTask task) {
+            AiConfig.ExecutorConfig config = aiConfig.getExecutor();
+            Pending pending = new Pending(null, task, true);
+            synchronized (this) {
+                submitted++;
+                if (active < config.getMaxConcurrentPerProvider() && queued == 0 && background.isEmpty()
+                        && backgroundActive < backgroundLimit()) {
+                    active++;
+                    backgroundActive++;
+                    dispatched++;
+                } else if (background.size() >= config.getQueueCapacity()) {
+                    rejected++;
+                    pending = null;
+                } else {
+                    background.addLast(pending);
+                    return;
+                }
+            }
+            if (pending == null) {
+                task.rejected(new RejectedException("AI客服繁忙，请稍后重试"));
+            } else {
+                start(pending);
+            }
+        }
+
+        /**
+         * 释放一个并发许可并按用户轮转调度下一个请求，没有用户请求等待且后台请求未达上限时调度后台请求
+         */
+        void release(boolean wasBackground) {
+            Pending next;
+            synchronized (this) {
+                active--;
+                if (wasBackground) {
+                    backgroundActive--;
+                }
+                completed++;
+                next = poll();
+                if (next == null && backgroundActive < backgroundLimit()) {
+                    next = pollBackground();
+                    if (next != null) {
+                        backgroundActive++;
+                    }
+                }
+                if (next != null) {
+                    active++;
+                }
+            }
+            if (next != null) {
+                start(next);
+            }
+        }
+
+        void expire() {
+            long deadline = System.currentTimeMillis() - aiConfig.getExecutor().getQueueTimeoutMs();
+            List<Pending> expired = new ArrayList<>();
+            synchronized (this) {
+                Iterator<ArrayDeque<Pending>> iterator = queues.values().iterator();
+                while (iterator.hasNext()) {
+                    ArrayDeque<Pending> queue = iterator.next();
+                    while (!queue.isEmpty() && queue.peekFirst().enqueuedAt < deadline) {
+                        expired.add(queue.pollFirst());
+                        queued--;
+                        timedOut++;
+                    }
+                    if (queue.isEmpty()) {
+                        iterator.remove();
+                    }
+                }
+                while (!background.isEmpty() && background.peekFirst().enqueuedAt < deadline) {
+                    expired.add(background.pollFirst());
+                    timedOut++;
+                }
+            }
+            for (Pending pending : expired) {
+                pending.task.rejected(new RejectedException("AI客服繁忙，排队超时，请稍后重试"));
+            }
+        }
+
+        /**
+         * 取出队首用户的第一个请求，该用户还有请求时移到队尾
+         */
+        private Pending poll() {
+            Iterator<Map.Entry<Long, ArrayDeque<Pending>>> iterator = queues.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            Map.Entry<Long, ArrayDeque<Pending>> entry = iterator.next();
+            iterator.remove();
+            Pending pending = entry.getValue().pollFirst();
+            if (!entry.getValue().isEmpty()) {
+                queues.put(entry.getKey(), entry.getValue());
+            }
+            queued--;
+            dispatched++;
+            long waited = System.currentTimeMillis() - pending.enqueuedAt;
+            totalWaitMs += waited;
+            maxWaitMs = Math.max(maxWaitMs, waited);
+            return pending;
+        }
+
+        /**
+         * 同时执行的后台请求上限，至少为1
+         */
+        private int backgroundLimit() {
+            int limit = (int) (aiConfig.getExecutor().getMaxConcurrentPerProvider()
+                    * aiConfig.getTitle().getMaxUtilization());
+            return Math.max(1, limit);
+        }
+
+        private Pending pollBackground() {
+            Pending pending = background.pollFirst();
+            if (pending != null) {
+                dispatched++;
+                long waited = System.currentTimeMillis() - pending.enqueuedAt;
+                totalWaitMs += waited;
+                maxWaitMs = Math.max(maxWaitMs, waited);
+            }
+            return pending;
+        }
+
+        private void start(Pending pending) {
+            AtomicBoolean released = new AtomicBoolean(false);
+            Ticket ticket = () -> {
+                if (released.compareAndSet(false, true)) {
+                    release(pending.background);
+                }
+            };
+            try {
+                workerPool.execute(() -> {
+                    try {
+                        pending.task.run(ticket);
+                    } catch (Exception e) {
+                        log.error("AI请求执行失败，提供商: {}", provider, e);
+                        ticket.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                ticket.release();
+                synchronized (this) {
+                    rejected++;
+                }
+                pending.task.rejected(new RejectedException("AI客服繁忙，请稍后重试"));
+            }
+        }
+
+        synchronized Map<String, Object> stats() {
+            Map<String, Object> stats = new HashMap<>();
+            long oldest = 0;
+            long now = System.currentTimeMillis();
+            for (ArrayDeque<Pending> queue : queues.values()) {
+                if (!queue.isEmpty()) {
+                    oldest = Math.max(oldest, now - queue.peekFirst().enqueuedAt);
+                }
+            }
+            stats.put("active", active);
+            stats.put("maxConcurrent", aiConfig.getExecutor().getMaxConcurrentPerProvider());
+            stats.put("queueDepth", queued);
+            stats.put("queueCapacity", aiConfig.getExecutor().getQueueCapacity());
+            stats.put("queuedUsers", queues.size());
+            stats.put("backgroundQueued", background.size());
+            stats.put("backgroundActive", backgroundActive);
+            stats.put("backgroundLimit", backgroundLimit());
+            stats.put("oldestWaitMs", oldest);
+            stats.put("submitted", submitted);
+            stats.put("rejected", rejected);
+            stats.put("timedOut", timedOut);
+            stats.put("completed", completed);
+            stats.put("avgWaitMs", dispatched == 0 ? 0 : totalWaitMs / dispatched);
+            stats.put("maxWaitMs", maxWaitMs);
+            return stats;
+        }
+    }
+}
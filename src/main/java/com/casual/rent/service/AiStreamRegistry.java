@@ -0,0 +1,500 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI流式回复连接注册表
+ * 每个流式回复的SSE连接在这里登记完成、超时和错误回调（SseEmitter每种回调只能登记一个），
+ * 所有发送都经过 {@link AiStream}。连接断开、超时或发送失败时回复被标记为已取消，
+ * 并通知登记的取消监听（释放执行许可等）；之后的发送抛出 {@link CancelledException}，
+ * 流式处理器据此停止上游生成。空闲连接定期发送SSE注释作为心跳，尽早发现已断开的客户端。
+ * <p>
+ * 同一会话同时只生成一个回复：会话已有回复进行中时，新请求按配置排队等待或被拒绝。
+ * 携带客户端消息ID的请求重试时（重复点击、移动网络重连）不再重新生成，而是接到原回复上：
+ * 先重放已发送的事件，再接收之后的事件；原连接全部断开后回复会继续生成一小段时间等待重试，
+ * 回复完成后也会保留一段时间供重试重放。
+ */
+@Component
+public class AiStreamRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(AiStreamRegistry.class);
+
+    public static final String MODE_REJECT = "reject";
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    private final Map<String, AiStream> streams = new ConcurrentHashMap<>();
+
+    // 每个会话最新登记的回复，排队的请求接在它后面
+    private final Map<String, AiStream> latestBySession = new HashMap<>();
+
+    // 按客户端消息ID索引的回复（进行中或刚完成），用于重试去重
+    private final Map<String, AiStream> byClientMessage = new ConcurrentHashMap<>();
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong heartbeats = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 流式回复已被取消（客户端断开或连接超时）
+     */
+    public static class CancelledException extends RuntimeException {
+        public CancelledException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 会话已有回复进行中，新请求被拒绝
+     */
+    public static class SessionBusyException extends RuntimeException {
+        public SessionBusyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 判断异常（含其原因链）是否由流式回复取消引起
+     */
+    public static boolean isCancellation(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof CancelledException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 登记一个不属于已有会话的流式回复连接
+     */
+    public AiStream register(SseEmitter emitter, Long userId) {
+        return open(emitter, userId, null, null);
+    }
+
+    /**
+     * 登记一个流式回复连接
+     * 会话已有回复进行中时，新回复排在其后（通过 {@link AiStream#start} 启动），
+     * 配置为拒绝或排队已满时抛出 {@link SessionBusyException}
+     * @param sessionId 会话ID，新会话为空
+     * @param clientMessageId 客户端生成的消息ID，重试时保持不变，可以为空
+     * @return 新登记的回复；相同客户端消息ID的回复进行中或刚完成时，连接接到该回复上并返回null，
+     *         调用方不需要再生成回复
+     */
+    public AiStream open(SseEmitter emitter, Long userId, String sessionId, String clientMessageId) {
+        AiConfig.StreamConfig config = aiConfig.getStream();
+        String messageKey = clientMessageId != null && !clientMessageId.isEmpty()
+                ? (sessionId != null ? sessionId : "user:" + userId) + "#" + clientMessageId : null;
+        if (messageKey != null) {
+            // 在会话锁外接入，避免与回复结束时解除会话占用的加锁顺序相反
+            AiStream existing = byClientMessage.get(messageKey);
+            if (existing != null && existing.attach(emitter)) {
+                joined.incrementAndGet();
+                log.info("AI流式回复重试接到原回复，userId: {}，clientMessageId: {}", userId, clientMessageId);
+                return null;
+            }
+        }
+        AiStream stream;
+        synchronized (latestBySession) {
+            AiStream previous = sessionId != null ? latestBySession.get(sessionId) : null;
+            if (previous != null && previous.isDone()) {
+                previous = null;
+            }
+            if (previous != null) {
+                if (MODE_REJECT.equalsIgnoreCase(config.getSessionConcurrency())
+                        || previous.queueDepth() >= config.getMaxQueuedPerSession()) {
+                    rejected.incrementAndGet();
+                    throw new SessionBusyException("该会话正在回复中，请稍后再发送");
+                }
+                queued.incrementAndGet();
+            }
+            stream = new AiStream(UUID.randomUUID().toString(), userId, sessionId, messageKey, previous);
+            if (sessionId != null) {
+                latestBySession.put(sessionId, stream);
+            }
+            if (messageKey != null) {
+                byClientMessage.put(messageKey, stream);
+            }
+        }
+        streams.put(stream.id, stream);
+        opened.incrementAndGet();
+        stream.attach(emitter);
+        return stream;
+    }
+
+    /**
+     * 向空闲的连接发送心跳，发送失败的连接会被移除；
+     * 同时取消断开后超过等待时间的回复，清理过期的重放记录
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void heartbeat() {
+        AiConfig.StreamConfig config = aiConfig.getStream();
+        long now = System.currentTimeMillis();
+        for (AiStream stream : streams.values()) {
+            stream.heartbeat(now, config.getHeartbeatIntervalMs());
+            if (stream.detachedAt > 0 && now - stream.detachedAt >= config.getDetachGraceMs()) {
+                stream.cancel("disconnected");
+            }
+        }
+        byClientMessage.values().removeIf(stream ->
+                stream.doneAt > 0 && (!stream.replayable() || now - stream.doneAt >= config.getReplayRetentionMs()));
+    }
+
+    /**
+     * 当前连接和取消统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("active", streams.size());
+        stats.put("opened", opened.get());
+        stats.put("cancelled", cancelled.get());
+        stats.put("heartbeats", heartbeats.get());
+        stats.put("joined", joined.get());
+        stats.put("queued", queued.get());
+        stats.put("rejected", rejected.get());
+        stats.put("replayable", byClientMessage.size());
+        return stats;
+    }
+
+    /**
+     * 回复结束（完成、出错或取消）后解除会话占用
+     */
+    private void release(AiStream stream) {
+        streams.remove(stream.id);
+        synchronized (latestBySession) {
+            if (stream.sessionId != null) {
+                latestBySession.remove(stream.sessionId, stream);
+            }
+        }
+    }
+
+    /**
+     * 单个流式回复，可以有多个连接（原请求和接上来的重试）
+     */
+    public final class AiStream {
+        private final String id;
+        private final Long userId;
+        private final String sessionId;
+        private final String messageKey;
+        // 同一会话中排在前面的回复，结束后才开始生成
+        private final AiStream previous;
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        private final List<Runnable> cancelListeners = new ArrayList<>();
+        private final List<Runnable> doneListeners = new ArrayList<>();
+        // 已发送的事件，供重试的连接重放；超出上限后置空
+        private List<SseEmitter.SseEventBuilder> replay;
+        private boolean primaryAttached = false;
+        // 正常结束（已调用complete）
+        private volatile boolean finished = false;
+        private volatile boolean failed = false;
+        private volatile String cancelReason;
+        // 全部连接断开的时间，0 表示有连接
+        private volatile long detachedAt = 0;
+        private volatile long doneAt = 0;
+
+        private AiStream(String id, Long userId, String sessionId, String messageKey, AiStream previous) {
+            this.id = id;
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.messageKey = messageKey;
+            this.previous = previous;
+            this.replay = messageKey != null ? new ArrayList<>() : null;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * 在同一会话前面的回复结束后执行生成任务，没有排队时立即执行
+         */
+        public void start(Runnable task) {
+            if (previous == null) {
+                task.run();
+                return;
+            }
+            previous.onDone(task);
+        }
+
+        /**
+         * 发送事件，回复已取消时抛出 {@link CancelledException}；
+         * 发送失败的连接被移除，全部连接断开后按配置继续生成一段时间或立即取消
+         */
+        public synchronized void send(SseEmitter.SseEventBuilder event) {
+            if (cancelReason != null) {
+                throw new CancelledException("流式回复已取消: " + cancelReason);
+            }
+            if (replay != null) {
+                if (replay.size() < aiConfig.getStream().getMaxReplayEvents()) {
+                    replay.add(event);
+                } else {
+                    replay = null;
+                }
+            }
+            for (Subscriber subscriber : subscribers) {
+                subscriber.send(event);
+            }
+            if (cancelReason != null) {
+                throw new CancelledException("客户端已断开: " + cancelReason);
+            }
+        }
+
+        /**
+         * 回复是否已被取消
+         */
+        public boolean isCancelled() {
+            return cancelReason != null;
+        }
+
+        /**
+         * 连接已取消时抛出 {@link CancelledException}
+         */
+        public void checkCancelled() {
+            if (cancelReason != null) {
+                throw new CancelledException("流式回复已取消: " + cancelReason);
+            }
+        }
+
+        /**
+         * 登记取消监听，已取消时立即执行
+         */
+        public void onCancel(Runnable listener) {
+            synchronized (cancelListeners) {
+                if (cancelReason == null) {
+                    cancelListeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /**
+         * 正常结束回复，保留已发送的事件供重试重放
+         */
+        public void complete() {
+            synchronized (this) {
+                finished = true;
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.complete();
+                }
+            }
+            done();
+        }
+
+        /**
+         * 以错误结束回复
+         */
+        public void completeWithError(Throwable error) {
+            synchronized (this) {
+                finished = true;
+                failed = true;
+                for (Subscriber subscriber : subscribers) {
+                    try {
+                        subscriber.emitter.completeWithError(error);
+                    } catch (Exception e) {
+                        // 连接已关闭
+                    }
+                }
+            }
+            done();
+        }
+
+        /**
+         * 取消回复，只有第一次调用生效；正常结束后的完成回调不算取消
+         */
+        void cancel(String reason) {
+            List<Runnable> listeners;
+            synchronized (cancelListeners) {
+                if (cancelReason != null || finished) {
+                    return;
+                }
+                cancelReason = reason;
+                listeners = new ArrayList<>(cancelListeners);
+                cancelListeners.clear();
+            }
+            cancelled.incrementAndGet();
+            log.info("AI流式回复已取消，userId: {}，原因: {}", userId, reason);
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    log.warn("执行取消监听失败: {}", e.getMessage());
+                }
+            }
+            done();
+        }
+
+        /**
+         * 添加连接并重放已发送的事件，回复已取消、出错或无法重放时返回false
+         */
+        private synchronized boolean attach(SseEmitter emitter) {
+            if (cancelReason != null || failed || (primaryAttached && replay == null)) {
+                return false;
+            }
+            Subscriber subscriber = new Subscriber(emitter);
+            if (primaryAttached) {
+                for (SseEmitter.SseEventBuilder event : replay) {
+                    if (!subscriber.send(event)) {
+                        return true;
+                    }
+                }
+                if (finished) {
+                    subscriber.complete();
+                    return true;
+                }
+            }
+            primaryAttached = true;
+            subscribers.add(subscriber);
+            detachedAt = 0;
+            emitter.onCompletion(() -> detach(subscriber, "completed"));
+            emitter.onTimeout(() -> detach(subscriber, "timeout"));
+            emitter.onError(e -> detach(subscriber, "error"));
+            return true;
+        }
+
+        /**
+         * 移除连接；最后一个连接断开时，可以重试的回复继续生成等待重试，否则立即取消
+         */
+        private void detach(Subscriber subscriber, String reason) {
+            boolean last;
+            synchronized (this) {
+                if (!subscribers.remove(subscriber)) {
+                    return;
+                }
+                last = subscribers.isEmpty();
+                if (last && replay != null && !finished && aiConfig.getStream().getDetachGraceMs() > 0) {
+                    detachedAt = System.currentTimeMillis();
+                    return;
+                }
+            }
+            if (last) {
+                cancel(reason);
+            }
+        }
+
+        private void onDone(Runnable listener) {
+            synchronized (doneListeners) {
+                if (doneAt == 0) {
+                    doneListeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        private void done() {
+            if (previous != null && !previous.isDone()) {
+                // 排队中被取消的回复，等前面的回复结束后再让出会话，保证同一会话不会同时生成
+                previous.onDone(this::done);
+                return;
+            }
+            List<Runnable> listeners;
+            synchronized (doneListeners) {
+                if (doneAt != 0) {
+                    return;
+                }
+                doneAt = System.currentTimeMillis();
+                listeners = new ArrayList<>(doneListeners);
+                doneListeners.clear();
+            }
+            release(this);
+            if (messageKey != null && !replayable()) {
+                byClientMessage.remove(messageKey, this);
+            }
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    log.warn("启动排队的AI回复失败: {}", e.getMessage());
+                }
+            }
+        }
+
+        private boolean isDone() {
+            return doneAt != 0;
+        }
+
+        private boolean replayable() {
+            return finished && !failed && replay != null;
+        }
+
+        private int queueDepth() {
+            int depth = 0;
+            for (AiStream stream = this; stream != null && !stream.isDone(); stream = stream.previous) {
+                depth += stream.previous != null ? 1 : 0;
+            }
+            return depth;
+        }
+
+        private void heartbeat(long now, long interval) {
+            for (Subscriber subscriber : subscribers) {
+                if (now - subscriber.lastSendAt >= interval && subscriber.send(SseEmitter.event().comment("heartbeat"))) {
+                    heartbeats.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * 回复的一个SSE连接
+         */
+        private final class Subscriber {
+            private final SseEmitter emitter;
+            private volatile long lastSendAt = System.currentTimeMillis();
+
+            Subscriber(SseEmitter emitter) {
+                this.emitter = emitter;
+            }
+
+            /**
+             * 发送事件，失败时移除该连接
+             */
+            boolean send(SseEmitter.SseEventBuilder event) {
+                try {
+                    synchronized (this) {
+                        emitter.send(event);
+                    }
+                    lastSendAt = System.currentTimeMillis();
+                    return true;
+                } catch (Exception e) {
+                    try {
+                        emitter.completeWithError(e);
+                    } catch (Exception ignored) {
+                        // 连接已关闭
+                    }
+                    detach(this, "disconnected");
+                    return false;
+                }
+            }
+
+            void complete() {
+                try {
+                    emitter.complete();
+                } catch (Exception e) {
+                    // 连接已关闭
+                }
+            }
+        }
+    }
+}
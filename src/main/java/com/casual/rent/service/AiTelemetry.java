@@ -0,0 +1,309 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI调用遥测
+ * 记录每次对提供商的调用（包括对冲和故障切换产生的调用）的总耗时、首个token时间、
+ * 每秒输出token数、提示词和回复token数以及错误类型，同时写入Micrometer指标（带百分位直方图，
+ * 通过 /actuator/prometheus 导出），并在内存中按提供商保留最近的样本，
+ * 供管理接口按滑动窗口计算百分位。回复缓存命中也在这里计数。
+ */
+@Component
+public class AiTelemetry {
+
+    public static final String MODE_SYNC = "sync";
+    public static final String MODE_STREAM = "stream";
+
+    private static final String CACHE = "cache";
+    private static final String CANCELLED = "Cancelled";
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiModelFactory aiModelFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, ArrayDeque<Sample>> samples = new ConcurrentHashMap<>();
+
+    /**
+     * 一次调用的样本，耗时单位为毫秒，没有的值为-1
+     */
+    private static final class Sample {
+        final long at = System.currentTimeMillis();
+        final String mode;
+        final String error;
+        final long latencyMs;
+        final long ttftMs;
+        final double tokensPerSecond;
+        final int promptTokens;
+        final int completionTokens;
+
+        Sample(String mode, String error, long latencyMs, long ttftMs, double tokensPerSecond,
+               int promptTokens, int completionTokens) {
+            this.mode = mode;
+            this.error = error;
+            this.latencyMs = latencyMs;
+            this.ttftMs = ttftMs;
+            this.tokensPerSecond = tokensPerSecond;
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+        }
+    }
+
+    /**
+     * 记录一次成功的调用
+     * @param ttftMs 首个token时间，非流式调用为空
+     * @param usage 提供商返回的token用量，可能为空
+     * @param streamedTokens 流式调用收到的片段数，提供商没有返回用量时作为回复token数
+     */
+    public void recordSuccess(String provider, String mode, long latencyMs, Long ttftMs,
+                              TokenUsage usage, int streamedTokens) {
+        int promptTokens = usage != null && usage.inputTokenCount() != null ? usage.inputTokenCount() : 0;
+        int completionTokens = usage != null && usage.outputTokenCount() != null
+                ? usage.outputTokenCount() : streamedTokens;
+        // 流式调用的输出速度从首个token开始计算
+        long generationMs = ttftMs != null ? latencyMs - ttftMs : latencyMs;
+        double tokensPerSecond = completionTokens > 0 && generationMs > 0
+                ? completionTokens * 1000.0 / generationMs : -1;
+
+        String model = model(provider);
+        timer("ai.generate.latency", provider, model, mode, "success").record(latencyMs, TimeUnit.MILLISECONDS);
+        if (ttftMs != null) {
+            timer("ai.generate.ttft", provider, model, mode, "success").record(ttftMs, TimeUnit.MILLISECONDS);
+        }
+        if (tokensPerSecond > 0) {
+            DistributionSummary.builder("ai.generate.tokens.per.second")
+                    .description("AI回复每秒输出的token数")
+                    .tags("provider", provider, "model", model, "mode", mode)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(tokensPerSecond);
+        }
+        tokens(provider, model, "prompt").increment(promptTokens);
+        tokens(provider, model, "completion").increment(completionTokens);
+
+        add(provider, new Sample(mode, null, latencyMs, ttftMs != null ? ttftMs : -1, tokensPerSecond,
+                promptTokens, completionTokens));
+    }
+
+    /**
+     * 记录一次失败的调用，按异常类型分类
+     */
+    public void recordFailure(String provider, String mode, long latencyMs, Throwable error) {
+        String errorClass = errorClass(error);
+        timer("ai.generate.latency", provider, model(provider), mode, errorClass)
+                .record(latencyMs, TimeUnit.MILLISECONDS);
+        add(provider, new Sample(mode, errorClass, latencyMs, -1, -1, 0, 0));
+    }
+
+    /**
+     * 记录一次回复缓存命中（没有调用提供商）
+     */
+    public void recordCacheHit(String mode) {
+        Counter.builder("ai.answer.cache.hits")
+                .description("直接使用缓存回复、没有调用AI提供商的次数")
+                .tag("mode", mode)
+                .register(meterRegistry)
+                .increment();
+        add(CACHE, new Sample(mode, null, 0, -1, -1, 0, 0));
+    }
+
+    /**
+     * 按提供商和滑动窗口统计的调用次数、错误分类和耗时百分位
+     */
+    public Map<String, Object> getReport() {
+        List<Integer> windows = aiConfig.getTelemetry().getWindowMinutes();
+        long now = System.currentTimeMillis();
+        Map<String, Object> report = new LinkedHashMap<>();
+        for (String provider : new TreeMap<>(samples).keySet()) {
+            List<Sample> snapshot = snapshot(provider);
+            Map<String, Object> byWindow = new LinkedHashMap<>();
+            for (Integer minutes : windows) {
+                long since = now - TimeUnit.MINUTES.toMillis(minutes);
+                byWindow.put(minutes + "m", CACHE.equals(provider)
+                        ? cacheWindow(snapshot, since) : window(snapshot, since));
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            if (!CACHE.equals(provider)) {
+                entry.put("model", model(provider));
+            }
+            entry.put("windows", byWindow);
+            report.put(provider, entry);
+        }
+        return report;
+    }
+
+    private Map<String, Object> window(List<Sample> snapshot, long since) {
+        List<Long> latencies = new ArrayList<>();
+        List<Long> ttfts = new ArrayList<>();
+        List<Double> speeds = new ArrayList<>();
+        Map<String, Integer> errors = new TreeMap<>();
+        long promptTokens = 0;
+        long completionTokens = 0;
+        int requests = 0;
+        int streaming = 0;
+        int cancelled = 0;
+        for (Sample sample : snapshot) {
+            if (sample.at < since) {
+                continue;
+            }
+            requests++;
+            if (MODE_STREAM.equals(sample.mode)) {
+                streaming++;
+            }
+            if (CANCELLED.equals(sample.error)) {
+                // 客户端断开导致的中止不算提供商错误
+                cancelled++;
+                continue;
+            }
+            if (sample.error != null) {
+                errors.merge(sample.error, 1, Integer::sum);
+                continue;
+            }
+            latencies.add(sample.latencyMs);
+            if (sample.ttftMs >= 0) {
+                ttfts.add(sample.ttftMs);
+            }
+            if (sample.tokensPerSecond > 0) {
+                speeds.add(sample.tokensPerSecond);
+            }
+            promptTokens += sample.promptTokens;
+            completionTokens += sample.completionTokens;
+        }
+        int errorCount = 0;
+        for (Integer count : errors.values()) {
+            errorCount += count;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requests);
+        stats.put("streaming", streaming);
+        stats.put("cancelled", cancelled);
+        stats.put("errors", errorCount);
+        stats.put("errorRate", requests == 0 ? 0 : Math.round(errorCount * 10000.0 / requests) / 10000.0);
+        stats.put("errorClasses", errors);
+        stats.put("latencyMs", percentiles(latencies));
+        stats.put("ttftMs", percentiles(ttfts));
+        stats.put("tokensPerSecond", percentiles(speeds));
+        stats.put("promptTokens", promptTokens);
+        stats.put("completionTokens", completionTokens);
+        return stats;
+    }
+
+    private Map<String, Object> cacheWindow(List<Sample> snapshot, long since) {
+        int hits = 0;
+        int streaming = 0;
+        for (Sample sample : snapshot) {
+            if (sample.at >= since) {
+                hits++;
+                if (MODE_STREAM.equals(sample.mode)) {
+                    streaming++;
+                }
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("streaming", streaming);
+        return stats;
+    }
+
+    private static <T extends Comparable<T>> Map<String, Object> percentiles(List<T> values) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", values.size());
+        if (values.isEmpty()) {
+            return result;
+        }
+        Collections.sort(values);
+        for (double quantile : Arrays.asList(0.5, 0.95, 0.99)) {
+            T value = values.get(Math.min(values.size() - 1, (int) Math.ceil(quantile * values.size()) - 1));
+            result.put("p" + Math.round(quantile * 100), value instanceof Double
+                    ? Math.round((Double) value * 10) / 10.0 : value);
+        }
+        result.put("max", values.get(values.size() - 1));
+        return result;
+    }
+
+    private void add(String key, Sample sample) {
+        ArrayDeque<Sample> deque = samples.computeIfAbsent(key, k -> new ArrayDeque<>());
+        List<Integer> windows = aiConfig.getTelemetry().getWindowMinutes();
+        long maxAge = TimeUnit.MINUTES.toMillis(windows.isEmpty() ? 1 : Collections.max(windows));
+        int maxSamples = aiConfig.getTelemetry().getMaxSamplesPerProvider();
+        synchronized (deque) {
+            deque.addLast(sample);
+            // 超出最大窗口或样本上限的样本从头部丢弃
+            Iterator<Sample> iterator = deque.iterator();
+            while (iterator.hasNext()) {
+                Sample oldest = iterator.next();
+                if (deque.size() <= maxSamples && sample.at - oldest.at <= maxAge) {
+                    break;
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private List<Sample> snapshot(String key) {
+        ArrayDeque<Sample> deque = samples.get(key);
+        if (deque == null) {
+            return Collections.emptyList();
+        }
+        synchronized (deque) {
+            return new ArrayList<>(deque);
+        }
+    }
+
+    private Timer timer(String name, String provider, String model, String mode, String outcome) {
+        return Timer.builder(name)
+                .tags("provider", provider, "model", model, "mode", mode, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Counter tokens(String provider, String model, String type) {
+        return Counter.builder("ai.tokens")
+                .description("AI调用消耗的token数")
+                .tags("provider", provider, "model", model, "type", type)
+                .register(meterRegistry);
+    }
+
+    private String model(String provider) {
+        String model = aiModelFactory.modelName(provider);
+        return model != null ? model : "unknown";
+    }
+
+    /**
+     * 错误类型取原因链最内层的异常类名（超时、连接失败等通常被包装在外层异常中）
+     */
+    private static String errorClass(Throwable error) {
+        if (AiStreamRegistry.isCancellation(error)) {
+            return CANCELLED;
+        }
+        Throwable root = error;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,304 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.entity.AiChat;
+import com.casual.rent.mapper.AiChatMapper;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 会话标题生成器
+ * 会话第一轮对话完成后登记到待生成队列，后台定期把多个会话合并为一次请求，
+ * 使用配置的（通常是最便宜的）提供商生成简短标题。只在主提供商没有请求排队、
+ * 并发占用低于配置比例时才提交，请求本身也经过AI请求执行器，不会挤占在线对话。
+ * 没有配置标题提供商时不生成标题，不会默认使用主提供商。
+ */
+@Component
+public class AiTitleGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(AiTitleGenerator.class);
+
+    /**
+     * 新会话的默认标题，生成标题前显示
+     */
+    public static final String DEFAULT_TITLE = "AI客服对话";
+
+    // 模型输出的每行形如 “1. 标题”
+    private static final Pattern TITLE_LINE = Pattern.compile("^\\s*(\\d+)\\s*[.、:：)）]\\s*(.+)$");
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private AiChatMapper aiChatMapper;
+
+    @Autowired
+    private AiModelRegistry aiModelRegistry;
+
+    @Autowired
+    private AiProviderRouter aiProviderRouter;
+
+    @Autowired
+    private AiRequestExecutor aiRequestExecutor;
+
+    @Autowired
+    private AiTelemetry aiTelemetry;
+
+    // 会话ID -> 第一轮对话，按登记顺序生成
+    private final LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+
+    // 同时只有一批在生成
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    private static final class Pending {
+        final Long chatId;
+        final String question;
+        final String answer;
+
+        Pending(Long chatId, String question, String answer) {
+            this.chatId = chatId;
+            this.question = question;
+            this.answer = answer;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (Boolean.TRUE.equals(aiConfig.getTitle().getEnabled()) && titleProvider() == null) {
+            log.info("未配置会话标题提供商 app.ai.title.provider，不生成会话标题");
+        }
+    }
+
+    /**
+     * 登记会话的第一轮对话，等待后台生成标题
+     */
+    public void enqueue(AiChat chat, String question, String answer) {
+        AiConfig.TitleConfig config = aiConfig.getTitle();
+        if (!Boolean.TRUE.equals(config.getEnabled()) || titleProvider() == null || chat.getId() == null
+                || !DEFAULT_TITLE.equals(chat.getTitle())) {
+            return;
+        }
+        Pending item = new Pending(chat.getId(), truncate(question, config.getMaxInputChars()),
+                truncate(answer, config.getMaxInputChars()));
+        synchronized (pending) {
+            pending.put(item.chatId, item);
+            Iterator<Long> iterator = pending.keySet().iterator();
+            while (pending.size() > config.getMaxPending() && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                dropped.incrementAndGet();
+            }
+        }
+        enqueued.incrementAndGet();
+    }
+
+    /**
+     * 定期取出一批会话生成标题，主提供商繁忙时推迟到下一轮
+     */
+    @Scheduled(fixedDelayString = "${app.ai.title.interval-ms:5000}")
+    public void generateBatch() {
+        AiConfig.TitleConfig config = aiConfig.getTitle();
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+        }
+        String provider = titleProvider();
+        if (provider == null) {
+            return;
+        }
+        if (!aiRequestExecutor.hasSpareCapacity(aiProviderRouter.primaryProvider(), config.getMaxUtilization())
+                || !aiRequestExecutor.hasSpareCapacity(provider, config.getMaxUtilization())) {
+            deferred.incrementAndGet();
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        List<Pending> batch = take(config.getBatchSize());
+        if (batch.isEmpty()) {
+            running.set(false);
+            return;
+        }
+        // 走低优先级队列，不占用户排队的位置
+        aiRequestExecutor.submitBackground(provider, new AiRequestExecutor.AiTask() {
+            @Override
+            public void run(AiRequestExecutor.Ticket ticket) {
+                try {
+                    generate(provider, batch);
+                } catch (Exception e) {
+                    failed.addAndGet(batch.size());
+                    log.warn("生成会话标题失败，提供商: {}，会话数: {}", provider, batch.size(), e);
+                } finally {
+                    running.set(false);
+                    ticket.release();
+                }
+            }
+
+            @Override
+            public void rejected(AiRequestExecutor.RejectedException reason) {
+                // 执行器繁忙，放回队列等待下一轮
+                requeue(batch);
+                deferred.incrementAndGet();
+                running.set(false);
+            }
+        });
+    }
+
+    /**
+     * 标题生成统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (pending) {
+            stats.put("pending", pending.size());
+        }
+        stats.put("provider", titleProvider());
+        stats.put("enqueued", enqueued.get());
+        stats.put("dropped", dropped.get());
+        stats.put("batches", batches.get());
+        stats.put("generated", generated.get());
+        stats.put("failed", failed.get());
+        stats.put("deferred", deferred.get());
+        return stats;
+    }
+
+    private void generate(String provider, List<Pending> batch) {
+        AiConfig.TitleConfig config = aiConfig.getTitle();
+        StringBuilder conversations = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending item = batch.get(i);
+            conversations.append(i + 1).append(". 用户：").append(item.question)
+                    .append("\n客服：").append(item.answer).append("\n\n");
+        }
+        List<ChatMessage> prompt = Arrays.asList(
+                SystemMessage.from("你是会话标题生成助手。下面有若干段编号的客服对话，请为每段对话生成一个不超过"
+                        + config.getMaxTitleChars() + "个字的中文标题，概括用户的问题。"
+                        + "每行输出一个，格式为“编号. 标题”，不要输出其他内容。"),
+                UserMessage.from(conversations.toString()));
+
+        long start = System.currentTimeMillis();
+        AiModelRegistry.Lease<ChatLanguageModel> lease = null;
+        Response<AiMessage> response;
+        try {
+            lease = aiModelRegistry.acquireChat(provider);
+            response = lease.getModel().generate(prompt);
+            aiTelemetry.recordSuccess(provider, AiTelemetry.MODE_SYNC, System.currentTimeMillis() - start, null,
+                    response.tokenUsage(), 0);
+        } catch (RuntimeException e) {
+            aiTelemetry.recordFailure(provider, AiTelemetry.MODE_SYNC, System.currentTimeMillis() - start, e);
+            throw e;
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
+        batches.incrementAndGet();
+
+        Map<Integer, String> titles = parse(response.content().text(), config.getMaxTitleChars());
+        for (int i = 0; i < batch.size(); i++) {
+            String title = titles.get(i + 1);
+            if (title == null) {
+                failed.incrementAndGet();
+                continue;
+            }
+            // 只替换默认标题；显式保留更新时间，避免标题变化影响会话列表的排序和分页游标
+            aiChatMapper.update(null, Wrappers.<AiChat>lambdaUpdate()
+                    .set(AiChat::getTitle, title)
+                    .setSql("updated_at = updated_at")
+                    .eq(AiChat::getId, batch.get(i).chatId)
+                    .eq(AiChat::getTitle, DEFAULT_TITLE));
+            generated.incrementAndGet();
+        }
+    }
+
+    /**
+     * 解析模型输出的 “编号. 标题” 行，去掉引号和书名号等包裹字符
+     */
+    static Map<Integer, String> parse(String text, int maxChars) {
+        Map<Integer, String> titles = new HashMap<>();
+        if (text == null) {
+            return titles;
+        }
+        for (String line : text.split("\n")) {
+            Matcher matcher = TITLE_LINE.matcher(line);
+            if (!matcher.matches()) {
+                continue;
+            }
+            String title = matcher.group(2).trim()
+                    .replaceAll("^[\"'“”‘’《「【]+|[\"'“”‘’》」】。.！!？?]+$", "").trim();
+            if (!title.isEmpty()) {
+                titles.put(Integer.parseInt(matcher.group(1)), truncate(title, maxChars));
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * 生成标题使用的提供商，未配置时返回null
+     */
+    private String titleProvider() {
+        String provider = aiConfig.getTitle().getProvider();
+        return provider != null && !provider.trim().isEmpty() ? provider.trim().toLowerCase() : null;
+    }
+
+    private List<Pending> take(int size) {
+        List<Pending> batch = new ArrayList<>();
+        synchronized (pending) {
+            Iterator<Pending> iterator = pending.values().iterator();
+            while (batch.size() < size && iterator.hasNext()) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        return batch;
+    }
+
+    private void requeue(List<Pending> batch) {
+        synchronized (pending) {
+            LinkedHashMap<Long, Pending> rest = new LinkedHashMap<>(pending);
+            pending.clear();
+            for (Pending item : batch) {
+                pending.put(item.chatId, item);
+            }
+            pending.putAll(rest);
+        }
+    }
+
+    private static String truncate(String text, int maxChars) {
+        if (text == null) {
+            return "";
+        }
+        return text.length() <= maxChars ? text : text.substring(0, maxChars);
+    }
+}
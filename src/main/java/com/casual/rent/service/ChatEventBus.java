@@ -0,0 +1,24 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.ChatEvent;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 聊天事件总线
+ * 业务代码只向总线发布事件，每个节点都订阅总线并把事件投递给本节点上的连接，
+ * 因此发送消息的节点不需要知道接收者连接在哪个节点上
+ */
+public interface ChatEventBus {
+
+    /**
+     * 发布事件到所有节点
+     */
+    void publish(ChatEvent event);
+
+    /**
+     * 订阅本节点收到的事件，事件可能按批投递
+     */
+    void subscribe(Consumer<List<ChatEvent>> subscriber);
+}
@@ -0,0 +1,165 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.ChatEvent;
+import com.casual.rent.config.MessageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 聊天事件分发器
+ * 订阅事件总线，把发给本节点在线用户的事件按用户缓冲一个短时间窗口，
+ * 合并后作为一帧（chat_events）推送，突发的多条消息只产生一次推送。
+ * 定时线程只负责合并窗口的计时，推送在有界的线程池中执行，同一用户同时只有一个推送任务以保证顺序；
+ * 线程池排队已满时断开该用户的连接，由客户端重连后重新拉取
+ */
+@Component
+public class ChatEventDispatcher {
+
+    public static final String FRAME_EVENT_NAME = "chat_events";
+
+    private static final Logger log = LoggerFactory.getLogger(ChatEventDispatcher.class);
+
+    @Autowired
+    private MessageConfig messageConfig;
+
+    @Autowired
+    private ChatEventBus chatEventBus;
+
+    @Autowired
+    private ChatPushService chatPushService;
+
+    private final Map<Long, List<ChatEvent>> pending = new ConcurrentHashMap<>();
+
+    // 正在推送的用户，推送期间到达的事件由该推送任务在结束前继续发送
+    private final Set<Long> sending = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor pushPool;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ChatEventDispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        MessageConfig.FanoutConfig config = messageConfig.getFanout();
+        AtomicInteger index = new AtomicInteger();
+        pushPool = new ThreadPoolExecutor(config.getPushThreads(), config.getPushThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getPushQueueCapacity()), r -> {
+                    Thread thread = new Thread(r, "ChatEventPush-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        chatEventBus.subscribe(this::onEvents);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        pushPool.shutdownNow();
+    }
+
+    private void onEvents(List<ChatEvent> events) {
+        for (ChatEvent event : events) {
+            Long userId = event.getUserId();
+            if (userId == null || !chatPushService.isConnected(userId)) {
+                continue;
+            }
+            boolean[] first = {false};
+            pending.compute(userId, (k, buffer) -> {
+                if (buffer == null) {
+                    buffer = new ArrayList<>();
+                    first[0] = true;
+                }
+                buffer.add(event);
+                return buffer;
+            });
+            if (first[0]) {
+                scheduler.schedule(() -> flush(userId),
+                        messageConfig.getFanout().getBatchWindowMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 合并窗口结束，把推送交给推送线程池；该用户已有推送任务时由那个任务继续发送
+     */
+    private void flush(Long userId) {
+        if (!pending.containsKey(userId) || !sending.add(userId)) {
+            return;
+        }
+        try {
+            pushPool.execute(() -> send(userId));
+        } catch (RejectedExecutionException e) {
+            sending.remove(userId);
+            pending.remove(userId);
+            log.warn("聊天事件推送排队已满，断开用户连接，userId: {}", userId);
+            chatPushService.disconnect(userId);
+        }
+    }
+
+    private void send(Long userId) {
+        try {
+            List<ChatEvent> buffer;
+            while ((buffer = pending.remove(userId)) != null) {
+                if (!buffer.isEmpty()) {
+                    chatPushService.push(userId, FRAME_EVENT_NAME, coalesce(buffer));
+                }
+            }
+        } finally {
+            sending.remove(userId);
+        }
+        // 结束前到达的事件，其定时任务可能因为推送尚未结束而被跳过
+        flush(userId);
+    }
+
+    /**
+     * 合并同一窗口内的事件：消息和已读回执全部保留，
+     * 在线状态和输入状态对同一对话者只保留最新一条
+     */
+    private List<Map<String, Object>> coalesce(List<ChatEvent> events) {
+        Map<String, ChatEvent> latest = new LinkedHashMap<>();
+        List<ChatEvent> ordered = new ArrayList<>();
+        for (ChatEvent event : events) {
+            if (ChatEvent.TYPE_PRESENCE.equals(event.getType()) || ChatEvent.TYPE_TYPING.equals(event.getType())) {
+                Object subject = event.getData() instanceof Map ? ((Map<?, ?>) event.getData()).get("userId") : null;
+                String key = event.getType() + ":" + subject;
+                ChatEvent previous = latest.put(key, event);
+                if (previous != null) {
+                    ordered.remove(previous);
+                }
+            }
+            ordered.add(event);
+        }
+
+        List<Map<String, Object>> frame = new ArrayList<>();
+        for (ChatEvent event : ordered) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("type", event.getType());
+            item.put("data", event.getData());
+            item.put("timestamp", event.getTimestamp());
+            frame.add(item);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,108 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.MessageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天事件推送服务
+ * 维护本节点上每个用户的SSE连接（同一用户可能有多个标签页），并将事件推送到这些连接
+ */
+@Service
+public class ChatPushService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatPushService.class);
+
+    @Autowired
+    private MessageConfig messageConfig;
+
+    private final Map<Long, List<SseEmitter>> connections = new ConcurrentHashMap<>();
+
+    /**
+     * 为用户建立事件推送连接
+     */
+    public SseEmitter subscribe(Long userId) {
+        long timeout = TimeUnit.MINUTES.toMillis(messageConfig.getPresence().getStreamTimeoutMinutes());
+        SseEmitter emitter = new SseEmitter(timeout);
+        connections.computeIfAbsent(userId, k -> new CopyOnWriteArrayList<>()).add(emitter);
+
+        emitter.onCompletion(() -> remove(userId, emitter));
+        emitter.onTimeout(() -> remove(userId, emitter));
+        emitter.onError(e -> remove(userId, emitter));
+        return emitter;
+    }
+
+    /**
+     * 用户在本节点是否有活跃连接
+     */
+    public boolean isConnected(Long userId) {
+        List<SseEmitter> emitters = connections.get(userId);
+        return emitters != null && !emitters.isEmpty();
+    }
+
+    /**
+     * 向用户的所有连接推送事件，发送失败的连接会被移除
+     */
+    public void push(Long userId, String eventName, Object data) {
+        List<SseEmitter> emitters = connections.get(userId);
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event()
+                        .name(eventName)
+                        .data(data, MediaType.APPLICATION_JSON));
+            } catch (Exception e) {
+                log.debug("推送事件失败，移除连接，userId: {}", userId);
+                remove(userId, emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /**
+     * 断开用户在本节点的所有连接，客户端重连后会重新拉取消息
+     */
+    public void disconnect(Long userId) {
+        List<SseEmitter> emitters = connections.remove(userId);
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.complete();
+            } catch (Exception e) {
+                log.debug("断开连接失败，userId: {}", userId);
+            }
+        }
+    }
+
+    /**
+     * 当前连接数统计
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (List<SseEmitter> emitters : connections.values()) {
+            count += emitters.size();
+        }
+        return count;
+    }
+
+    private void remove(Long userId, SseEmitter emitter) {
+        connections.computeIfPresent(userId, (k, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
@@ -1,34 +1,213 @@
 package com.casual.rent.service;
 
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.casual.rent.entity.Merchant;
+import com.casual.rent.entity.Order;
+import com.casual.rent.entity.Product;
+import com.casual.rent.entity.User;
+import com.casual.rent.mapper.MerchantMapper;
+import com.casual.rent.mapper.OrderMapper;
+import com.casual.rent.mapper.ProductMapper;
+import com.casual.rent.mapper.UserMapper;
 import com.qcloud.cos.COSClient;
+import com.qcloud.cos.Headers;
+import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.http.HttpMethodName;
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.GeneratePresignedUrlRequest;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
 import com.qcloud.cos.model.ObjectMetadata;
 import com.qcloud.cos.model.PutObjectRequest;
 import com.qcloud.cos.model.PutObjectResult;
 import com.qcloud.cos.model.Bucket;
+import com.qcloud.cos.transfer.TransferManager;
+import com.qcloud.cos.transfer.TransferManagerConfiguration;
 import com.casual.rent.config.TencentCosConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 @Service
 public class FileUploadService {
     
     private static final Logger logger = LoggerFactory.getLogger(FileUploadService.class);
     
+    // 需要生成图片变体的文件夹
+    private static final String PRODUCT_FOLDER = "products";
+    
+    // 按内容生成的对象key：文件夹/SHA-256.扩展名
+    private static final Pattern CONTENT_KEY = Pattern.compile("^.+/[0-9a-f]{64}(\\.[^/]*)?$");
+    
+    // 客户端直传的对象先放在这个前缀下，确认后复制到正式位置，未确认的由定期清理删除
+    private static final String PRESIGN_STAGING = "uploads/pending/";
+    
+    // 按内容去重的文件夹，这些文件夹的对象只被商品、订单、用户和商家的字段引用，定期清理时据此判断是否还在使用
+    private static final List<String> DEDUP_FOLDERS = Arrays.asList(PRODUCT_FOLDER, "avatars", "certificates");
+    
+    // 定期清理只处理在 isReferenced 中登记了全部引用字段的文件夹，
+    // 新增引用这些文件夹的字段时必须同时登记，未登记的文件夹一律不清理
+    private static final List<String> SWEEP_FOLDERS = Arrays.asList(PRODUCT_FOLDER, "avatars", "certificates");
+    
     @Autowired
     private COSClient cosClient;
     
     @Autowired
     private TencentCosConfig cosConfig;
     
+    @Autowired
+    private ImageDerivativeService imageDerivativeService;
+    
+    @Autowired
+    private ProductMapper productMapper;
+    
+    @Autowired
+    private OrderMapper orderMapper;
+    
+    @Autowired
+    private UserMapper userMapper;
+    
+    @Autowired
+    private MerchantMapper merchantMapper;
+    
+    // 并行上传线程池，所有请求共享，限制同时上传的文件数
+    private ThreadPoolExecutor uploadPool;
+    
+    // 大文件分块上传
+    private TransferManager transferManager;
+    
+    // 上传统计
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger peakActiveUploads = new AtomicInteger();
+    private final AtomicLong uploadedFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong multipartFiles = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong uploadMillis = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchBytes = new AtomicLong();
+    private final AtomicLong batchMillis = new AtomicLong();
+    
+    private final AtomicLong presignIssued = new AtomicLong();
+    private final AtomicLong presignCompleted = new AtomicLong();
+    private final AtomicLong presignRejected = new AtomicLong();
+    private final AtomicLong presignExpired = new AtomicLong();
+    
+    // 已确认存在的按内容生成的对象key -> 最近一次上传或去重命中的时间，最久未用的记录先淘汰
+    private Map<String, Long> dedupIndex;
+    private final AtomicLong dedupHits = new AtomicLong();
+    private final AtomicLong dedupRemoteHits = new AtomicLong();
+    private final AtomicLong dedupBytesSaved = new AtomicLong();
+    private final AtomicLong sharedDeletesSkipped = new AtomicLong();
+    private final AtomicLong sweptObjects = new AtomicLong();
+    private final AtomicLong lateUploadsDeleted = new AtomicLong();
+    
+    /**
+     * 单个文件的上传结果，失败时 url 为空、error 为失败原因
+     */
+    public static class UploadResult {
+        private final int index;
+        private final String filename;
+        private final String url;
+        private final String error;
+        
+        UploadResult(int index, String filename, String url, String error) {
+            this.index = index;
+            this.filename = filename;
+            this.url = url;
+            this.error = error;
+        }
+        
+        public int getIndex() {
+            return index;
+        }
+        
+        public String getFilename() {
+            return filename;
+        }
+        
+        public String getUrl() {
+            return url;
+        }
+        
+        public String getError() {
+            return error;
+        }
+        
+        public boolean isSuccess() {
+            return url != null;
+        }
+    }
+    
+    @PostConstruct
+    public void init() {
+        TencentCosConfig.UploadConfig config = cosConfig.getUpload();
+        uploadPool = new ThreadPoolExecutor(config.getConcurrency(), config.getConcurrency(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getQueueCapacity()),
+                threadFactory("CosUpload-"),
+                // 排队已满时由请求线程自己上传，自然形成背压
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        transferManager = new TransferManager(cosClient,
+                Executors.newFixedThreadPool(config.getMultipartThreads(), threadFactory("CosMultipart-")));
+        TransferManagerConfiguration transferConfig = new TransferManagerConfiguration();
+        transferConfig.setMultipartUploadThreshold(config.getMultipartThresholdBytes());
+        transferConfig.setMinimumUploadPartSize(config.getPartSizeBytes());
+        transferManager.setConfiguration(transferConfig);
+        int indexSize = config.getDedupIndexSize();
+        dedupIndex = Collections.synchronizedMap(new LinkedHashMap<String, Long>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > indexSize;
+            }
+        });
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        uploadPool.shutdownNow();
+        // COSClient 由容器管理，这里不关闭
+        transferManager.shutdownNow(false);
+    }
+    
     /**
      * 测试OSS连接
      */
@@ -63,29 +242,36 @@ public class FileUploadService {
         try {
             logger.info("开始上传文件: {}, 文件夹: {}", file.getOriginalFilename(), folder);
             
-            // 生成文件名
+            // 生成文件名，开启去重时以内容哈希作为文件名
             String originalFilename = file.getOriginalFilename();
             String extension = originalFilename.substring(originalFilename.lastIndexOf("."));
-            String fileName = generateFileName(folder, extension);
+            String sha256 = null;
+            String fileName;
+            if (Boolean.TRUE.equals(cosConfig.getUpload().getDedupEnabled()) && DEDUP_FOLDERS.contains(folder)) {
+                sha256 = sha256(file);
+                fileName = folder + "/" + sha256 + extension.toLowerCase(Locale.ROOT);
+            } else {
+                fileName = generateFileName(folder, extension);
+            }
             
             logger.info("生成的文件名: {}", fileName);
             
-            // 设置对象元数据
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(file.getSize());
-            metadata.setContentType(file.getContentType());
-            
-            // 创建上传请求
-            PutObjectRequest putObjectRequest = new PutObjectRequest(
-                cosConfig.getBucketName(),
-                fileName,
-                file.getInputStream(),
-                metadata
-            );
-            
-            // 执行上传
-            PutObjectResult result = cosClient.putObject(putObjectRequest);
-            logger.info("文件上传成功，ETag: {}", result.getETag());
+            if (sha256 != null && exists(fileName)) {
+                // 相同内容已上传过，直接返回已有地址；之前的变体生成可能被跳过或失败，缺少时补生成
+                dedupBytesSaved.addAndGet(file.getSize());
+                logger.info("文件内容已存在，跳过上传: {}", fileName);
+                if (fileName.startsWith(PRODUCT_FOLDER + "/")) {
+                    imageDerivativeService.ensureVariants(fileName);
+                }
+            } else {
+                // 执行上传
+                String eTag = putObject(fileName, file, sha256);
+                logger.info("文件上传成功，ETag: {}", eTag);
+                if (sha256 != null) {
+                    dedupIndex.put(fileName, System.currentTimeMillis());
+                }
+                submitDerivatives(fileName);
+            }
             
             // 返回文件访问URL
             String fileUrl = cosConfig.getDomain() + "/" + fileName;
@@ -103,19 +289,361 @@ public class FileUploadService {
     }
     
     /**
-     * 批量上传文件
+     * 批量上传文件，全部成功才返回
+     * 有文件失败时删除本批已上传的文件，并抛出包含失败文件名的异常
      * @param files 文件数组
      * @param folder 文件夹名称
      * @return 文件URL数组
      */
     public String[] uploadFiles(MultipartFile[] files, String folder) {
+        List<UploadResult> results = uploadFilesPartially(files, folder);
+        List<String> failed = new ArrayList<>();
+        for (UploadResult result : results) {
+            if (!result.isSuccess()) {
+                failed.add(result.getFilename() + "（" + result.getError() + "）");
+            }
+        }
+        if (!failed.isEmpty()) {
+            for (UploadResult result : results) {
+                if (result.isSuccess()) {
+                    try {
+                        deleteFile(result.getUrl());
+                    } catch (Exception e) {
+                        logger.warn("清理已上传文件失败: {}", result.getUrl());
+                    }
+                }
+            }
+            throw new RuntimeException("文件上传失败: " + String.join("，", failed));
+        }
+        String[] urls = new String[results.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = results.get(i).getUrl();
+        }
+        return urls;
+    }
+    
+    /**
+     * 并行批量上传文件，单个文件失败不影响其他文件
+     * 同时上传的文件数受全局线程池限制，大文件使用分块上传。
+     * 对象存储SDK不响应中断，超时的上传仍会继续，由上传线程在完成后自行删除，不会留下调用方不知道的对象
+     * @param files 文件数组
+     * @param folder 文件夹名称
+     * @return 按文件顺序排列的上传结果
+     */
+    public List<UploadResult> uploadFilesPartially(MultipartFile[] files, String folder) {
         logger.info("开始批量上传 {} 个文件到文件夹: {}", files.length, folder);
-        String[] urls = new String[files.length];
+        long start = System.currentTimeMillis();
+        List<Future<String>> futures = new ArrayList<>();
+        // 每个文件的结果只交付一次：上传先完成则交给调用方，调用方先放弃等待则由上传线程删除
+        List<AtomicBoolean> settled = new ArrayList<>();
+        for (MultipartFile file : files) {
+            AtomicBoolean done = new AtomicBoolean(false);
+            settled.add(done);
+            futures.add(uploadPool.submit(() -> {
+                String url = uploadFile(file, folder);
+                if (!done.compareAndSet(false, true)) {
+                    deleteLateUpload(url);
+                }
+                return url;
+            }));
+        }
+        
+        long deadline = start + TimeUnit.SECONDS.toMillis(cosConfig.getUpload().getBatchTimeoutSeconds());
+        List<UploadResult> results = new ArrayList<>();
+        long bytes = 0;
         for (int i = 0; i < files.length; i++) {
-            urls[i] = uploadFile(files[i], folder);
+            String filename = files[i].getOriginalFilename();
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                results.add(new UploadResult(i, filename, futures.get(i).get(remaining, TimeUnit.MILLISECONDS), null));
+                bytes += files[i].getSize();
+            } catch (ExecutionException e) {
+                results.add(new UploadResult(i, filename, null, e.getCause().getMessage()));
+            } catch (TimeoutException | InterruptedException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                String url = abandon(futures.get(i), settled.get(i));
+                if (url != null) {
+                    results.add(new UploadResult(i, filename, url, null));
+                    bytes += files[i].getSize();
+                } else {
+                    results.add(new UploadResult(i, filename, null,
+                            e instanceof TimeoutException ? "上传超时" : "上传被中断"));
+                }
+            }
         }
-        logger.info("批量上传完成");
-        return urls;
+        
+        long elapsed = System.currentTimeMillis() - start;
+        batches.incrementAndGet();
+        batchBytes.addAndGet(bytes);
+        batchMillis.addAndGet(elapsed);
+        logger.info("批量上传完成，成功 {} 个，共 {} 个，耗时 {}ms",
+                results.stream().filter(UploadResult::isSuccess).count(), files.length, elapsed);
+        return results;
+    }
+    
+    /**
+     * 放弃等待一个上传：尚未开始的直接取消，进行中的由上传线程在完成后删除
+     * @return 上传恰好已经完成时返回其URL，否则返回null
+     */
+    private String abandon(Future<String> future, AtomicBoolean settled) {
+        if (settled.compareAndSet(false, true)) {
+            // 不中断正在上传的线程，SDK不响应中断，中断分块上传的等待反而会让后台分块继续而无人清理
+            future.cancel(false);
+            return null;
+        }
+        // 上传线程已交付结果，正在返回；调用方被中断时也要取到URL，否则对象无人清理
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            logger.warn("获取上传结果失败: {}", e.getCause().getMessage());
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 删除调用方已放弃等待的上传，避免批量上传回滚后留下孤立对象
+     */
+    private void deleteLateUpload(String url) {
+        try {
+            deleteFile(url);
+            lateUploadsDeleted.incrementAndGet();
+            logger.info("已删除超时后才完成的上传: {}", url);
+        } catch (Exception e) {
+            logger.warn("删除超时后才完成的上传失败: {}", url);
+        }
+    }
+
+    /**
+     * 申请客户端直传：生成对象key和预签名PUT地址，文件不经过应用服务器
+     * 签名包含 Content-Type 和 Content-Length，客户端必须按声明的类型和大小上传到暂存位置，
+     * 上传后携带返回的凭证调用 {@link #completePresignedUpload(String)} 确认。
+     * 凭证包含校验所需的全部信息并用密钥签名，确认可以由任意节点处理，重启后仍然有效
+     * @param folder 文件夹名称
+     * @param filename 原始文件名，用于取扩展名
+     * @param contentType 文件类型
+     * @param size 文件大小（字节）
+     * @param allowedTypes 允许的文件类型
+     * @param maxSize 最大大小（字节）
+     * @return 上传地址、需要携带的请求头、对象key、确认凭证、过期时间和确认后的访问URL
+     */
+    public Map<String, Object> createPresignedUpload(String folder, String filename, String contentType, long size,
+                                                     String[] allowedTypes, long maxSize) {
+        if (!isAllowedType(contentType, allowedTypes)) {
+            throw new RuntimeException("不支持的文件类型: " + contentType);
+        }
+        if (size <= 0 || size > maxSize) {
+            throw new RuntimeException("文件大小不能超过" + maxSize / (1024 * 1024) + "MB");
+        }
+        int dot = filename != null ? filename.lastIndexOf(".") : -1;
+        String extension = dot >= 0 ? filename.substring(dot) : "";
+        if (extension.contains("/")) {
+            extension = "";
+        }
+        String key = generateFileName(folder, extension);
+        String stagingKey = PRESIGN_STAGING + key;
+        
+        TencentCosConfig.UploadConfig config = cosConfig.getUpload();
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.getPresignExpireSeconds());
+        GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(
+                cosConfig.getBucketName(), stagingKey, HttpMethodName.PUT);
+        request.setExpiration(new Date(expiresAt));
+        request.putCustomRequestHeader(Headers.CONTENT_TYPE, contentType);
+        request.putCustomRequestHeader(Headers.CONTENT_LENGTH, String.valueOf(size));
+        String uploadUrl = cosClient.generatePresignedUrl(request).toString();
+        
+        String ticket = signTicket(String.join("\n", key, contentType, String.valueOf(size),
+                String.join(",", allowedTypes), String.valueOf(maxSize), String.valueOf(expiresAt)));
+        presignIssued.incrementAndGet();
+        logger.info("生成直传地址，对象: {}, 大小: {}", key, size);
+        
+        Map<String, String> headers = new HashMap<>();
+        headers.put(Headers.CONTENT_TYPE, contentType);
+        Map<String, Object> result = new HashMap<>();
+        result.put("key", key);
+        result.put("ticket", ticket);
+        result.put("uploadUrl", uploadUrl);
+        result.put("method", "PUT");
+        result.put("headers", headers);
+        result.put("expiresAt", expiresAt);
+        result.put("url", cosConfig.getDomain() + "/" + key);
+        return result;
+    }
+    
+    /**
+     * 确认客户端直传完成：校验凭证签名和有效期，校验暂存对象的大小和类型与申请时一致后复制到正式位置
+     * 对象还不存在时客户端可以稍后重试；不一致时删除暂存对象；重复确认返回同一个地址
+     * @param ticket 申请直传时返回的确认凭证
+     * @return 文件访问URL
+     */
+    public String completePresignedUpload(String ticket) {
+        String[] fields = verifyTicket(ticket);
+        if (fields == null || fields.length != 6) {
+            throw new RuntimeException("上传凭证无效");
+        }
+        String key = fields[0];
+        long size = Long.parseLong(fields[2]);
+        String[] allowedTypes = fields[3].split(",");
+        long maxSize = Long.parseLong(fields[4]);
+        long deadline = Long.parseLong(fields[5])
+                + TimeUnit.SECONDS.toMillis(cosConfig.getUpload().getPresignCompleteGraceSeconds());
+        if (System.currentTimeMillis() > deadline) {
+            throw new RuntimeException("上传凭证已过期");
+        }
+        String stagingKey = PRESIGN_STAGING + key;
+        
+        ObjectMetadata metadata;
+        try {
+            metadata = cosClient.getObjectMetadata(cosConfig.getBucketName(), stagingKey);
+        } catch (CosServiceException e) {
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+            if (cosClient.doesObjectExist(cosConfig.getBucketName(), key)) {
+                // 已经确认过（例如客户端没收到响应后重试）
+                return cosConfig.getDomain() + "/" + key;
+            }
+            throw new RuntimeException("文件尚未上传完成");
+        }
+        
+        long length = metadata.getContentLength();
+        if (length != size || length > maxSize || !isAllowedType(metadata.getContentType(), allowedTypes)) {
+            presignRejected.incrementAndGet();
+            logger.warn("直传文件与申请不符，已删除，对象: {}, 大小: {}, 类型: {}", key, length, metadata.getContentType());
+            cosClient.deleteObject(cosConfig.getBucketName(), stagingKey);
+            throw new RuntimeException("上传的文件与申请的大小或类型不符");
+        }
+        cosClient.copyObject(cosConfig.getBucketName(), stagingKey, cosConfig.getBucketName(), key);
+        cosClient.deleteObject(cosConfig.getBucketName(), stagingKey);
+        presignCompleted.incrementAndGet();
+        uploadedFiles.incrementAndGet();
+        uploadedBytes.addAndGet(length);
+        submitDerivatives(key);
+        return cosConfig.getDomain() + "/" + key;
+    }
+    
+    /**
+     * 清理超时未确认的暂存对象（按对象的修改时间判断，不依赖本节点的内存状态）
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void cleanupExpiredPresigns() {
+        TencentCosConfig.UploadConfig config = cosConfig.getUpload();
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(
+                config.getPresignExpireSeconds() + config.getPresignCompleteGraceSeconds());
+        ListObjectsRequest request = new ListObjectsRequest();
+        request.setBucketName(cosConfig.getBucketName());
+        request.setPrefix(PRESIGN_STAGING);
+        request.setMaxKeys(1000);
+        ObjectListing listing;
+        do {
+            listing = cosClient.listObjects(request);
+            for (COSObjectSummary summary : listing.getObjectSummaries()) {
+                if (summary.getLastModified() == null || summary.getLastModified().getTime() > cutoff) {
+                    continue;
+                }
+                try {
+                    cosClient.deleteObject(cosConfig.getBucketName(), summary.getKey());
+                    presignExpired.incrementAndGet();
+                    logger.info("删除未确认的直传对象: {}", summary.getKey());
+                } catch (Exception e) {
+                    logger.warn("清理未确认的直传对象失败: {}", summary.getKey(), e);
+                }
+            }
+            request.setMarker(listing.getNextMarker());
+        } while (listing.isTruncated());
+    }
+    
+    /**
+     * 清理不再被引用的按内容生成的对象
+     * 这类对象可能被多条记录共用，删除文件和批量上传回滚时都不会删除，由这里统一回收：
+     * 只列出去重文件夹的第一级对象，跳过最近修改或去重命中的对象，其余对象在没有任何记录引用时删除（连同图片变体）
+     */
+    @Scheduled(cron = "${app.tencent.cos.upload.sweep-cron:0 0 4 * * ?}")
+    public void sweepUnreferencedObjects() {
+        long cutoff = System.currentTimeMillis()
+                - TimeUnit.HOURS.toMillis(cosConfig.getUpload().getSweepGraceHours());
+        int deleted = 0;
+        for (String folder : SWEEP_FOLDERS) {
+            ListObjectsRequest request = new ListObjectsRequest();
+            request.setBucketName(cosConfig.getBucketName());
+            request.setPrefix(folder + "/");
+            // 按内容生成的对象都在文件夹的第一级，不需要列出按日期存放的对象
+            request.setDelimiter("/");
+            request.setMaxKeys(1000);
+            ObjectListing listing;
+            do {
+                listing = cosClient.listObjects(request);
+                for (COSObjectSummary summary : listing.getObjectSummaries()) {
+                    String key = summary.getKey();
+                    if (!CONTENT_KEY.matcher(key).matches() || summary.getLastModified() == null
+                            || summary.getLastModified().getTime() > cutoff) {
+                        continue;
+                    }
+                    Long lastUsed = dedupIndex.get(key);
+                    if ((lastUsed != null && lastUsed > cutoff) || isReferenced(folder, key)) {
+                        continue;
+                    }
+                    try {
+                        cosClient.deleteObject(cosConfig.getBucketName(), key);
+                        dedupIndex.remove(key);
+                        if (PRODUCT_FOLDER.equals(folder)) {
+                            imageDerivativeService.deleteVariants(key);
+                        }
+                        sweptObjects.incrementAndGet();
+                        deleted++;
+                    } catch (Exception e) {
+                        logger.warn("清理未引用的对象失败: {}", key, e);
+                    }
+                }
+                request.setMarker(listing.getNextMarker());
+            } while (listing.isTruncated());
+        }
+        if (deleted > 0) {
+            logger.info("清理未被引用的按内容生成的对象 {} 个", deleted);
+        }
+    }
+    
+    /**
+     * 上传并发和吞吐统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeUploads", activeUploads.get());
+        stats.put("peakActiveUploads", peakActiveUploads.get());
+        stats.put("concurrency", cosConfig.getUpload().getConcurrency());
+        stats.put("queued", uploadPool.getQueue().size());
+        stats.put("uploadedFiles", uploadedFiles.get());
+        stats.put("failedFiles", failedFiles.get());
+        stats.put("multipartFiles", multipartFiles.get());
+        stats.put("uploadedBytes", uploadedBytes.get());
+        // 单个文件的平均上传速度，以及批量上传的整体速度（体现并行的效果）
+        stats.put("fileThroughputKBps", throughput(uploadedBytes.get(), uploadMillis.get()));
+        stats.put("batches", batches.get());
+        stats.put("batchThroughputKBps", throughput(batchBytes.get(), batchMillis.get()));
+        stats.put("presignIssued", presignIssued.get());
+        stats.put("presignCompleted", presignCompleted.get());
+        stats.put("presignRejected", presignRejected.get());
+        stats.put("presignExpired", presignExpired.get());
+        stats.put("dedupIndexSize", dedupIndex.size());
+        stats.put("dedupHits", dedupHits.get());
+        stats.put("dedupRemoteHits", dedupRemoteHits.get());
+        stats.put("dedupBytesSaved", dedupBytesSaved.get());
+        stats.put("sharedDeletesSkipped", sharedDeletesSkipped.get());
+        stats.put("sweptObjects", sweptObjects.get());
+        stats.put("lateUploadsDeleted", lateUploadsDeleted.get());
+        return stats;
     }
     
     /**
@@ -127,7 +655,16 @@ public class FileUploadService {
             logger.info("开始删除文件: {}", fileUrl);
             // 从URL中提取文件key
             String fileKey = fileUrl.replace(cosConfig.getDomain() + "/", "");
+            if (CONTENT_KEY.matcher(fileKey).matches()) {
+                // 按内容生成的对象可能被其他商品或商家引用，不删除，不再被引用后由定期清理回收
+                sharedDeletesSkipped.incrementAndGet();
+                logger.info("文件可能被共享，保留对象: {}", fileKey);
+                return;
+            }
             cosClient.deleteObject(cosConfig.getBucketName(), fileKey);
+            if (fileKey.startsWith(PRODUCT_FOLDER + "/")) {
+                imageDerivativeService.deleteVariants(fileKey);
+            }
             logger.info("文件删除成功: {}", fileKey);
         } catch (Exception e) {
             logger.error("文件删除失败: " + fileUrl, e);
@@ -135,6 +672,182 @@ public class FileUploadService {
         }
     }
     
+    /**
+     * 上传对象，超过分块阈值的文件通过 TransferManager 分块并行上传
+     * @return 对象的ETag
+     */
+    private String putObject(String key, MultipartFile file, String sha256) throws IOException, InterruptedException {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(file.getSize());
+        metadata.setContentType(file.getContentType());
+        if (sha256 != null) {
+            metadata.addUserMetadata("sha256", sha256);
+        }
+        
+        int active = activeUploads.incrementAndGet();
+        peakActiveUploads.accumulateAndGet(active, Math::max);
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try (InputStream input = file.getInputStream()) {
+            PutObjectRequest putObjectRequest = new PutObjectRequest(cosConfig.getBucketName(), key, input, metadata);
+            String eTag;
+            if (file.getSize() >= cosConfig.getUpload().getMultipartThresholdBytes()) {
+                multipartFiles.incrementAndGet();
+                eTag = transferManager.upload(putObjectRequest).waitForUploadResult().getETag();
+            } else {
+                PutObjectResult result = cosClient.putObject(putObjectRequest);
+                eTag = result.getETag();
+            }
+            success = true;
+            return eTag;
+        } finally {
+            activeUploads.decrementAndGet();
+            if (success) {
+                uploadedFiles.incrementAndGet();
+                uploadedBytes.addAndGet(file.getSize());
+                uploadMillis.addAndGet(System.currentTimeMillis() - start);
+            } else {
+                failedFiles.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * 按内容生成的对象是否已存在：先查本地索引，未命中时查询对象存储（重启后索引为空）
+     */
+    private boolean exists(String key) {
+        if (dedupIndex.get(key) != null) {
+            // 记录命中时间，定期清理不会删除刚被复用、引用还没保存的对象
+            dedupIndex.put(key, System.currentTimeMillis());
+            dedupHits.incrementAndGet();
+            return true;
+        }
+        if (cosClient.doesObjectExist(cosConfig.getBucketName(), key)) {
+            dedupIndex.put(key, System.currentTimeMillis());
+            dedupRemoteHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 按内容生成的对象是否还被业务数据引用，这里要列出引用该文件夹的全部字段：
+     * 商品图片还会被规格图片和订单快照引用，证件既有商家的也有用户实名认证的；
+     * 查询失败或不认识的文件夹都按仍被引用处理，不删除
+     */
+    private boolean isReferenced(String folder, String key) {
+        try {
+            switch (folder) {
+                case PRODUCT_FOLDER:
+                    return productMapper.selectCount(Wrappers.<Product>lambdaQuery()
+                                    .like(Product::getImages, key)
+                                    .or().like(Product::getVariantImages, key)
+                                    .or().like(Product::getVariantCheckedImages, key)) > 0
+                            || orderMapper.selectCount(Wrappers.<Order>lambdaQuery().like(Order::getProductImage, key)) > 0;
+                case "avatars":
+                    return userMapper.selectCount(Wrappers.<User>lambdaQuery().like(User::getAvatar, key)) > 0;
+                case "certificates":
+                    return merchantMapper.selectCount(Wrappers.<Merchant>lambdaQuery()
+                                    .like(Merchant::getBusinessLicense, key)
+                                    .or().like(Merchant::getIdCardFront, key)
+                                    .or().like(Merchant::getIdCardBack, key)) > 0
+                            || userMapper.selectCount(Wrappers.<User>lambdaQuery()
+                                    .like(User::getIdCardFront, key)
+                                    .or().like(User::getIdCardBack, key)) > 0;
+                default:
+                    return true;
+            }
+        } catch (Exception e) {
+            logger.warn("检查对象引用失败，暂不清理: {}", key, e);
+            return true;
+        }
+    }
+    
+    /**
+     * 生成直传确认凭证：Base64URL(内容) + "." + Base64URL(HMAC-SHA256签名)，以对象存储的密钥签名
+     */
+    private String signTicket(String payload) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(hmac(payload));
+    }
+    
+    /**
+     * 校验直传确认凭证的签名，返回凭证中的各个字段，签名不正确时返回null
+     */
+    private String[] verifyTicket(String ticket) {
+        if (ticket == null) {
+            return null;
+        }
+        int dot = ticket.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            String payload = new String(decoder.decode(ticket.substring(0, dot)), StandardCharsets.UTF_8);
+            byte[] signature = decoder.decode(ticket.substring(dot + 1));
+            return MessageDigest.isEqual(hmac(payload), signature) ? payload.split("\n", -1) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private byte[] hmac(String payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cosConfig.getSecretKey().getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * 流式计算文件的SHA-256（读取已暂存在本地的上传内容，不整体载入内存）
+     */
+    static String sha256(MultipartFile file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new DigestInputStream(file.getInputStream(), digest)) {
+            while (input.read(buffer) != -1) {
+                // 读取过程中更新摘要
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * 商品图片上传后异步生成缩略图和压缩图
+     */
+    private void submitDerivatives(String key) {
+        if (key.startsWith(PRODUCT_FOLDER + "/")) {
+            imageDerivativeService.submit(key);
+        }
+    }
+    
+    private static long throughput(long bytes, long millis) {
+        return millis == 0 ? 0 : bytes * 1000 / 1024 / millis;
+    }
+    
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
     /**
      * 生成文件名
      * @param folder 文件夹
@@ -155,7 +868,10 @@ public class FileUploadService {
      * @return 是否有效
      */
     public boolean isValidFileType(MultipartFile file, String[] allowedTypes) {
-        String contentType = file.getContentType();
+        return isAllowedType(file.getContentType(), allowedTypes);
+    }
+    
+    private static boolean isAllowedType(String contentType, String[] allowedTypes) {
         if (contentType == null) {
             return false;
         }
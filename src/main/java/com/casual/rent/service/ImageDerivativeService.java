@@ -0,0 +1,392 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.casual.rent.common.ImageVariant;
+import com.casual.rent.config.TencentCosConfig;
+import com.casual.rent.entity.Product;
+import com.casual.rent.mapper.ProductMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.model.COSObject;
+import com.qcloud.cos.model.ObjectMetadata;
+import com.qcloud.cos.model.PutObjectRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品图片变体生成
+ * 原图上传后从对象存储读回原图，在固定大小的后台线程池中用 ImageIO 生成缩略图和压缩图（JPEG），
+ * 按 {@link ImageVariant} 确定的 key 存放在原图旁边。排队已满时跳过，不影响上传本身。
+ * 后台任务定期检查商品图片的变体是否已生成，记录到商品上（未记录的图片对外使用原图），
+ * 并重新提交排队已满或生成失败的图片。
+ */
+@Service
+public class ImageDerivativeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDerivativeService.class);
+
+    @Autowired
+    private COSClient cosClient;
+
+    @Autowired
+    private TencentCosConfig cosConfig;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ThreadPoolExecutor workers;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong processMillis = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    // 原图key -> 已提交生成的次数，变体生成成功或放弃后移除
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+
+    // 补生成任务的商品ID游标，一轮检查完后从头开始
+    private volatile long backfillCursor = 0;
+
+    @PostConstruct
+    public void init() {
+        TencentCosConfig.DerivativeConfig config = cosConfig.getDerivatives();
+        AtomicInteger counter = new AtomicInteger();
+        workers = new ThreadPoolExecutor(config.getWorkers(), config.getWorkers(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()), r -> {
+                    Thread thread = new Thread(r, "ImageDerivative-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    // 图片处理占用CPU，优先级低于请求线程
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * 提交原图生成变体，格式不支持或排队已满时跳过
+     * @param key 原图的对象key
+     * @return 是否已提交
+     */
+    public boolean submit(String key) {
+        if (!Boolean.TRUE.equals(cosConfig.getDerivatives().getEnabled()) || !ImageVariant.isSupported(key)) {
+            return false;
+        }
+        try {
+            workers.execute(() -> generate(key));
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            logger.warn("图片变体生成排队已满，跳过: {}", key);
+            return false;
+        }
+    }
+
+    /**
+     * 已有原图被复用时补生成缺少的变体（之前的生成可能因排队已满被跳过或失败），检查在后台线程中进行
+     * @param key 原图的对象key
+     */
+    public void ensureVariants(String key) {
+        if (!Boolean.TRUE.equals(cosConfig.getDerivatives().getEnabled()) || !ImageVariant.isSupported(key)) {
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                for (ImageVariant variant : ImageVariant.values()) {
+                    if (!cosClient.doesObjectExist(cosConfig.getBucketName(), variant.of(key))) {
+                        submitted.incrementAndGet();
+                        generate(key);
+                        return;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            logger.warn("图片变体生成排队已满，跳过: {}", key);
+        }
+    }
+
+    /**
+     * 检查一批图片变体未确认的商品：变体已存在的图片记录到商品上，缺少变体的图片重新提交生成，
+     * 多次生成仍失败的图片放弃并记为已检查，商品对外继续使用原图
+     */
+    @Scheduled(fixedDelayString = "${app.tencent.cos.derivatives.backfill-interval-ms:60000}")
+    public void backfillProductVariants() {
+        TencentCosConfig.DerivativeConfig config = cosConfig.getDerivatives();
+        if (!Boolean.TRUE.equals(config.getEnabled())) {
+            return;
+        }
+        List<Product> products = productMapper.selectList(Wrappers.<Product>lambdaQuery()
+                .select(Product::getId, Product::getImages, Product::getVariantImages, Product::getVariantCheckedImages)
+                .gt(Product::getId, backfillCursor)
+                .isNotNull(Product::getImages)
+                .apply("(variant_checked_images IS NULL OR NOT JSON_CONTAINS(variant_checked_images, images))")
+                .orderByAsc(Product::getId)
+                .last("LIMIT " + config.getBackfillBatchSize()));
+        backfillCursor = products.size() < config.getBackfillBatchSize()
+                ? 0 : products.get(products.size() - 1).getId();
+        for (Product product : products) {
+            try {
+                backfill(product);
+            } catch (Exception e) {
+                logger.warn("检查商品图片变体失败，商品: {}", product.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 删除原图的所有变体
+     */
+    public void deleteVariants(String key) {
+        if (!ImageVariant.isSupported(key)) {
+            return;
+        }
+        for (ImageVariant variant : ImageVariant.values()) {
+            try {
+                cosClient.deleteObject(cosConfig.getBucketName(), variant.of(key));
+            } catch (Exception e) {
+                logger.warn("删除图片变体失败: {}", variant.of(key));
+            }
+        }
+    }
+
+    /**
+     * 变体生成统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", workers.getPoolSize());
+        stats.put("active", workers.getActiveCount());
+        stats.put("queued", workers.getQueue().size());
+        stats.put("submitted", submitted.get());
+        stats.put("generated", generated.get());
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("abandoned", abandoned.get());
+        stats.put("retrying", attempts.size());
+        stats.put("bytesIn", bytesIn.get());
+        stats.put("bytesOut", bytesOut.get());
+        long done = generated.get();
+        stats.put("avgProcessMs", done == 0 ? 0 : processMillis.get() / done);
+        return stats;
+    }
+
+    private void generate(String key) {
+        long start = System.currentTimeMillis();
+        try {
+            BufferedImage original = read(key);
+            for (ImageVariant variant : ImageVariant.values()) {
+                byte[] jpeg = encodeJpeg(resize(original, variant), cosConfig.getDerivatives().getJpegQuality());
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(jpeg.length);
+                metadata.setContentType("image/jpeg");
+                // 变体 key 由原图 key 确定，内容不会变化
+                metadata.setCacheControl("public, max-age=31536000");
+                cosClient.putObject(new PutObjectRequest(cosConfig.getBucketName(), variant.of(key),
+                        new ByteArrayInputStream(jpeg), metadata));
+                bytesOut.addAndGet(jpeg.length);
+            }
+            generated.incrementAndGet();
+            processMillis.addAndGet(System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.warn("生成图片变体失败: {}", key, e);
+        }
+    }
+
+    private void backfill(Product product) throws JsonProcessingException {
+        List<String> urls = Product.parseImageUrls(product.getImages());
+        List<String> ready = Product.parseImageUrls(product.getVariantImages());
+        List<String> checked = Product.parseImageUrls(product.getVariantCheckedImages());
+        List<String> nextReady = new ArrayList<>();
+        List<String> nextChecked = new ArrayList<>();
+        String prefix = cosConfig.getDomain() + "/";
+        for (String url : urls) {
+            if (checked.contains(url)) {
+                if (ready.contains(url)) {
+                    nextReady.add(url);
+                }
+                nextChecked.add(url);
+                continue;
+            }
+            // 不是本存储桶的图片或格式不支持，不会有变体
+            String key = url.startsWith(prefix) ? url.substring(prefix.length()) : null;
+            if (key == null || !ImageVariant.isSupported(key)) {
+                nextChecked.add(url);
+                continue;
+            }
+            if (variantsExist(key)) {
+                attempts.remove(key);
+                nextReady.add(url);
+                nextChecked.add(url);
+                continue;
+            }
+            int count = attempts.getOrDefault(key, 0);
+            if (count >= cosConfig.getDerivatives().getMaxAttempts()) {
+                attempts.remove(key);
+                abandoned.incrementAndGet();
+                logger.warn("图片变体多次生成失败，放弃: {}", key);
+                nextChecked.add(url);
+                continue;
+            }
+            // 排队已满时不计次数，下一轮再提交
+            if (submit(key)) {
+                attempts.put(key, count + 1);
+            }
+        }
+        if (nextChecked.equals(checked) && nextReady.equals(ready)) {
+            return;
+        }
+        // 不改变商品的更新时间
+        productMapper.update(null, Wrappers.<Product>lambdaUpdate()
+                .set(Product::getVariantImages, objectMapper.writeValueAsString(nextReady))
+                .set(Product::getVariantCheckedImages, objectMapper.writeValueAsString(nextChecked))
+                .setSql("updated_at = updated_at")
+                .eq(Product::getId, product.getId()));
+    }
+
+    private boolean variantsExist(String key) {
+        for (ImageVariant variant : ImageVariant.values()) {
+            if (!cosClient.doesObjectExist(cosConfig.getBucketName(), variant.of(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取原图，先只读尺寸，超过像素上限的图片不解码
+     */
+    private BufferedImage read(String key) throws IOException {
+        COSObject object = cosClient.getObject(cosConfig.getBucketName(), key);
+        bytesIn.addAndGet(object.getObjectMetadata().getContentLength());
+        try (InputStream input = object.getObjectContent();
+             ImageInputStream imageInput = ImageIO.createImageInputStream(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                throw new IOException("不支持的图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > cosConfig.getDerivatives().getMaxPixels()) {
+                    throw new IOException("图片像素过多: " + pixels);
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 缩放到变体尺寸：裁剪模式下等比缩放后居中裁剪，否则等比缩放到不超过该尺寸（不放大）
+     */
+    static BufferedImage resize(BufferedImage source, ImageVariant variant) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double scale = variant.isCrop()
+                ? Math.max((double) variant.getWidth() / width, (double) variant.getHeight() / height)
+                : Math.min((double) variant.getWidth() / width, (double) variant.getHeight() / height);
+        scale = Math.min(scale, 1.0);
+        int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+        int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+
+        // 缩小超过一半时逐级减半，避免单次双线性插值丢失细节
+        BufferedImage current = source;
+        int currentWidth = width;
+        int currentHeight = height;
+        while (currentWidth / 2 >= scaledWidth && currentHeight / 2 >= scaledHeight) {
+            currentWidth /= 2;
+            currentHeight /= 2;
+            current = draw(current, currentWidth, currentHeight, 0, 0, currentWidth, currentHeight);
+        }
+        if (!variant.isCrop()) {
+            return draw(current, scaledWidth, scaledHeight, 0, 0, scaledWidth, scaledHeight);
+        }
+        int targetWidth = Math.min(variant.getWidth(), scaledWidth);
+        int targetHeight = Math.min(variant.getHeight(), scaledHeight);
+        return draw(current, targetWidth, targetHeight, (targetWidth - scaledWidth) / 2,
+                (targetHeight - scaledHeight) / 2, scaledWidth, scaledHeight);
+    }
+
+    /**
+     * 把图片绘制到白色背景的RGB画布上（透明PNG转JPEG时透明部分为白色）
+     */
+    private static BufferedImage draw(BufferedImage source, int canvasWidth, int canvasHeight,
+                                      int x, int y, int width, int height) {
+        BufferedImage target = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, canvasWidth, canvasHeight);
+            graphics.drawImage(source, x, y, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(imageOutput);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+}
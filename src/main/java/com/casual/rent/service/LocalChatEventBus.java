@@ -0,0 +1,21 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.ChatEvent;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+
+/**
+ * 进程内事件总线，适用于单节点部署和测试
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.message.fanout", name = "mode", havingValue = "local", matchIfMissing = true)
+public class LocalChatEventBus extends AbstractChatEventBus {
+
+    @Override
+    public void publish(ChatEvent event) {
+        event.setOrigin(nodeId);
+        deliverLocally(Collections.singletonList(event));
+    }
+}
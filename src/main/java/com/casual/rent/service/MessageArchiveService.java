@@ -0,0 +1,99 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.MessageConfig;
+import com.casual.rent.mapper.MessageArchiveMapper;
+import com.casual.rent.mapper.MessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 聊天消息归档服务
+ * 定期将早于保留期的已读消息从热表 messages 迁移到压缩的归档表 messages_archive，
+ * 使热表及其索引保持在较小规模
+ */
+@Service
+public class MessageArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageArchiveService.class);
+
+    @Autowired
+    private MessageConfig messageConfig;
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Autowired
+    private MessageArchiveMapper messageArchiveMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * 定时归档任务，默认每天凌晨3点半执行
+     */
+    @Scheduled(cron = "${app.message.archive.cron:0 30 3 * * ?}")
+    public void scheduledArchive() {
+        if (!Boolean.TRUE.equals(messageConfig.getArchive().getEnabled())) {
+            return;
+        }
+        archiveReadMessages();
+    }
+
+    /**
+     * 执行一次归档
+     * @return 本次归档的消息数量
+     */
+    public int archiveReadMessages() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("消息归档任务正在执行，跳过本次触发");
+            return 0;
+        }
+        try {
+            MessageConfig.ArchiveConfig config = messageConfig.getArchive();
+            LocalDateTime before = LocalDateTime.now().minusDays(config.getRetentionDays());
+            int batchSize = config.getBatchSize();
+
+            int total = 0;
+            long afterId = 0L;
+            for (int batch = 0; batch < config.getMaxBatchesPerRun(); batch++) {
+                List<Long> ids = messageMapper.selectArchivableIds(afterId, before, batchSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                total += archiveBatch(ids);
+                afterId = ids.get(ids.size() - 1);
+                if (ids.size() < batchSize) {
+                    break;
+                }
+            }
+            log.info("消息归档完成，截止时间: {}, 归档数量: {}", before, total);
+            return total;
+        } catch (Exception e) {
+            log.error("消息归档失败", e);
+            throw new RuntimeException("消息归档失败：" + e.getMessage(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 在同一事务中复制并删除一批消息，保证消息不会丢失或重复出现在两个表中
+     */
+    private int archiveBatch(List<Long> ids) {
+        Integer moved = transactionTemplate.execute(status -> {
+            messageArchiveMapper.copyFromMessages(ids);
+            return messageMapper.deleteBatchIds(ids);
+        });
+        return moved != null ? moved : 0;
+    }
+}
@@ -0,0 +1,327 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.casual.rent.common.TextTokenizer;
+import com.casual.rent.config.MessageConfig;
+import com.casual.rent.entity.Message;
+import com.casual.rent.mapper.MessageArchiveMapper;
+import com.casual.rent.mapper.MessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 聊天消息内存倒排索引
+ * 对消息内容分词后建立 词 -> 消息ID 的倒排表，中文除二元组外也索引单字，以支持单字查询。
+ * 同时为发送者和接收者各建立一个参与者词项，检索时将参与者词项与查询词项求交集，
+ * 从而把结果限定在当前用户的对话内。
+ * 启动后在后台从最新消息开始预热，新消息在发送时增量加入。
+ */
+@Component
+public class MessageSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    // 参与者词项前缀，使用控制字符避免与正文分词结果冲突
+    private static final String PARTICIPANT_PREFIX = "\u0001u";
+
+    @Autowired
+    private MessageConfig messageConfig;
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Autowired
+    private MessageArchiveMapper messageArchiveMapper;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Map<String, IntList> postings = new HashMap<>();
+
+    private volatile boolean ready = false;
+
+    private int documentCount = 0;
+
+    /**
+     * 检索结果：命中总数和当前页的消息ID（按ID降序）
+     */
+    public static class SearchResult {
+        private final long total;
+        private final List<Long> ids;
+
+        public SearchResult(long total, List<Long> ids) {
+            this.total = total;
+            this.ids = ids;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+    }
+
+    /**
+     * 索引是否已完成预热并可用于检索
+     */
+    public boolean isReady() {
+        return ready && Boolean.TRUE.equals(messageConfig.getSearch().getEnabled());
+    }
+
+    /**
+     * 增量索引一条新消息
+     */
+    public void index(Message message) {
+        if (!Boolean.TRUE.equals(messageConfig.getSearch().getEnabled()) || message.getId() == null) {
+            return;
+        }
+        int id = message.getId().intValue();
+        lock.writeLock().lock();
+        try {
+            for (String token : documentTokens(message)) {
+                postings.computeIfAbsent(token, k -> new IntList()).insertSorted(id);
+            }
+            documentCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在用户参与的对话中检索消息
+     * @param offset 跳过的命中数量
+     * @param limit 返回的最大命中数量
+     */
+    public SearchResult search(Long userId, String keyword, int offset, int limit) {
+        Set<String> tokens = TextTokenizer.uniqueTokens(keyword);
+        if (tokens.isEmpty()) {
+            return new SearchResult(0, new ArrayList<>());
+        }
+
+        lock.readLock().lock();
+        try {
+            List<IntList> lists = new ArrayList<>();
+            IntList participant = postings.get(participantToken(userId));
+            if (participant == null) {
+                return new SearchResult(0, new ArrayList<>());
+            }
+            lists.add(participant);
+            for (String token : tokens) {
+                IntList list = postings.get(token);
+                if (list == null) {
+                    return new SearchResult(0, new ArrayList<>());
+                }
+                lists.add(list);
+            }
+            // 从最短的倒排表开始求交集
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            IntList smallest = lists.get(0);
+
+            long total = 0;
+            List<Long> ids = new ArrayList<>();
+            for (int i = smallest.size - 1; i >= 0; i--) {
+                int id = smallest.values[i];
+                boolean matched = true;
+                for (int j = 1; j < lists.size() && matched; j++) {
+                    matched = lists.get(j).contains(id);
+                }
+                if (matched) {
+                    if (total >= offset && ids.size() < limit) {
+                        ids.add((long) id);
+                    }
+                    total++;
+                }
+            }
+            return new SearchResult(total, ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 应用启动后在后台预热索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpAsync() {
+        if (!Boolean.TRUE.equals(messageConfig.getSearch().getEnabled())) {
+            return;
+        }
+        Thread thread = new Thread(this::warmUp, "MessageSearchIndex-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 从热表和归档表中按ID降序加载消息构建索引，达到上限后停止
+     */
+    void warmUp() {
+        long start = System.currentTimeMillis();
+        MessageConfig.SearchConfig config = messageConfig.getSearch();
+        int batchSize = config.getWarmupBatchSize();
+        int maxDocuments = config.getMaxDocuments();
+        Map<String, IntList> built = new HashMap<>();
+        int loaded = 0;
+
+        try {
+            Long beforeId = null;
+            while (loaded < maxDocuments) {
+                List<Message> batch = messageMapper.selectList(Wrappers.<Message>lambdaQuery()
+                        .lt(beforeId != null, Message::getId, beforeId)
+                        .orderByDesc(Message::getId)
+                        .last("LIMIT " + batchSize));
+                loaded += addAll(built, batch);
+                if (batch.size() < batchSize) {
+                    break;
+                }
+                beforeId = batch.get(batch.size() - 1).getId();
+            }
+
+            beforeId = null;
+            while (loaded < maxDocuments) {
+                List<Message> batch = messageArchiveMapper.selectBefore(beforeId, batchSize);
+                loaded += addAll(built, batch);
+                if (batch.size() < batchSize) {
+                    break;
+                }
+                beforeId = batch.get(batch.size() - 1).getId();
+            }
+
+            for (IntList list : built.values()) {
+                list.sortDistinct();
+            }
+
+            lock.writeLock().lock();
+            try {
+                // 合并预热期间增量写入的消息
+                for (Map.Entry<String, IntList> entry : postings.entrySet()) {
+                    IntList existing = built.get(entry.getKey());
+                    built.put(entry.getKey(), existing == null ? entry.getValue() : existing.merge(entry.getValue()));
+                }
+                postings = built;
+                documentCount += loaded;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("消息检索索引预热完成，消息数: {}, 词项数: {}, 耗时: {}ms",
+                    loaded, built.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("消息检索索引预热失败，检索将退化为数据库查询", e);
+        }
+    }
+
+    /**
+     * 索引统计信息
+     */
+    public Map<String, Object> getStats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("ready", ready);
+            stats.put("documents", documentCount);
+            stats.put("terms", postings.size());
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int addAll(Map<String, IntList> target, List<Message> messages) {
+        for (Message message : messages) {
+            int id = message.getId().intValue();
+            for (String token : documentTokens(message)) {
+                target.computeIfAbsent(token, k -> new IntList()).add(id);
+            }
+        }
+        return messages.size();
+    }
+
+    private Set<String> documentTokens(Message message) {
+        Set<String> tokens = TextTokenizer.uniqueTokensWithUnigrams(message.getContent());
+        tokens.add(participantToken(message.getSenderId()));
+        tokens.add(participantToken(message.getReceiverId()));
+        return tokens;
+    }
+
+    private static String participantToken(Long userId) {
+        return PARTICIPANT_PREFIX + userId;
+    }
+
+    /**
+     * 紧凑的有序int数组，消息ID使用int存储以减少内存占用
+     */
+    static final class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void insertSorted(int value) {
+            int pos = Arrays.binarySearch(values, 0, size, value);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            values[pos] = value;
+            size++;
+        }
+
+        boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        void sortDistinct() {
+            Arrays.sort(values, 0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || values[unique - 1] != values[i]) {
+                    values[unique++] = values[i];
+                }
+            }
+            size = unique;
+            values = Arrays.copyOf(values, Math.max(size, 1));
+        }
+
+        IntList merge(IntList other) {
+            IntList merged = new IntList();
+            merged.values = new int[Math.max(size + other.size, 1)];
+            int i = 0;
+            int j = 0;
+            while (i < size || j < other.size) {
+                int next;
+                if (j >= other.size || (i < size && values[i] <= other.values[j])) {
+                    next = values[i++];
+                } else {
+                    next = other.values[j++];
+                }
+                if (merged.size == 0 || merged.values[merged.size - 1] != next) {
+                    merged.values[merged.size++] = next;
+                }
+            }
+            return merged;
+        }
+    }
+}
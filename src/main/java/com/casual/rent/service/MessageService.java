@@ -1,13 +1,28 @@
 package com.casual.rent.service;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.casual.rent.common.ChatEvent;
 import com.casual.rent.entity.Message;
+import com.casual.rent.mapper.MessageArchiveMapper;
 import com.casual.rent.mapper.MessageMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -15,6 +30,32 @@ import java.util.stream.Collectors;
  */
 @Service
 public class MessageService extends ServiceImpl<MessageMapper, Message> {
+
+    /**
+     * 单次批量已读的最大消息数量
+     */
+    public static final int MAX_BATCH_READ_SIZE = 500;
+
+    /**
+     * 聊天记录分页的最大页大小
+     */
+    public static final int MAX_HISTORY_PAGE_SIZE = 100;
+
+    /**
+     * 消息检索的最大页大小和上下文条数
+     */
+    public static final int MAX_SEARCH_PAGE_SIZE = 20;
+    public static final int MAX_SEARCH_CONTEXT = 5;
+
+    @Autowired
+    private MessageArchiveMapper messageArchiveMapper;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private ChatEventBus chatEventBus;
+
     /**
      * 发送消息
      */
@@ -26,14 +67,19 @@ public class MessageService extends ServiceImpl<MessageMapper, Message> {
         message.setIsRead(false);
         message.setCreatedAt(LocalDateTime.now());
         save(message);
+        messageSearchIndex.index(message);
+        // 推送给接收者，同时同步给发送者的其他连接
+        chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_MESSAGE, receiverId, message));
+        chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_MESSAGE, senderId, message));
         return message;
     }
 
     /**
-     * 获取双方的聊天记录，按创建时间升序
+     * 获取双方的完整聊天记录（包含已归档的消息），按创建时间升序
      */
     public List<Message> getMessages(Long userA, Long userB) {
-        return lambdaQuery()
+        List<Message> messages = new ArrayList<>(messageArchiveMapper.selectConversation(userA, userB));
+        messages.addAll(lambdaQuery()
                 .and(wrapper -> wrapper
                         .eq(Message::getSenderId, userA)
                         .eq(Message::getReceiverId, userB)
@@ -41,20 +87,162 @@ public class MessageService extends ServiceImpl<MessageMapper, Message> {
                         .eq(Message::getSenderId, userB)
                         .eq(Message::getReceiverId, userA))
                 .orderByAsc(Message::getCreatedAt)
-                .list();
+                .list());
+        messages.sort(Comparator.comparing(Message::getCreatedAt).thenComparing(Message::getId));
+        return messages;
     }
 
     /**
-     * 获取用户的所有消息，按创建时间降序
+     * 向前翻页获取双方的聊天记录，按创建时间升序返回一页
+     * 未读的旧消息会留在热表而较新的已读消息可能已归档，两张表的ID区间会交错，
+     * 因此每页都同时查询热表和归档表，合并后按ID截取一页
+     * @param beforeId 只返回ID小于该值的消息，为空表示从最新消息开始
+     */
+    public List<Message> getMessageHistory(Long userA, Long userB, Long beforeId, int size) {
+        int limit = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+        List<Message> page = new ArrayList<>(lambdaQuery()
+                .and(wrapper -> wrapper
+                        .eq(Message::getSenderId, userA)
+                        .eq(Message::getReceiverId, userB)
+                        .or()
+                        .eq(Message::getSenderId, userB)
+                        .eq(Message::getReceiverId, userA))
+                .lt(beforeId != null, Message::getId, beforeId)
+                .orderByDesc(Message::getId)
+                .last("LIMIT " + limit)
+                .list());
+
+        page.addAll(messageArchiveMapper.selectConversationBefore(userA, userB, beforeId, limit));
+        page.sort(Comparator.comparing(Message::getId).reversed());
+        if (page.size() > limit) {
+            page = new ArrayList<>(page.subList(0, limit));
+        }
+
+        page.sort(Comparator.comparing(Message::getId));
+        return page;
+    }
+
+    /**
+     * 获取用户的所有消息（包含已归档的消息），按创建时间降序
      */
     public List<Message> getUserMessages(Long userId) {
-        return lambdaQuery()
+        List<Message> messages = new ArrayList<>(lambdaQuery()
                 .and(wrapper -> wrapper
                         .eq(Message::getSenderId, userId)
                         .or()
                         .eq(Message::getReceiverId, userId))
                 .orderByDesc(Message::getCreatedAt)
-                .list();
+                .list());
+        List<Message> archived = messageArchiveMapper.selectByUser(userId);
+        if (!archived.isEmpty()) {
+            messages.addAll(archived);
+            messages.sort(Comparator.comparing(Message::getCreatedAt)
+                    .thenComparing(Message::getId).reversed());
+        }
+        return messages;
+    }
+
+    /**
+     * 在用户参与的对话中检索消息，按时间倒序分页返回命中消息及其对话上下文
+     * @param context 每条命中消息前后各附带的上下文消息数量
+     */
+    public IPage<Map<String, Object>> searchMessages(Long userId, String keyword, int page, int size, int context) {
+        int pageSize = Math.max(1, Math.min(size, MAX_SEARCH_PAGE_SIZE));
+        int pageNo = Math.max(1, page);
+        int contextSize = Math.max(0, Math.min(context, MAX_SEARCH_CONTEXT));
+        Page<Map<String, Object>> result = new Page<>(pageNo, pageSize);
+
+        List<Message> hits;
+        if (messageSearchIndex.isReady()) {
+            MessageSearchIndex.SearchResult searchResult =
+                    messageSearchIndex.search(userId, keyword, (pageNo - 1) * pageSize, pageSize);
+            result.setTotal(searchResult.getTotal());
+            hits = getMessagesByIds(searchResult.getIds());
+        } else {
+            // 索引尚未就绪时退化为热表上的模糊查询
+            Page<Message> fallback = lambdaQuery()
+                    .and(wrapper -> wrapper
+                            .eq(Message::getSenderId, userId)
+                            .or()
+                            .eq(Message::getReceiverId, userId))
+                    .like(Message::getContent, keyword)
+                    .orderByDesc(Message::getId)
+                    .page(new Page<>(pageNo, pageSize));
+            result.setTotal(fallback.getTotal());
+            hits = fallback.getRecords();
+        }
+
+        Map<String, TreeMap<Long, Message>> contexts = contextSize > 0 && !hits.isEmpty()
+                ? loadContexts(hits, contextSize) : new HashMap<>();
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (Message hit : hits) {
+            Long peerId = userId.equals(hit.getSenderId()) ? hit.getReceiverId() : hit.getSenderId();
+            Map<String, Object> record = new HashMap<>();
+            record.put("message", hit);
+            record.put("peerId", peerId);
+            if (contextSize > 0) {
+                TreeMap<Long, Message> conversation = contexts.getOrDefault(conversationKey(hit), new TreeMap<>());
+                List<Message> before = new ArrayList<>();
+                for (Message message : conversation.headMap(hit.getId(), false).descendingMap().values()) {
+                    if (before.size() >= contextSize) {
+                        break;
+                    }
+                    before.add(0, message);
+                }
+                List<Message> after = new ArrayList<>();
+                for (Message message : conversation.tailMap(hit.getId(), false).values()) {
+                    if (after.size() >= contextSize) {
+                        break;
+                    }
+                    after.add(message);
+                }
+                record.put("before", before);
+                record.put("after", after);
+            }
+            records.add(record);
+        }
+        result.setRecords(records);
+        return result;
+    }
+
+    /**
+     * 批量加载命中消息前后的上下文，热表和归档表各查询一次，按对话分组、按ID排序
+     * 两张表的ID区间可能交错，合并后再由调用方按条数截取
+     */
+    private Map<String, TreeMap<Long, Message>> loadContexts(List<Message> hits, int contextSize) {
+        List<Message> messages = new ArrayList<>(baseMapper.selectContext(hits, contextSize));
+        messages.addAll(messageArchiveMapper.selectContext(hits, contextSize));
+        Map<String, TreeMap<Long, Message>> contexts = new HashMap<>();
+        for (Message message : messages) {
+            contexts.computeIfAbsent(conversationKey(message), k -> new TreeMap<>())
+                    .putIfAbsent(message.getId(), message);
+        }
+        return contexts;
+    }
+
+    private static String conversationKey(Message message) {
+        long a = message.getSenderId();
+        long b = message.getReceiverId();
+        return Math.min(a, b) + ":" + Math.max(a, b);
+    }
+
+    /**
+     * 按ID批量获取消息（依次查询热表和归档表），按ID降序返回
+     */
+    public List<Message> getMessagesByIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Message> messages = new ArrayList<>(listByIds(ids));
+        if (messages.size() < ids.size()) {
+            List<Long> missing = new ArrayList<>(ids);
+            for (Message message : messages) {
+                missing.remove(message.getId());
+            }
+            messages.addAll(messageArchiveMapper.selectByIds(missing));
+        }
+        messages.sort(Comparator.comparing(Message::getId).reversed());
+        return messages;
     }
 
     /**
@@ -71,39 +259,172 @@ public class MessageService extends ServiceImpl<MessageMapper, Message> {
      * 获取用户与每个对话者的未读消息数量
      */
     public Map<Long, Long> getUnreadCountByUser(Long userId) {
-        List<Message> unreadMessages = lambdaQuery()
+        Map<Long, Long> countMap = new HashMap<>();
+        for (Map<String, Object> row : baseMapper.selectUnreadCountGroupBySender(userId)) {
+            countMap.put(((Number) row.get("senderId")).longValue(),
+                    ((Number) row.get("unreadCount")).longValue());
+        }
+        return countMap;
+    }
+
+    /**
+     * 标记消息为已读
+     */
+    public void markAsRead(Long messageId) {
+        boolean updated = lambdaUpdate()
+                .eq(Message::getId, messageId)
+                .eq(Message::getIsRead, false)
+                .set(Message::getIsRead, true)
+                .update();
+        if (!updated) {
+            return;
+        }
+        // 只有确实变为已读时才查询收发双方，用于发送回执
+        Message message = lambdaQuery()
+                .select(Message::getSenderId, Message::getReceiverId)
+                .eq(Message::getId, messageId)
+                .one();
+        if (message != null) {
+            publishReadReceipt(message.getReceiverId(), message.getSenderId(), Collections.singletonList(messageId));
+        }
+    }
+
+    /**
+     * 批量标记消息为已读，只会更新接收者为当前用户的消息
+     * 先锁定其中的未读消息再更新，回执中的消息ID就是实际变为已读的消息
+     * @return 实际更新的消息数量
+     */
+    @Transactional
+    public int markAsReadBatch(Long userId, List<Long> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(messageIds));
+        if (ids.size() > MAX_BATCH_READ_SIZE) {
+            throw new RuntimeException("单次最多标记" + MAX_BATCH_READ_SIZE + "条消息");
+        }
+        List<Message> unread = lambdaQuery()
+                .select(Message::getId, Message::getSenderId)
                 .eq(Message::getReceiverId, userId)
                 .eq(Message::getIsRead, false)
+                .in(Message::getId, ids)
+                .last("FOR UPDATE")
                 .list();
-        
-        return unreadMessages.stream()
-                .collect(Collectors.groupingBy(
-                        Message::getSenderId,
-                        Collectors.counting()
-                ));
+        if (unread.isEmpty()) {
+            return 0;
+        }
+        Map<Long, List<Long>> receipts = new HashMap<>();
+        for (Message message : unread) {
+            receipts.computeIfAbsent(message.getSenderId(), k -> new ArrayList<>()).add(message.getId());
+        }
+        LambdaUpdateWrapper<Message> wrapper = Wrappers.<Message>lambdaUpdate()
+                .eq(Message::getIsRead, false)
+                .in(Message::getId, unread.stream().map(Message::getId).collect(Collectors.toList()))
+                .set(Message::getIsRead, true);
+        int updated = baseMapper.update(null, wrapper);
+        receipts.forEach((senderId, readIds) -> publishReadReceipt(userId, senderId, readIds));
+        return updated;
     }
 
     /**
-     * 标记消息为已读
+     * 按水位批量标记已读：对每个对话者，将ID不大于水位的未读消息标记为已读
+     * @param watermarks 对话者ID -> 已读到的最大消息ID
+     * @return 实际更新的消息数量
      */
-    public void markAsRead(Long messageId) {
-        Message message = getById(messageId);
-        if (message != null && !message.getIsRead()) {
-            message.setIsRead(true);
-            updateById(message);
+    public int markAsReadUpTo(Long userId, Map<Long, Long> watermarks) {
+        if (watermarks == null || watermarks.isEmpty()) {
+            return 0;
+        }
+        if (watermarks.size() > MAX_BATCH_READ_SIZE) {
+            throw new RuntimeException("单次最多标记" + MAX_BATCH_READ_SIZE + "个对话");
         }
+        QueryWrapper<Message> affected = Wrappers.<Message>query();
+        affected.and(w -> {
+            boolean first = true;
+            for (Map.Entry<Long, Long> entry : watermarks.entrySet()) {
+                if (!first) {
+                    w.or();
+                }
+                w.nested(c -> c.eq("sender_id", entry.getKey()).le("id", entry.getValue()));
+                first = false;
+            }
+        });
+        Map<Long, Long> receipts = unreadUpTo(affected, userId);
+        LambdaUpdateWrapper<Message> wrapper = Wrappers.<Message>lambdaUpdate()
+                .eq(Message::getReceiverId, userId)
+                .eq(Message::getIsRead, false)
+                .and(w -> {
+                    boolean first = true;
+                    for (Map.Entry<Long, Long> entry : watermarks.entrySet()) {
+                        if (!first) {
+                            w.or();
+                        }
+                        w.nested(c -> c.eq(Message::getSenderId, entry.getKey())
+                                .le(Message::getId, entry.getValue()));
+                        first = false;
+                    }
+                })
+                .set(Message::getIsRead, true);
+        int updated = baseMapper.update(null, wrapper);
+        if (updated > 0) {
+            // 只通知确实有消息变为已读的对话者，水位为实际标记的最大消息ID
+            receipts.forEach((senderId, upToId) -> publishReadReceipt(userId, senderId, upToId));
+        }
+        return updated;
     }
 
     /**
      * 标记用户与指定对话者的所有消息为已读
      */
     public void markConversationAsRead(Long userId, Long otherUserId) {
-        lambdaUpdate()
+        Map<Long, Long> receipts = unreadUpTo(Wrappers.<Message>query().eq("sender_id", otherUserId), userId);
+        boolean updated = lambdaUpdate()
                 .eq(Message::getReceiverId, userId)
                 .eq(Message::getSenderId, otherUserId)
                 .eq(Message::getIsRead, false)
                 .set(Message::getIsRead, true)
                 .update();
+        if (updated) {
+            publishReadReceipt(userId, otherUserId, receipts.get(otherUserId));
+        }
+    }
+
+    /**
+     * 查询即将标记为已读的未读消息，按发送者返回最大消息ID，作为已读回执的水位
+     * @param condition 除接收者和未读之外的条件
+     */
+    private Map<Long, Long> unreadUpTo(QueryWrapper<Message> condition, Long userId) {
+        condition.select("sender_id AS senderId", "MAX(id) AS upToId")
+                .eq("receiver_id", userId)
+                .eq("is_read", false)
+                .groupBy("sender_id");
+        Map<Long, Long> upTo = new HashMap<>();
+        for (Map<String, Object> row : baseMapper.selectMaps(condition)) {
+            upTo.put(((Number) row.get("senderId")).longValue(), ((Number) row.get("upToId")).longValue());
+        }
+        return upTo;
+    }
+
+    /**
+     * 通知发送者其消息已被读取（按水位）
+     * @param upToId 已读到的最大消息ID，为空时客户端按整个对话已读处理
+     */
+    private void publishReadReceipt(Long readerId, Long senderId, Long upToId) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("userId", readerId);
+        data.put("upToId", upToId);
+        chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_READ, senderId, data));
+    }
+
+    /**
+     * 通知发送者其消息已被读取（按消息ID），只包含实际变为已读的消息，
+     * 中间未被标记的消息不会被客户端误判为已读
+     */
+    private void publishReadReceipt(Long readerId, Long senderId, List<Long> messageIds) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("userId", readerId);
+        data.put("messageIds", messageIds);
+        chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_READ, senderId, data));
     }
 
     /**
@@ -0,0 +1,137 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.TokenEstimator;
+import com.casual.rent.config.AiConfig;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 模拟AI提供商（provider=mock）
+ * 不访问网络，按配置的首个token延迟和每秒token数输出固定内容，并按错误率随机失败，
+ * 用于在没有真实提供商的环境下压测AI客服。流式输出由少量共享的定时线程按节奏推送，
+ * 大量并发回复不会各占一个线程。每次调用时读取最新配置，调整参数后无需重建模型。
+ */
+public class MockChatModel implements ChatLanguageModel, StreamingChatLanguageModel {
+
+    private static final String REPLY = "您好，这是模拟AI客服的回复内容。租赁商品支持按日、按周和按月计费，押金在归还验收后原路退回。";
+
+    private static final ScheduledExecutorService TICKER = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread thread = new Thread(r, "MockAiTicker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final AiConfig.MockConfig config;
+
+    public MockChatModel(AiConfig.MockConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        int replyTokens = config.getReplyTokens();
+        try {
+            Thread.sleep(config.getTtftMs() + (long) (replyTokens * 1000 / config.getTokensPerSecond()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("模拟提供商请求被中断");
+        }
+        if (shouldFail()) {
+            throw new RuntimeException("模拟提供商请求失败");
+        }
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < replyTokens; i++) {
+            reply.append(token(i));
+        }
+        return new Response<>(AiMessage.from(reply.toString()), usage(messages, replyTokens), FinishReason.STOP);
+    }
+
+    /**
+     * 模拟提供商不调用工具，直接回答
+     */
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return generate(messages);
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        int replyTokens = config.getReplyTokens();
+        long intervalMicros = Math.max(1, (long) (1_000_000 / config.getTokensPerSecond()));
+        boolean fail = shouldFail();
+        AtomicInteger sent = new AtomicInteger();
+        StringBuilder reply = new StringBuilder();
+        AtomicReference<ScheduledFuture<?>> ticker = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean(false);
+        Runnable tick = () -> {
+            if (done.get()) {
+                return;
+            }
+            int index = sent.get();
+            try {
+                if (fail) {
+                    handler.onError(new RuntimeException("模拟提供商请求失败"));
+                } else if (index < replyTokens) {
+                    String token = token(index);
+                    reply.append(token);
+                    sent.incrementAndGet();
+                    handler.onNext(token);
+                    return;
+                } else {
+                    handler.onComplete(new Response<>(AiMessage.from(reply.toString()),
+                            usage(messages, replyTokens), FinishReason.STOP));
+                }
+            } catch (Exception e) {
+                // 处理器中止了输出（客户端断开等）
+                handler.onError(e);
+            }
+            done.set(true);
+            ScheduledFuture<?> future = ticker.get();
+            if (future != null) {
+                future.cancel(false);
+            }
+        };
+        ticker.set(TICKER.scheduleAtFixedRate(tick, TimeUnit.MILLISECONDS.toMicros(config.getTtftMs()),
+                intervalMicros, TimeUnit.MICROSECONDS));
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications,
+                         StreamingResponseHandler<AiMessage> handler) {
+        generate(messages, handler);
+    }
+
+    private boolean shouldFail() {
+        return config.getErrorRate() > 0 && ThreadLocalRandom.current().nextDouble() < config.getErrorRate();
+    }
+
+    private static String token(int index) {
+        return String.valueOf(REPLY.charAt(index % REPLY.length()));
+    }
+
+    private static TokenUsage usage(List<ChatMessage> messages, int outputTokens) {
+        int inputTokens = 0;
+        for (ChatMessage message : messages) {
+            inputTokens += TokenEstimator.estimateMessage(message.text());
+        }
+        return new TokenUsage(inputTokens, outputTokens);
+    }
+}
@@ -144,6 +144,16 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
                 .page(pageParam);
     }
     
+    /**
+     * 根据订单号查询用户自己的订单，订单不属于该用户时返回null
+     */
+    public Order getUserOrderByNo(Long userId, String orderNo) {
+        return lambdaQuery()
+                .eq(Order::getUserId, userId)
+                .eq(Order::getOrderNo, orderNo)
+                .one();
+    }
+    
     /**
      * 根据商家ID查询订单
      */
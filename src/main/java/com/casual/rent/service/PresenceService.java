@@ -0,0 +1,277 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.ChatEvent;
+import com.casual.rent.config.MessageConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线状态与“正在输入”信号服务
+ * 所有状态只保存在内存中并按TTL过期，由客户端心跳驱动，从不写入数据库。
+ * 在线状态变化通过事件总线广播到所有节点，各节点再推送给本节点上关注该用户的对话者；
+ * 收到心跳的节点会在TTL过半时重新广播，使其他节点上的在线状态保持有效。
+ */
+@Service
+public class PresenceService {
+
+    @Autowired
+    private MessageConfig messageConfig;
+
+    @Autowired
+    private ChatEventBus chatEventBus;
+
+    // 用户ID -> 最近一次心跳时间（心跳由本节点接收）
+    private final Map<Long, Long> lastSeen = new ConcurrentHashMap<>();
+
+    // 用户ID -> 最近一次广播在线状态的时间
+    private final Map<Long, Long> lastAnnounced = new ConcurrentHashMap<>();
+
+    // 用户ID -> 在线状态过期时间（由其他节点广播而来）
+    private final Map<Long, Long> remoteOnline = new ConcurrentHashMap<>();
+
+    // 被关注的用户ID -> 关注者ID集合
+    private final Map<Long, Set<Long>> watchers = new ConcurrentHashMap<>();
+
+    // 关注者ID -> 其关注的用户ID集合
+    private final Map<Long, Set<Long>> watching = new ConcurrentHashMap<>();
+
+    // “发送者:接收者” -> 输入状态过期时间
+    private final Map<String, Long> typing = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        chatEventBus.subscribe(this::onEvents);
+    }
+
+    /**
+     * 处理客户端心跳，刷新在线状态和关注列表
+     * @param peerIds 客户端当前关注的对话者，为空表示不修改关注列表
+     * @return 所关注对话者的在线状态
+     */
+    public Map<Long, Boolean> heartbeat(Long userId, Collection<Long> peerIds) {
+        long now = System.currentTimeMillis();
+        lastSeen.put(userId, now);
+        Long announced = lastAnnounced.get(userId);
+        if (announced == null || now - announced > ttlMillis() / 2) {
+            lastAnnounced.put(userId, now);
+            announce(userId, true);
+        }
+        if (peerIds != null) {
+            updateWatching(userId, peerIds);
+        }
+        return getPresence(watching.getOrDefault(userId, Collections.emptySet()));
+    }
+
+    /**
+     * 用户主动下线
+     */
+    public void offline(Long userId) {
+        if (lastSeen.remove(userId) != null) {
+            lastAnnounced.remove(userId);
+            announce(userId, false);
+        }
+        clearWatching(userId);
+    }
+
+    /**
+     * 更新“正在输入”状态并推送给对话者
+     */
+    public void typing(Long userId, Long peerId, boolean isTyping) {
+        String key = userId + ":" + peerId;
+        if (isTyping) {
+            long ttl = TimeUnit.SECONDS.toMillis(messageConfig.getPresence().getTypingTtlSeconds());
+            typing.put(key, System.currentTimeMillis() + ttl);
+        } else if (typing.remove(key) == null) {
+            return;
+        }
+        pushTyping(userId, peerId, isTyping);
+    }
+
+    /**
+     * 查询一组用户的在线状态
+     */
+    public Map<Long, Boolean> getPresence(Collection<Long> userIds) {
+        Map<Long, Boolean> result = new LinkedHashMap<>();
+        for (Long id : userIds) {
+            result.put(id, isOnline(id));
+        }
+        return result;
+    }
+
+    /**
+     * 用户是否在线
+     */
+    public boolean isOnline(Long userId) {
+        long now = System.currentTimeMillis();
+        Long seen = lastSeen.get(userId);
+        if (seen != null && seen >= now - ttlMillis()) {
+            return true;
+        }
+        Long remoteExpiry = remoteOnline.get(userId);
+        return remoteExpiry != null && remoteExpiry >= now;
+    }
+
+    /**
+     * 定期清理过期的在线状态和输入状态
+     */
+    @Scheduled(fixedDelayString = "${app.message.presence.sweep-interval-ms:1000}")
+    public void sweepExpired() {
+        long now = System.currentTimeMillis();
+        long deadline = now - ttlMillis();
+
+        Iterator<Map.Entry<Long, Long>> presenceIterator = lastSeen.entrySet().iterator();
+        while (presenceIterator.hasNext()) {
+            Map.Entry<Long, Long> entry = presenceIterator.next();
+            if (entry.getValue() < deadline && lastSeen.remove(entry.getKey(), entry.getValue())) {
+                lastAnnounced.remove(entry.getKey());
+                announce(entry.getKey(), false);
+                clearWatching(entry.getKey());
+            }
+        }
+
+        // 广播来源节点失联时，其他节点上的在线状态按TTL自然过期
+        Iterator<Map.Entry<Long, Long>> remoteIterator = remoteOnline.entrySet().iterator();
+        while (remoteIterator.hasNext()) {
+            Map.Entry<Long, Long> entry = remoteIterator.next();
+            if (entry.getValue() < now && remoteOnline.remove(entry.getKey(), entry.getValue())
+                    && !lastSeen.containsKey(entry.getKey())) {
+                notifyLocalWatchers(entry.getKey(), false);
+            }
+        }
+
+        Iterator<Map.Entry<String, Long>> typingIterator = typing.entrySet().iterator();
+        while (typingIterator.hasNext()) {
+            Map.Entry<String, Long> entry = typingIterator.next();
+            if (entry.getValue() < now && typing.remove(entry.getKey(), entry.getValue())) {
+                String[] parts = entry.getKey().split(":");
+                pushTyping(Long.valueOf(parts[0]), Long.valueOf(parts[1]), false);
+            }
+        }
+    }
+
+    /**
+     * 统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("online", lastSeen.size());
+        stats.put("remoteOnline", remoteOnline.size());
+        stats.put("typing", typing.size());
+        stats.put("watchedUsers", watchers.size());
+        return stats;
+    }
+
+    private void updateWatching(Long userId, Collection<Long> peerIds) {
+        int max = messageConfig.getPresence().getMaxWatchPeers();
+        Set<Long> next = ConcurrentHashMap.newKeySet();
+        for (Long peerId : peerIds) {
+            if (next.size() >= max) {
+                break;
+            }
+            if (peerId != null && !peerId.equals(userId)) {
+                next.add(peerId);
+            }
+        }
+
+        Set<Long> previous = watching.put(userId, next);
+        if (previous != null) {
+            for (Long peerId : previous) {
+                if (!next.contains(peerId)) {
+                    removeWatcher(peerId, userId);
+                }
+            }
+        }
+        for (Long peerId : next) {
+            watchers.computeIfAbsent(peerId, k -> ConcurrentHashMap.newKeySet()).add(userId);
+        }
+    }
+
+    private void clearWatching(Long userId) {
+        Set<Long> previous = watching.remove(userId);
+        if (previous != null) {
+            for (Long peerId : previous) {
+                removeWatcher(peerId, userId);
+            }
+        }
+    }
+
+    private void removeWatcher(Long peerId, Long watcherId) {
+        watchers.computeIfPresent(peerId, (k, set) -> {
+            set.remove(watcherId);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * 广播用户在线状态变化
+     */
+    private void announce(Long userId, boolean online) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("userId", userId);
+        data.put("online", online);
+        data.put("ttlMillis", ttlMillis());
+        chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_PRESENCE, null, data));
+    }
+
+    /**
+     * 处理广播的在线状态：记录状态并推送给本节点上的关注者
+     */
+    private void onEvents(List<ChatEvent> events) {
+        for (ChatEvent event : events) {
+            if (event.getUserId() != null || !ChatEvent.TYPE_PRESENCE.equals(event.getType())
+                    || !(event.getData() instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> data = (Map<?, ?>) event.getData();
+            Long userId = Long.valueOf(data.get("userId").toString());
+            boolean online = Boolean.parseBoolean(data.get("online").toString());
+            if (online) {
+                long ttl = Long.parseLong(data.get("ttlMillis").toString());
+                Long previous = remoteOnline.put(userId, System.currentTimeMillis() + ttl);
+                if (previous == null) {
+                    notifyLocalWatchers(userId, true);
+                }
+            } else {
+                remoteOnline.remove(userId);
+                notifyLocalWatchers(userId, false);
+            }
+        }
+    }
+
+    private void notifyLocalWatchers(Long userId, boolean online) {
+        Set<Long> targets = watchers.get(userId);
+        if (targets == null || targets.isEmpty()) {
+            return;
+        }
+        for (Long watcherId : targets) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("userId", userId);
+            data.put("online", online);
+            chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_PRESENCE, watcherId, data));
+        }
+    }
+
+    private void pushTyping(Long userId, Long peerId, boolean isTyping) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("userId", userId);
+        data.put("typing", isTyping);
+        chatEventBus.publish(new ChatEvent(ChatEvent.TYPE_TYPING, peerId, data));
+    }
+
+    private long ttlMillis() {
+        return TimeUnit.SECONDS.toMillis(messageConfig.getPresence().getTtlSeconds());
+    }
+}
@@ -4,16 +4,62 @@ import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.casual.rent.common.AuditStatus;
+import com.casual.rent.common.ProductChangedEvent;
 import com.casual.rent.common.ProductStatus;
 import com.casual.rent.entity.Product;
 import com.casual.rent.mapper.ProductMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.List;
+
 /**
  * 商品服务
  */
 @Service
 public class ProductService extends ServiceImpl<ProductMapper, Product> {
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 新增商品并发布商品变更事件
+     */
+    @Override
+    public boolean save(Product entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            eventPublisher.publishEvent(new ProductChangedEvent(entity.getId()));
+        }
+        return saved;
+    }
+
+    /**
+     * 修改商品并发布商品变更事件
+     */
+    @Override
+    public boolean updateById(Product entity) {
+        boolean updated = super.updateById(entity);
+        if (updated) {
+            eventPublisher.publishEvent(new ProductChangedEvent(entity.getId()));
+        }
+        return updated;
+    }
+
+    /**
+     * 删除商品并发布商品变更事件
+     */
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        if (removed) {
+            eventPublisher.publishEvent(new ProductChangedEvent(Long.valueOf(id.toString())));
+        }
+        return removed;
+    }
     
     /**
      * 分页查询商品
@@ -63,6 +109,21 @@ public class ProductService extends ServiceImpl<ProductMapper, Product> {
         }
     }
     
+    /**
+     * 按关键字和日租金上限查询可租商品，按日租金升序
+     */
+    public List<Product> searchAvailableProducts(String keyword, BigDecimal maxDailyPrice, int limit) {
+        return lambdaQuery()
+                .like(keyword != null && !keyword.trim().isEmpty(), Product::getName, keyword)
+                .le(maxDailyPrice != null, Product::getDailyPrice, maxDailyPrice)
+                .eq(Product::getStatus, ProductStatus.ON_SHELF.getCode())
+                .eq(Product::getAuditStatus, AuditStatus.APPROVED.getCode())
+                .gt(Product::getStock, 0)
+                .orderByAsc(Product::getDailyPrice)
+                .last("LIMIT " + limit)
+                .list();
+    }
+    
     /**
      * 根据商家ID查询商品
      */
@@ -159,6 +220,7 @@ public class ProductService extends ServiceImpl<ProductMapper, Product> {
                 .eq(Product::getStatus, ProductStatus.ON_SHELF.getCode()) // 只处理上架的商品
                 .set(Product::getStatus, ProductStatus.OFF_SHELF.getCode()) // 设置为下架
                 .update();
+        eventPublisher.publishEvent(new ProductChangedEvent(null));
     }
     
     /**
@@ -0,0 +1,379 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.casual.rent.common.AuditStatus;
+import com.casual.rent.common.ProductChangedEvent;
+import com.casual.rent.common.ProductStatus;
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.entity.Product;
+import com.casual.rent.mapper.ProductMapper;
+import dev.langchain4j.model.embedding.BgeSmallZhV15QuantizedEmbeddingModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品向量索引
+ * 使用进程内的向量模型（不访问网络）把审核通过、已上架且有库存的商品向量化，保存在内存中；
+ * 检索时对用户问题向量化后与全部商品计算余弦相似度取前几名。启动后在后台全量构建，
+ * 之后根据商品变更事件增量更新：名称和描述不变时只更新价格、库存等信息，不重新向量化。
+ * 检索有严格的耗时上限，超时时返回空结果，AI按没有商品信息的方式回复。
+ */
+@Component
+public class ProductVectorIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductVectorIndex.class);
+
+    // BGE模型建议在短查询前加上检索指令，商品文本不加
+    private static final String QUERY_INSTRUCTION = "为这个句子生成表示以用于检索相关文章：";
+
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    @Autowired
+    private AiConfig aiConfig;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    private volatile EmbeddingModel embeddingModel;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean ready = false;
+
+    // 索引更新在单线程上按事件顺序执行
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ProductVectorIndexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // 检索线程，调用方只等待耗时上限内的结果
+    private final ExecutorService searcher = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "ProductVectorSearch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalSearchMs = new AtomicLong();
+    private final AtomicLong embedded = new AtomicLong();
+
+    /**
+     * 检索命中的商品
+     */
+    public static class Match {
+        private final Long productId;
+        private final String name;
+        private final String description;
+        private final BigDecimal dailyPrice;
+        private final BigDecimal weeklyPrice;
+        private final BigDecimal monthlyPrice;
+        private final BigDecimal deposit;
+        private final Integer stock;
+        private final double score;
+
+        private Match(Entry entry, double score) {
+            this.productId = entry.productId;
+            this.name = entry.name;
+            this.description = entry.description;
+            this.dailyPrice = entry.dailyPrice;
+            this.weeklyPrice = entry.weeklyPrice;
+            this.monthlyPrice = entry.monthlyPrice;
+            this.deposit = entry.deposit;
+            this.stock = entry.stock;
+            this.score = score;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public BigDecimal getDailyPrice() {
+            return dailyPrice;
+        }
+
+        public BigDecimal getWeeklyPrice() {
+            return weeklyPrice;
+        }
+
+        public BigDecimal getMonthlyPrice() {
+            return monthlyPrice;
+        }
+
+        public BigDecimal getDeposit() {
+            return deposit;
+        }
+
+        public Integer getStock() {
+            return stock;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * 索引中的商品，创建后不再修改，更新时整体替换
+     */
+    private static final class Entry {
+        final Long productId;
+        final String name;
+        final String description;
+        final BigDecimal dailyPrice;
+        final BigDecimal weeklyPrice;
+        final BigDecimal monthlyPrice;
+        final BigDecimal deposit;
+        final Integer stock;
+        final String text;
+        final float[] vector;
+
+        Entry(Product product, String description, String text, float[] vector) {
+            this.productId = product.getId();
+            this.name = product.getName();
+            this.description = description;
+            this.dailyPrice = product.getDailyPrice();
+            this.weeklyPrice = product.getWeeklyPrice();
+            this.monthlyPrice = product.getMonthlyPrice();
+            this.deposit = product.getDeposit();
+            this.stock = product.getStock();
+            this.text = text;
+            this.vector = vector;
+        }
+    }
+
+    /**
+     * 应用启动后在后台加载向量模型并构建索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpAsync() {
+        if (!Boolean.TRUE.equals(aiConfig.getRetrieval().getEnabled())) {
+            return;
+        }
+        indexer.execute(this::rebuild);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexer.shutdownNow();
+        searcher.shutdownNow();
+    }
+
+    /**
+     * 商品变更后增量更新索引
+     */
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        if (!Boolean.TRUE.equals(aiConfig.getRetrieval().getEnabled())) {
+            return;
+        }
+        indexer.execute(() -> {
+            try {
+                if (event.getProductId() == null) {
+                    rebuild();
+                } else {
+                    refresh(productMapper.selectById(event.getProductId()), event.getProductId());
+                }
+            } catch (Exception e) {
+                log.warn("更新商品向量索引失败，商品ID: {}", event.getProductId(), e);
+            }
+        });
+    }
+
+    /**
+     * 检索与问题最相关的商品，超过耗时上限时返回空列表
+     */
+    public List<Match> search(String question) {
+        AiConfig.RetrievalConfig config = aiConfig.getRetrieval();
+        if (!Boolean.TRUE.equals(config.getEnabled()) || embeddingModel == null || entries.isEmpty()
+                || question == null || question.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        long start = System.currentTimeMillis();
+        searches.incrementAndGet();
+        Future<List<Match>> future = searcher.submit(() -> nearest(question, config.getTopK(), config.getMinScore()));
+        try {
+            return future.get(config.getLatencyBudgetMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.incrementAndGet();
+            log.debug("商品检索超过耗时上限 {}ms，跳过", config.getLatencyBudgetMs());
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (Exception e) {
+            log.warn("商品检索失败: {}", e.getMessage());
+            return Collections.emptyList();
+        } finally {
+            totalSearchMs.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 索引统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = searches.get();
+        stats.put("enabled", aiConfig.getRetrieval().getEnabled());
+        stats.put("ready", ready);
+        stats.put("products", entries.size());
+        stats.put("embedded", embedded.get());
+        stats.put("searches", count);
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgSearchMs", count == 0 ? 0 : totalSearchMs.get() / count);
+        return stats;
+    }
+
+    private List<Match> nearest(String question, int topK, double minScore) {
+        float[] query = embed(QUERY_INSTRUCTION + question.trim());
+        PriorityQueue<Match> best = new PriorityQueue<>(topK + 1, (a, b) -> Double.compare(a.score, b.score));
+        for (Entry entry : entries.values()) {
+            double score = dot(query, entry.vector);
+            if (score < minScore) {
+                continue;
+            }
+            best.add(new Match(entry, score));
+            if (best.size() > topK) {
+                best.poll();
+            }
+        }
+        List<Match> result = new ArrayList<>(best);
+        result.sort((a, b) -> Double.compare(b.score, a.score));
+        return result;
+    }
+
+    /**
+     * 从数据库按ID顺序加载全部可检索的商品，复用名称和描述未变化的向量
+     */
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        try {
+            if (embeddingModel == null) {
+                embeddingModel = new BgeSmallZhV15QuantizedEmbeddingModel();
+            }
+            int maxProducts = aiConfig.getRetrieval().getMaxProducts();
+            Set<Long> seen = new HashSet<>();
+            Long afterId = null;
+            while (seen.size() < maxProducts) {
+                List<Product> batch = productMapper.selectList(Wrappers.<Product>lambdaQuery()
+                        .eq(Product::getStatus, ProductStatus.ON_SHELF.getCode())
+                        .eq(Product::getAuditStatus, AuditStatus.APPROVED.getCode())
+                        .gt(Product::getStock, 0)
+                        .gt(afterId != null, Product::getId, afterId)
+                        .orderByAsc(Product::getId)
+                        .last("LIMIT " + LOAD_BATCH_SIZE));
+                for (Product product : batch) {
+                    refresh(product, product.getId());
+                    seen.add(product.getId());
+                }
+                if (batch.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+            entries.keySet().retainAll(seen);
+            ready = true;
+            log.info("商品向量索引构建完成，商品数: {}，耗时: {}ms", entries.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("构建商品向量索引失败", e);
+        }
+    }
+
+    /**
+     * 按商品最新数据更新索引，不再可检索的商品从索引中移除
+     */
+    private void refresh(Product product, Long productId) {
+        if (embeddingModel == null) {
+            // 模型尚未加载，全量构建时会读取最新数据
+            return;
+        }
+        if (!searchable(product)) {
+            entries.remove(productId);
+            return;
+        }
+        String description = truncate(product.getDescription(), aiConfig.getRetrieval().getDescriptionChars());
+        String text = description.isEmpty() ? product.getName() : product.getName() + "\n" + description;
+        Entry previous = entries.get(productId);
+        float[] vector = previous != null && previous.text.equals(text) ? previous.vector : embed(text);
+        if (previous == null || previous.vector != vector) {
+            embedded.incrementAndGet();
+        }
+        entries.put(productId, new Entry(product, description, text, vector));
+    }
+
+    private boolean searchable(Product product) {
+        return product != null
+                && ProductStatus.ON_SHELF.getCode().equals(product.getStatus())
+                && AuditStatus.APPROVED.getCode().equals(product.getAuditStatus())
+                && product.getStock() != null && product.getStock() > 0;
+    }
+
+    /**
+     * 向量化并归一化为单位长度，之后点积即余弦相似度
+     */
+    private float[] embed(String text) {
+        float[] vector = embeddingModel.embed(text).content().vector();
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) (vector[i] / norm);
+            }
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static String truncate(String text, int maxChars) {
+        if (text == null) {
+            return "";
+        }
+        String trimmed = text.trim();
+        return trimmed.length() <= maxChars ? trimmed : trimmed.substring(0, maxChars);
+    }
+}
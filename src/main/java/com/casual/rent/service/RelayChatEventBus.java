@@ -0,0 +1,158 @@
+package com.casual.rent.service;
+
+import com.casual.rent.common.ChatEvent;
+import com.casual.rent.config.MessageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点间中继事件总线
+ * 事件先投递给本节点，同时进入发送队列；后台按时间窗口把队列中的事件合并为一批，
+ * 通过HTTP发送给配置的其他节点，对端收到后投递给自己的订阅者。
+ * 总线只依赖 {@link ChatEventBus} 接口，后续可替换为基于Redis、MQ等消息中间件的实现。
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.message.fanout", name = "mode", havingValue = "relay")
+public class RelayChatEventBus extends AbstractChatEventBus {
+
+    private static final Logger log = LoggerFactory.getLogger(RelayChatEventBus.class);
+
+    public static final String SECRET_HEADER = "X-Fanout-Secret";
+
+    private static final String RELAY_PATH = "/messages/fanout/relay";
+
+    // 单批最多发送的事件数量
+    private static final int MAX_BATCH_SIZE = 500;
+
+    @Autowired
+    private MessageConfig messageConfig;
+
+    @Autowired
+    private RestTemplateBuilder restTemplateBuilder;
+
+    private RestTemplate restTemplate;
+
+    private final ConcurrentLinkedQueue<ChatEvent> outbound = new ConcurrentLinkedQueue<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ChatEventRelay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        MessageConfig.FanoutConfig config = messageConfig.getFanout();
+        // 中继接口可以向任意用户投递事件，没有密钥时拒绝启动
+        if (!StringUtils.hasText(config.getSecret())) {
+            throw new IllegalStateException("relay模式必须配置节点间共享密钥 app.message.fanout.secret");
+        }
+        restTemplate = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(config.getConnectTimeoutMs()))
+                .setReadTimeout(Duration.ofMillis(config.getReadTimeoutMs()))
+                .build();
+        scheduler.scheduleWithFixedDelay(this::flush, config.getBatchWindowMs(),
+                config.getBatchWindowMs(), TimeUnit.MILLISECONDS);
+        log.info("聊天事件中继总线已启动，节点: {}, 对端: {}", nodeId, config.getPeers());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    @Override
+    public void publish(ChatEvent event) {
+        event.setOrigin(nodeId);
+        deliverLocally(Collections.singletonList(event));
+        if (!messageConfig.getFanout().getPeers().isEmpty()) {
+            outbound.offer(event);
+        }
+    }
+
+    /**
+     * 接收其他节点中继过来的事件，必须携带正确的共享密钥
+     * @return 密钥校验是否通过
+     */
+    public boolean receive(String secret, List<ChatEvent> events) {
+        String expected = messageConfig.getFanout().getSecret();
+        // 定长时间比较，避免通过响应时间逐字节猜测密钥
+        if (secret == null || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                secret.getBytes(StandardCharsets.UTF_8))) {
+            return false;
+        }
+        List<ChatEvent> remote = new ArrayList<>();
+        for (ChatEvent event : events) {
+            if (!nodeId.equals(event.getOrigin())) {
+                remote.add(event);
+            }
+        }
+        if (!remote.isEmpty()) {
+            deliverLocally(remote);
+        }
+        return true;
+    }
+
+    /**
+     * 把发送队列中的事件按批发送给所有对端节点
+     */
+    private void flush() {
+        try {
+            while (!outbound.isEmpty()) {
+                List<ChatEvent> batch = new ArrayList<>();
+                ChatEvent event;
+                while (batch.size() < MAX_BATCH_SIZE && (event = outbound.poll()) != null) {
+                    batch.add(event);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                for (String peer : messageConfig.getFanout().getPeers()) {
+                    send(peer, batch);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("聊天事件中继失败", e);
+        }
+    }
+
+    private void send(String peer, List<ChatEvent> batch) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set(SECRET_HEADER, messageConfig.getFanout().getSecret());
+        Map<String, Object> body = new HashMap<>();
+        body.put("origin", nodeId);
+        body.put("events", batch);
+        try {
+            restTemplate.postForEntity(peer + RELAY_PATH, new HttpEntity<>(body, headers), String.class);
+        } catch (Exception e) {
+            // 实时事件是尽力而为的，对端不可用时丢弃本批事件，避免积压
+            log.warn("向节点 {} 中继 {} 条聊天事件失败: {}", peer, batch.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.casual.rent.benchmark;
+
+import com.casual.rent.service.AiMessageWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import okhttp3.sse.EventSources;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI流式回复压测
+ * 使用模拟提供商（provider=mock，不访问网络）同时打开大量 /ai-chat/send/stream 连接，
+ * 统计首个token时间、回复总耗时、服务端线程数和堆内存峰值，以及每个会话的数据库写入次数。
+ * 需要测试数据库，默认不执行，通过系统属性启用：
+ * mvn test -Dtest=AiStreamLoadTest -Dai.load.sessions=2000
+ * 模拟提供商的节奏可通过 -Dapp.ai.mock.ttft-ms、-Dapp.ai.mock.tokens-per-second 等调整。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "app.ai.provider=mock",
+        "app.ai.routing.providers=",
+        "app.ai.rate-limit.enabled=false",
+        "app.ai.answer-cache.enabled=false",
+        "app.ai.retrieval.enabled=false",
+        "app.ai.tools.enabled=false",
+        "app.ai.executor.max-concurrent-per-provider=${ai.load.sessions}",
+        "app.ai.executor.queue-capacity=${ai.load.sessions}",
+        "app.ai.executor.queue-timeout-ms=120000"
+})
+@ActiveProfiles("test")
+@EnabledIfSystemProperty(named = "ai.load.sessions", matches = "\\d+")
+public class AiStreamLoadTest {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private AiMessageWriter aiMessageWriter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void concurrentStreams() throws Exception {
+        int sessions = Integer.getInteger("ai.load.sessions");
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(sessions);
+        dispatcher.setMaxRequestsPerHost(sessions);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .readTimeout(2, TimeUnit.MINUTES)
+                .build();
+
+        // 服务端和客户端在同一进程中，峰值包含少量客户端线程
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+        AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(
+                memory.getHeapMemoryUsage().getUsed(), Math::max), 0, 100, TimeUnit.MILLISECONDS);
+
+        aiMessageWriter.flush();
+        Map<String, Object> writesBefore = aiMessageWriter.getStats();
+
+        ConcurrentLinkedQueue<Long> ttfts = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Long> durations = new ConcurrentLinkedQueue<>();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(sessions);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < sessions; i++) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("userId", 900000L + i);
+            body.put("message", "压测消息 " + i + "：押金怎么退？");
+            Request request = new Request.Builder()
+                    .url("http://localhost:" + port + "/ai-chat/send/stream")
+                    .post(RequestBody.create(JSON, objectMapper.writeValueAsString(body)))
+                    .build();
+            long sentAt = System.currentTimeMillis();
+            EventSources.createFactory(client).newEventSource(request, new EventSourceListener() {
+                private boolean firstToken = true;
+                private boolean success = false;
+
+                @Override
+                public void onEvent(EventSource eventSource, String id, String type, String data) {
+                    if (firstToken && ("ai_token".equals(type) || "ai_delta".equals(type))) {
+                        firstToken = false;
+                        ttfts.add(System.currentTimeMillis() - sentAt);
+                    } else if ("ai_complete".equals(type)) {
+                        success = true;
+                    }
+                }
+
+                @Override
+                public void onClosed(EventSource eventSource) {
+                    durations.add(System.currentTimeMillis() - sentAt);
+                    (success ? completed : failed).incrementAndGet();
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(EventSource eventSource, Throwable t, Response response) {
+                    failed.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.MINUTES), "压测未在5分钟内结束");
+        long elapsed = System.currentTimeMillis() - start;
+        sampler.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+
+        aiMessageWriter.flush();
+        Map<String, Object> writesAfter = aiMessageWriter.getStats();
+        long statements = delta(writesBefore, writesAfter, "batches") + delta(writesBefore, writesAfter, "chatUpdates")
+                + sessions; // 每个会话创建一条 ai_chat 记录
+        long rows = delta(writesBefore, writesAfter, "written");
+
+        System.out.println("📊 会话数: " + sessions + "，成功: " + completed.get() + "，失败: " + failed.get()
+                + "，总耗时: " + elapsed + "ms");
+        System.out.println("📊 首个token时间(ms) " + percentiles(ttfts));
+        System.out.println("📊 回复总耗时(ms) " + percentiles(durations));
+        System.out.println("📊 线程数: 压测前 " + threadsBefore + "，峰值 " + threads.getPeakThreadCount()
+                + "；堆内存峰值: " + peakHeap.get() / (1024 * 1024) + "MB");
+        System.out.printf("📊 每个会话的数据库写入: %.2f 条语句，%.2f 行消息%n",
+                (double) statements / sessions, (double) rows / sessions);
+
+        assertEquals(sessions, completed.get() + failed.get());
+        assertTrue(completed.get() > 0, "没有成功完成的流式回复");
+        System.out.println("✅ AI流式回复压测完成");
+    }
+
+    private static long delta(Map<String, Object> before, Map<String, Object> after, String key) {
+        return ((Number) after.get(key)).longValue() - ((Number) before.get(key)).longValue();
+    }
+
+    private static String percentiles(ConcurrentLinkedQueue<Long> samples) {
+        List<Long> sorted = new ArrayList<>(samples);
+        if (sorted.isEmpty()) {
+            return "无数据";
+        }
+        Collections.sort(sorted);
+        return "p50=" + at(sorted, 0.50) + " p95=" + at(sorted, 0.95) + " p99=" + at(sorted, 0.99)
+                + " max=" + sorted.get(sorted.size() - 1);
+    }
+
+    private static long at(List<Long> sorted, double quantile) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(quantile * sorted.size()) - 1));
+    }
+}
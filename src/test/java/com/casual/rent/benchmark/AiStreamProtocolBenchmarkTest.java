@@ -0,0 +1,164 @@
+package com.casual.rent.benchmark;
+
+import com.casual.rent.common.AiDeltaEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI流式协议基准测试
+ * 对比协议 v1（每个token携带完整内容）和协议 v2（合并增量帧）单次回复的传输字节数和CPU耗时，
+ * 并校验客户端按增量帧和同步帧重建的内容与原文一致
+ */
+public class AiStreamProtocolBenchmarkTest {
+
+    private static final int TOKENS_PER_STREAM = 1000;
+    private static final int STREAMS = 50;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void compareBytesAndCpuPerStream() {
+        List<String> tokens = sampleTokens();
+
+        // 预热
+        for (int i = 0; i < 5; i++) {
+            legacyStream(tokens);
+            deltaStream(tokens);
+        }
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long legacyBytes = 0;
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < STREAMS; i++) {
+            legacyBytes += legacyStream(tokens);
+        }
+        long legacyCpu = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        long deltaBytes = 0;
+        start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < STREAMS; i++) {
+            deltaBytes += deltaStream(tokens);
+        }
+        long deltaCpu = threadMXBean.getCurrentThreadCpuTime() - start;
+
+        System.out.println("📊 协议 v1: " + legacyBytes / STREAMS + " 字节/流, "
+                + legacyCpu / STREAMS / 1000 + " 微秒CPU/流");
+        System.out.println("📊 协议 v2: " + deltaBytes / STREAMS + " 字节/流, "
+                + deltaCpu / STREAMS / 1000 + " 微秒CPU/流");
+
+        assertTrue(deltaBytes * 20 < legacyBytes, "增量协议的传输字节数应显著少于旧协议");
+        System.out.println("✅ 流式协议基准测试通过");
+    }
+
+    @Test
+    void deltaFramesReconstructContent() throws Exception {
+        List<String> tokens = sampleTokens();
+        AiDeltaEncoder encoder = new AiDeltaEncoder(64, 4);
+        List<String[]> frames = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (String token : tokens) {
+            expected.append(token);
+            collect(encoder, encoder.append(token), frames);
+        }
+        collect(encoder, encoder.flush(), frames);
+
+        StringBuilder received = new StringBuilder();
+        int syncFrames = 0;
+        long lastSeq = 0;
+        for (String[] frame : frames) {
+            JsonNode node = objectMapper.readTree(frame[1]);
+            assertEquals(lastSeq + 1, node.get("seq").asLong());
+            lastSeq = node.get("seq").asLong();
+            assertEquals(received.length(), node.get("offset").asInt());
+            if (AiDeltaEncoder.EVENT_DELTA.equals(frame[0])) {
+                received.append(node.get("delta").asText());
+            } else {
+                CRC32 crc32 = new CRC32();
+                crc32.update(received.toString().getBytes(StandardCharsets.UTF_8));
+                assertEquals(crc32.getValue(), node.get("crc32").asLong());
+                syncFrames++;
+            }
+        }
+
+        assertEquals(expected.toString(), received.toString());
+        assertEquals(expected.toString(), encoder.getContent());
+        assertTrue(syncFrames > 0);
+        System.out.println("✅ 增量帧重建内容测试通过");
+    }
+
+    /**
+     * 按协议 v1 编码一次回复，返回传输字节数
+     */
+    private long legacyStream(List<String> tokens) {
+        long bytes = 0;
+        StringBuilder full = new StringBuilder();
+        for (String token : tokens) {
+            full.append(token);
+            String frame = "{\"content\":\"" + escapeJson(token) + "\",\"full_content\":\"" + escapeJson(full.toString()) + "\"}";
+            bytes += frame.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    /**
+     * 按协议 v2 编码一次回复（只按字符上限出帧），返回传输字节数
+     */
+    private long deltaStream(List<String> tokens) {
+        AiDeltaEncoder encoder = new AiDeltaEncoder(64, 16);
+        long bytes = 0;
+        for (String token : tokens) {
+            bytes += frameBytes(encoder, encoder.append(token));
+        }
+        bytes += frameBytes(encoder, encoder.flush());
+        return bytes;
+    }
+
+    private long frameBytes(AiDeltaEncoder encoder, String frame) {
+        if (frame == null) {
+            return 0;
+        }
+        long bytes = frame.getBytes(StandardCharsets.UTF_8).length;
+        if (encoder.isSyncDue()) {
+            bytes += encoder.sync().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    private void collect(AiDeltaEncoder encoder, String frame, List<String[]> frames) {
+        if (frame == null) {
+            return;
+        }
+        frames.add(new String[]{AiDeltaEncoder.EVENT_DELTA, frame});
+        if (encoder.isSyncDue()) {
+            frames.add(new String[]{AiDeltaEncoder.EVENT_SYNC, encoder.sync()});
+        }
+    }
+
+    private List<String> sampleTokens() {
+        String[] pieces = {"您好", "，", "关于", "租赁", "订单", "的", "退款", "问题", "：\n", "1. ",
+                "请在", "订单详情", "页", "点击", "\"申请退款\"", "，", "押金", "将在", "3", "个工作日内", "退回", "。 "};
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < TOKENS_PER_STREAM; i++) {
+            tokens.add(pieces[i % pieces.length]);
+        }
+        return tokens;
+    }
+
+    private String escapeJson(String text) {
+        return text.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+}
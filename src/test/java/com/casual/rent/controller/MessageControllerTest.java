@@ -0,0 +1,181 @@
+package com.casual.rent.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class MessageControllerTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    private MockMvc mockMvc;
+    private ObjectMapper objectMapper;
+
+    private final Long senderId = 9001L;
+    private final Long receiverId = 9002L;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+        objectMapper = new ObjectMapper();
+    }
+
+    private Long sendMessage(String content) throws Exception {
+        Map<String, Object> messageData = new HashMap<>();
+        messageData.put("senderId", senderId);
+        messageData.put("receiverId", receiverId);
+        messageData.put("content", content);
+
+        String response = mockMvc.perform(post("/messages")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(messageData)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        JsonNode node = objectMapper.readTree(response);
+        return node.path("data").path("id").asLong();
+    }
+
+    @Test
+    void testMarkAsReadBatchByIds() throws Exception {
+        Long first = sendMessage("批量已读测试1");
+        Long second = sendMessage("批量已读测试2");
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("userId", receiverId);
+        params.put("messageIds", Arrays.asList(first, second));
+
+        mockMvc.perform(put("/messages/read/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(params)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(200))
+                .andExpect(jsonPath("$.data.updated").value(2))
+                .andExpect(jsonPath("$.data.unreadCount").exists());
+
+        System.out.println("✅ 按ID批量标记已读测试通过");
+    }
+
+    @Test
+    void testMarkAsReadBatchByWatermark() throws Exception {
+        sendMessage("水位已读测试1");
+        Long last = sendMessage("水位已读测试2");
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("userId", receiverId);
+        params.put("watermarks", Collections.singletonMap(String.valueOf(senderId), last));
+
+        mockMvc.perform(put("/messages/read/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(params)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(200))
+                .andExpect(jsonPath("$.data.unreadCountByUser['" + senderId + "']").doesNotExist());
+
+        System.out.println("✅ 按水位批量标记已读测试通过");
+    }
+
+    @Test
+    void testMarkAsReadBatchWithoutUser() throws Exception {
+        Map<String, Object> params = new HashMap<>();
+        params.put("messageIds", Collections.singletonList(1L));
+
+        mockMvc.perform(put("/messages/read/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(params)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(400));
+
+        System.out.println("✅ 批量标记已读参数校验测试通过");
+    }
+
+    @Test
+    void testSearchMessages() throws Exception {
+        String serial = "SN" + System.currentTimeMillis();
+        sendMessage("您好，设备序列号是" + serial + "，请查收");
+        sendMessage("收到" + serial + "，谢谢");
+
+        mockMvc.perform(get("/messages/search")
+                .param("userId", String.valueOf(receiverId))
+                .param("keyword", serial))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(200))
+                .andExpect(jsonPath("$.data.records[0].peerId").value(senderId))
+                .andExpect(jsonPath("$.data.records[0].message.content").exists());
+
+        // 单字查询，同时返回命中消息的上下文
+        mockMvc.perform(get("/messages/search")
+                .param("userId", String.valueOf(receiverId))
+                .param("keyword", "谢")
+                .param("context", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.records[0].message.content").value("收到" + serial + "，谢谢"))
+                .andExpect(jsonPath("$.data.records[0].before[0].content").value("您好，设备序列号是" + serial + "，请查收"));
+
+        mockMvc.perform(get("/messages/search")
+                .param("userId", "9999999")
+                .param("keyword", serial))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.total").value(0));
+
+        System.out.println("✅ 消息检索测试通过");
+    }
+
+    @Test
+    void testPresenceAndTyping() throws Exception {
+        Map<String, Object> heartbeat = new HashMap<>();
+        heartbeat.put("userId", senderId);
+        heartbeat.put("peerIds", Collections.singletonList(receiverId));
+
+        mockMvc.perform(post("/messages/presence/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(heartbeat)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(200));
+
+        mockMvc.perform(get("/messages/presence")
+                .param("userIds", String.valueOf(senderId)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data['" + senderId + "']").value(true));
+
+        Map<String, Object> typing = new HashMap<>();
+        typing.put("userId", senderId);
+        typing.put("peerId", receiverId);
+        typing.put("typing", true);
+
+        mockMvc.perform(post("/messages/typing")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(typing)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.code").value(200));
+
+        mockMvc.perform(post("/messages/presence/offline/" + senderId))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/messages/presence")
+                .param("userIds", String.valueOf(senderId)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data['" + senderId + "']").value(false));
+
+        System.out.println("✅ 在线状态与输入状态测试通过");
+    }
+}
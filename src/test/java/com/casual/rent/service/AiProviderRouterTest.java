@@ -0,0 +1,428 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI提供商路由测试
+ * 使用本地HTTP服务模拟两个OpenAI兼容的提供商（openai 和 doubao），验证故障切换、对冲请求、
+ * 熔断（包括半开状态下并发请求只放行一个探测请求）和按延迟选择提供商
+ */
+public class AiProviderRouterTest {
+
+    private StubProvider openai;
+    private StubProvider doubao;
+    private AiConfig aiConfig;
+    private AiModelRegistry registry;
+    private AiProviderRouter router;
+    private AiTelemetry telemetry;
+
+    private final List<ChatMessage> messages = Collections.singletonList(UserMessage.from("押金怎么退？"));
+
+    @BeforeEach
+    void setUp() throws IOException {
+        openai = new StubProvider("来自openai的回复");
+        doubao = new StubProvider("来自豆包的回复");
+
+        aiConfig = new AiConfig();
+        aiConfig.setProvider("openai");
+        aiConfig.getOpenai().setApiKey("test-key");
+        aiConfig.getOpenai().setBaseUrl(openai.baseUrl());
+        aiConfig.getDoubao().setApiKey("test-key");
+        aiConfig.getDoubao().setBaseUrl(doubao.baseUrl());
+        aiConfig.getDoubao().setModel("gpt-3.5-turbo");
+
+        AiConfig.RoutingConfig routing = aiConfig.getRouting();
+        routing.setProviders(Arrays.asList("openai", "doubao"));
+        routing.setMaxRetries(0);
+        routing.setHedgeMinDelayMs(50L);
+        routing.setHedgeMaxDelayMs(200L);
+        routing.setFailureThreshold(2);
+        routing.setOpenDurationMs(60000L);
+        routing.setRequestTimeoutMs(5000L);
+
+        AiModelFactory factory = new AiModelFactory();
+        ReflectionTestUtils.setField(factory, "aiConfig", aiConfig);
+        registry = new AiModelRegistry();
+        ReflectionTestUtils.setField(registry, "aiConfig", aiConfig);
+        ReflectionTestUtils.setField(registry, "aiModelFactory", factory);
+        registry.init();
+        telemetry = new AiTelemetry();
+        ReflectionTestUtils.setField(telemetry, "aiConfig", aiConfig);
+        ReflectionTestUtils.setField(telemetry, "aiModelFactory", factory);
+        ReflectionTestUtils.setField(telemetry, "meterRegistry", new SimpleMeterRegistry());
+        router = new AiProviderRouter();
+        ReflectionTestUtils.setField(router, "aiConfig", aiConfig);
+        ReflectionTestUtils.setField(router, "aiModelRegistry", registry);
+        ReflectionTestUtils.setField(router, "aiTelemetry", telemetry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.shutdown();
+        registry.shutdown();
+        openai.stop();
+        doubao.stop();
+    }
+
+    @Test
+    void testFailoverToNextProvider() {
+        openai.status = 500;
+
+        Response<AiMessage> response = router.generate(messages);
+
+        assertEquals("来自豆包的回复", response.content().text());
+        assertEquals(1, openai.hits.get());
+        assertEquals(1, doubao.hits.get());
+        System.out.println("✅ 提供商故障切换测试通过");
+    }
+
+    @Test
+    void testPreferredProviderIsTriedFirst() {
+        aiConfig.getRouting().setHedgeEnabled(false);
+
+        Response<AiMessage> response = router.generate("doubao", messages, Collections.emptyList());
+
+        assertEquals("来自豆包的回复", response.content().text());
+        assertEquals(0, openai.hits.get());
+        System.out.println("✅ 优先使用执行通道对应的提供商测试通过");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testTelemetryRecordsEachAttempt() {
+        openai.status = 500;
+
+        router.generate(messages);
+
+        Map<String, Object> report = telemetry.getReport();
+        Map<String, Object> openaiWindow = (Map<String, Object>) ((Map<String, Object>)
+                ((Map<String, Object>) report.get("openai")).get("windows")).get("1m");
+        Map<String, Object> doubaoWindow = (Map<String, Object>) ((Map<String, Object>)
+                ((Map<String, Object>) report.get("doubao")).get("windows")).get("1m");
+        assertEquals(1, openaiWindow.get("errors"));
+        assertEquals(1, doubaoWindow.get("requests"));
+        assertEquals(0, doubaoWindow.get("errors"));
+        assertEquals(1, ((Map<String, Object>) doubaoWindow.get("latencyMs")).get("count"));
+        System.out.println("✅ AI调用遥测测试通过");
+    }
+
+    @Test
+    void testHedgedRequestToSecondProvider() {
+        openai.delayMs = 1500;
+
+        long start = System.currentTimeMillis();
+        Response<AiMessage> response = router.generate(messages);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("来自豆包的回复", response.content().text());
+        assertTrue(elapsed < 1200, "对冲请求应在主提供商返回前得到结果，实际耗时: " + elapsed);
+        assertEquals(1L, providerStats("doubao").get("hedges"));
+        System.out.println("✅ 对冲请求测试通过");
+    }
+
+    @Test
+    void testCancelledHedgeIsNotCountedAsFailure() throws InterruptedException {
+        aiConfig.getRouting().setFailureThreshold(1);
+        openai.status = 500;
+        openai.delayMs = 600;
+
+        Response<AiMessage> response = router.generate(messages);
+        assertEquals("来自豆包的回复", response.content().text());
+
+        // 等待被放弃的主提供商请求结束
+        Thread.sleep(1000);
+        assertEquals(0L, providerStats("openai").get("failures"));
+        assertEquals("closed", providerStats("openai").get("state"));
+        System.out.println("✅ 被取消的对冲请求不计入失败测试通过");
+    }
+
+    @Test
+    void testCircuitBreakerSkipsFailingProvider() {
+        openai.status = 500;
+
+        router.generate(messages);
+        router.generate(messages);
+        assertEquals("open", providerStats("openai").get("state"));
+
+        router.generate(messages);
+        assertEquals(2, openai.hits.get(), "熔断后不应再请求失败的提供商");
+        assertEquals(3, doubao.hits.get());
+        System.out.println("✅ 提供商熔断测试通过");
+    }
+
+    @Test
+    void testHalfOpenBreakerAdmitsSingleProbe() throws Exception {
+        AiConfig.RoutingConfig routing = aiConfig.getRouting();
+        routing.setHedgeEnabled(false);
+        routing.setFailureThreshold(1);
+        routing.setOpenDurationMs(200L);
+        openai.status = 500;
+        router.generate(messages);
+        assertEquals("open", providerStats("openai").get("state"));
+
+        // 熔断到期后探测请求较慢，期间并发到达的请求都应切换到其他提供商
+        openai.status = 200;
+        openai.delayMs = 500;
+        Thread.sleep(300);
+        int concurrency = 8;
+        ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Response<AiMessage>>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                results.add(callers.submit(() -> {
+                    go.await();
+                    return router.generate(messages);
+                }));
+            }
+            go.countDown();
+            for (Future<Response<AiMessage>> result : results) {
+                assertNotNull(result.get(10, TimeUnit.SECONDS).content().text());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(2, openai.hits.get(), "半开状态只应放行一个探测请求");
+        // 熔断前的失败切换一次，加上未获得探测机会的请求
+        assertEquals(concurrency, doubao.hits.get());
+        assertEquals("closed", providerStats("openai").get("state"));
+        System.out.println("✅ 半开熔断器只放行一个探测请求测试通过");
+    }
+
+    @Test
+    void testRoutesToFastestProvider() {
+        aiConfig.getRouting().setHedgeEnabled(false);
+        openai.delayMs = 300;
+
+        router.generate(messages);
+        router.generate(messages);
+
+        assertEquals("doubao", router.primaryProvider());
+        Response<AiMessage> response = router.generate(messages);
+        assertEquals("来自豆包的回复", response.content().text());
+        assertEquals(1, openai.hits.get());
+        System.out.println("✅ 按延迟选择提供商测试通过");
+    }
+
+    @Test
+    void testStreamingFailoverBeforeFirstToken() throws InterruptedException {
+        openai.status = 500;
+
+        CountDownLatch done = new CountDownLatch(1);
+        StringBuilder content = new StringBuilder();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        router.generateStream(messages, new StreamingResponseHandler<AiMessage>() {
+            @Override
+            public void onNext(String token) {
+                content.append(token);
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                failure.set(error);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertEquals("来自豆包的回复", content.toString());
+        System.out.println("✅ 流式请求故障切换测试通过");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCancelledStreamStopsUpstream() throws InterruptedException {
+        openai.chunkDelayMs = 50;
+        openai.chunkRepeat = 40;
+
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicInteger tokens = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        router.generateStream(messages, new StreamingResponseHandler<AiMessage>() {
+            @Override
+            public void onNext(String token) {
+                if (tokens.incrementAndGet() == 3) {
+                    // 与客户端断开后 AiStream.checkCancelled 的行为一致
+                    throw new AiStreamRegistry.CancelledException("客户端已断开");
+                }
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                fail("取消后不应完成");
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                assertTrue(AiStreamRegistry.isCancellation(error));
+                errors.incrementAndGet();
+                cancelled.countDown();
+            }
+        });
+
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertTrue(openai.aborted.await(5, TimeUnit.SECONDS), "上游连接应被关闭");
+        assertTrue(openai.chunksSent.get() < 40, "上游不应继续发送: " + openai.chunksSent.get());
+        assertEquals(3, tokens.get(), "取消后不应再收到token");
+        assertEquals(1, errors.get());
+
+        Map<String, Object> window = (Map<String, Object>) ((Map<String, Object>)
+                ((Map<String, Object>) telemetry.getReport().get("openai")).get("windows")).get("1m");
+        assertEquals(1, window.get("errors"), "一次取消只记录一次");
+        assertEquals("closed", providerStats("openai").get("state"));
+        System.out.println("✅ 取消流式回复中止上游请求测试通过");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> providerStats(String provider) {
+        return (Map<String, Object>) router.getStats().get(provider);
+    }
+
+    /**
+     * OpenAI兼容的本地模拟提供商
+     */
+    private static class StubProvider {
+        private final HttpServer server;
+        private final String reply;
+        final AtomicInteger hits = new AtomicInteger();
+        volatile int status = 200;
+        volatile long delayMs = 0;
+        // 大于0时流式响应逐个分块发送，模拟较长的回复
+        volatile long chunkDelayMs = 0;
+        volatile int chunkRepeat = 1;
+        final AtomicInteger chunksSent = new AtomicInteger();
+        // 客户端关闭连接后写入失败
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        StubProvider(String reply) throws IOException {
+            this.reply = reply;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", exchange -> {
+                hits.incrementAndGet();
+                String request = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body;
+                if (status != 200) {
+                    body = "{\"error\":{\"message\":\"stub failure\",\"type\":\"server_error\"}}".getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(status, body.length);
+                } else if (request.contains("\"stream\":true") && chunkDelayMs > 0) {
+                    exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        for (int i = 0; i < chunkRepeat; i++) {
+                            out.write(chunk(reply).getBytes(StandardCharsets.UTF_8));
+                            out.flush();
+                            chunksSent.incrementAndGet();
+                            Thread.sleep(chunkDelayMs);
+                        }
+                        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        aborted.countDown();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                } else if (request.contains("\"stream\":true")) {
+                    body = streamBody().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                    exchange.sendResponseHeaders(200, body.length);
+                } else {
+                    body = completionBody().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        String baseUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/";
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private String completionBody() {
+            return "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1,\"model\":\"gpt-3.5-turbo\","
+                    + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + reply + "\"},"
+                    + "\"finish_reason\":\"stop\"}],"
+                    + "\"usage\":{\"prompt_tokens\":10,\"completion_tokens\":5,\"total_tokens\":15}}";
+        }
+
+        private String streamBody() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < reply.length(); i += 2) {
+                sb.append(chunk(reply.substring(i, Math.min(reply.length(), i + 2))));
+            }
+            sb.append("data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1,")
+                    .append("\"model\":\"gpt-3.5-turbo\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n");
+            sb.append("data: [DONE]\n\n");
+            return sb.toString();
+        }
+
+        private static String chunk(String piece) {
+            return "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1,"
+                    + "\"model\":\"gpt-3.5-turbo\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\""
+                    + piece + "\"},\"finish_reason\":null}]}\n\n";
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.mapper.AiMessageMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * AI接口限流测试
+ * 验证按用户和IP的令牌桶突发上限，以及每日token配额
+ */
+public class AiRateLimiterTest {
+
+    private AiConfig aiConfig;
+    private AiMessageMapper aiMessageMapper;
+    private AiRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        aiConfig = new AiConfig();
+        AiConfig.RateLimitConfig config = aiConfig.getRateLimit();
+        config.setUserCapacity(3);
+        config.setUserRefillPerMinute(0.0);
+        config.setIpCapacity(5);
+        config.setIpRefillPerMinute(0.0);
+        config.setDailyTokenQuota(1000L);
+
+        aiMessageMapper = mock(AiMessageMapper.class);
+        when(aiMessageMapper.sumTokensByUserSince(any(), any(LocalDateTime.class))).thenReturn(0L);
+
+        limiter = new AiRateLimiter();
+        ReflectionTestUtils.setField(limiter, "aiConfig", aiConfig);
+        ReflectionTestUtils.setField(limiter, "aiMessageMapper", aiMessageMapper);
+    }
+
+    @Test
+    void testUserBurstLimit() {
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire(1L, "10.0.0.1");
+        }
+        AiRateLimiter.RateLimitedException e = assertThrows(AiRateLimiter.RateLimitedException.class,
+                () -> limiter.acquire(1L, "10.0.0.1"));
+        assertTrue(e.getRetryAfterSeconds() >= 1);
+
+        // 其他用户不受影响
+        limiter.acquire(2L, "10.0.0.1");
+        System.out.println("✅ 用户令牌桶限流测试通过");
+    }
+
+    @Test
+    void testIpLimitAcrossUsers() {
+        for (long userId = 1; userId <= 5; userId++) {
+            limiter.acquire(userId, "10.0.0.2");
+        }
+        assertThrows(AiRateLimiter.RateLimitedException.class, () -> limiter.acquire(6L, "10.0.0.2"));
+        // IP被限流时不消耗用户的令牌
+        limiter.acquire(6L, "10.0.0.3");
+        System.out.println("✅ IP令牌桶限流测试通过");
+    }
+
+    @Test
+    void testDailyTokenQuota() {
+        when(aiMessageMapper.sumTokensByUserSince(eq(7L), any(LocalDateTime.class))).thenReturn(900L);
+        limiter.acquire(7L, null);
+        limiter.recordUsage(7L, 150);
+        assertEquals(1050L, limiter.getUsedTokens(7L));
+        assertThrows(AiRateLimiter.RateLimitedException.class, () -> limiter.acquire(7L, null));
+        verify(aiMessageMapper, times(1)).sumTokensByUserSince(eq(7L), any(LocalDateTime.class));
+        System.out.println("✅ 每日token配额测试通过");
+    }
+
+    @Test
+    void testDisabled() {
+        aiConfig.getRateLimit().setEnabled(false);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(1L, "10.0.0.1");
+        }
+        System.out.println("✅ 关闭限流测试通过");
+    }
+}
@@ -0,0 +1,85 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI请求执行器测试
+ * 验证后台请求只在没有用户请求排队时调度，且不会占满并发许可
+ */
+public class AiRequestExecutorTest {
+
+    private AiConfig aiConfig;
+    private AiRequestExecutor executor;
+    private final List<String> started = new ArrayList<>();
+    private final List<AiRequestExecutor.Ticket> tickets = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        aiConfig = new AiConfig();
+        aiConfig.getExecutor().setMaxConcurrentPerProvider(1);
+        executor = new AiRequestExecutor();
+        ReflectionTestUtils.setField(executor, "aiConfig", aiConfig);
+        ReflectionTestUtils.setField(executor, "workerPool", (Executor) Runnable::run);
+    }
+
+    @Test
+    void testBackgroundRunsAfterQueuedUsers() {
+        executor.submit("openai", 1L, task("user1"));
+        executor.submitBackground("openai", task("title"));
+        executor.submit("openai", 2L, task("user2"));
+
+        tickets.get(0).release();
+        tickets.get(1).release();
+
+        assertEquals(3, started.size());
+        assertEquals("user2", started.get(1), "用户请求应先于排队在前的后台请求调度");
+        assertEquals("title", started.get(2));
+        System.out.println("✅ 后台请求低优先级调度测试通过");
+    }
+
+    @Test
+    void testBackgroundLeavesSlotsForUsers() {
+        aiConfig.getExecutor().setMaxConcurrentPerProvider(4);
+        aiConfig.getTitle().setMaxUtilization(0.5);
+        executor.submitBackground("openai", task("title1"));
+        executor.submitBackground("openai", task("title2"));
+        executor.submitBackground("openai", task("summary"));
+        executor.submit("openai", 1L, task("user1"));
+        executor.submit("openai", 2L, task("user2"));
+
+        assertEquals(4, started.size());
+        assertFalse(started.contains("summary"), "后台请求最多占用一半的并发许可");
+        assertTrue(started.contains("user2"));
+
+        // 用户请求结束后后台请求仍然受上限约束，后台请求结束后才调度下一个
+        tickets.get(started.indexOf("user1")).release();
+        assertFalse(started.contains("summary"));
+        tickets.get(started.indexOf("title1")).release();
+        assertEquals("summary", started.get(started.size() - 1));
+        System.out.println("✅ 后台请求并发上限测试通过");
+    }
+
+    private AiRequestExecutor.AiTask task(String name) {
+        return new AiRequestExecutor.AiTask() {
+            @Override
+            public void run(AiRequestExecutor.Ticket ticket) {
+                started.add(name);
+                tickets.add(ticket);
+            }
+
+            @Override
+            public void rejected(AiRequestExecutor.RejectedException reason) {
+                fail("请求不应被拒绝: " + name);
+            }
+        };
+    }
+}
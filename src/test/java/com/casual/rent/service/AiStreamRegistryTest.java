@@ -0,0 +1,117 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AI流式回复注册表测试
+ * 验证同一会话的并发请求排队或拒绝，以及相同客户端消息ID的重试接到原回复并重放已发送的事件
+ */
+public class AiStreamRegistryTest {
+
+    private AiConfig aiConfig;
+    private AiStreamRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        aiConfig = new AiConfig();
+        registry = new AiStreamRegistry();
+        ReflectionTestUtils.setField(registry, "aiConfig", aiConfig);
+    }
+
+    @Test
+    void testRetryJoinsInFlightStream() {
+        RecordingEmitter first = new RecordingEmitter();
+        AiStreamRegistry.AiStream stream = registry.open(first, 1L, "s1", "m1");
+        SseEmitter.SseEventBuilder start = SseEmitter.event().name("ai_start").data("{}");
+        stream.send(start);
+
+        RecordingEmitter retry = new RecordingEmitter();
+        assertNull(registry.open(retry, 1L, "s1", "m1"), "相同客户端消息ID的重试应接到原回复");
+        assertEquals(1, retry.events.size(), "重试连接应先收到已发送的事件");
+        assertSame(start, retry.events.get(0));
+
+        stream.send(SseEmitter.event().name("ai_token").data("{}"));
+        stream.complete();
+        assertEquals(2, first.events.size());
+        assertEquals(2, retry.events.size());
+        assertTrue(first.completed && retry.completed);
+        System.out.println("✅ 重试接到进行中的回复测试通过");
+    }
+
+    @Test
+    void testRetryReplaysCompletedStream() {
+        AiStreamRegistry.AiStream stream = registry.open(new RecordingEmitter(), 1L, "s1", "m1");
+        stream.send(SseEmitter.event().name("ai_token").data("{}"));
+        stream.send(SseEmitter.event().name("ai_complete").data("{}"));
+        stream.complete();
+
+        RecordingEmitter retry = new RecordingEmitter();
+        assertNull(registry.open(retry, 1L, "s1", "m1"));
+        assertEquals(2, retry.events.size());
+        assertTrue(retry.completed);
+        System.out.println("✅ 重试重放已完成的回复测试通过");
+    }
+
+    @Test
+    void testSecondRequestQueuesBehindRunningReply() {
+        AiStreamRegistry.AiStream first = registry.open(new RecordingEmitter(), 1L, "s1", "m1");
+        AtomicBoolean firstStarted = new AtomicBoolean(false);
+        first.start(() -> firstStarted.set(true));
+        assertTrue(firstStarted.get());
+
+        AiStreamRegistry.AiStream second = registry.open(new RecordingEmitter(), 1L, "s1", "m2");
+        AtomicBoolean secondStarted = new AtomicBoolean(false);
+        second.start(() -> secondStarted.set(true));
+        assertFalse(secondStarted.get(), "前一个回复结束前不应开始生成");
+
+        assertThrows(AiStreamRegistry.SessionBusyException.class,
+                () -> registry.open(new RecordingEmitter(), 1L, "s1", "m3"), "排队已满时应拒绝");
+
+        first.complete();
+        assertTrue(secondStarted.get());
+        System.out.println("✅ 同一会话请求排队测试通过");
+    }
+
+    @Test
+    void testRejectModeRejectsConcurrentRequest() {
+        aiConfig.getStream().setSessionConcurrency(AiStreamRegistry.MODE_REJECT);
+        AiStreamRegistry.AiStream first = registry.open(new RecordingEmitter(), 1L, "s1", "m1");
+
+        assertThrows(AiStreamRegistry.SessionBusyException.class,
+                () -> registry.open(new RecordingEmitter(), 1L, "s1", "m2"));
+        // 其他会话不受影响
+        assertNotNull(registry.open(new RecordingEmitter(), 1L, "s2", "m2"));
+
+        first.complete();
+        assertNotNull(registry.open(new RecordingEmitter(), 1L, "s1", "m3"));
+        System.out.println("✅ 同一会话并发请求拒绝测试通过");
+    }
+
+    /**
+     * 记录发送事件的SSE连接（不依赖Servlet容器）
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        final List<SseEventBuilder> events = new ArrayList<>();
+        volatile boolean completed = false;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            events.add(builder);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+}
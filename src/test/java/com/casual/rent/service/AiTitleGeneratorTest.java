@@ -0,0 +1,99 @@
+package com.casual.rent.service;
+
+import com.casual.rent.config.AiConfig;
+import com.casual.rent.entity.AiChat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 会话标题生成测试
+ * 验证模型输出的解析、待生成队列上限、主提供商繁忙时推迟生成，以及未配置标题提供商时不生成
+ */
+public class AiTitleGeneratorTest {
+
+    private AiConfig aiConfig;
+    private AiRequestExecutor aiRequestExecutor;
+    private AiTitleGenerator generator;
+
+    @BeforeEach
+    void setUp() {
+        aiConfig = new AiConfig();
+        aiConfig.getTitle().setMaxPending(2);
+        aiConfig.getTitle().setProvider("doubao");
+
+        aiRequestExecutor = mock(AiRequestExecutor.class);
+        AiProviderRouter aiProviderRouter = mock(AiProviderRouter.class);
+        when(aiProviderRouter.primaryProvider()).thenReturn("openai");
+
+        generator = new AiTitleGenerator();
+        ReflectionTestUtils.setField(generator, "aiConfig", aiConfig);
+        ReflectionTestUtils.setField(generator, "aiRequestExecutor", aiRequestExecutor);
+        ReflectionTestUtils.setField(generator, "aiProviderRouter", aiProviderRouter);
+    }
+
+    @Test
+    void testParseNumberedTitles() {
+        Map<Integer, String> titles = AiTitleGenerator.parse(
+                "1. 押金退还时间\n2、《相机租赁价格》\n说明文字\n3：订单取消怎么操作？", 6);
+        assertEquals("押金退还时间", titles.get(1));
+        assertEquals("相机租赁价格", titles.get(2));
+        assertEquals("订单取消怎么", titles.get(3), "超长标题应截断");
+        assertEquals(3, titles.size());
+        System.out.println("✅ 标题解析测试通过");
+    }
+
+    @Test
+    void testPendingQueueIsBounded() {
+        generator.enqueue(chat(1L, AiTitleGenerator.DEFAULT_TITLE), "问题1", "回答1");
+        generator.enqueue(chat(2L, AiTitleGenerator.DEFAULT_TITLE), "问题2", "回答2");
+        generator.enqueue(chat(3L, AiTitleGenerator.DEFAULT_TITLE), "问题3", "回答3");
+        // 已有标题的会话不再生成
+        generator.enqueue(chat(4L, "自定义标题"), "问题4", "回答4");
+
+        Map<String, Object> stats = generator.getStats();
+        assertEquals(2, stats.get("pending"));
+        assertEquals(1L, stats.get("dropped"));
+        System.out.println("✅ 待生成队列上限测试通过");
+    }
+
+    @Test
+    void testBatchDeferredWhenProviderBusy() {
+        when(aiRequestExecutor.hasSpareCapacity(anyString(), anyDouble())).thenReturn(false);
+        generator.enqueue(chat(1L, AiTitleGenerator.DEFAULT_TITLE), "押金怎么退？", "归还验收后原路退回。");
+
+        generator.generateBatch();
+
+        verify(aiRequestExecutor, never()).submitBackground(anyString(), any());
+        assertEquals(1, generator.getStats().get("pending"));
+        assertEquals(1L, generator.getStats().get("deferred"));
+        System.out.println("✅ 主提供商繁忙时推迟生成测试通过");
+    }
+
+    @Test
+    void testDisabledWithoutTitleProvider() {
+        aiConfig.getTitle().setProvider("");
+        generator.enqueue(chat(1L, AiTitleGenerator.DEFAULT_TITLE), "押金怎么退？", "归还验收后原路退回。");
+
+        generator.generateBatch();
+
+        assertEquals(0, generator.getStats().get("pending"), "未配置标题提供商时不应登记");
+        assertNull(generator.getStats().get("provider"));
+        verify(aiRequestExecutor, never()).submitBackground(anyString(), any());
+        System.out.println("✅ 未配置标题提供商时不生成标题测试通过");
+    }
+
+    private static AiChat chat(Long id, String title) {
+        AiChat chat = new AiChat(1L, "s" + id, title);
+        chat.setId(id);
+        return chat;
+    }
+}
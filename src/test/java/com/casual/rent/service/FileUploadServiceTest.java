@@ -0,0 +1,280 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.casual.rent.config.TencentCosConfig;
+import com.casual.rent.entity.Merchant;
+import com.casual.rent.entity.Order;
+import com.casual.rent.entity.Product;
+import com.casual.rent.entity.User;
+import com.casual.rent.mapper.MerchantMapper;
+import com.casual.rent.mapper.OrderMapper;
+import com.casual.rent.mapper.ProductMapper;
+import com.casual.rent.mapper.UserMapper;
+import com.qcloud.cos.COSClient;
+import com.qcloud.cos.model.COSObjectSummary;
+import com.qcloud.cos.model.GeneratePresignedUrlRequest;
+import com.qcloud.cos.model.ListObjectsRequest;
+import com.qcloud.cos.model.ObjectListing;
+import com.qcloud.cos.model.ObjectMetadata;
+import com.qcloud.cos.model.PutObjectRequest;
+import com.qcloud.cos.model.PutObjectResult;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * 文件上传去重测试
+ * 验证按内容哈希生成对象key、相同内容跳过上传、共享对象不会被删除、定期清理未被引用的对象、
+ * 直传凭证的校验，以及批量上传超时后完成的对象会被删除
+ */
+public class FileUploadServiceTest {
+
+    private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    private COSClient cosClient;
+    private ImageDerivativeService imageDerivativeService;
+    private ProductMapper productMapper;
+    private OrderMapper orderMapper;
+    private UserMapper userMapper;
+    private MerchantMapper merchantMapper;
+    private FileUploadService service;
+
+    @BeforeAll
+    static void initTableInfo() {
+        // 构造 Lambda 条件需要实体的表信息
+        MapperBuilderAssistant assistant = new MapperBuilderAssistant(new MybatisConfiguration(), "");
+        TableInfoHelper.initTableInfo(assistant, Product.class);
+        TableInfoHelper.initTableInfo(assistant, Order.class);
+        TableInfoHelper.initTableInfo(assistant, User.class);
+        TableInfoHelper.initTableInfo(assistant, Merchant.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        TencentCosConfig cosConfig = new TencentCosConfig();
+        cosConfig.setBucketName("bucket");
+        cosConfig.setDomain("https://cdn.example.com");
+        cosConfig.setSecretKey("secret");
+        cosConfig.getUpload().setDedupEnabled(true);
+        cosClient = mock(COSClient.class);
+        when(cosClient.putObject(any(PutObjectRequest.class))).thenReturn(new PutObjectResult());
+        imageDerivativeService = mock(ImageDerivativeService.class);
+        productMapper = mock(ProductMapper.class);
+        orderMapper = mock(OrderMapper.class);
+        userMapper = mock(UserMapper.class);
+        merchantMapper = mock(MerchantMapper.class);
+
+        service = new FileUploadService();
+        ReflectionTestUtils.setField(service, "cosClient", cosClient);
+        ReflectionTestUtils.setField(service, "cosConfig", cosConfig);
+        ReflectionTestUtils.setField(service, "imageDerivativeService", imageDerivativeService);
+        ReflectionTestUtils.setField(service, "productMapper", productMapper);
+        ReflectionTestUtils.setField(service, "orderMapper", orderMapper);
+        ReflectionTestUtils.setField(service, "userMapper", userMapper);
+        ReflectionTestUtils.setField(service, "merchantMapper", merchantMapper);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void testSha256IsComputedByStreaming() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "a.jpg", "image/jpeg",
+                "hello".getBytes(StandardCharsets.UTF_8));
+        assertEquals(HELLO_SHA256, FileUploadService.sha256(file));
+        System.out.println("✅ 内容哈希计算测试通过");
+    }
+
+    @Test
+    void testSameContentUploadedOnce() {
+        MockMultipartFile file = new MockMultipartFile("file", "a.JPG", "image/jpeg",
+                "hello".getBytes(StandardCharsets.UTF_8));
+        when(cosClient.doesObjectExist(anyString(), anyString())).thenReturn(false);
+
+        String first = service.uploadFile(file, "products");
+        String second = service.uploadFile(file, "products");
+
+        assertEquals("https://cdn.example.com/products/" + HELLO_SHA256 + ".jpg", first);
+        assertEquals(first, second);
+        verify(cosClient, times(1)).putObject(any(PutObjectRequest.class));
+        verify(imageDerivativeService, times(1)).submit("products/" + HELLO_SHA256 + ".jpg");
+        // 复用已有原图时检查变体是否存在
+        verify(imageDerivativeService, times(1)).ensureVariants("products/" + HELLO_SHA256 + ".jpg");
+        assertEquals(1L, service.getStats().get("dedupHits"));
+        System.out.println("✅ 相同内容只上传一次测试通过");
+    }
+
+    @Test
+    void testExistingRemoteObjectSkipsUpload() {
+        MockMultipartFile file = new MockMultipartFile("file", "licence.pdf", "application/pdf",
+                "hello".getBytes(StandardCharsets.UTF_8));
+        when(cosClient.doesObjectExist("bucket", "certificates/" + HELLO_SHA256 + ".pdf")).thenReturn(true);
+
+        service.uploadFile(file, "certificates");
+
+        verify(cosClient, never()).putObject(any(PutObjectRequest.class));
+        assertEquals(1L, service.getStats().get("dedupRemoteHits"));
+        System.out.println("✅ 对象存储中已有相同内容时跳过上传测试通过");
+    }
+
+    @Test
+    void testGeneralFolderIsNotDeduplicated() {
+        MockMultipartFile file = new MockMultipartFile("file", "a.jpg", "image/jpeg",
+                "hello".getBytes(StandardCharsets.UTF_8));
+
+        String url = service.uploadFile(file, "general");
+
+        assertFalse(url.contains(HELLO_SHA256), "没有引用检查的文件夹不应按内容生成key");
+        System.out.println("✅ 通用文件夹不去重测试通过");
+    }
+
+    @Test
+    void testSweepDeletesOnlyOldUnreferencedObjects() {
+        long now = System.currentTimeMillis();
+        String old = "products/" + HELLO_SHA256 + ".jpg";
+        String recent = "products/" + HELLO_SHA256.replace('2', '3') + ".jpg";
+        String referenced = "products/" + HELLO_SHA256.replace('2', '4') + ".jpg";
+        ObjectListing products = listing(
+                summary(old, now - TimeUnit.DAYS.toMillis(3)),
+                summary(recent, now - TimeUnit.HOURS.toMillis(1)),
+                summary(referenced, now - TimeUnit.DAYS.toMillis(3)),
+                summary("products/" + HELLO_SHA256 + "_thumb.jpg", now - TimeUnit.DAYS.toMillis(3)));
+        when(cosClient.listObjects(any(ListObjectsRequest.class))).thenAnswer(invocation ->
+                "products/".equals(((ListObjectsRequest) invocation.getArgument(0)).getPrefix())
+                        ? products : listing());
+        when(productMapper.selectCount(any())).thenReturn(0L, 1L);
+        when(orderMapper.selectCount(any())).thenReturn(0L);
+
+        service.sweepUnreferencedObjects();
+
+        verify(cosClient).deleteObject("bucket", old);
+        verify(imageDerivativeService).deleteVariants(old);
+        verify(cosClient, never()).deleteObject("bucket", recent);
+        verify(cosClient, never()).deleteObject("bucket", referenced);
+        verify(cosClient, never()).deleteObject("bucket", "products/" + HELLO_SHA256 + "_thumb.jpg");
+        assertEquals(1L, service.getStats().get("sweptObjects"));
+        System.out.println("✅ 清理未被引用的对象测试通过");
+    }
+
+    @Test
+    void testSweepKeepsCertificatesReferencedByUsers() {
+        long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(3);
+        String idCard = "certificates/" + HELLO_SHA256 + ".jpg";
+        String failed = "certificates/" + HELLO_SHA256.replace('2', '3') + ".jpg";
+        ObjectListing certificates = listing(summary(idCard, old), summary(failed, old));
+        when(cosClient.listObjects(any(ListObjectsRequest.class))).thenAnswer(invocation ->
+                "certificates/".equals(((ListObjectsRequest) invocation.getArgument(0)).getPrefix())
+                        ? certificates : listing());
+        when(merchantMapper.selectCount(any())).thenReturn(0L);
+        // 第一个对象只被用户实名认证的身份证引用，第二个对象检查引用时查询失败
+        when(userMapper.selectCount(any())).thenReturn(1L).thenThrow(new RuntimeException("数据库不可用"));
+
+        service.sweepUnreferencedObjects();
+
+        verify(cosClient, never()).deleteObject(anyString(), anyString());
+        assertEquals(0L, service.getStats().get("sweptObjects"));
+        System.out.println("✅ 用户证件和引用检查失败的对象不被清理测试通过");
+    }
+
+    @Test
+    void testTimedOutUploadIsDeletedWhenItFinishes() throws Exception {
+        TencentCosConfig cosConfig = (TencentCosConfig) ReflectionTestUtils.getField(service, "cosConfig");
+        cosConfig.getUpload().setBatchTimeoutSeconds(0L);
+        when(cosClient.putObject(any(PutObjectRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(300);
+            return new PutObjectResult();
+        });
+        MockMultipartFile file = new MockMultipartFile("file", "a.jpg", "image/jpeg",
+                "hello".getBytes(StandardCharsets.UTF_8));
+
+        List<FileUploadService.UploadResult> results =
+                service.uploadFilesPartially(new MockMultipartFile[]{file}, "general");
+
+        assertFalse(results.get(0).isSuccess());
+        // SDK不响应中断，上传完成后由上传线程删除，不留下孤立对象
+        verify(cosClient, timeout(2000)).deleteObject(eq("bucket"), startsWith("general/"));
+        assertEquals(1L, service.getStats().get("lateUploadsDeleted"));
+        System.out.println("✅ 超时上传完成后清理测试通过");
+    }
+
+    private static ObjectListing listing(COSObjectSummary... summaries) {
+        ObjectListing listing = new ObjectListing();
+        for (COSObjectSummary summary : summaries) {
+            listing.getObjectSummaries().add(summary);
+        }
+        return listing;
+    }
+
+    private static COSObjectSummary summary(String key, long lastModified) {
+        COSObjectSummary summary = new COSObjectSummary();
+        summary.setKey(key);
+        summary.setLastModified(new Date(lastModified));
+        return summary;
+    }
+
+    @Test
+    void testPresignTicketIsVerifiedWithoutLocalState() throws Exception {
+        when(cosClient.generatePresignedUrl(any(GeneratePresignedUrlRequest.class)))
+                .thenReturn(new URL("https://bucket.cos.example.com/upload"));
+        Map<String, Object> presign = service.createPresignedUpload("avatars", "me.png", "image/png", 5,
+                new String[]{"image/"}, 1024);
+        String key = presign.get("key").toString();
+        String ticket = presign.get("ticket").toString();
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(5);
+        metadata.setContentType("image/png");
+        when(cosClient.getObjectMetadata("bucket", "uploads/pending/" + key)).thenReturn(metadata);
+
+        // 凭证被篡改时拒绝
+        String forged = ticket.substring(0, ticket.indexOf('.')) + ".AAAA";
+        assertThrows(RuntimeException.class, () -> service.completePresignedUpload(forged));
+
+        // 换一个服务实例（模拟其他节点或重启后）确认
+        FileUploadService other = new FileUploadService();
+        ReflectionTestUtils.setField(other, "cosClient", cosClient);
+        ReflectionTestUtils.setField(other, "cosConfig", ReflectionTestUtils.getField(service, "cosConfig"));
+        ReflectionTestUtils.setField(other, "imageDerivativeService", imageDerivativeService);
+        other.init();
+        try {
+            assertEquals("https://cdn.example.com/" + key, other.completePresignedUpload(ticket));
+        } finally {
+            other.shutdown();
+        }
+        verify(cosClient).copyObject("bucket", "uploads/pending/" + key, "bucket", key);
+        verify(cosClient).deleteObject("bucket", "uploads/pending/" + key);
+        System.out.println("✅ 直传凭证校验测试通过");
+    }
+
+    @Test
+    void testSharedObjectIsNotDeleted() {
+        service.deleteFile("https://cdn.example.com/products/" + HELLO_SHA256 + ".jpg");
+        verify(cosClient, never()).deleteObject(anyString(), anyString());
+
+        service.deleteFile("https://cdn.example.com/products/2024/01/01/0123abcd.jpg");
+        verify(cosClient).deleteObject(eq("bucket"), eq("products/2024/01/01/0123abcd.jpg"));
+        System.out.println("✅ 共享对象不删除测试通过");
+    }
+}
@@ -0,0 +1,129 @@
+package com.casual.rent.service;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.casual.rent.common.ImageVariant;
+import com.casual.rent.config.TencentCosConfig;
+import com.casual.rent.entity.Product;
+import com.casual.rent.mapper.ProductMapper;
+import com.qcloud.cos.COSClient;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商品图片变体测试
+ * 验证变体key的命名、缩略图裁剪、压缩图等比缩放、JPEG编码，以及变体未生成时回退到原图
+ */
+public class ImageDerivativeServiceTest {
+
+    private static final String A = "https://cdn.example.com/products/a.jpg";
+    private static final String B = "https://cdn.example.com/products/b.png";
+    private static final String EXTERNAL = "https://other.example.com/c.jpg";
+
+    @BeforeAll
+    static void initTableInfo() {
+        // 构造 Lambda 条件需要实体的表信息
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Product.class);
+    }
+
+    @Test
+    void testVariantKeys() {
+        assertEquals("products/2024/01/01/abc_thumb.jpg", ImageVariant.THUMB.of("products/2024/01/01/abc.png"));
+        assertTrue(ImageVariant.isSupported("https://cdn.example.com/products/a.JPG"));
+        assertFalse(ImageVariant.isSupported("certificates/a.pdf"));
+        assertFalse(ImageVariant.isSupported("products/v1.0/noext"));
+        System.out.println("✅ 变体key命名测试通过");
+    }
+
+    @Test
+    void testThumbIsCroppedToFixedSize() {
+        BufferedImage source = new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage thumb = ImageDerivativeService.resize(source, ImageVariant.THUMB);
+        assertEquals(ImageVariant.THUMB.getWidth(), thumb.getWidth());
+        assertEquals(ImageVariant.THUMB.getHeight(), thumb.getHeight());
+        System.out.println("✅ 缩略图裁剪测试通过");
+    }
+
+    @Test
+    void testMediumKeepsAspectRatioWithoutUpscaling() {
+        BufferedImage large = new BufferedImage(3000, 1500, BufferedImage.TYPE_INT_RGB);
+        BufferedImage medium = ImageDerivativeService.resize(large, ImageVariant.MEDIUM);
+        assertEquals(1080, medium.getWidth());
+        assertEquals(540, medium.getHeight());
+
+        BufferedImage small = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        BufferedImage unchanged = ImageDerivativeService.resize(small, ImageVariant.MEDIUM);
+        assertEquals(300, unchanged.getWidth());
+        assertEquals(200, unchanged.getHeight());
+        System.out.println("✅ 压缩图等比缩放测试通过");
+    }
+
+    @Test
+    void testEncodeJpeg() throws Exception {
+        BufferedImage image = ImageDerivativeService.resize(
+                new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB), ImageVariant.THUMB);
+        byte[] jpeg = ImageDerivativeService.encodeJpeg(image, 0.8f);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(decoded);
+        assertEquals(image.getWidth(), decoded.getWidth());
+        System.out.println("✅ JPEG编码测试通过");
+    }
+
+    @Test
+    void testImageVariantsFallBackToOriginal() {
+        Product product = new Product();
+        product.setImages("[\"" + A + "\",\"" + B + "\",\"" + EXTERNAL + "\"]");
+        product.setVariantImages("[\"" + A + "\"]");
+
+        List<String> thumbs = product.getImageVariants().get("thumb");
+        assertEquals(Arrays.asList("https://cdn.example.com/products/a_thumb.jpg", B, EXTERNAL), thumbs);
+        System.out.println("✅ 变体未生成时回退到原图测试通过");
+    }
+
+    @Test
+    void testBackfillRecordsReadyImagesAndRetriesMissing() {
+        TencentCosConfig cosConfig = new TencentCosConfig();
+        cosConfig.setBucketName("bucket");
+        cosConfig.setDomain("https://cdn.example.com");
+        COSClient cosClient = mock(COSClient.class);
+        ProductMapper productMapper = mock(ProductMapper.class);
+        ImageDerivativeService service = new ImageDerivativeService();
+        ReflectionTestUtils.setField(service, "cosClient", cosClient);
+        ReflectionTestUtils.setField(service, "cosConfig", cosConfig);
+        ReflectionTestUtils.setField(service, "productMapper", productMapper);
+        service.init();
+        try {
+            Product product = new Product();
+            product.setId(1L);
+            product.setImages("[\"" + A + "\",\"" + B + "\",\"" + EXTERNAL + "\"]");
+            when(productMapper.selectList(any())).thenReturn(Collections.singletonList(product));
+            when(cosClient.doesObjectExist(eq("bucket"), startsWith("products/a_"))).thenReturn(true);
+
+            service.backfillProductVariants();
+
+            // a 已有变体、外部图片不生成，记录到商品上；b 缺少变体，重新提交生成
+            verify(productMapper, times(1)).update(isNull(), any());
+            assertEquals(1L, service.getStats().get("submitted"));
+            assertEquals(1, service.getStats().get("retrying"));
+            System.out.println("✅ 补生成图片变体测试通过");
+        } finally {
+            service.shutdown();
+        }
+    }
+}